@@ -43,6 +43,8 @@ import org.apache.openejb.util.Index;
 import org.apache.openejb.util.LogCategory;
 import org.apache.openejb.util.Logger;
 import org.apache.openejb.util.proxy.DynamicProxyImplFactory;
+import org.apache.openejb.util.proxy.MethodInvoker;
+import org.apache.openejb.util.proxy.MethodInvokerFactory;
 import org.apache.webbeans.component.AbstractInjectionTargetBean;
 import org.apache.webbeans.component.InjectionTargetBean;
 import org.apache.webbeans.config.WebBeansContext;
@@ -85,6 +87,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 
 @SuppressWarnings("unchecked")
@@ -169,6 +173,8 @@ public class BeanContext extends DeploymentContext {
     private final Map<Method, Method> methodMap = new HashMap<Method, Method>();
     private final Map<Method, MethodContext> methodContextMap = new HashMap<Method, MethodContext>();
     private final Map<String, ViewContext> viewContextMap = new HashMap<String, ViewContext>();
+    private final ConcurrentMap<Method, InvocationDescriptor> invocationDescriptors = new ConcurrentHashMap<Method, InvocationDescriptor>();
+    private final ConcurrentMap<Method, MethodInvoker> methodInvokers = new ConcurrentHashMap<Method, MethodInvoker>();
 
     private TransactionPolicyFactory transactionPolicyFactory;
 
@@ -583,6 +589,7 @@ public class BeanContext extends DeploymentContext {
 
     public void setContainer(final Container container) {
         this.container = container;
+        resetInvocationDescriptors();
     }
 
     public BeanType getComponentType() {
@@ -824,6 +831,7 @@ public class BeanContext extends DeploymentContext {
 
     public void setBeanManagedTransaction(final boolean value) {
         isBeanManagedTransaction = value;
+        resetInvocationDescriptors();
     }
 
     public void setBeanManagedConcurrency(final boolean beanManagedConcurrency) {
@@ -847,6 +855,39 @@ public class BeanContext extends DeploymentContext {
         return (method == null) ? interfaceMethod : method;
     }
 
+    /**
+     * Everything a container needs for a call to this interface method.
+     * Built on the first call and kept until the method metadata changes.
+     */
+    public InvocationDescriptor getInvocationDescriptor(final Method callMethod) {
+        InvocationDescriptor descriptor = invocationDescriptors.get(callMethod);
+        if (descriptor == null) {
+            // building it may add MethodContexts, which are kept in plain HashMaps
+            synchronized (invocationDescriptors) {
+                descriptor = invocationDescriptors.get(callMethod);
+                if (descriptor == null) {
+                    descriptor = new InvocationDescriptor(this, callMethod);
+                    invocationDescriptors.put(callMethod, descriptor);
+                }
+            }
+        }
+        return descriptor;
+    }
+
+    /**
+     * The invoker calling this bean method, created on the first call and
+     * kept as long as the bean is deployed.
+     */
+    public MethodInvoker getMethodInvoker(final Method beanMethod) {
+        return MethodInvokerFactory.getInvoker(methodInvokers, beanMethod);
+    }
+
+    void resetInvocationDescriptors() {
+        synchronized (invocationDescriptors) {
+            invocationDescriptors.clear();
+        }
+    }
+
     public MethodContext getMethodContext(final Method method) {
         MethodContext methodContext = methodContextMap.get(method);
         if (methodContext == null) {
@@ -945,14 +986,17 @@ public class BeanContext extends DeploymentContext {
 
     public void addSystemInterceptor(final Object interceptor) {
         systemInterceptors.add(new InterceptorInstance(interceptor));
+        resetInvocationDescriptors();
     }
 
     public void addFirstSystemInterceptor(final Object interceptor) {
         systemInterceptors.add(0, new InterceptorInstance(interceptor));
+        resetInvocationDescriptors();
     }
 
     public void addUserInterceptor(final Object interceptor) {
         userInterceptors.add(new InterceptorInstance(interceptor));
+        resetInvocationDescriptors();
     }
 
     public List<InterceptorInstance> getUserAndSystemInterceptors() {
@@ -985,6 +1029,7 @@ public class BeanContext extends DeploymentContext {
         this.cdiInterceptors.clear();
         this.cdiInterceptors.addAll(cdiInterceptors);
         this.instanceScopedInterceptors.addAll(cdiInterceptors);
+        resetInvocationDescriptors();
     }
 
     public List<InterceptorData> getMethodInterceptors(final Method method) {
@@ -1142,6 +1187,7 @@ public class BeanContext extends DeploymentContext {
 
     public void mapMethods(final Method interfaceMethod, final Method beanMethod) {
         methodMap.put(interfaceMethod, beanMethod);
+        resetInvocationDescriptors();
     }
 
     private void mapObjectInterface(final Class intrface) {
@@ -1332,6 +1378,7 @@ public class BeanContext extends DeploymentContext {
 
     public void setAccessTimeout(final Duration accessTimeout) {
         this.accessTimeout = accessTimeout;
+        resetInvocationDescriptors();
     }
 
     public Duration getStatefulTimeout() {
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb;
+
+import org.apache.openejb.core.interceptor.InterceptorData;
+import org.apache.openejb.core.transaction.TransactionType;
+import org.apache.openejb.util.Duration;
+
+import javax.ejb.LockType;
+import javax.security.jacc.EJBMethodPermission;
+import java.lang.reflect.Method;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What the containers need to know about a call to one interface method,
+ * resolved once by {@link BeanContext#getInvocationDescriptor(Method)}
+ * instead of looking each piece up in the BeanContext maps on every call.
+ * <p/>
+ * Instances are immutable.  The BeanContext drops them whenever the
+ * method metadata they were built from changes.
+ *
+ * @version $Rev$ $Date$
+ */
+public class InvocationDescriptor {
+
+    private static final int NO_INTERFACE_TYPE = InterfaceType.values().length;
+
+    private final String ejbName;
+    private final Method callMethod;
+    private final Method beanMethod;
+    private final TransactionType[] transactionTypes;
+    private final Permission[] permissions;
+    private final LockType lockType;
+    private final Duration accessTimeout;
+    private final boolean asynchronous;
+    private final List<InterceptorData> interceptors;
+
+    InvocationDescriptor(final BeanContext beanContext, final Method callMethod) {
+        this.ejbName = beanContext.getEjbName();
+        this.callMethod = callMethod;
+        this.beanMethod = beanContext.getMatchingBeanMethod(callMethod);
+
+        final InterfaceType[] interfaceTypes = InterfaceType.values();
+        this.transactionTypes = new TransactionType[interfaceTypes.length + 1];
+        for (final InterfaceType interfaceType : interfaceTypes) {
+            transactionTypes[interfaceType.ordinal()] = beanContext.getTransactionType(callMethod, interfaceType);
+        }
+        transactionTypes[NO_INTERFACE_TYPE] = beanContext.getTransactionType(callMethod, null);
+
+        this.permissions = new Permission[interfaceTypes.length + 1];
+        for (final InterfaceType interfaceType : interfaceTypes) {
+            try {
+                permissions[interfaceType.ordinal()] = permission(ejbName, interfaceType, callMethod);
+            } catch (final IllegalArgumentException e) {
+                // not a JACC method interface (Timeout, ...), built again when asked
+            }
+        }
+        permissions[NO_INTERFACE_TYPE] = permission(ejbName, null, callMethod);
+
+        this.lockType = beanContext.getConcurrencyAttribute(beanMethod);
+        this.accessTimeout = beanContext.getAccessTimeout(beanMethod);
+        this.asynchronous = beanContext.isAsynchronous(callMethod);
+        this.interceptors = Collections.unmodifiableList(new ArrayList<InterceptorData>(beanContext.getMethodInterceptors(beanMethod)));
+    }
+
+    private static Permission permission(final String ejbName, final InterfaceType interfaceType, final Method method) {
+        String name = (interfaceType == null) ? null : interfaceType.getSpecName();
+        if ("LocalBean".equals(name) || "LocalBeanHome".equals(name)) {
+            name = null;
+        }
+        return new EJBMethodPermission(ejbName, name, method);
+    }
+
+    public Method getCallMethod() {
+        return callMethod;
+    }
+
+    /**
+     * @see BeanContext#getMatchingBeanMethod(Method)
+     */
+    public Method getBeanMethod() {
+        return beanMethod;
+    }
+
+    /**
+     * @see BeanContext#getTransactionType(Method, InterfaceType)
+     */
+    public TransactionType getTransactionType(final InterfaceType interfaceType) {
+        return transactionTypes[interfaceType == null ? NO_INTERFACE_TYPE : interfaceType.ordinal()];
+    }
+
+    /**
+     * @return the permission a caller needs to call the method through this interface type,
+     * null for the no-interface view
+     */
+    public Permission getPermission(final InterfaceType interfaceType) {
+        final Permission permission = permissions[interfaceType == null ? NO_INTERFACE_TYPE : interfaceType.ordinal()];
+        if (permission != null) return permission;
+        return permission(ejbName, interfaceType, callMethod);
+    }
+
+    public LockType getLockType() {
+        return lockType;
+    }
+
+    /**
+     * @return the access timeout of the bean method or null if it has none
+     */
+    public Duration getAccessTimeout() {
+        return accessTimeout;
+    }
+
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    /**
+     * @return a read only copy of the interceptors of the bean method
+     */
+    public List<InterceptorData> getInterceptors() {
+        return interceptors;
+    }
+
+    public String toString() {
+        return "InvocationDescriptor(method=" + callMethod + ")";
+    }
+}
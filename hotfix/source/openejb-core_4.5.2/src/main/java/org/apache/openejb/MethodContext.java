@@ -49,6 +49,7 @@ public class MethodContext {
 
     public void setAccessTimeout(Duration accessTimeout) {
         this.accessTimeout = accessTimeout;
+        beanContext.resetInvocationDescriptors();
     }
 
     public Duration getAccessTimeout() {
@@ -65,11 +66,13 @@ public class MethodContext {
 
     public void addCdiInterceptor(final InterceptorData data) {
         cdiInterceptors.add(data);
+        beanContext.resetInvocationDescriptors();
     }
 
     public void setInterceptors(List<InterceptorData> interceptors) {
         this.interceptors.clear();
         this.interceptors.addAll(interceptors);
+        beanContext.resetInvocationDescriptors();
     }
 
     public List<InterceptorData> getInterceptors() {
@@ -86,6 +89,7 @@ public class MethodContext {
 
     public void setLockType(LockType lockType) {
         this.lockType = lockType;
+        beanContext.resetInvocationDescriptors();
     }
 
     public TransactionType getTransactionType() {
@@ -94,6 +98,7 @@ public class MethodContext {
 
     public void setTransactionType(TransactionType transactionType) {
         this.transactionType = transactionType;
+        beanContext.resetInvocationDescriptors();
     }
 
     public List<ScheduleData> getSchedules() {
@@ -106,6 +111,7 @@ public class MethodContext {
 
     public void setAsynchronous(boolean asynchronous) {
         this.asynchronous = asynchronous;
+        beanContext.resetInvocationDescriptors();
     }
 
     /**
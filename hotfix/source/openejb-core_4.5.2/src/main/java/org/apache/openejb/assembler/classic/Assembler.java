@@ -67,7 +67,9 @@ import org.apache.openejb.core.TransactionSynchronizationRegistryWrapper;
 import org.apache.openejb.core.WebContext;
 import org.apache.openejb.core.ivm.naming.IvmContext;
 import org.apache.openejb.core.ivm.naming.IvmJndiFactory;
+import org.apache.openejb.core.ivm.naming.LookupCache;
 import org.apache.openejb.core.security.SecurityContextHandler;
+import org.apache.openejb.core.stateful.StatefulContainer;
 import org.apache.openejb.core.timer.EjbTimerServiceImpl;
 import org.apache.openejb.core.timer.NullEjbTimerServiceImpl;
 import org.apache.openejb.core.timer.ScheduleData;
@@ -259,6 +261,10 @@ public class Assembler extends AssemblerTool implements org.apache.openejb.spi.A
 
         jndiBuilder = new JndiBuilder(containerSystem.getJNDIContext());
 
+        if (LocalMBeanServer.isJMXActive()) {
+            LookupCache.register();
+        }
+
         setConfiguration(new OpenEjbConfiguration());
 
         final ApplicationServer appServer = system.getComponent(ApplicationServer.class);
@@ -678,15 +684,23 @@ public class Assembler extends AssemblerTool implements org.apache.openejb.spi.A
             // to the class loader which must be added before any classes are loaded
             final Map<String, String> units = new HashMap<String, String>();
             final PersistenceBuilder persistenceBuilder = new PersistenceBuilder(persistenceClassLoaderHandler);
-            for (final PersistenceUnitInfo info : appInfo.persistenceUnits) {
-                final ReloadableEntityManagerFactory factory;
+            final List<ReloadableEntityManagerFactory> factories;
+            try {
+                factories = persistenceBuilder.createEntityManagerFactories(appInfo.persistenceUnits, classLoader);
+            } catch (Exception e) {
+                throw new OpenEJBException(e);
+            }
+            for (int i = 0; i < factories.size(); i++) {
+                final PersistenceUnitInfo info = appInfo.persistenceUnits.get(i);
+                final ReloadableEntityManagerFactory factory = factories.get(i);
                 try {
-                    factory = persistenceBuilder.createEntityManagerFactory(info, classLoader);
                     containerSystem.getJNDIContext().bind(PERSISTENCE_UNIT_NAMING_CONTEXT + info.id, factory);
                     units.put(info.name, PERSISTENCE_UNIT_NAMING_CONTEXT + info.id);
                 } catch (NameAlreadyBoundException e) {
+                    PersistenceBuilder.close(factories.subList(i, factories.size()));
                     throw new OpenEJBException("PersistenceUnit already deployed: " + info.persistenceUnitRootUrl);
                 } catch (Exception e) {
+                    PersistenceBuilder.close(factories.subList(i, factories.size()));
                     throw new OpenEJBException(e);
                 }
 
@@ -1161,6 +1175,10 @@ public class Assembler extends AssemblerTool implements org.apache.openejb.spi.A
             }
         }
 
+        for (final Container container : containerSystem.containers()) {
+            destroyContainer(container);
+        }
+
         final Iterator<ObjectName> it = containerObjectNames.iterator();
         final MBeanServer server = LocalMBeanServer.get();
         while (it.hasNext()) {
@@ -1176,6 +1194,7 @@ public class Assembler extends AssemblerTool implements org.apache.openejb.spi.A
         } catch (Exception ignored) {
             // no-op
         }
+        LookupCache.unregister();
 
         NamingEnumeration<Binding> namingEnumeration = null;
         try {
@@ -1512,6 +1531,9 @@ public class Assembler extends AssemblerTool implements org.apache.openejb.spi.A
 
         containerSystem.removeAppContext(appInfo.appId);
 
+        // the contexts may still cache objects of the application through federated contexts
+        LookupCache.invalidateAll();
+
         ClassLoaderUtil.destroyClassLoader(appInfo.path);
 
         if (undeployException.getCauses().size() > 0) {
@@ -1677,7 +1699,9 @@ public class Assembler extends AssemblerTool implements org.apache.openejb.spi.A
     }
 
     public void removeContainer(final String containerId) {
+        final Container container = containerSystem.getContainer(containerId);
         containerSystem.removeContainer(containerId);
+        destroyContainer(container);
 
         // Update the config tree
         for (Iterator<ContainerInfo> iterator = config.containerSystem.containers.iterator(); iterator.hasNext(); ) {
@@ -1693,6 +1717,12 @@ public class Assembler extends AssemblerTool implements org.apache.openejb.spi.A
         }
     }
 
+    private void destroyContainer(final Container container) {
+        if (container instanceof StatefulContainer) {
+            ((StatefulContainer) container).destroy();
+        }
+    }
+
     public void createService(final ServiceInfo serviceInfo) throws OpenEJBException {
         final ObjectRecipe serviceRecipe = createRecipe(serviceInfo);
 
@@ -2232,7 +2262,7 @@ public class Assembler extends AssemblerTool implements org.apache.openejb.spi.A
         private final Map<String, List<ClassFileTransformer>> transformers = new TreeMap<String, List<ClassFileTransformer>>();
 
         @Override
-        public void addTransformer(final String unitId, final ClassLoader classLoader, final ClassFileTransformer classFileTransformer) {
+        public synchronized void addTransformer(final String unitId, final ClassLoader classLoader, final ClassFileTransformer classFileTransformer) {
             final Instrumentation instrumentation = Agent.getInstrumentation();
             if (instrumentation != null) {
                 instrumentation.addTransformer(classFileTransformer);
@@ -2252,7 +2282,7 @@ public class Assembler extends AssemblerTool implements org.apache.openejb.spi.A
         }
 
         @Override
-        public void destroy(final String unitId) {
+        public synchronized void destroy(final String unitId) {
             final List<ClassFileTransformer> transformers = this.transformers.remove(unitId);
             if (transformers != null) {
                 final Instrumentation instrumentation = Agent.getInstrumentation();
@@ -21,6 +21,7 @@ import org.apache.openejb.loader.SystemInstance;
 import org.apache.openejb.persistence.PersistenceClassLoaderHandler;
 import org.apache.openejb.persistence.PersistenceUnitInfoImpl;
 import org.apache.openejb.spi.ContainerSystem;
+import org.apache.openejb.util.DaemonThreadFactory;
 import org.apache.openejb.util.LogCategory;
 import org.apache.openejb.util.Logger;
 
@@ -32,12 +33,26 @@ import javax.persistence.SharedCacheMode;
 import javax.persistence.ValidationMode;
 import javax.persistence.spi.PersistenceUnitTransactionType;
 import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
 
 public class PersistenceBuilder {
     public static final Logger logger = Logger.getInstance(LogCategory.OPENEJB_STARTUP, PersistenceBuilder.class);
 
+    /**
+     * Number of threads building the persistence units of an application, 1 builds them sequentially.
+     * Defaults to the number of units, bounded by the number of processors.
+     */
+    public static final String OPENEJB_JPA_BOOTSTRAP_THREADS = "openejb.jpa.bootstrap.threads";
+
+    /**
+     * When true the entity manager factory of a unit is only created on its first use.  Deploys faster but
+     * no ClassFileTransformer is registered before the entity classes are loaded.
+     */
+    public static final String OPENEJB_JPA_DEFERRED_INIT = "openejb.jpa.deferred-init";
+
     /**
      * External handler which handles adding a runtime ClassTransformer to the classloader.
      */
@@ -65,7 +80,8 @@ public class PersistenceBuilder {
         // Exclude Unlisted Classes
         unitInfo.setExcludeUnlistedClasses(info.excludeUnlistedClasses);
 
-        unitInfo.setLazilyInitialized(info.webappName != null);
+        unitInfo.setLazilyInitialized(info.webappName != null
+                || SystemInstance.get().getOptions().get(OPENEJB_JPA_DEFERRED_INIT, Boolean.parseBoolean(info.properties.getProperty(OPENEJB_JPA_DEFERRED_INIT, "false"))));
 
         Context context = SystemInstance.get().getComponent(ContainerSystem.class).getJNDIContext();
 
@@ -150,6 +166,88 @@ public class PersistenceBuilder {
         return new ReloadableEntityManagerFactory(classLoader, callable, unitInfo);
     }
 
+    /**
+     * Creates the factories of the persistence units of an application.  Units are independent so they are
+     * built in parallel, on at most openejb.jpa.bootstrap.threads threads.
+     * <p/>
+     * Errors are reported as if the units were built one after the other: all units are completed, the
+     * factories which could be created are closed and the exception of the first failing unit, in the order
+     * of the infos, is thrown.
+     *
+     * @return the factories, in the order of the infos
+     */
+    public List<ReloadableEntityManagerFactory> createEntityManagerFactories(final List<PersistenceUnitInfo> infos, final ClassLoader classLoader) throws Exception {
+        final int threads = Math.min(infos.size(),
+                SystemInstance.get().getOptions().get(OPENEJB_JPA_BOOTSTRAP_THREADS, Runtime.getRuntime().availableProcessors()));
+
+        final long start = System.nanoTime();
+        final List<ReloadableEntityManagerFactory> factories = new ArrayList<ReloadableEntityManagerFactory>(infos.size());
+        if (threads <= 1) {
+            for (final PersistenceUnitInfo info : infos) {
+                factories.add(createEntityManagerFactory(info, classLoader));
+            }
+        } else {
+            final ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("openejb-jpa-bootstrap"));
+            final List<Future<ReloadableEntityManagerFactory>> futures = new ArrayList<Future<ReloadableEntityManagerFactory>>(infos.size());
+            try {
+                for (final PersistenceUnitInfo info : infos) {
+                    futures.add(executor.submit(new Callable<ReloadableEntityManagerFactory>() {
+                        @Override
+                        public ReloadableEntityManagerFactory call() throws Exception {
+                            return createEntityManagerFactory(info, classLoader);
+                        }
+                    }));
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            Throwable error = null;
+            for (final Future<ReloadableEntityManagerFactory> future : futures) {
+                try {
+                    factories.add(future.get());
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = e.getCause();
+                    } else {
+                        logger.debug("Another persistence unit failed", e.getCause());
+                    }
+                }
+            }
+
+            if (error != null) {
+                close(factories);
+                if (error instanceof Exception) {
+                    throw (Exception) error;
+                }
+                throw (Error) error;
+            }
+        }
+
+        if (logger.isInfoEnabled() && factories.size() > 1) {
+            long unitsTime = 0;
+            for (final ReloadableEntityManagerFactory factory : factories) {
+                unitsTime += factory.getCreationTime();
+            }
+            final long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            logger.info("assembler.builtPersistenceUnits", factories.size(), time, Math.max(threads, 1), unitsTime);
+        }
+        return factories;
+    }
+
+    /**
+     * Closes factories which will not be bound, ignoring the ones not created yet.
+     */
+    public static void close(final List<ReloadableEntityManagerFactory> factories) {
+        for (final ReloadableEntityManagerFactory factory : factories) {
+            try {
+                factory.close();
+            } catch (RuntimeException e) {
+                logger.debug("Can't close the factory of persistence unit " + factory.getPUname(), e);
+            }
+        }
+    }
+
     public static String getOpenEJBJndiName(String unit) {
         return Assembler.PERSISTENCE_UNIT_NAMING_CONTEXT + unit;
     }
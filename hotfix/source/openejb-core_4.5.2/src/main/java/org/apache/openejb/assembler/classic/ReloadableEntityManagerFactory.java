@@ -32,8 +32,11 @@ import org.apache.openejb.jpa.integration.JPAThreadContext;
 import org.apache.openejb.loader.SystemInstance;
 import org.apache.openejb.monitoring.DynamicMBeanWrapper;
 import org.apache.openejb.monitoring.LocalMBeanServer;
+import org.apache.openejb.monitoring.ManagedMBean;
 import org.apache.openejb.monitoring.ObjectNameBuilder;
+import org.apache.openejb.persistence.JtaEntityManagerRegistry;
 import org.apache.openejb.persistence.PersistenceUnitInfoImpl;
+import org.apache.openejb.persistence.PersistenceUnitStatistics;
 import org.apache.openejb.persistence.QueryLogEntityManager;
 import org.apache.openejb.util.LogCategory;
 import org.apache.openejb.util.Logger;
@@ -81,14 +84,20 @@ public class ReloadableEntityManagerFactory implements EntityManagerFactory {
     public static final String OPENEJB_JPA_CRITERIA_LOG_JPQL = "openejb.jpa.criteria.log.jpql";
     public static final String OPENEJB_JPA_CRITERIA_LOG_JPQL_LEVEL = "openejb.jpa.criteria.log.jpql.level";
 
+    // same as AppInfoBuilder.PersistenceProviderProperties.TABLE_PREFIX
+    private static final String OPENEJB_JPA_TABLE_PREFIX = "openejb.jpa.table_prefix";
+
     private final PersistenceUnitInfoImpl unitInfoImpl;
     private ClassLoader classLoader;
-    private EntityManagerFactory delegate;
+    private volatile EntityManagerFactory delegate;
+    private volatile long creationTime;
     private EntityManagerFactoryCallable entityManagerFactoryCallable;
     private ObjectName objectName = null;
+    private ObjectName statisticsObjectName = null;
 
     private boolean logCriteriaJpql;
     private String logCriteriaJpqlLevel;
+    private final PersistenceUnitStatistics statistics;
 
     public ReloadableEntityManagerFactory(final ClassLoader cl, final EntityManagerFactoryCallable callable, final PersistenceUnitInfoImpl unitInfo) {
         classLoader = cl;
@@ -97,6 +106,7 @@ public class ReloadableEntityManagerFactory implements EntityManagerFactory {
         final Properties properties = unitInfo.getProperties();
         logCriteriaJpql = logCriteriaQueryJpql(properties);
         logCriteriaJpqlLevel = logCriteriaQueryJpqlLevel(properties);
+        statistics = createStatistics(properties);
 
         if (!callable.getUnitInfo().isLazilyInitialized()) {
             createDelegate();
@@ -110,7 +120,24 @@ public class ReloadableEntityManagerFactory implements EntityManagerFactory {
     }
 
     public void createDelegate() {
-        JPAThreadContext.infos.put("properties", entityManagerFactoryCallable.getUnitInfo().getProperties());
+        final Properties properties = entityManagerFactoryCallable.getUnitInfo().getProperties();
+        if (properties != null && properties.getProperty(OPENEJB_JPA_TABLE_PREFIX) != null) {
+            // the table prefix is passed to the provider integration through the static JPAThreadContext
+            // so units using it are created one at a time
+            synchronized (JPAThreadContext.class) {
+                JPAThreadContext.infos.put("properties", properties);
+                try {
+                    doCreateDelegate();
+                } finally {
+                    JPAThreadContext.infos.clear();
+                }
+            }
+        } else {
+            doCreateDelegate();
+        }
+    }
+
+    private void doCreateDelegate() {
         final long start = System.nanoTime();
         try {
             delegate = entityManagerFactoryCallable.call();
@@ -118,15 +145,37 @@ public class ReloadableEntityManagerFactory implements EntityManagerFactory {
             throw new OpenEJBRuntimeException(e);
         } finally {
             final long time = TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            creationTime = time;
             LOGGER.info("assembler.buildingPersistenceUnit", unitInfoImpl.getPersistenceUnitName(), unitInfoImpl.getPersistenceProviderClassName(), time + "");
             if (LOGGER.isDebugEnabled()) {
                 for (Map.Entry<Object, Object> entry : unitInfoImpl.getProperties().entrySet()) {
                     LOGGER.debug(entry.getKey() + "=" + entry.getValue());
                 }
             }
+        }
+    }
 
-            JPAThreadContext.infos.clear();
+    /**
+     * The delegate, created on first use for lazily initialized units.
+     */
+    private EntityManagerFactory delegate() {
+        EntityManagerFactory emf = delegate;
+        if (emf == null) {
+            synchronized (this) {
+                if (delegate == null) {
+                    createDelegate();
+                }
+                emf = delegate;
+            }
         }
+        return emf;
+    }
+
+    /**
+     * @return the time spent by the provider to create the delegate in milliseconds, 0 if not created yet
+     */
+    public long getCreationTime() {
+        return creationTime;
     }
 
     private String logCriteriaQueryJpqlLevel(final Properties props) {
@@ -142,9 +191,9 @@ public class ReloadableEntityManagerFactory implements EntityManagerFactory {
     public EntityManager createEntityManager() {
         EntityManager em;
         try {
-            em = delegate.createEntityManager();
+            em = delegate().createEntityManager();
         } catch (LinkageError le) {
-            em = delegate.createEntityManager();
+            em = delegate().createEntityManager();
         }
 
         if (logCriteriaJpql) {
@@ -157,9 +206,9 @@ public class ReloadableEntityManagerFactory implements EntityManagerFactory {
     public EntityManager createEntityManager(Map map) {
         EntityManager em;
         try {
-            em = delegate.createEntityManager(map);
+            em = delegate().createEntityManager(map);
         } catch (LinkageError le) {
-            em = delegate.createEntityManager(map);
+            em = delegate().createEntityManager(map);
         }
 
         if (logCriteriaJpql) {
@@ -170,43 +219,64 @@ public class ReloadableEntityManagerFactory implements EntityManagerFactory {
 
     @Override
     public CriteriaBuilder getCriteriaBuilder() {
-        return delegate.getCriteriaBuilder();
+        return delegate().getCriteriaBuilder();
     }
 
     @Override
     public Metamodel getMetamodel() {
-        return delegate.getMetamodel();
+        return delegate().getMetamodel();
     }
 
     @Override
     public boolean isOpen() {
-        return delegate.isOpen();
+        final EntityManagerFactory emf = delegate;
+        return emf == null || emf.isOpen();
     }
 
     @Override
     public void close() {
-        delegate.close();
+        final EntityManagerFactory emf = delegate;
+        if (emf != null) {
+            emf.close();
+        }
     }
 
     @Override
     public Map<String, Object> getProperties() {
-        return delegate.getProperties();
+        return delegate().getProperties();
     }
 
     @Override
     public Cache getCache() {
-        return delegate.getCache();
+        return delegate().getCache();
     }
 
     @Override
     public PersistenceUnitUtil getPersistenceUnitUtil() {
-        return delegate.getPersistenceUnitUtil();
+        return delegate().getPersistenceUnitUtil();
+    }
+
+    private PersistenceUnitStatistics createStatistics(final Properties props) {
+        if (!SystemInstance.get().getOptions().get(PersistenceUnitStatistics.OPENEJB_JPA_STATISTICS, Boolean.parseBoolean(props.getProperty(PersistenceUnitStatistics.OPENEJB_JPA_STATISTICS, "false")))) {
+            return null;
+        }
+        final int maxQueries = SystemInstance.get().getOptions().get(PersistenceUnitStatistics.OPENEJB_JPA_STATISTICS_MAX_QUERIES, Integer.parseInt(props.getProperty(PersistenceUnitStatistics.OPENEJB_JPA_STATISTICS_MAX_QUERIES, "500")));
+        final String unitName = unitInfoImpl.getPersistenceUnitName();
+        final JtaEntityManagerRegistry registry = SystemInstance.get().getComponent(JtaEntityManagerRegistry.class);
+        return new PersistenceUnitStatistics(unitName, maxQueries, registry == null ? null : registry.getNonTxStats(unitName));
     }
 
     public EntityManagerFactory getDelegate() {
         return delegate;
     }
 
+    /**
+     * @return the operation and query timings of this unit or null if openejb.jpa.statistics is not set
+     */
+    public PersistenceUnitStatistics getStatistics() {
+        return statistics;
+    }
+
     public void register() throws OpenEJBException {
         if (!LocalMBeanServer.isJMXActive()) {
             return;
@@ -219,6 +289,17 @@ public class ReloadableEntityManagerFactory implements EntityManagerFactory {
                 server.unregisterMBean(objectName);
             }
             server.registerMBean(mBeanify(), objectName);
+
+            if (statistics != null) {
+                final ObjectNameBuilder jmxName = new ObjectNameBuilder("openejb.management");
+                jmxName.set("ObjectType", "persistence-unit-statistics");
+                jmxName.set("PersistenceUnit", objectName.getKeyProperty("PersistenceUnit"));
+                statisticsObjectName = jmxName.build();
+                if (server.isRegistered(statisticsObjectName)) {
+                    server.unregisterMBean(statisticsObjectName);
+                }
+                server.registerMBean(new ManagedMBean(statistics), statisticsObjectName);
+            }
         } catch (Exception e) {
             throw new OpenEJBException("can't register the mbean for the entity manager factory " + getPUname(), e);
         } catch (NoClassDefFoundError ncdfe) {
@@ -242,7 +323,7 @@ public class ReloadableEntityManagerFactory implements EntityManagerFactory {
         return objectName;
     }
 
-    private String getPUname() {
+    String getPUname() {
         return entityManagerFactoryCallable.getUnitInfo().getPersistenceUnitName();
     }
 
@@ -258,6 +339,9 @@ public class ReloadableEntityManagerFactory implements EntityManagerFactory {
         if (objectName != null) {
             final MBeanServer server = LocalMBeanServer.get();
             try {
+                if (statisticsObjectName != null && server.isRegistered(statisticsObjectName)) {
+                    server.unregisterMBean(statisticsObjectName);
+                }
                 server.unregisterMBean(objectName);
             } catch (Exception e) {
                 throw new OpenEJBException("can't unregister the mbean for the entity manager factory " + getPUname(), e);
@@ -18,36 +18,68 @@ package org.apache.openejb.async;
 
 import org.apache.openejb.AppContext;
 import org.apache.openejb.core.ThreadContext;
+import org.apache.openejb.loader.Options;
 import org.apache.openejb.util.DaemonThreadFactory;
 import org.apache.openejb.util.ExecutorBuilder;
+import org.apache.openejb.util.LogCategory;
+import org.apache.openejb.util.Logger;
+import org.apache.openejb.util.executor.ThreadPerTaskExecutor;
 
 import javax.ejb.EJBException;
 import javax.ejb.NoSuchEJBException;
 import java.rmi.NoSuchObjectException;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Runs the @Asynchronous invocations of an application.
+ * <p/>
+ * By default they are queued for a thread pool configured with the
+ * AsynchronousPool.* application properties.  With
+ * AsynchronousPool.VirtualThreads=true, and a JVM that has virtual
+ * threads, every invocation gets its own virtual thread and at most
+ * AsynchronousPool.MaxConcurrency of them run at the same time.
+ *
  * @version $Rev$ $Date$
  */
 public class AsynchronousPool {
 
+    private static final Logger logger = Logger.getInstance(LogCategory.OPENEJB, AsynchronousPool.class);
+
+    private final Executor executor;
+
+    // the queue of the thread pool, null with a thread per invocation
     private final BlockingQueue<Runnable> blockingQueue;
-    private final ExecutorService executor;
 
     public AsynchronousPool(final ThreadPoolExecutor threadPoolExecutor) {
-        this.blockingQueue = threadPoolExecutor.getQueue();
-        this.executor = threadPoolExecutor;
+        this((Executor) threadPoolExecutor);
+    }
+
+    public AsynchronousPool(final Executor executor) {
+        this.executor = executor;
+        this.blockingQueue = executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue() : null;
     }
 
     public static AsynchronousPool create(final AppContext appContext) {
+        final Options options = appContext.getOptions();
+
+        if (options.get("AsynchronousPool.VirtualThreads", false)) {
+            final ThreadFactory threadFactory = ThreadPerTaskExecutor.virtualThreadFactory("@Asynchronous " + appContext.getId() + " - ");
+
+            if (threadFactory != null) {
+                return new AsynchronousPool(new ThreadPerTaskExecutor(threadFactory, options.get("AsynchronousPool.MaxConcurrency", 1000)));
+            }
+
+            logger.warning("AsynchronousPool.VirtualThreads is not supported by this JVM, using a thread pool for " + appContext.getId());
+        }
 
         final ExecutorBuilder builder = new ExecutorBuilder()
                 .prefix("AsynchronousPool")
                 .size(3)
                 .threadFactory(new DaemonThreadFactory("@Asynchronous", appContext.getId()));
 
-        return new AsynchronousPool(builder.build(appContext.getOptions()));
+        return new AsynchronousPool(builder.build(options));
     }
 
     public Object invoke(final Callable<Object> callable, final boolean isVoid) throws Throwable {
@@ -55,11 +87,13 @@ public class AsynchronousPool {
 
         try {
 
-            final Future<Object> future = executor.submit(new AsynchronousCall(callable, asynchronousCancelled));
+            final AsynchronousTask<Object> task = new AsynchronousTask<Object>(new AsynchronousCall(callable, asynchronousCancelled));
+
+            executor.execute(task);
 
             if (isVoid) return null;
 
-            return new FutureAdapter<Object>(future, asynchronousCancelled);
+            return new FutureAdapter<Object>(task, asynchronousCancelled);
         } catch (RejectedExecutionException e) {
             throw new EJBException("fail to allocate internal resource to execute the target task", e);
         }
@@ -99,20 +133,53 @@ public class AsynchronousPool {
         }
     }
 
+    /**
+     * Runs only if it was not cancelled while waiting to be dispatched,
+     * so cancelling does not have to find it in the executor queue.
+     */
+    private static class AsynchronousTask<T> extends FutureTask<T> {
+
+        private static final int WAITING = 0;
+        private static final int DISPATCHED = 1;
+        private static final int CANCELLED = 2;
+
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        private AsynchronousTask(final Callable<T> callable) {
+            super(callable);
+        }
+
+        @Override
+        public void run() {
+            if (state.compareAndSet(WAITING, DISPATCHED)) {
+                super.run();
+            }
+        }
+
+        /**
+         * @return true if the task was cancelled, false if it was already dispatched
+         */
+        public boolean cancelIfNotDispatched() {
+            if (!state.compareAndSet(WAITING, CANCELLED)) return false;
+
+            super.cancel(false);
+            return true;
+        }
+    }
+
     private class FutureAdapter<T> implements Future<T> {
 
-        private final Future<T> target;
+        private final AsynchronousTask<T> target;
 
         private final AtomicBoolean asynchronousCancelled;
 
         private volatile boolean canceled;
 
-        public FutureAdapter(final Future<T> target, final AtomicBoolean asynchronousCancelled) {
+        public FutureAdapter(final AsynchronousTask<T> target, final AtomicBoolean asynchronousCancelled) {
             this.target = target;
             this.asynchronousCancelled = asynchronousCancelled;
         }
 
-        @SuppressWarnings("RedundantCast")
         @Override
         public boolean cancel(final boolean mayInterruptIfRunning) {
             /*In EJB 3.1 spec 3.4.8.1.1
@@ -129,12 +196,15 @@ public class AsynchronousPool {
             if (canceled) {
                 return true;
             }
-            if (blockingQueue.remove((Runnable) target)) {
-                //We successfully remove the task from the queue
+            if (target.cancelIfNotDispatched()) {
+                //We successfully cancelled the task before it was dispatched, it no longer takes a place in the queue
+                if (blockingQueue != null) {
+                    blockingQueue.remove(target);
+                }
                 canceled = true;
                 return true;
             } else {
-                //Not find the task in the queue, the status might be ran/canceled or running
+                //The task was dispatched, the status might be ran or running
                 //Future.isDone() will return true when the task has been ran or canceled,
                 //since we never call the Future.cancel method, the isDone method will only return true when the task has ran
                 if (!target.isDone()) {
@@ -31,6 +31,8 @@ public class SingletonContainerBuilder extends Container {
     @XmlJavaTypeAdapter(DurationAdapter.class)
     @XmlAttribute
     private org.apache.openejb.util.Duration accessTimeout = org.apache.openejb.util.Duration.parse("30 seconds");
+    @XmlAttribute
+    private boolean stripedLocking = false;
 
     public SingletonContainerBuilder() {
         setClassName("org.apache.openejb.core.singleton.SingletonContainer");
@@ -67,6 +69,19 @@ public class SingletonContainerBuilder extends Container {
         setAccessTimeout(new Duration(time, unit));
     }
 
+    public SingletonContainerBuilder withStripedLocking(boolean stripedLocking) {
+        this.stripedLocking = stripedLocking;
+        return this;
+    }
+
+    public void setStripedLocking(boolean stripedLocking) {
+        this.stripedLocking = stripedLocking;
+    }
+
+    public boolean getStripedLocking() {
+        return stripedLocking;
+    }
+
     public Properties getProperties() {
         return Builders.getProperties(this);
     }
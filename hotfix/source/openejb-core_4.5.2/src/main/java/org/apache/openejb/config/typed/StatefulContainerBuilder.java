@@ -44,6 +44,12 @@ public class StatefulContainerBuilder extends Container {
     private int capacity = 1000;
     @XmlAttribute
     private int bulkPassivate = 100;
+    @XmlAttribute
+    private int segmentSize = 64;
+    @XmlAttribute
+    private boolean compressPassivation = false;
+    @XmlAttribute
+    private int compactionThreshold = 50;
 
     public StatefulContainerBuilder() {
         setClassName("org.apache.openejb.core.stateful.StatefulContainerFactory");
@@ -166,6 +172,45 @@ public class StatefulContainerBuilder extends Container {
         return bulkPassivate;
     }
 
+    public StatefulContainerBuilder withSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+        return this;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public StatefulContainerBuilder withCompressPassivation(boolean compressPassivation) {
+        this.compressPassivation = compressPassivation;
+        return this;
+    }
+
+    public void setCompressPassivation(boolean compressPassivation) {
+        this.compressPassivation = compressPassivation;
+    }
+
+    public boolean getCompressPassivation() {
+        return compressPassivation;
+    }
+
+    public StatefulContainerBuilder withCompactionThreshold(int compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+        return this;
+    }
+
+    public void setCompactionThreshold(int compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public int getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
     public Properties getProperties() {
         return Builders.getProperties(this);
     }
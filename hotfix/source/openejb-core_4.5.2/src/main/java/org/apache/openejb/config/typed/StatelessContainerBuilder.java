@@ -37,6 +37,13 @@ public class StatelessContainerBuilder extends Container {
     private int minSize = 0;
     @XmlAttribute
     private boolean strictPooling = true;
+    @XmlAttribute
+    private boolean stripedPooling = false;
+    @XmlAttribute
+    private boolean adaptivePooling = false;
+    @XmlJavaTypeAdapter(DurationAdapter.class)
+    @XmlAttribute
+    private org.apache.openejb.util.Duration adaptiveInterval = org.apache.openejb.util.Duration.parse("1 second");
     @XmlJavaTypeAdapter(DurationAdapter.class)
     @XmlAttribute
     private org.apache.openejb.util.Duration maxAge = org.apache.openejb.util.Duration.parse("0 hours");
@@ -134,6 +141,53 @@ public class StatelessContainerBuilder extends Container {
         return strictPooling;
     }
 
+    public StatelessContainerBuilder withStripedPooling(boolean stripedPooling) {
+        this.stripedPooling = stripedPooling;
+        return this;
+    }
+
+    public void setStripedPooling(boolean stripedPooling) {
+        this.stripedPooling = stripedPooling;
+    }
+
+    public boolean getStripedPooling() {
+        return stripedPooling;
+    }
+
+    public StatelessContainerBuilder withAdaptivePooling(boolean adaptivePooling) {
+        this.adaptivePooling = adaptivePooling;
+        return this;
+    }
+
+    public void setAdaptivePooling(boolean adaptivePooling) {
+        this.adaptivePooling = adaptivePooling;
+    }
+
+    public boolean getAdaptivePooling() {
+        return adaptivePooling;
+    }
+
+    public StatelessContainerBuilder withAdaptiveInterval(org.apache.openejb.util.Duration adaptiveInterval) {
+        this.adaptiveInterval = adaptiveInterval;
+        return this;
+    }
+
+    public void setAdaptiveInterval(org.apache.openejb.util.Duration adaptiveInterval) {
+        this.adaptiveInterval = adaptiveInterval;
+    }
+
+    public org.apache.openejb.util.Duration getAdaptiveInterval() {
+        return adaptiveInterval;
+    }
+
+    public StatelessContainerBuilder withAdaptiveInterval(long time, TimeUnit unit) {
+        return withAdaptiveInterval(new Duration(time, unit));
+    }
+
+    public void setAdaptiveInterval(long time, TimeUnit unit) {
+        setAdaptiveInterval(new Duration(time, unit));
+    }
+
     public StatelessContainerBuilder withMaxAge(org.apache.openejb.util.Duration maxAge) {
         this.maxAge = maxAge;
         return this;
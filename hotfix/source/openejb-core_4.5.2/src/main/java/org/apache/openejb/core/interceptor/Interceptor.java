@@ -16,6 +16,9 @@
  */
 package org.apache.openejb.core.interceptor;
 
+import org.apache.openejb.util.proxy.MethodInvoker;
+import org.apache.openejb.util.proxy.MethodInvokerFactory;
+
 import javax.interceptor.InvocationContext;
 import java.lang.reflect.Method;
 
@@ -25,12 +28,21 @@ import java.lang.reflect.Method;
 public class Interceptor {
     private final Object instance;
     private final Method method;
+    private final MethodInvoker invoker;
 
     public Interceptor(Object instance, Method method) {
+        this(instance, method, null);
+    }
+
+    /**
+     * @param invoker the invoker of the method, {@link Method#invoke} is used if null
+     */
+    public Interceptor(Object instance, Method method, MethodInvoker invoker) {
         if (instance == null) throw new NullPointerException("instance is null");
         if (method == null) throw new NullPointerException("method is null");
         this.instance = instance;
         this.method = method;
+        this.invoker = (invoker == null) ? MethodInvokerFactory.getReflectionInvoker(method) : invoker;
     }
 
     public Object getInstance() {
@@ -40,4 +52,8 @@ public class Interceptor {
     public Method getMethod() {
         return method;
     }
+
+    public MethodInvoker getInvoker() {
+        return invoker;
+    }
 }
@@ -18,6 +18,8 @@ package org.apache.openejb.core.interceptor;
 
 import org.apache.openejb.core.Operation;
 import org.apache.openejb.util.SetAccessible;
+import org.apache.openejb.util.proxy.MethodInvoker;
+import org.apache.openejb.util.proxy.MethodInvokerFactory;
 import org.apache.xbean.finder.ClassFinder;
 import serp.bytecode.Annotation;
 
@@ -36,6 +38,8 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @version $Rev: 1153797 $ $Date: 2011-08-04 09:09:44 +0000 (Thu, 04 Aug 2011) $
@@ -58,6 +62,8 @@ public class InterceptorData {
 
     private final Set<Method> aroundTimeout = new LinkedHashSet<Method>();
 
+    private final ConcurrentMap<Method, MethodInvoker> invokers = new ConcurrentHashMap<Method, MethodInvoker>();
+
     public InterceptorData(Class clazz) {
         this.clazz = clazz;
     }
@@ -102,6 +108,14 @@ public class InterceptorData {
         return aroundTimeout;
     }
 
+    /**
+     * The invoker calling this interceptor method, created on the first call
+     * and kept with the interceptor data.
+     */
+    public MethodInvoker getInvoker(Method method) {
+        return MethodInvokerFactory.getInvoker(invokers, method);
+    }
+
     public Set<Method> getMethods(Operation operation) {
         switch(operation) {
             case BUSINESS: return getAroundInvoke();
@@ -34,6 +34,7 @@ import org.apache.openejb.util.Classes;
 import org.apache.openejb.util.LogCategory;
 import org.apache.openejb.util.Logger;
 import org.apache.openejb.util.proxy.DynamicProxyImplFactory;
+import org.apache.openejb.util.proxy.MethodInvoker;
 
 /**
  * @version $Rev: 1311042 $ $Date: 2012-04-08 16:54:59 +0000 (Sun, 08 Apr 2012) $
@@ -43,6 +44,7 @@ public class InterceptorStack {
     private final Object beanInstance;
     private final List<Interceptor> interceptors;
     private final Method targetMethod;
+    private final MethodInvoker targetInvoker;
     private final Operation operation;
 
     public InterceptorStack(Object beanInstance, Method targetMethod, Operation operation, List<InterceptorData> interceptorDatas, Map<String, Object> interceptorInstances) {
@@ -52,6 +54,14 @@ public class InterceptorStack {
         this.targetMethod = targetMethod;
         this.operation = operation;
 
+        // the invokers are kept by the bean context and the interceptor data
+        final ThreadContext threadContext = ThreadContext.getThreadContext();
+        if (targetMethod != null && threadContext != null) {
+            targetInvoker = threadContext.getBeanContext().getMethodInvoker(targetMethod);
+        } else {
+            targetInvoker = null;
+        }
+
         interceptors = new ArrayList<Interceptor>(interceptorDatas.size());
 //        try {
 //            interceptors.add(new Interceptor(new Debug(), Debug.class.getMethod("invoke", InvocationContext.class)));
@@ -70,9 +80,9 @@ public class InterceptorStack {
                 final Interceptor interceptor;
                 Object handler = DynamicProxyImplFactory.realHandler(interceptorInstance);
                 if (handler != null && method.getDeclaringClass().equals(handler.getClass())) { // dynamic impl
-                    interceptor = new Interceptor(handler, method);
+                    interceptor = new Interceptor(handler, method, interceptorData.getInvoker(method));
                 } else {
-                    interceptor = new Interceptor(interceptorInstance, method);
+                    interceptor = new Interceptor(interceptorInstance, method, interceptorData.getInvoker(method));
                 }
                 interceptors.add(interceptor);
             }
@@ -125,7 +135,7 @@ public class InterceptorStack {
     }
 
     public InvocationContext createInvocationContext(Object... parameters) {
-        InvocationContext invocationContext = new ReflectionInvocationContext(operation, interceptors, beanInstance, targetMethod, parameters);
+        InvocationContext invocationContext = new ReflectionInvocationContext(operation, interceptors, beanInstance, targetMethod, targetInvoker, parameters);
         return invocationContext;
     }
 
@@ -146,7 +156,7 @@ public class InterceptorStack {
 
     public Object invoke(javax.xml.ws.handler.MessageContext messageContext, Object... parameters) throws Exception {
         try {
-            InvocationContext invocationContext = new JaxWsInvocationContext(operation, interceptors, beanInstance, targetMethod, messageContext, parameters);
+            InvocationContext invocationContext = new JaxWsInvocationContext(operation, interceptors, beanInstance, targetMethod, targetInvoker, messageContext, parameters);
             ThreadContext.getThreadContext().set(InvocationContext.class, invocationContext);
             Object value = invocationContext.proceed();
             return value;
@@ -157,7 +167,7 @@ public class InterceptorStack {
 
     public Object invoke(javax.xml.rpc.handler.MessageContext messageContext, Object... parameters) throws Exception {
         try {
-            InvocationContext invocationContext = new JaxRpcInvocationContext(operation, interceptors, beanInstance, targetMethod, messageContext, parameters);
+            InvocationContext invocationContext = new JaxRpcInvocationContext(operation, interceptors, beanInstance, targetMethod, targetInvoker, messageContext, parameters);
             ThreadContext.getThreadContext().set(InvocationContext.class, invocationContext);
             Object value = invocationContext.proceed();
             return value;
@@ -17,6 +17,7 @@
 package org.apache.openejb.core.interceptor;
 
 import org.apache.openejb.core.Operation;
+import org.apache.openejb.util.proxy.MethodInvoker;
 
 import javax.xml.rpc.handler.MessageContext;
 import java.util.List;
@@ -32,7 +33,11 @@ import java.lang.reflect.Method;
 public class JaxRpcInvocationContext extends ReflectionInvocationContext {
 
     public JaxRpcInvocationContext(Operation operation, List<Interceptor> interceptors, Object target, Method method, MessageContext messageContext, Object... parameters) {
-        super(operation, interceptors, target, method, parameters);
+        this(operation, interceptors, target, method, null, messageContext, parameters);
+    }
+
+    public JaxRpcInvocationContext(Operation operation, List<Interceptor> interceptors, Object target, Method method, MethodInvoker invoker, MessageContext messageContext, Object... parameters) {
+        super(operation, interceptors, target, method, invoker, parameters);
         getContextData().put(MessageContext.class.getName(), messageContext);
     }
 }
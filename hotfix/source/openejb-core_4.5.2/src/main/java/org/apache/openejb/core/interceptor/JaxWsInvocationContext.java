@@ -17,6 +17,7 @@
 package org.apache.openejb.core.interceptor;
 
 import org.apache.openejb.core.Operation;
+import org.apache.openejb.util.proxy.MethodInvoker;
 
 import javax.xml.ws.handler.MessageContext;
 import java.util.List;
@@ -30,7 +31,11 @@ public class JaxWsInvocationContext extends ReflectionInvocationContext {
     private final javax.xml.ws.handler.MessageContext messageContext;
 
     public JaxWsInvocationContext(Operation operation, List<Interceptor> interceptors, Object target, Method method, MessageContext messageContext, Object... parameters) {
-        super(operation, interceptors, target, method, parameters);
+        this(operation, interceptors, target, method, null, messageContext, parameters);
+    }
+
+    public JaxWsInvocationContext(Operation operation, List<Interceptor> interceptors, Object target, Method method, MethodInvoker invoker, MessageContext messageContext, Object... parameters) {
+        super(operation, interceptors, target, method, invoker, parameters);
         this.messageContext = messageContext;
     }
 
@@ -18,6 +18,8 @@ package org.apache.openejb.core.interceptor;
 
 import org.apache.openejb.core.Operation;
 import org.apache.openejb.util.Classes;
+import org.apache.openejb.util.proxy.MethodInvoker;
+import org.apache.openejb.util.proxy.MethodInvokerFactory;
 
 import javax.interceptor.InvocationContext;
 import java.util.Iterator;
@@ -25,7 +27,6 @@ import java.util.Map;
 import java.util.List;
 import java.util.TreeMap;
 import java.lang.reflect.Method;
-import java.lang.reflect.InvocationTargetException;
 
 /**
  * @version $Rev: 1153797 $ $Date: 2011-08-04 09:09:44 +0000 (Thu, 04 Aug 2011) $
@@ -34,6 +35,7 @@ public class ReflectionInvocationContext implements InvocationContext {
     private final Iterator<Interceptor> interceptors;
     private final Object target;
     private final Method method;
+    private final MethodInvoker invoker;
     private final Object[] parameters;
     private final Map<String, Object> contextData = new TreeMap<String, Object>();
     private final Class<?>[] parameterTypes;
@@ -41,6 +43,13 @@ public class ReflectionInvocationContext implements InvocationContext {
     private final Operation operation;
 
     public ReflectionInvocationContext(Operation operation, List<Interceptor> interceptors, Object target, Method method, Object... parameters) {
+        this(operation, interceptors, target, method, null, parameters);
+    }
+
+    /**
+     * @param invoker the invoker of the bean method, {@link Method#invoke} is used if null
+     */
+    public ReflectionInvocationContext(Operation operation, List<Interceptor> interceptors, Object target, Method method, MethodInvoker invoker, Object... parameters) {
         if (operation == null) throw new NullPointerException("operation is null");
         if (interceptors == null) throw new NullPointerException("interceptors is null");
         if (target == null) throw new NullPointerException("target is null");
@@ -52,8 +61,10 @@ public class ReflectionInvocationContext implements InvocationContext {
         this.parameters = parameters;
 
         if (method == null) {
+            this.invoker = null;
             parameterTypes = new Class[0];
         } else {
+            this.invoker = (invoker == null) ? MethodInvokerFactory.getReflectionInvoker(method) : invoker;
             parameterTypes = method.getParameterTypes();
         }
     }
@@ -134,10 +145,12 @@ public class ReflectionInvocationContext implements InvocationContext {
             Object nextInstance = interceptor.getInstance();
             Method nextMethod = interceptor.getMethod();
 
+            MethodInvoker nextInvoker = interceptor.getInvoker();
+
             if (nextMethod.getParameterTypes().length == 1 && nextMethod.getParameterTypes()[0] == InvocationContext.class) {
-                return new InterceptorInvocation(nextInstance, nextMethod, this);
+                return new InterceptorInvocation(nextInstance, nextMethod, nextInvoker, this);
             } else {
-                return new LifecycleInvocation(nextInstance, nextMethod, this, parameters);
+                return new LifecycleInvocation(nextInstance, nextMethod, nextInvoker, this, parameters);
             }
         } else if (method != null) {
             //EJB 3.1, it is allowed that timeout method does not have parameter Timer.class,
@@ -148,7 +161,7 @@ public class ReflectionInvocationContext implements InvocationContext {
             } else {
                 methodParameters = parameters;
             }
-            return new BeanInvocation(target, method, methodParameters);
+            return new BeanInvocation(target, method, invoker, methodParameters);
         } else {
             return new NoOpInvocation();
         }
@@ -158,27 +171,26 @@ public class ReflectionInvocationContext implements InvocationContext {
         // The bulk of the logic of this method has intentionally been moved
         // out so stepping through a large stack in a debugger can be done quickly.
         // Simply put one break point on 'next.invoke()' or one inside that method.
-        try {
-            Invocation next = next();
-            return next.invoke();
-        } catch (InvocationTargetException e) {
-            throw unwrapInvocationTargetException(e);
-        }
+        Invocation next = next();
+        return next.invoke();
     }
 
     private abstract static class Invocation {
         private final Method method;
         private final Object[] args;
         private final Object target;
+        private final MethodInvoker invoker;
 
-        public Invocation(Object target, Method method, Object[] args) {
+        public Invocation(Object target, Method method, MethodInvoker invoker, Object[] args) {
             this.target = target;
             this.method = method;
+            this.invoker = invoker;
             this.args = args;
         }
+
         public Object invoke() throws Exception {
-            
-            Object value = method.invoke(target, args);
+            // exceptions thrown by the method come out unwrapped
+            Object value = invoker.invoke(target, args);
             return value;
         }
 
@@ -189,22 +201,22 @@ public class ReflectionInvocationContext implements InvocationContext {
     }
 
     private static class BeanInvocation extends Invocation {
-        public BeanInvocation(Object target, Method method, Object[] args) {
-            super(target, method, args);
+        public BeanInvocation(Object target, Method method, MethodInvoker invoker, Object[] args) {
+            super(target, method, invoker, args);
         }
     }
 
     private static class InterceptorInvocation extends Invocation {
-        public InterceptorInvocation(Object target, Method method, InvocationContext invocationContext) {
-            super(target, method, new Object[] {invocationContext});
+        public InterceptorInvocation(Object target, Method method, MethodInvoker invoker, InvocationContext invocationContext) {
+            super(target, method, invoker, new Object[] {invocationContext});
         }
     }
 
     private static class LifecycleInvocation extends Invocation {
         private final InvocationContext invocationContext;
 
-        public LifecycleInvocation(Object target, Method method, InvocationContext invocationContext, Object[] args) {
-            super(target, method, args);
+        public LifecycleInvocation(Object target, Method method, MethodInvoker invoker, InvocationContext invocationContext, Object[] args) {
+            super(target, method, invoker, args);
             this.invocationContext = invocationContext;
         }
 
@@ -220,36 +232,14 @@ public class ReflectionInvocationContext implements InvocationContext {
 
     private static class NoOpInvocation extends Invocation {
         public NoOpInvocation() {
-            super(null, null, null);
+            super(null, null, null, null);
         }
 
-        public Object invoke() throws IllegalAccessException, InvocationTargetException {
+        public Object invoke() {
             return null;
         }
     }
 
-    // todo verify excpetion types
-
-    /**
-     * Business method interceptors can only throw exception allowed by the target business method.
-     * Lifecycle interceptors can only throw RuntimeException.
-     * @param e the invocation target exception of a reflection method invoke
-     * @return the cause of the exception
-     * @throws AssertionError if the cause is not an Exception or Error.
-     */
-    private Exception unwrapInvocationTargetException(InvocationTargetException e) {
-        Throwable cause = e.getCause();
-        if (cause == null) {
-            return e;
-        } else if (cause instanceof Exception) {
-            return (Exception) cause;
-        } else if (cause instanceof Error) {
-            throw (Error) cause;
-        } else {
-            throw new AssertionError(cause);
-        }
-    }
-
     public String toString() {
         String methodName = (method != null)? method.getName(): null;
 
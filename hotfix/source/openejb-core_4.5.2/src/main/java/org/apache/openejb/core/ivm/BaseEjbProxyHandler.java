@@ -20,17 +20,11 @@ import static org.apache.openejb.core.ivm.IntraVmCopyMonitor.State.COPY;
 import static org.apache.openejb.core.ivm.IntraVmCopyMonitor.State.CLASSLOADER_COPY;
 import static org.apache.openejb.core.ivm.IntraVmCopyMonitor.State.NONE;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
-import java.io.NotSerializableException;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
-import java.math.BigDecimal;
 import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
 import java.rmi.AccessException;
@@ -55,6 +49,7 @@ import javax.transaction.TransactionRolledbackException;
 import org.apache.openejb.BeanContext;
 import org.apache.openejb.BeanType;
 import org.apache.openejb.InterfaceType;
+import org.apache.openejb.OpenEJBRuntimeException;
 import org.apache.openejb.RpcContainer;
 import org.apache.openejb.core.ThreadContext;
 import org.apache.openejb.loader.SystemInstance;
@@ -64,7 +59,8 @@ import java.lang.reflect.InvocationHandler;
 import org.apache.openejb.util.proxy.ProxyManager;
 
 public abstract class BaseEjbProxyHandler implements InvocationHandler, Serializable {
-    private static final String OPENEJB_LOCALCOPY = "openejb.localcopy";
+    static final String OPENEJB_LOCALCOPY = "openejb.localcopy";
+    static final String OPENEJB_LOCALCOPY_COPIER = "openejb.localcopy.copier";
     private IntraVmCopyMonitor.State strategy = NONE;
 
     private static class ProxyRegistry {
@@ -270,7 +266,7 @@ public abstract class BaseEjbProxyHandler implements InvocationHandler, Serializ
                 }
             }
             IntraVmCopyMonitor.State oldStrategy =  strategy;
-            if (getBeanContext().isAsynchronous(method) || getBeanContext().getComponentType().equals(BeanType.MANAGED)){
+            if (getBeanContext().getInvocationDescriptor(method).isAsynchronous() || getBeanContext().getComponentType().equals(BeanType.MANAGED)){
                 strategy = IntraVmCopyMonitor.State.NONE;
             }
    
@@ -482,45 +478,23 @@ public abstract class BaseEjbProxyHandler implements InvocationHandler, Serializ
 
     /* change dereference to copy */
     protected <T> T copyObj(T object) throws IOException, ClassNotFoundException {
-    	// Check for primitive and other known class types that are immutable.  If detected
-    	// we can safely return them.
-    	if (object == null) return null;
-    	Class ooc = object.getClass();
-        if ((ooc == int.class         ) ||
-            (ooc == String.class      ) ||
-            (ooc == long.class        ) ||
-            (ooc == boolean.class     ) ||
-            (ooc == byte.class        ) ||
-            (ooc == float.class       ) ||
-            (ooc == double.class      ) ||
-            (ooc == short.class       ) ||
-            (ooc == Long.class        ) ||
-            (ooc == Boolean.class     ) ||
-            (ooc == Byte.class        ) ||
-            (ooc == Character.class   ) ||
-            (ooc == Float.class       ) ||
-            (ooc == Double.class      ) ||
-            (ooc == Short.class       ) ||
-            (ooc == BigDecimal.class  ))
-        {
-            return object;
-        }
-
+        if (object == null) return null;
+        return (T) getCopier().copy(object);
+    }
 
-        ByteArrayOutputStream baos = null;
-        try {
-            baos = new ByteArrayOutputStream(128);
-            ObjectOutputStream out = new ObjectOutputStream(baos);
-            out.writeObject(object);
-            out.close();
-        } catch (NotSerializableException e) {
-            throw (IOException) new NotSerializableException(e.getMessage()+" : The EJB specification restricts remote interfaces to only serializable data types.  This can be disabled for in-vm use with the "+OPENEJB_LOCALCOPY+"=false system property.").initCause(e);
+    private static IntraVmCopier getCopier() {
+        final SystemInstance system = SystemInstance.get();
+        IntraVmCopier copier = system.getComponent(IntraVmCopier.class);
+        if (copier == null) {
+            final Class<?> type = system.getOptions().get(OPENEJB_LOCALCOPY_COPIER, (Class<?>) FastIntraVmCopier.class);
+            try {
+                copier = (IntraVmCopier) type.newInstance();
+            } catch (Exception e) {
+                throw new OpenEJBRuntimeException("Cannot create the " + OPENEJB_LOCALCOPY_COPIER + " " + type.getName(), e);
+            }
+            system.setComponent(IntraVmCopier.class, copier);
         }
-
-        ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
-        ObjectInputStream in = new EjbObjectInputStream(bais);
-        Object obj = in.readObject();
-        return (T) obj;
+        return copier;
     }
 
     public void invalidateReference() {
@@ -230,7 +230,7 @@ public abstract class EjbObjectProxyHandler extends BaseEjbProxyHandler {
         final BeanContext beanContext = getBeanContext();
         final AsynchronousPool asynchronousPool = beanContext.getModuleContext().getAppContext().getAsynchronousPool();
 
-        if (beanContext.isAsynchronous(method)) {
+        if (beanContext.getInvocationDescriptor(method).isAsynchronous()) {
             return asynchronousPool.invoke(new Callable<Object>() {
                 @Override
                 public Object call() throws Exception {
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.ivm;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Copies the common JDK types directly and only falls back to serialization
+ * for the rest.
+ * <p/>
+ * Immutable types (String, the primitive wrappers, BigInteger, BigDecimal,
+ * UUID, URI, Locale, the JDK's empty collections, enums) are passed as is.
+ * Dates, arrays and the plain java.util collections are copied element by
+ * element.  As soon as the graph contains anything else the whole object is
+ * handed to {@link SerializationIntraVmCopier}, so shared references and
+ * custom serialization of unknown types behave exactly as before.
+ * <p/>
+ * When the copy crosses class loaders only JDK types and classes that
+ * resolve to the same class in the target loader take the fast path.
+ *
+ * @version $Rev$ $Date$
+ */
+public class FastIntraVmCopier implements IntraVmCopier {
+
+    /**
+     * Returned when part of the graph cannot be copied here
+     */
+    private static final Object UNKNOWN = new Object();
+
+    /**
+     * Deeper graphs go through serialization, which also keeps
+     * us away from a stack overflow on long linked structures
+     */
+    private static final int MAX_DEPTH = 32;
+
+    private static final Map<Class<?>, Kind> kinds = new IdentityHashMap<Class<?>, Kind>();
+
+    static {
+        for (final Class<?> type : new Class<?>[]{String.class, Integer.class, Long.class, Short.class, Byte.class,
+            Character.class, Boolean.class, Float.class, Double.class, BigInteger.class, BigDecimal.class,
+            UUID.class, URI.class, Locale.class,
+            Collections.EMPTY_LIST.getClass(), Collections.EMPTY_SET.getClass(), Collections.EMPTY_MAP.getClass()}) {
+            kinds.put(type, Kind.IMMUTABLE);
+        }
+        kinds.put(Date.class, Kind.DATE);
+        kinds.put(ArrayList.class, Kind.ARRAY_LIST);
+        kinds.put(LinkedList.class, Kind.LINKED_LIST);
+        kinds.put(HashSet.class, Kind.HASH_SET);
+        kinds.put(LinkedHashSet.class, Kind.LINKED_HASH_SET);
+        kinds.put(TreeSet.class, Kind.TREE_SET);
+        kinds.put(HashMap.class, Kind.HASH_MAP);
+        kinds.put(TreeMap.class, Kind.TREE_MAP);
+    }
+
+    private static enum Kind {
+        IMMUTABLE, DATE, ARRAY_LIST, LINKED_LIST, HASH_SET, LINKED_HASH_SET, TREE_SET, HASH_MAP, TREE_MAP
+    }
+
+    private final IntraVmCopier fallback = new SerializationIntraVmCopier();
+
+    public Object copy(final Object object) throws IOException, ClassNotFoundException {
+        if (object == null) return null;
+
+        final ClassLoader loader = IntraVmCopyMonitor.isCrossClassLoaderOperation() ? Thread.currentThread().getContextClassLoader() : null;
+
+        final Object copy = copy(object, loader, new IdentityHashMap<Object, Object>(), 0);
+        if (copy != UNKNOWN) return copy;
+
+        return fallback.copy(object);
+    }
+
+    /**
+     * @param loader the target class loader if the copy crosses class loaders, null otherwise
+     * @param copies the objects already copied, to keep shared references shared
+     * @return the copy or UNKNOWN
+     */
+    private Object copy(final Object object, final ClassLoader loader, final Map<Object, Object> copies, final int depth) {
+        if (object == null) return null;
+
+        final Class<?> type = object.getClass();
+        final Kind kind = kinds.get(type);
+
+        if (kind == Kind.IMMUTABLE) return object;
+
+        if (kind == null) {
+            if (object instanceof Enum) {
+                return isVisible(type, loader) ? object : UNKNOWN;
+            } else if (type == Class.class) {
+                return copyClass((Class<?>) object, loader);
+            } else if (!type.isArray()) {
+                return UNKNOWN;
+            }
+        }
+
+        if (depth > MAX_DEPTH) return UNKNOWN;
+
+        final Object done = copies.get(object);
+        if (done != null) return done;
+
+        if (kind == null) {
+            return copyArray(object, loader, copies, depth);
+        }
+
+        switch (kind) {
+            case DATE: {
+                final Object copy = ((Date) object).clone();
+                copies.put(object, copy);
+                return copy;
+            }
+            case ARRAY_LIST: {
+                return copyCollection((Collection<?>) object, new ArrayList<Object>(((Collection<?>) object).size()), loader, copies, depth);
+            }
+            case LINKED_LIST: {
+                return copyCollection((Collection<?>) object, new LinkedList<Object>(), loader, copies, depth);
+            }
+            case HASH_SET: {
+                return copyCollection((Collection<?>) object, new HashSet<Object>(capacity(((Collection<?>) object).size())), loader, copies, depth);
+            }
+            case LINKED_HASH_SET: {
+                return copyCollection((Collection<?>) object, new LinkedHashSet<Object>(capacity(((Collection<?>) object).size())), loader, copies, depth);
+            }
+            case TREE_SET: {
+                if (((SortedSet<?>) object).comparator() != null) return UNKNOWN;
+                return copyCollection((Collection<?>) object, new TreeSet<Object>(), loader, copies, depth);
+            }
+            case HASH_MAP: {
+                return copyMap((Map<?, ?>) object, new HashMap<Object, Object>(capacity(((Map<?, ?>) object).size())), loader, copies, depth);
+            }
+            case TREE_MAP: {
+                if (((SortedMap<?, ?>) object).comparator() != null) return UNKNOWN;
+                return copyMap((Map<?, ?>) object, new TreeMap<Object, Object>(), loader, copies, depth);
+            }
+            default: {
+                return UNKNOWN;
+            }
+        }
+    }
+
+    private Object copyArray(final Object array, final ClassLoader loader, final Map<Object, Object> copies, final int depth) {
+        final Class<?> componentType = array.getClass().getComponentType();
+
+        if (componentType.isPrimitive()) {
+            final int length = Array.getLength(array);
+            final Object copy = Array.newInstance(componentType, length);
+            System.arraycopy(array, 0, copy, 0, length);
+            copies.put(array, copy);
+            return copy;
+        }
+
+        if (!isVisible(componentType, loader)) return UNKNOWN;
+
+        final Object[] copy = ((Object[]) array).clone();
+        copies.put(array, copy);
+
+        for (int i = 0; i < copy.length; i++) {
+            final Object element = copy(copy[i], loader, copies, depth + 1);
+            if (element == UNKNOWN) return UNKNOWN;
+            copy[i] = element;
+        }
+        return copy;
+    }
+
+    private Object copyCollection(final Collection<?> collection, final Collection<Object> copy, final ClassLoader loader, final Map<Object, Object> copies, final int depth) {
+        copies.put(collection, copy);
+
+        for (final Object element : collection) {
+            final Object value = copy(element, loader, copies, depth + 1);
+            if (value == UNKNOWN) return UNKNOWN;
+            copy.add(value);
+        }
+        return copy;
+    }
+
+    private Object copyMap(final Map<?, ?> map, final Map<Object, Object> copy, final ClassLoader loader, final Map<Object, Object> copies, final int depth) {
+        copies.put(map, copy);
+
+        for (final Map.Entry<?, ?> entry : map.entrySet()) {
+            final Object key = copy(entry.getKey(), loader, copies, depth + 1);
+            if (key == UNKNOWN) return UNKNOWN;
+
+            final Object value = copy(entry.getValue(), loader, copies, depth + 1);
+            if (value == UNKNOWN) return UNKNOWN;
+
+            copy.put(key, value);
+        }
+        return copy;
+    }
+
+    private static Object copyClass(final Class<?> type, final ClassLoader loader) {
+        if (loader == null || type.isPrimitive() || type.getClassLoader() == null) return type;
+
+        try {
+            return Class.forName(type.getName(), false, loader);
+        } catch (ClassNotFoundException e) {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * @return true if instances of this type can be handed as is to the target class loader
+     */
+    private static boolean isVisible(Class<?> type, final ClassLoader loader) {
+        if (loader == null) return true;
+
+        while (type.isArray()) type = type.getComponentType();
+        if (type.isPrimitive() || type.getClassLoader() == null) return true;
+
+        try {
+            return Class.forName(type.getName(), false, loader) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static int capacity(final int size) {
+        return Math.max((int) (size / .75f) + 1, 16);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.ivm;
+
+import java.io.IOException;
+
+/**
+ * Copies the arguments, return values and exceptions of a call made through
+ * a remote interface inside the VM, so they are passed by value as the spec
+ * requires.
+ * <p/>
+ * The copier is called between {@link IntraVmCopyMonitor#pre} and
+ * {@link IntraVmCopyMonitor#post} so {@link IntraVmCopyMonitor#state()} tells
+ * whether the copy crosses class loaders.  In that case the thread context
+ * class loader is the one the copy has to be loaded from.
+ * <p/>
+ * The implementation is picked with the openejb.localcopy.copier property.
+ *
+ * @version $Rev$ $Date$
+ */
+public interface IntraVmCopier {
+
+    Object copy(Object object) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.ivm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+
+/**
+ * Copies everything but a few immutable types by writing it to an
+ * ObjectOutputStream and reading it back with an {@link EjbObjectInputStream}.
+ * This is what OpenEJB always did and works for any serializable graph.
+ *
+ * @version $Rev$ $Date$
+ */
+public class SerializationIntraVmCopier implements IntraVmCopier {
+
+    public Object copy(final Object object) throws IOException, ClassNotFoundException {
+        // Check for primitive and other known class types that are immutable.  If detected
+        // we can safely return them.
+        if (object == null) return null;
+        final Class ooc = object.getClass();
+        if ((ooc == String.class) ||
+            (ooc == Integer.class) ||
+            (ooc == Long.class) ||
+            (ooc == Boolean.class) ||
+            (ooc == Byte.class) ||
+            (ooc == Character.class) ||
+            (ooc == Float.class) ||
+            (ooc == Double.class) ||
+            (ooc == Short.class) ||
+            (ooc == BigDecimal.class)) {
+            return object;
+        }
+
+        final ByteArrayOutputStream baos;
+        try {
+            baos = new ByteArrayOutputStream(128);
+            final ObjectOutputStream out = new ObjectOutputStream(baos);
+            out.writeObject(object);
+            out.close();
+        } catch (NotSerializableException e) {
+            throw (IOException) new NotSerializableException(e.getMessage() + " : The EJB specification restricts remote interfaces to only serializable data types.  This can be disabled for in-vm use with the " + BaseEjbProxyHandler.OPENEJB_LOCALCOPY + "=false system property.").initCause(e);
+        }
+
+        final ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+        final ObjectInputStream in = new EjbObjectInputStream(bais);
+        return in.readObject();
+    }
+}
@@ -16,7 +16,6 @@
  */
 package org.apache.openejb.core.ivm.naming;
 
-import java.util.concurrent.ConcurrentHashMap;
 import org.apache.openejb.ClassLoaderUtil;
 import org.apache.openejb.core.ivm.IntraVmCopyMonitor;
 import org.apache.openejb.core.ivm.IntraVmProxy;
@@ -48,11 +47,11 @@ import java.io.ObjectStreamException;
 import java.io.PrintStream;
 import java.io.Serializable;
 import java.net.URL;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
-import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -71,7 +70,7 @@ public class IvmContext implements Context, Serializable {
     private static final long serialVersionUID = -626353930051783641L;
     Hashtable<String, Object> myEnv;
     boolean readOnly = false;
-    Map<String, Object> fastCache = new ConcurrentHashMap<String, Object>();
+    LookupCache fastCache = new LookupCache();
     public NameNode mynode;
 
     public static IvmContext createRootContext() {
@@ -142,19 +141,22 @@ public class IvmContext implements Context, Serializable {
            If the object has been resolved in the past from this context and the specified path (name)
            it will be in the fastCache which is significantly faster then peruse the Node graph.
            80 ms compared to 300 ms for a full node path search.
+           The generation is read first so a bind made while we resolve makes the entry stale.
         */
-        Object obj = fastCache.get(compoundName);
+        final long generation = mynode.getGeneration();
+        Object obj = fastCache.get(compoundName, generation);
         if (obj == null) {
             try {
                 obj = mynode.resolve(new ParsedName(compoundName));
+
+                // don't cache proxies
+                if (!(obj instanceof IntraVmProxy)) {
+                    fastCache.put(compoundName, obj, generation);
+                }
             } catch (NameNotFoundException nnfe) {
+                // federated objects are not ours, they are looked up each time
                 obj = federate(compositName);
             }
-
-            // don't cache proxies
-            if (!(obj instanceof IntraVmProxy)) {
-            	fastCache.put(compoundName, obj);
-            }
         }
 
         if (obj == null){
@@ -293,7 +295,7 @@ public class IvmContext implements Context, Serializable {
             */
             name = name.substring(indx + 1);
         }
-        if (fastCache.containsKey(name))
+        if (fastCache.contains(name, mynode.getGeneration()))
             throw new javax.naming.NameAlreadyBoundException();
         else {
             ParsedName parsedName = new ParsedName(name);
@@ -327,9 +329,6 @@ public class IvmContext implements Context, Serializable {
             */
             name = name.substring(indx + 1);
         }
-        fastCache.clear();
-        mynode.clearCache();
-
         mynode.unbind(new ParsedName(name));
     }
 
@@ -398,7 +397,7 @@ public class IvmContext implements Context, Serializable {
             */
             name = name.substring(indx + 1);
         }
-        if (fastCache.containsKey(name))
+        if (fastCache.contains(name, mynode.getGeneration()))
             throw new javax.naming.NameAlreadyBoundException();
         else
             return mynode.createSubcontext(new ParsedName(name));
@@ -510,32 +509,19 @@ public class IvmContext implements Context, Serializable {
         public MyNamingEnumeration(NameNode parentNode) {
             Vector vect = new Vector();
 
-            NameNode node = parentNode.getSubTree();
+            Collection<NameNode> nodes = parentNode.getChildren();
 
-            if (node == null) {
-                node = parentNode;
-            } else {
-                vect.addElement(node);
+            if (nodes.isEmpty() && parentNode.isRoot()) {
+                nodes = parentNode.getPeers();
             }
 
-            gatherNodes(node, vect);
+            vect.addAll(nodes);
 
             buildEnumeration(vect);
         }
 
         abstract protected void buildEnumeration(Vector<NameNode> vect);
 
-        protected void gatherNodes(NameNode node, Vector vect) {
-            if (node.getLessTree() != null) {
-                vect.addElement(node.getLessTree());
-                gatherNodes(node.getLessTree(), vect);
-            }
-            if (node.getGrtrTree() != null) {
-                vect.addElement(node.getGrtrTree());
-                gatherNodes(node.getGrtrTree(), vect);
-            }
-        }
-
         public void close() {
             myEnum = null;
         }
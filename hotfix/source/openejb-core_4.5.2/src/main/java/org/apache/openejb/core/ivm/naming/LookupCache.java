@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.ivm.naming;
+
+import org.apache.openejb.loader.SystemInstance;
+import org.apache.openejb.monitoring.LocalMBeanServer;
+import org.apache.openejb.monitoring.Managed;
+import org.apache.openejb.monitoring.ManagedMBean;
+import org.apache.openejb.monitoring.ObjectNameBuilder;
+import org.apache.openejb.util.LogCategory;
+import org.apache.openejb.util.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The names already resolved by an {@link IvmContext}.
+ * <p/>
+ * Every entry remembers the generation of the JNDI tree it was resolved
+ * from (see {@link NameNode#getGeneration()}), any bind or unbind in the
+ * tree makes the older entries stale.  {@link #invalidateAll()} does the
+ * same for every context at once, the Assembler calls it when an
+ * application is destroyed so objects reached through federated contexts
+ * are not served after a redeploy.
+ * <p/>
+ * The cache holds at most {@value #OPENEJB_JNDI_CACHE_SIZE} entries
+ * (default {@value #DEFAULT_SIZE}, read once).  When full, stale entries and
+ * entries not read since the last sweep are evicted, clock style.
+ * <p/>
+ * Hits, misses, evictions and invalidations of all the caches are
+ * exposed over JMX once {@link #register()} has been called.  They are
+ * counted on stripes picked by thread so lookups from many threads do
+ * not contend on a shared counter, reads add the stripes up.
+ *
+ * @version $Rev$ $Date$
+ */
+public class LookupCache {
+
+    public static final String OPENEJB_JNDI_CACHE_SIZE = "openejb.jndi.cache.size";
+    public static final int DEFAULT_SIZE = 1000;
+
+    private static final Logger logger = Logger.getInstance(LogCategory.OPENEJB, LookupCache.class);
+
+    private static final int SIZE = SystemInstance.get().getOptions().get(OPENEJB_JNDI_CACHE_SIZE, DEFAULT_SIZE);
+
+    private static final AtomicLong globalGeneration = new AtomicLong();
+    private static final Statistics statistics = new Statistics();
+    private static ObjectName objectName;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private final int capacity;
+    private Iterator<Map.Entry<String, Entry>> hand;
+
+    public LookupCache() {
+        this(SIZE);
+    }
+
+    public LookupCache(final int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * @param name the name as resolved by the context
+     * @param generation the current generation of the context's tree
+     * @return the cached object or null if absent or stale
+     */
+    public Object get(final String name, final long generation) {
+        final Entry entry = entries.get(name);
+        if (entry == null) {
+            statistics.misses.increment();
+            return null;
+        }
+
+        if (!entry.isValid(generation)) {
+            if (entries.remove(name, entry)) {
+                statistics.invalidations.increment();
+            }
+            statistics.misses.increment();
+            return null;
+        }
+
+        entry.referenced = true;
+        statistics.hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * Same as {@link #get} but not counted in the statistics.
+     */
+    public boolean contains(final String name, final long generation) {
+        final Entry entry = entries.get(name);
+        return entry != null && entry.isValid(generation);
+    }
+
+    /**
+     * @param generation the generation of the tree read before resolving the name
+     */
+    public void put(final String name, final Object value, final long generation) {
+        if (value == null) return;
+
+        entries.put(name, new Entry(value, generation, globalGeneration.get()));
+
+        if (entries.size() > capacity) {
+            evict();
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sweeps until a quarter of the capacity is free so a full cache is
+     * not swept again on the next put.  Only one thread sweeps, the others
+     * do not wait for it.
+     */
+    private void evict() {
+        if (!sweepLock.tryLock()) return;
+        try {
+            final int target = capacity - capacity / 4;
+
+            // each entry gets at most one second chance
+            int steps = 2 * entries.size() + 1;
+            while (entries.size() > target && steps-- > 0) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = entries.entrySet().iterator();
+                    if (!hand.hasNext()) break;
+                }
+
+                final Map.Entry<String, Entry> next = hand.next();
+                final Entry entry = next.getValue();
+
+                if (entry.referenced && entry.global == globalGeneration.get()) {
+                    entry.referenced = false;
+                } else if (entries.remove(next.getKey(), entry)) {
+                    statistics.evictions.increment();
+                }
+            }
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    /**
+     * Makes every entry of every cache stale.
+     */
+    public static void invalidateAll() {
+        globalGeneration.incrementAndGet();
+    }
+
+    public static synchronized void register() {
+        final MBeanServer server = LocalMBeanServer.get();
+        try {
+            final ObjectNameBuilder jmxName = new ObjectNameBuilder("openejb.management");
+            jmxName.set("J2EEServer", "openejb");
+            jmxName.set("J2EEApplication", null);
+            jmxName.set("j2eeType", "JNDI");
+            jmxName.set("name", "LookupCache");
+            final ObjectName name = jmxName.build();
+
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new ManagedMBean(statistics), name);
+            }
+            objectName = name;
+        } catch (Exception e) {
+            logger.error("Unable to register MBean ", e);
+        }
+    }
+
+    public static synchronized void unregister() {
+        if (objectName == null) return;
+        try {
+            final MBeanServer server = LocalMBeanServer.get();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            logger.debug("Unable to unregister MBean " + objectName, e);
+        }
+        objectName = null;
+    }
+
+    public static Statistics getStatistics() {
+        return statistics;
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long generation;
+        private final long global;
+        private volatile boolean referenced;
+
+        private Entry(final Object value, final long generation, final long global) {
+            this.value = value;
+            this.generation = generation;
+            this.global = global;
+        }
+
+        private boolean isValid(final long generation) {
+            return this.generation == generation && global == globalGeneration.get();
+        }
+    }
+
+    @Managed
+    public static class Statistics {
+        private final Counter hits = new Counter();
+        private final Counter misses = new Counter();
+        private final Counter evictions = new Counter();
+        private final Counter invalidations = new Counter();
+
+        @Managed
+        public long getHits() {
+            return hits.get();
+        }
+
+        @Managed
+        public long getMisses() {
+            return misses.get();
+        }
+
+        @Managed
+        public long getEvictions() {
+            return evictions.get();
+        }
+
+        @Managed
+        public long getInvalidations() {
+            return invalidations.get();
+        }
+
+        @Managed
+        public long getGeneration() {
+            return globalGeneration.get();
+        }
+    }
+
+    /**
+     * A counter spread over one stripe per processor (at most 64), each
+     * stripe on its own cache line.
+     */
+    private static class Counter {
+        private static final int MAX_STRIPES = 64;
+        // 8 longs, 64 bytes between two stripes
+        private static final int PAD = 8;
+
+        private final int mask;
+        private final AtomicLongArray stripes;
+
+        private Counter() {
+            final int processors = Runtime.getRuntime().availableProcessors();
+            final int count = processors <= 1 ? 1 : Math.min(MAX_STRIPES, Integer.highestOneBit((processors - 1) << 1));
+            mask = count - 1;
+            stripes = new AtomicLongArray(count * PAD);
+        }
+
+        private void increment() {
+            stripes.getAndIncrement(((int) Thread.currentThread().getId() & mask) * PAD);
+        }
+
+        private long get() {
+            long sum = 0;
+            for (int i = 0; i < stripes.length(); i += PAD) {
+                sum += stripes.get(i);
+            }
+            return sum;
+        }
+    }
+}
@@ -21,28 +21,58 @@ import org.apache.openejb.OpenEJBRuntimeException;
 import javax.naming.*;
 import java.io.PrintStream;
 import java.util.ArrayList;
-
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One atomic name of the JNDI tree.
+ * <p/>
+ * The nodes sharing a parent form a {@link Level}.  A level keeps its nodes
+ * in an immutable map that is copied and swapped on every bind or unbind,
+ * so a lookup never locks and only does one hash lookup per name component,
+ * whatever the number of bindings.  A root node (created without a parent)
+ * is the first node of its own level, names bound next to it end up in
+ * that level.
+ * <p/>
+ * All the levels of a tree share a generation counter that is incremented
+ * by every bind and unbind, {@link IvmContext} uses it to know when its
+ * cached lookups are stale.
+ */
 public class NameNode implements java.io.Serializable {
     private final String atomicName;
     private final int atomicHash;
-    private NameNode lessTree;
-    private NameNode grtrTree;
-    private NameNode subTree;
-    private NameNode parentTree;
     private final NameNode parent;
-    private Object myObject;
-    private transient IvmContext myContext;
-    private boolean unbound;
+    private final Level level;
+    private final boolean root;
+    private volatile Level subTree;
+    private volatile Object myObject;
+    private transient volatile IvmContext myContext;
+    private volatile boolean unbound;
+
     public NameNode(NameNode parent, ParsedName name, Object obj, NameNode parentTree) {
+        this(parent, name, obj, parentTree == null ? null : parentTree == parent ? parent.subTree() : parentTree.level);
+    }
+
+    private NameNode(NameNode parent, ParsedName name, Object obj, Level level) {
         atomicName = name.getComponent();
         atomicHash = name.getComponentHashCode();
         this.parent = parent;
-        this.parentTree = parentTree;
-        if (name.next())
-            subTree = new NameNode(this, name, obj, this);
-        else if (obj instanceof Context) {
-            myObject = new Federation();
-            ((Federation)myObject).add((Context) obj);
+        root = level == null;
+        if (root) {
+            level = new Level(new AtomicLong());
+            level.add(this);
+        }
+        this.level = level;
+        if (name.next()) {
+            final NameNode child = new NameNode(this, name, obj, subTree());
+            subTree.add(child);
+        } else if (obj instanceof Context) {
+            Federation federation = new Federation();
+            federation.add((Context) obj);
+            myObject = federation;
         } else {
             myObject = obj;
         }
@@ -53,8 +83,9 @@ public class NameNode implements java.io.Serializable {
     }
 
     public Object getBinding() {
-        if (myObject != null && !(myObject instanceof Federation))
-            return myObject;// if NameNode has an object it must be a binding
+        final Object object = myObject;
+        if (object != null && !(object instanceof Federation))
+            return object;// if NameNode has an object it must be a binding
         else {
             if (myContext == null)
                 myContext = new IvmContext(this);
@@ -63,15 +94,15 @@ public class NameNode implements java.io.Serializable {
     }
 
     public Object resolve(ParsedName name) throws javax.naming.NameNotFoundException {
-        int compareResult = name.compareTo(atomicHash);
         javax.naming.NameNotFoundException n = null;
         int pos = name.getPos();
-        if (compareResult == ParsedName.IS_EQUAL && name.getComponent().equals(atomicName)) {
-            // hashcodes and String valuse are equal
+        if (name.getComponent().equals(atomicName)) {
             if (name.next()) {
-                if (subTree != null) {
+                final Level children = subTree;
+                final NameNode child = children == null ? null : children.get(name.getComponent());
+                if (child != null) {
                     try {
-                        return subTree.resolve(name);
+                        return child.resolve(name);
                     } catch (NameNotFoundException e) {
                         n = e;
                     }
@@ -79,23 +110,18 @@ public class NameNode implements java.io.Serializable {
             } else if (!unbound){
                 return getBinding();
             }
-        } else if (compareResult == ParsedName.IS_LESS) {
-            // parsed hash is less than
-            if (lessTree != null) {
-                return lessTree.resolve(name);
-            }
-
         } else {
-            //ParsedName.IS_GREATER
-            if (grtrTree != null) {
-                return grtrTree.resolve(name);
+            final NameNode peer = level.get(name.getComponent());
+            if (peer != null && peer != this) {
+                return peer.resolve(name);
             }
         }
-        if (myObject instanceof Federation) {
+        final Object object = myObject;
+        if (object instanceof Federation) {
             name.reset(pos);
             String nameInContext = name.remaining().path();
             Federation f = null;
-            for (Context c: (Federation)myObject) {
+            for (Context c: (Federation) object) {
                 try {
                     Object o = c.lookup(nameInContext);
                     if (o instanceof Context) {
@@ -111,7 +137,7 @@ public class NameNode implements java.io.Serializable {
                 }
             }
             if (f != null) {
-                NameNode node = new NameNode(null, new ParsedName(""), f, null);
+                NameNode node = new NameNode(null, new ParsedName(""), f, (NameNode) null);
                 return new IvmContext(node);
             }
         }
@@ -120,69 +146,55 @@ public class NameNode implements java.io.Serializable {
     }
 
     public void bind(ParsedName name, Object obj) throws javax.naming.NameAlreadyBoundException {
-        int compareResult = name.compareTo(atomicHash);
-        if (compareResult == ParsedName.IS_EQUAL && name.getComponent().equals(atomicName)) {
+        if (name.getComponent().equals(atomicName)) {
             if (name.next()) {
-                if (myObject != null && !(myObject instanceof Federation)) {
+                final Object object = myObject;
+                if (object != null && !(object instanceof Federation)) {
                     throw new javax.naming.NameAlreadyBoundException();
                 }
-                if (subTree == null)
-                    subTree = new NameNode(this, name, obj, this);
-                else
-                    subTree.bind(name, obj);
+                subTree().bind(this, name, obj);
             } else {
-                if (obj instanceof Context) {
-                    if (myObject != null) {
-                        if (!(myObject instanceof Federation)) {
-                            throw new javax.naming.NameAlreadyBoundException(name.toString());
+                synchronized (this) {
+                    if (obj instanceof Context) {
+                        Federation federation;
+                        if (myObject != null) {
+                            if (!(myObject instanceof Federation)) {
+                                throw new javax.naming.NameAlreadyBoundException(name.toString());
+                            }
+                            federation = new Federation((Federation) myObject);
+                        } else {
+                            federation = new Federation();
                         }
+                        federation.add((Context) obj);
+                        myObject = federation;
+                        level.generation.incrementAndGet();
                     } else {
-                        myObject = new Federation();
-                    }
-                    ((Federation)myObject).add((Context) obj);
-                } else {
-                    if (subTree != null) {
-                        throw new javax.naming.NameAlreadyBoundException(name.toString());
-                    }
-                    if (myObject != null) {
-                        throw new javax.naming.NameAlreadyBoundException(name.toString());
+                        if (hasChildren()) {
+                            throw new javax.naming.NameAlreadyBoundException(name.toString());
+                        }
+                        if (myObject != null) {
+                            throw new javax.naming.NameAlreadyBoundException(name.toString());
+                        }
+                        unbound = false;
+                        myObject = obj;// bind the object to this node
+                        level.generation.incrementAndGet();
                     }
-                    unbound = false;
-                    myObject = obj;// bind the object to this node
                 }
             }
-        } else if (compareResult == ParsedName.IS_LESS) {
-            if (lessTree == null)
-                lessTree = new NameNode(this.parent, name, obj, this);
-            else
-                lessTree.bind(name, obj);
         } else {
-            //ParsedName.IS_GREATER ...
-            if (grtrTree == null)
-                grtrTree = new NameNode(this.parent, name, obj, this);
-            else
-                grtrTree.bind(name, obj);
+            level.bind(this.parent, name, obj);
         }
     }
 
     public void tree(String indent, PrintStream out){
         out.println(atomicName + " @ " + atomicHash + (myObject != null ? " [" + myObject + "]" : ""));
 
-        if (grtrTree != null) {
-            out.print(indent +" + ");
-            grtrTree.tree(indent + "    ", out);
-        }
-        if (lessTree != null) {
+        for (NameNode child : getChildren()) {
             out.print(indent +" - ");
-            lessTree.tree(indent + "    ", out);
-        }
-        if (subTree != null) {
-            out.print(indent +" - ");
-            subTree.tree(indent + "    ", out);
+            child.tree(indent + "    ", out);
         }
     }
 
-
     public int compareTo(int otherHash) {
         if (atomicHash == otherHash)
             return 0;
@@ -192,139 +204,47 @@ public class NameNode implements java.io.Serializable {
             return -1;
     }
 
-    private void bind(NameNode node) {
-        int compareResult = node.compareTo(atomicHash);
-
-        // This seems to be needed because of an inbalanced way
-        // in which we use bind/unbind/lookup.  Bind/unbind require
-        // the prefix of the node to be appended because lookup
-        // will add the prefix when doing a lookup.  Seems if
-        // we got rid of the prefix usage in lookup, we could
-        // kill this if block and would have more balanced
-        // btrees
-        if (node.parent == this){
-            compareResult = ParsedName.IS_EQUAL;
-        }
-
-        if (compareResult == ParsedName.IS_EQUAL) {
-            if (subTree == null){
-                subTree = node;
-                subTree.parentTree = this;
-            } else {
-                subTree.bind(node);
-            }
-        } else if (compareResult == ParsedName.IS_LESS) {
-            if (lessTree == null) {
-                lessTree = node;
-                lessTree.parentTree = this;
-            }
-            else{
-                lessTree.bind(node);
-            }
-        } else {//ParsedName.IS_GREATER ...
-
-            if (grtrTree == null) {
-                grtrTree = node;
-                grtrTree.parentTree = this;
-            } else {
-                grtrTree.bind(node);
-            }
-        }
-    }
-
     public void unbind(ParsedName name) throws javax.naming.NameAlreadyBoundException {
-        int compareResult = name.compareTo(atomicHash);
-        if (compareResult == ParsedName.IS_EQUAL && name.getComponent().equals(atomicName)) {
+        if (name.getComponent().equals(atomicName)) {
             if (name.next()) {
-                if (subTree != null) {
-                    subTree.unbind(name);
+                final Level children = subTree;
+                final NameNode child = children == null ? null : children.get(name.getComponent());
+                if (child != null) {
+                    child.unbind(name);
                 }
             } else {
                 unbound = true;
                 myObject = null;
-                parentTree.unbind(this);
+                level.generation.incrementAndGet();
+                level.remove(this);
             }
-        } else if (compareResult == ParsedName.IS_LESS) {
-            if (lessTree != null) {
-                lessTree.unbind(name);
+        } else {
+            final NameNode peer = level.get(name.getComponent());
+            if (peer != null && peer != this) {
+                peer.unbind(name);
             }
-        } else {//ParsedName.IS_GREATER ...
-
-            if (grtrTree != null)
-                grtrTree.unbind(name);
-        }
-    }
-
-    private void unbind(NameNode node) {
-        if (subTree == node) {
-            subTree = null;
-        } else if (grtrTree == node){
-            grtrTree = null;
-        } else if (lessTree == node){
-            lessTree = null;
-        }
-        rebalance(this, node);
-    }
-
-    private void rebalance(NameNode tree, NameNode node) {
-        if (node.subTree != null) {
-            tree.bind(node.subTree);
-        }
-        if (node.lessTree != null) {
-            this.bind(node.lessTree);
-        }
-        if (node.grtrTree != null) {
-            this.bind(node.grtrTree);
         }
     }
 
     protected void prune() {
-        prune(this);
+        for (NameNode child : getChildren()) {
+            child.pruneTree();
+        }
     }
 
-    private void prune(NameNode until) {
-        if (subTree != null) {
-            subTree.prune(until);
-        }
-        if (lessTree != null) {
-            lessTree.prune(until);
-        }
-        if (grtrTree != null) {
-            grtrTree.prune(until);
+    private void pruneTree() {
+        for (NameNode child : getChildren()) {
+            child.pruneTree();
         }
 
-        if (this == until) return;
-
         if (!hasChildren() && myObject == null){
-            parentTree.unbind(this);
+            level.remove(this);
         }
     }
 
     private boolean hasChildren() {
-        return hasChildren(this);
-    }
-
-    private boolean hasChildren(NameNode node) {
-        if (subTree != null && subTree.hasChildren(node)) return true;
-        if (grtrTree != null && grtrTree.hasChildren(node)) return true;
-        if (lessTree != null && lessTree.hasChildren(node)) return true;
-
-        return (parent == node);
-    }
-
-    protected void clearCache() {
-        if (myContext != null) {
-            myContext.fastCache.clear();
-        }
-        if (grtrTree != null) {
-            grtrTree.clearCache();
-        }
-        if (lessTree != null){
-            lessTree.clearCache();
-        }
-        if (subTree != null){
-            subTree.clearCache();
-        }
+        final Level children = subTree;
+        return children != null && !children.isEmpty();
     }
 
     public IvmContext createSubcontext(ParsedName name) throws javax.naming.NameAlreadyBoundException {
@@ -343,32 +263,66 @@ public class NameNode implements java.io.Serializable {
         return atomicName;
     }
 
-    public NameNode getLessTree() {
-        return lessTree;
+    /**
+     * @return a snapshot of the nodes bound under this node, in bind order
+     */
+    public Collection<NameNode> getChildren() {
+        final Level children = subTree;
+        if (children == null) return Collections.emptyList();
+        return children.nodes.values();
     }
 
-    public NameNode getGrtrTree() {
-        return grtrTree;
+    /**
+     * @return true if this node was created without a parent level, the names
+     * bound next to it are then listed as its children
+     */
+    public boolean isRoot() {
+        return root;
     }
 
-    public NameNode getSubTree() {
-        return subTree;
+    /**
+     * @return a snapshot of the other nodes of this node's level, in bind order
+     */
+    public Collection<NameNode> getPeers() {
+        final Collection<NameNode> nodes = level.nodes.values();
+        if (!nodes.contains(this)) return nodes;
+
+        final Collection<NameNode> peers = new ArrayList<NameNode>(nodes);
+        peers.remove(this);
+        return peers;
     }
 
     public NameNode getParent() {
         return parent;
     }
 
+    /**
+     * @return the number of changes made to the tree of this node so far
+     */
+    public long getGeneration() {
+        return level.generation.get();
+    }
+
+    private Level subTree() {
+        Level children = subTree;
+        if (children == null) {
+            synchronized (this) {
+                children = subTree;
+                if (children == null) {
+                    children = new Level(level.generation);
+                    subTree = children;
+                }
+            }
+        }
+        return children;
+    }
 
     @Override
     public String toString() {
         return "NameNode{" +
                 "atomicName='" + atomicName + '\'' +
                 ", atomicHash=" + atomicHash +
-                ", lessTree=" + (lessTree != null ? lessTree.atomicName : "null") +
-                ", grtrTree=" + (grtrTree != null ? grtrTree.atomicName : "null") +
-                ", subTree=" + (subTree != null ? subTree.atomicName : "null") +
-                ", parentTree=" + (parentTree != null ? parentTree.atomicName : "null") +
+                ", subTree=" + (subTree != null ? subTree.nodes.keySet() : "null") +
                 ", parent=" + (parent != null ? parent.atomicName : "null") +
                 ", myObject=" + myObject +
                 ", myContext=" + myContext +
@@ -376,5 +330,65 @@ public class NameNode implements java.io.Serializable {
                 '}';
     }
 
-    private static class Federation extends ArrayList<Context> {};
+    /**
+     * The nodes sharing a parent, keyed by atomic name.  Readers use the
+     * current map without locking, writers copy it under the level lock and
+     * publish the copy.
+     */
+    private static class Level implements java.io.Serializable {
+        private final AtomicLong generation;
+        private volatile Map<String, NameNode> nodes = Collections.emptyMap();
+
+        public Level(AtomicLong generation) {
+            this.generation = generation;
+        }
+
+        public NameNode get(String atomicName) {
+            return nodes.get(atomicName);
+        }
+
+        public boolean isEmpty() {
+            return nodes.isEmpty();
+        }
+
+        public void bind(NameNode parent, ParsedName name, Object obj) throws javax.naming.NameAlreadyBoundException {
+            NameNode node = nodes.get(name.getComponent());
+            if (node == null) {
+                synchronized (this) {
+                    node = nodes.get(name.getComponent());
+                    if (node == null) {
+                        add(new NameNode(parent, name, obj, this));
+                        return;
+                    }
+                }
+            }
+            node.bind(name, obj);
+        }
+
+        public synchronized void add(NameNode node) {
+            final Map<String, NameNode> copy = new LinkedHashMap<String, NameNode>((nodes.size() + 1) * 4 / 3 + 1);
+            copy.putAll(nodes);
+            copy.put(node.atomicName, node);
+            nodes = Collections.unmodifiableMap(copy);
+            generation.incrementAndGet();
+        }
+
+        public synchronized void remove(NameNode node) {
+            if (nodes.get(node.atomicName) != node) return;
+
+            final Map<String, NameNode> copy = new LinkedHashMap<String, NameNode>(nodes);
+            copy.remove(node.atomicName);
+            nodes = Collections.unmodifiableMap(copy);
+            generation.incrementAndGet();
+        }
+    }
+
+    private static class Federation extends ArrayList<Context> {
+        public Federation() {
+        }
+
+        public Federation(Collection<Context> contexts) {
+            super(contexts);
+        }
+    }
 }
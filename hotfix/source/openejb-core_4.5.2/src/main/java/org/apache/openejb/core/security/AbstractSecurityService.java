@@ -30,7 +30,6 @@ import org.apache.openejb.loader.SystemInstance;
 import javax.security.auth.Subject;
 import javax.security.auth.login.LoginException;
 import javax.security.jacc.PolicyContext;
-import javax.security.jacc.EJBMethodPermission;
 import javax.security.jacc.PolicyConfigurationFactory;
 import java.io.Serializable;
 import java.security.AccessControlContext;
@@ -270,14 +269,7 @@ public abstract class AbstractSecurityService implements SecurityService<UUID>,
 
             final BeanContext beanContext = threadContext.getBeanContext();
 
-            final String ejbName = beanContext.getEjbName();
-
-            String name = (type == null)? null: type.getSpecName();
-            if ("LocalBean".equals(name) || "LocalBeanHome".equals(name)) {
-                name = null;
-            }
-
-            final Permission permission = new EJBMethodPermission(ejbName, name, method);
+            final Permission permission = beanContext.getInvocationDescriptor(method).getPermission(type);
 
             if (permission != null) securityContext.acc.checkPermission(permission);
 
@@ -19,6 +19,7 @@ package org.apache.openejb.core.singleton;
 import org.apache.openejb.BeanContext;
 import org.apache.openejb.ContainerType;
 import org.apache.openejb.InterfaceType;
+import org.apache.openejb.InvocationDescriptor;
 import org.apache.openejb.OpenEJBException;
 import org.apache.openejb.ProxyInfo;
 import org.apache.openejb.RpcContainer;
@@ -82,6 +83,10 @@ public class SingletonContainer implements RpcContainer {
         this.accessTimeout = duration;
     }
 
+    public void setStripedLocking(boolean stripedLocking) {
+        instanceManager.setStripedLocking(stripedLocking);
+    }
+
     @Override
     public synchronized BeanContext[] getBeanContexts() {
         return deploymentRegistry.values().toArray(new BeanContext[deploymentRegistry.size()]);
@@ -182,7 +187,8 @@ public class SingletonContainer implements RpcContainer {
         // Use the backup way to determine call type if null was supplied.
         if (type == null) type = beanContext.getInterfaceType(callInterface);
 
-        Method runMethod = beanContext.getMatchingBeanMethod(callMethod);
+        InvocationDescriptor descriptor = beanContext.getInvocationDescriptor(callMethod);
+        Method runMethod = descriptor.getBeanMethod();
 
         ThreadContext callContext = new ThreadContext(beanContext, primKey);
         ThreadContext oldCallContext = ThreadContext.enter(callContext);
@@ -208,7 +214,7 @@ public class SingletonContainer implements RpcContainer {
             callContext.set(Method.class, runMethod);
             callContext.setInvokedInterface(callInterface);
 
-            return _invoke(callMethod, runMethod, args, instance, callContext, type);
+            return _invoke(descriptor, runMethod, args, instance, callContext, type);
 
         } finally {
             ThreadContext.exit(oldCallContext);
@@ -220,17 +226,21 @@ public class SingletonContainer implements RpcContainer {
     }
 
     protected Object _invoke(Method callMethod, Method runMethod, Object[] args, Instance instance, ThreadContext callContext, InterfaceType callType) throws OpenEJBException {
+        return _invoke(callContext.getBeanContext().getInvocationDescriptor(callMethod), runMethod, args, instance, callContext, callType);
+    }
+
+    private Object _invoke(InvocationDescriptor descriptor, Method runMethod, Object[] args, Instance instance, ThreadContext callContext, InterfaceType callType) throws OpenEJBException {
         BeanContext beanContext = callContext.getBeanContext();
 
-        Duration accessTimeout = getAccessTimeout(beanContext, runMethod);
-        boolean read = javax.ejb.LockType.READ.equals(beanContext.getConcurrencyAttribute(runMethod));
+        Duration accessTimeout = getAccessTimeout(beanContext, descriptor.getAccessTimeout());
+        boolean read = javax.ejb.LockType.READ.equals(descriptor.getLockType());
 
         final Lock lock = aquireLock(read, accessTimeout, instance, runMethod);
 
         Object returnValue;
         try {
 
-            TransactionPolicy txPolicy = createTransactionPolicy(beanContext.getTransactionType(callMethod, callType), callContext);
+            TransactionPolicy txPolicy = createTransactionPolicy(descriptor.getTransactionType(callType), callContext);
 
             returnValue = null;
             try {
@@ -238,7 +248,7 @@ public class SingletonContainer implements RpcContainer {
                     callContext.setCurrentOperation(Operation.BUSINESS_WS);
                     returnValue = invokeWebService(args, beanContext, runMethod, instance);
                 } else {
-                    List<InterceptorData> interceptors = beanContext.getMethodInterceptors(runMethod);
+                    List<InterceptorData> interceptors = descriptor.getInterceptors();
                     InterceptorStack interceptorStack = new InterceptorStack(instance.bean, runMethod, callType == InterfaceType.TIMEOUT ? Operation.TIMEOUT : Operation.BUSINESS, interceptors,
                             instance.interceptors);
                     returnValue = interceptorStack.invoke(args);
@@ -268,8 +278,7 @@ public class SingletonContainer implements RpcContainer {
         return returnValue;
     }
 
-    private Duration getAccessTimeout(BeanContext beanContext, Method callMethod) {
-        Duration accessTimeout = beanContext.getAccessTimeout(callMethod);
+    private Duration getAccessTimeout(BeanContext beanContext, Duration accessTimeout) {
         if (accessTimeout == null) {
             accessTimeout = beanContext.getAccessTimeout();
             if (accessTimeout == null) {
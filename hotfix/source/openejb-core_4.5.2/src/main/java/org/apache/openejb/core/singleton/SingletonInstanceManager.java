@@ -30,6 +30,7 @@ import org.apache.openejb.core.timer.TimerServiceWrapper;
 import org.apache.openejb.core.transaction.EjbTransactionUtil;
 import org.apache.openejb.core.transaction.TransactionPolicy;
 import org.apache.openejb.core.transaction.TransactionType;
+import org.apache.openejb.loader.Options;
 import org.apache.openejb.loader.SystemInstance;
 import org.apache.openejb.monitoring.LocalMBeanServer;
 import org.apache.openejb.monitoring.ManagedMBean;
@@ -39,6 +40,7 @@ import org.apache.openejb.spi.ContainerSystem;
 import org.apache.openejb.spi.SecurityService;
 import org.apache.openejb.util.LogCategory;
 import org.apache.openejb.util.Logger;
+import org.apache.openejb.util.StripedReadWriteLock;
 
 import javax.ejb.EJBContext;
 import javax.ejb.NoSuchEJBException;
@@ -70,6 +72,7 @@ public class SingletonInstanceManager {
     private SecurityService securityService;
     private final SingletonContext sessionContext;
     private final WebServiceContext webServiceContext;
+    private boolean stripedLocking;
 
     public SingletonInstanceManager(SecurityService securityService) {
         this.securityService = securityService;
@@ -77,6 +80,10 @@ public class SingletonInstanceManager {
         webServiceContext = new EjbWsContext(sessionContext);
     }
 
+    public void setStripedLocking(boolean stripedLocking) {
+        this.stripedLocking = stripedLocking;
+    }
+
     protected void start(BeanContext beanContext) throws OpenEJBException {
         if (beanContext.isLoadOnStartup()) {
             initialize(beanContext);
@@ -193,7 +200,12 @@ public class SingletonInstanceManager {
                 lock = new BeanManagedLock();
             } else {
                 // Container-Managed Concurrency
-                lock = new ReentrantReadWriteLock();
+                final Options options = new Options(beanContext.getProperties());
+                if (options.get("StripedLocking", stripedLocking)) {
+                    lock = new StripedReadWriteLock();
+                } else {
+                    lock = new ReentrantReadWriteLock();
+                }
             }
 
             return new Instance(context.getBean(), context.getInterceptors(), context.getCreationalContext(), lock);
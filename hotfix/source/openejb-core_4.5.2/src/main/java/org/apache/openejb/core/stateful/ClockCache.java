@@ -0,0 +1,639 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.stateful;
+
+import org.apache.openejb.OpenEJBRuntimeException;
+import org.apache.openejb.loader.IO;
+import org.apache.openejb.util.Duration;
+import org.apache.openejb.util.LogCategory;
+import org.apache.openejb.util.Logger;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link Cache} that picks the beans to passivate with the CLOCK
+ * algorithm instead of keeping them in least recently used order.
+ * <p/>
+ * {@link SimpleCache} moves every bean in and out of a shared queue on
+ * each check-out and check-in, and removing from the middle of that queue
+ * walks it.  Here check-in only flags the bean as recently used and
+ * check-out does not touch any shared structure, both only take the lock
+ * of the bean itself.
+ * <p/>
+ * When there are more available beans than the capacity, checked on
+ * check-in and by {@link #processLRU()}, a single thread at a time sweeps the beans with a hand that keeps its place between
+ * sweeps.  A recently used bean gets a second chance, its flag is cleared
+ * and the hand moves on, any other available bean is passivated, or
+ * destroyed if it already timed out, until {@code bulkPassivate} beans
+ * were found.  Timed out beans are destroyed by {@link #processLRU()}
+ * like in {@link SimpleCache}.
+ * <p/>
+ * It is configured with the same properties as {@link SimpleCache}.
+ *
+ * @version $Rev$ $Date$
+ */
+public class ClockCache<K, V> implements Cache<K, V> {
+    public static final Logger logger = Logger.getInstance(LogCategory.OPENEJB, "org.apache.openejb.util.resources");
+
+    /**
+     * Map of all known values by key
+     */
+    private final ConcurrentHashMap<K, Entry> cache = new ConcurrentHashMap<K, Entry>();
+
+    /**
+     * Number of values not in use, the ones that could be passivated
+     */
+    private final AtomicInteger available = new AtomicInteger();
+
+    /**
+     * Held by the thread moving the hand
+     */
+    private final ReentrantLock sweep = new ReentrantLock();
+
+    /**
+     * The clock hand, guarded by the sweep lock
+     */
+    private Iterator<Entry> hand;
+
+    /**
+     * Notified when values are loaded, stored, or timedOut
+     */
+    private volatile CacheListener<V> listener;
+
+    /**
+     * Used to load and store values
+     */
+    private volatile PassivationStrategy passivator;
+
+    /**
+     * Maximum number of values that should be available
+     */
+    private volatile int capacity;
+
+    /**
+     * When the capacity is exceeded, this is the is the number of beans stored.
+     */
+    private volatile int bulkPassivate;
+
+    /**
+     * A bean may be destroyed if it isn't used in this length of time (in
+     * milliseconds).
+     * A time out of value -1 means a bean will never be destroyed due to time out.
+     * A time out of value 0 means a bean can be immediately destroyed.
+     */
+    private volatile long timeOut = -1;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Specifies how often the cache is checked for timed out beans.
+     */
+    private volatile long frequency = 60 * 1000;
+
+    private ScheduledFuture future;
+
+    public ClockCache() {
+    }
+
+    public ClockCache(CacheListener<V> listener, PassivationStrategy passivator, int capacity, int bulkPassivate, Duration timeOut) {
+        this.listener = listener;
+        this.passivator = passivator;
+        this.capacity = capacity;
+        this.bulkPassivate = bulkPassivate;
+        this.timeOut = timeOut.getTime(TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void init() {
+        if (frequency > 0 && future == null) {
+            if (executor == null) {
+                executor = Executors.newScheduledThreadPool(1, new ThreadFactory() {
+                    public Thread newThread(Runnable runable) {
+                        Thread t = new Thread(runable, "Stateful cache");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+
+            future = executor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    processLRU();
+                }
+            }, frequency, frequency, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void destroy() {
+        if (future != null) {
+            future.cancel(false);
+        }
+        if (passivator instanceof Closeable) {
+            IO.close((Closeable) passivator);
+        }
+    }
+
+    public CacheListener<V> getListener() {
+        return listener;
+    }
+
+    public void setListener(CacheListener<V> listener) {
+        this.listener = listener;
+    }
+
+    public PassivationStrategy getPassivator() {
+        return passivator;
+    }
+
+    public void setPassivator(PassivationStrategy passivator) {
+        this.passivator = passivator;
+    }
+
+    public void setPassivator(Class<? extends PassivationStrategy> passivatorClass) throws Exception {
+        this.passivator = passivatorClass.newInstance();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    // Old configurations use "PoolSize" to configure max cache size
+    public void setPoolSize(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getBulkPassivate() {
+        return bulkPassivate;
+    }
+
+    public void setBulkPassivate(int bulkPassivate) {
+        this.bulkPassivate = bulkPassivate;
+    }
+
+    public long getTimeOut() {
+        return timeOut;
+    }
+
+    public void setTimeOut(final String timeOut) {
+        this.timeOut = ms(timeOut, TimeUnit.MINUTES);
+    }
+
+    public synchronized void setScheduledExecutorService(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public synchronized ScheduledExecutorService getScheduledExecutorService() {
+        return executor;
+    }
+
+    public void setFrequency(final String frequency) {
+        this.frequency = ms(frequency, TimeUnit.SECONDS);
+    }
+
+    public long getFrequency() {
+        return frequency;
+    }
+
+    /**
+     * @return the number of values not in use
+     */
+    public int getAvailable() {
+        return available.get();
+    }
+
+    private static long ms(final String durationValue, final TimeUnit defaultTU) {
+        final Duration duration = new Duration(durationValue.trim());
+        // the unit was not always required, use the old default
+        if (duration.getUnit() == null) {
+            duration.setUnit(defaultTU);
+        }
+        return duration.getUnit().toMillis(duration.getTime());
+    }
+
+    public void add(K key, V value) {
+        // find the existing entry
+        Entry entry = cache.get(key);
+        if (entry != null) {
+            entry.lock.lock();
+            try {
+                if (entry.getState() != EntryState.REMOVED) {
+                    throw new IllegalStateException("An entry for the key " + key + " already exists");
+                }
+                // Entry has been removed between get and lock, simply remove the garbage entry
+                cache.remove(key, entry);
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+
+        entry = new Entry(key, value, EntryState.CHECKED_OUT);
+        cache.put(key, entry);
+    }
+
+    public V checkOut(K key, boolean loadEntryIfNotFound) throws Exception {
+        // attempt (up to 10 times) to obtain the entry from the cache
+        for (int i = 0; i < 10; i++) {
+            // find the entry
+            Entry entry = cache.get(key);
+            if (!loadEntryIfNotFound && entry == null) {
+                return null;
+            }
+            if (entry == null) {
+                entry = loadEntry(key);
+                if (entry == null) {
+                    return null;
+                }
+            }
+
+            entry.lock.lock();
+            try {
+                // verfiy state
+                switch (entry.getState()) {
+                    case AVAILABLE:
+                        break;
+                    case CHECKED_OUT:
+                        throw new IllegalStateException("The entry " + key + " is already checked-out");
+                    case PASSIVATED:
+                        // Entry was passivated between get and lock, we need to load the Entry again
+                        cache.remove(key, entry);
+                        continue;
+                    case REMOVED:
+                        // Entry has been removed between get and lock (most likely by undeploying the EJB), simply drop the instance
+                        return null;
+                }
+
+                // mark entry as in-use
+                entry.setState(EntryState.CHECKED_OUT);
+
+                return entry.getValue();
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+
+        // something is really messed up with this entry, try to cleanup before throwing an exception
+        cache.remove(key);
+        throw new OpenEJBRuntimeException("Cache is corrupted: the entry " + key + " in the Map 'cache' is in state PASSIVATED");
+    }
+
+    public void checkIn(K key) {
+        // find the entry
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            return;
+        }
+
+        entry.lock.lock();
+        try {
+            // verfiy state
+            switch (entry.getState()) {
+                case AVAILABLE:
+                    entry.resetTimeOut();
+                    return;
+                case PASSIVATED:
+                    // An entry in-use should not be passivated so we can only assume
+                    // that the caller never checked out the bean in the first place
+                    throw new IllegalStateException("The entry " + key + " is not checked-out");
+                case REMOVED:
+                    // Entry has been removed between get and lock (most likely by undeploying the EJB), simply drop the instance
+                    return;
+            }
+
+            // mark entry as available and recently used
+            entry.setState(EntryState.AVAILABLE);
+            entry.referenced = true;
+            entry.resetTimeOut();
+        } finally {
+            entry.lock.unlock();
+        }
+
+        if (frequency == 0) {
+            processLRU();
+        } else if (available.get() > capacity) {
+            passivate();
+        }
+    }
+
+    public V remove(K key) {
+        // find the entry
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        entry.lock.lock();
+        try {
+            cache.remove(key, entry);
+
+            // There is no need to check the state because users of the cache
+            // are responsible for maintaining references to beans in use
+
+            // mark the entry as removed
+            entry.setState(EntryState.REMOVED);
+
+            return entry.getValue();
+        } finally {
+            entry.lock.unlock();
+        }
+    }
+
+    public void removeAll(CacheFilter<V> filter) {
+        for (Iterator<Entry> iterator = cache.values().iterator(); iterator.hasNext();) {
+            Entry entry = iterator.next();
+
+            entry.lock.lock();
+            try {
+                if (filter.matches(entry.getValue())) {
+                    iterator.remove();
+
+                    // There is no need to check the state because users of the cache
+                    // are responsible for maintaining references to beans in use
+
+                    // mark the entry as removed
+                    entry.setState(EntryState.REMOVED);
+                }
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+    }
+
+    public void processLRU() {
+        // check for timed out entries, they might all have different timeouts
+        for (Entry entry : cache.values()) {
+            // an entry we cannot lock right away is in use and cannot time out
+            if (!entry.lock.tryLock()) continue;
+            try {
+                if (entry.getState() == EntryState.AVAILABLE && entry.isTimedOut()) {
+                    timedOut(entry);
+                }
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+
+        if (available.get() >= capacity) {
+            passivate();
+        }
+    }
+
+    /**
+     * Moves the hand until bulkPassivate entries were passivated or
+     * destroyed, or every entry was seen twice.
+     */
+    private void passivate() {
+        // someone else is already on it
+        if (!sweep.tryLock()) return;
+
+        final Map<K, V> valuesToStore = new LinkedHashMap<K, V>();
+        final List<Entry> entries = new ArrayList<Entry>();
+        try {
+            final int bulkPassivate = Math.max(1, getBulkPassivate());
+
+            int found = 0;
+            for (int steps = 2 * cache.size() + 1; found < bulkPassivate && steps > 0; steps--) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = cache.values().iterator();
+                    if (!hand.hasNext()) break;
+                }
+
+                final Entry entry = hand.next();
+
+                // an entry we cannot lock right away is in use
+                if (!entry.lock.tryLock()) continue;
+                try {
+                    if (entry.getState() != EntryState.AVAILABLE) continue;
+
+                    // second chance for the recently used
+                    if (entry.referenced) {
+                        entry.referenced = false;
+                        continue;
+                    }
+
+                    found++;
+
+                    if (entry.isTimedOut()) {
+                        timedOut(entry);
+                    } else {
+                        // entry will be passivated, so we need to obtain an additional lock until the passivation is complete
+                        entry.lock.lock();
+                        entries.add(entry);
+
+                        entry.setState(EntryState.PASSIVATED);
+                        valuesToStore.put(entry.getKey(), entry.getValue());
+                    }
+                } finally {
+                    entry.lock.unlock();
+                }
+            }
+        } finally {
+            sweep.unlock();
+        }
+
+        if (!valuesToStore.isEmpty()) {
+            try {
+                storeEntries(valuesToStore);
+            } finally {
+                for (Entry entry : entries) {
+                    // only now, a concurrent check-out must not look for it in the store before it is there
+                    cache.remove(entry.getKey(), entry);
+
+                    // release the extra passivation lock
+                    entry.lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Called with the entry lock held
+     */
+    private void timedOut(final Entry entry) {
+        cache.remove(entry.getKey(), entry);
+        entry.setState(EntryState.REMOVED);
+
+        // notify listener that the entry has been removed
+        final CacheListener<V> listener = getListener();
+        if (listener != null) {
+            try {
+                listener.timedOut(entry.getValue());
+            } catch (Exception e) {
+                logger.error("An unexpected exception occured from timedOut callback", e);
+            }
+        }
+    }
+
+    private Entry loadEntry(K key) throws Exception {
+        PassivationStrategy passivator = getPassivator();
+        if (passivator == null) {
+            return null;
+        }
+
+        V value = null;
+        try {
+            value = (V) passivator.activate(key);
+        } catch (Exception e) {
+            logger.error("An unexpected exception occured while reading entries from disk", e);
+        }
+
+        if (value == null) {
+            return null;
+        }
+
+        CacheListener<V> listener = this.getListener();
+        if (listener != null) {
+            listener.afterLoad(value);
+        }
+        Entry entry = new Entry(key, value, EntryState.AVAILABLE);
+        cache.put(key, entry);
+        return entry;
+    }
+
+    private void storeEntries(Map<K, V> entriesToStore) {
+        CacheListener<V> listener = this.getListener();
+        for (Iterator<Map.Entry<K, V>> iterator = entriesToStore.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<K, V> entry = iterator.next();
+
+            if (listener != null) {
+                try {
+                    listener.beforeStore(entry.getValue());
+                } catch (Exception e) {
+                    iterator.remove();
+                    logger.error("An unexpected exception occured from beforeStore callback", e);
+                }
+            }
+        }
+
+        PassivationStrategy passivator = getPassivator();
+        if (passivator == null) {
+            return;
+        }
+
+        try {
+            passivator.passivate(entriesToStore);
+        } catch (Exception e) {
+            logger.error("An unexpected exception occured while writting the entries to disk", e);
+        }
+    }
+
+    private enum EntryState {
+        AVAILABLE, CHECKED_OUT, PASSIVATED, REMOVED
+    }
+
+    private class Entry {
+        private final K key;
+        private final V value;
+        private final ReentrantLock lock = new ReentrantLock();
+        private EntryState state;
+        private long lastAccess;
+        private long timeOut;
+
+        /**
+         * The clock bit, set on check-in and cleared by the passing hand
+         */
+        private volatile boolean referenced;
+
+        private Entry(K key, V value, EntryState state) {
+            this.key = key;
+            this.value = value;
+            this.state = state;
+
+            if (state == EntryState.AVAILABLE) {
+                available.incrementAndGet();
+            }
+
+            if (value instanceof Cache.TimeOut) {
+                Duration duration = ((Cache.TimeOut) value).getTimeOut();
+                this.timeOut = (duration != null) ? duration.getTime(TimeUnit.MILLISECONDS) : getTimeOut();
+            } else {
+                this.timeOut = getTimeOut();
+            }
+
+            lastAccess = System.currentTimeMillis();
+        }
+
+        private K getKey() {
+            assertLockHeld();
+            return key;
+        }
+
+        private V getValue() {
+            assertLockHeld();
+            return value;
+        }
+
+        private EntryState getState() {
+            assertLockHeld();
+            return state;
+        }
+
+        private void setState(EntryState state) {
+            assertLockHeld();
+
+            if (this.state == EntryState.AVAILABLE && state != EntryState.AVAILABLE) {
+                available.decrementAndGet();
+            } else if (this.state != EntryState.AVAILABLE && state == EntryState.AVAILABLE) {
+                available.incrementAndGet();
+            }
+
+            this.state = state;
+        }
+
+        private boolean isTimedOut() {
+            assertLockHeld();
+
+            if (timeOut < 0) {
+                return false;
+            } else if (timeOut == 0) {
+                return true;
+            } else {
+                long now = System.currentTimeMillis();
+                return (now - lastAccess) > timeOut;
+            }
+        }
+
+        private void resetTimeOut() {
+            assertLockHeld();
+
+            if (timeOut > 0) {
+                lastAccess = System.currentTimeMillis();
+            }
+        }
+
+        private void assertLockHeld() {
+            if (!lock.isHeldByCurrentThread()) {
+                throw new IllegalStateException("Entry must be locked");
+            }
+        }
+    }
+}
@@ -0,0 +1,524 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.stateful;
+
+import org.apache.openejb.SystemException;
+import org.apache.openejb.core.EnvProps;
+import org.apache.openejb.core.ivm.EjbObjectInputStream;
+import org.apache.openejb.loader.Options;
+import org.apache.openejb.loader.SystemInstance;
+import org.apache.openejb.monitoring.LocalMBeanServer;
+import org.apache.openejb.monitoring.Managed;
+import org.apache.openejb.monitoring.ManagedMBean;
+import org.apache.openejb.monitoring.ObjectNameBuilder;
+import org.apache.openejb.monitoring.Stats;
+import org.apache.openejb.util.LogCategory;
+import org.apache.openejb.util.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Passivates beans into a log of memory-mapped segment files instead of
+ * one file per bean.
+ * <p/>
+ * A bulk passivation from the {@link SimpleCache} is serialized first and
+ * then appended to the current segment in one go.  An in-memory index
+ * keeps where each bean was written, activating a bean reads its record
+ * back and forgets it.  Segments without any bean left are deleted, and
+ * once less than {@value #COMPACTION_THRESHOLD} percent of a segment is
+ * still in use the remaining beans are copied to the current segment so
+ * the old one can go.
+ * <p/>
+ * The log only lives as long as the container: {@link #close()}, called
+ * when the container is destroyed, unregisters the MBean, unmaps the
+ * segments and deletes them.  A VM exiting first closes it from a
+ * shutdown hook.
+ * <p/>
+ * Settings, all read from the container properties:
+ * <ul>
+ * <li>{@value #SEGMENT_SIZE}: size of a segment in megabytes, 64 by default</li>
+ * <li>{@value #COMPRESS}: deflate the bean state, false by default</li>
+ * <li>{@value #COMPACTION_THRESHOLD}: percentage of a segment that must
+ * still be in use, 50 by default</li>
+ * </ul>
+ *
+ * @version $Rev$ $Date$
+ */
+@Managed
+public class MappedPassivater implements PassivationStrategy, Closeable {
+
+    public static final String SEGMENT_SIZE = "SegmentSize";
+    public static final String COMPRESS = "CompressPassivation";
+    public static final String COMPACTION_THRESHOLD = "CompactionThreshold";
+
+    /**
+     * Set by the {@link StatefulContainerFactory}, names the MBean
+     */
+    public static final String CONTAINER_ID = "ContainerId";
+
+    private static final Logger logger = Logger.getInstance(LogCategory.OPENEJB, "org.apache.openejb.util.resources");
+
+    /**
+     * int length followed by a byte of flags
+     */
+    private static final int HEADER = 5;
+    private static final byte COMPRESSED = 1;
+
+    private File baseDirectory = new File(System.getProperty("java.io.tmpdir", File.separator + "tmp"));
+    private File directory;
+    private int segmentSize = 64 * 1024 * 1024;
+    private boolean compress;
+    private int compactionThreshold = 50;
+    private ObjectName objectName;
+
+    /**
+     * Guarded by this
+     */
+    private final Map<Object, Record> index = new HashMap<Object, Record>();
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private Segment active;
+    private int segmentCount;
+    private Thread shutdownHook;
+
+    @Managed
+    private final AtomicLong bytesWritten = new AtomicLong();
+    @Managed
+    private final AtomicLong bytesCompacted = new AtomicLong();
+    @Managed
+    private final AtomicLong passivations = new AtomicLong();
+    @Managed
+    private final Stats activationTime = new Stats();
+
+    @Override
+    public synchronized void init(Properties props) throws SystemException {
+        if (props == null) {
+            props = new Properties();
+        }
+
+        final Options options = new Options(props);
+        final int megabytes = options.get(SEGMENT_SIZE, segmentSize / (1024 * 1024));
+        compress = options.get(COMPRESS, compress);
+        compactionThreshold = options.get(COMPACTION_THRESHOLD, compactionThreshold);
+
+        if (megabytes < 1 || megabytes > 2047) {
+            throw new SystemException(SEGMENT_SIZE + " must be between 1 and 2047 megabytes: " + props.getProperty(SEGMENT_SIZE));
+        }
+        segmentSize = megabytes * 1024 * 1024;
+
+        final String dir = props.getProperty(EnvProps.IM_PASSIVATOR_PATH_PREFIX);
+        try {
+            if (dir != null) {
+                baseDirectory = SystemInstance.get().getBase().getDirectory(dir);
+            }
+        } catch (IOException e) {
+            throw new SystemException(getClass().getName() + ".init(): can't use directory prefix " + dir + ":" + e, e);
+        }
+
+        final String id = props.getProperty(CONTAINER_ID);
+        if (id != null) {
+            register(id);
+        }
+    }
+
+    private void register(final String id) {
+        final MBeanServer server = LocalMBeanServer.get();
+        try {
+            if (objectName != null && server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+
+            final ObjectNameBuilder jmxName = new ObjectNameBuilder("openejb.management");
+            jmxName.set("J2EEServer", "openejb");
+            jmxName.set("J2EEApplication", null);
+            jmxName.set("j2eeType", "Passivation");
+            jmxName.set("name", id);
+            objectName = jmxName.build();
+
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new ManagedMBean(this), objectName);
+        } catch (Exception e) {
+            logger.error("Unable to register MBean ", e);
+        }
+    }
+
+    /**
+     * Unregisters the MBean and deletes the log, the beans still passivated
+     * are lost.  A later passivation starts a new log.
+     */
+    @Override
+    public synchronized void close() {
+        if (objectName != null) {
+            try {
+                final MBeanServer server = LocalMBeanServer.get();
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (Exception e) {
+                logger.debug("Unable to unregister MBean " + objectName, e);
+            }
+            objectName = null;
+        }
+
+        index.clear();
+        active = null;
+        for (final Segment segment : new ArrayList<Segment>(segments)) {
+            delete(segment);
+        }
+
+        if (directory != null) {
+            if (!directory.delete()) {
+                logger.warning("Failed to delete passivation directory " + directory);
+            }
+            directory = null;
+        }
+
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // the VM is exiting, we are being called from the hook
+            }
+            shutdownHook = null;
+        }
+    }
+
+    @Override
+    public void passivate(final Map stateTable) throws SystemException {
+        // serialize outside of the lock, only the copy into the log is serialized
+        final Map<Object, byte[]> records = new HashMap<Object, byte[]>();
+        for (final Object o : stateTable.entrySet()) {
+            final Map.Entry entry = (Map.Entry) o;
+            records.put(entry.getKey(), serialize(entry.getValue()));
+        }
+
+        synchronized (this) {
+            try {
+                for (final Map.Entry<Object, byte[]> entry : records.entrySet()) {
+                    // release the previous state first, it may be in the active segment
+                    final Record previous = index.remove(entry.getKey());
+                    if (previous != null) release(previous);
+                    index.put(entry.getKey(), append(entry.getKey(), entry.getValue()));
+                }
+                passivations.addAndGet(records.size());
+
+                compact();
+            } catch (IOException e) {
+                logger.error("Passivation failed ", e);
+                throw new SystemException(e);
+            }
+        }
+    }
+
+    @Override
+    public Object activate(final Object primaryKey) throws SystemException {
+        final long start = System.nanoTime();
+
+        final byte[] bytes;
+        final boolean compressed;
+        synchronized (this) {
+            final Record record = index.remove(primaryKey);
+            if (record == null) {
+                return null;
+            }
+
+            final ByteBuffer buffer = record.segment.buffer.duplicate();
+            buffer.position(record.offset + HEADER);
+            bytes = new byte[record.length - HEADER];
+            buffer.get(bytes);
+            compressed = (record.segment.buffer.get(record.offset + 4) & COMPRESSED) != 0;
+
+            release(record);
+        }
+
+        try {
+            InputStream in = new ByteArrayInputStream(bytes);
+            if (compressed) {
+                in = new InflaterInputStream(in);
+            }
+            final ObjectInputStream ois = new EjbObjectInputStream(in);
+            try {
+                return ois.readObject();
+            } finally {
+                ois.close();
+            }
+        } catch (Exception e) {
+            logger.info("Activation failed ", e);
+            throw new SystemException(e);
+        } finally {
+            activationTime.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
+    }
+
+    private byte[] serialize(final Object state) throws SystemException {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+            // leave room for the header, it is filled in when written to the log
+            bytes.write(new byte[HEADER]);
+
+            Deflater deflater = null;
+            OutputStream out = bytes;
+            if (compress) {
+                deflater = new Deflater(Deflater.BEST_SPEED);
+                out = new DeflaterOutputStream(bytes, deflater);
+            }
+
+            final ObjectOutputStream oos = new ObjectOutputStream(out);
+            try {
+                oos.writeObject(state);
+            } finally {
+                oos.close();
+                if (deflater != null) deflater.end();
+            }
+
+            final byte[] record = bytes.toByteArray();
+            final ByteBuffer header = ByteBuffer.wrap(record);
+            header.putInt(record.length);
+            header.put(compress ? COMPRESSED : 0);
+            return record;
+        } catch (NotSerializableException nse) {
+            logger.error("Passivation failed ", nse);
+            throw (SystemException) new SystemException("The type " + nse.getMessage() + " is not serializable as mandated by the EJB specification.").initCause(nse);
+        } catch (IOException e) {
+            logger.error("Passivation failed ", e);
+            throw new SystemException(e);
+        }
+    }
+
+    /**
+     * Called with the lock held
+     */
+    private Record append(final Object key, final byte[] bytes) throws IOException {
+        if (active == null || active.buffer.remaining() < bytes.length) {
+            active = newSegment(Math.max(segmentSize, bytes.length));
+        }
+
+        final Record record = new Record(key, active, active.buffer.position(), bytes.length);
+        active.buffer.put(bytes);
+        active.live.put(key, record);
+        active.liveBytes += bytes.length;
+
+        bytesWritten.addAndGet(bytes.length);
+        return record;
+    }
+
+    /**
+     * Called with the lock held
+     */
+    private void release(final Record record) {
+        final Segment segment = record.segment;
+        if (segment.live.get(record.key) != record) return;
+
+        segment.live.remove(record.key);
+        segment.liveBytes -= record.length;
+
+        if (segment.live.isEmpty() && segment != active) {
+            delete(segment);
+        }
+    }
+
+    /**
+     * Moves the beans still in mostly empty segments to the active one.
+     * Called with the lock held.
+     */
+    private void compact() throws IOException {
+        final List<Segment> sparse = new ArrayList<Segment>();
+        for (final Segment segment : segments) {
+            if (segment == active) continue;
+
+            final int used = segment.buffer.position();
+            if (segment.liveBytes * 100L < (long) used * compactionThreshold) {
+                sparse.add(segment);
+            }
+        }
+
+        for (final Segment segment : sparse) {
+            for (final Iterator<Record> iterator = segment.live.values().iterator(); iterator.hasNext(); ) {
+                final Record record = iterator.next();
+                iterator.remove();
+
+                final byte[] bytes = new byte[record.length];
+                final ByteBuffer buffer = segment.buffer.duplicate();
+                buffer.position(record.offset);
+                buffer.get(bytes);
+
+                index.put(record.key, append(record.key, bytes));
+                bytesCompacted.addAndGet(record.length);
+            }
+            segment.liveBytes = 0;
+            delete(segment);
+        }
+    }
+
+    private Segment newSegment(final int size) throws IOException {
+        if (directory == null) {
+            directory = File.createTempFile("passivation", "", baseDirectory);
+            if (!directory.delete() || !directory.mkdirs()) {
+                throw new IOException("Failed to create passivation directory: " + directory.getAbsolutePath());
+            }
+            logger.info("Using directory " + directory + " for stateful session passivation");
+
+            if (shutdownHook == null) {
+                shutdownHook = new Thread("Passivation log cleanup") {
+                    @Override
+                    public void run() {
+                        close();
+                    }
+                };
+                Runtime.getRuntime().addShutdownHook(shutdownHook);
+            }
+        }
+
+        final File file = new File(directory, "segment" + (++segmentCount) + ".log");
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            final Segment segment = new Segment(file, buffer);
+            segments.add(segment);
+            return segment;
+        } finally {
+            // the mapping stays valid once the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Called with the lock held, nothing reads the segment afterwards
+     */
+    private void delete(final Segment segment) {
+        segments.remove(segment);
+        unmap(segment.buffer);
+        if (!segment.file.delete()) {
+            segment.file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Releases the mapping now rather than when the buffer is collected,
+     * some platforms do not delete a file while it is mapped.
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            final Method getCleaner = buffer.getClass().getMethod("cleaner");
+            getCleaner.setAccessible(true);
+            final Object cleaner = getCleaner.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            // not a HotSpot buffer, the mapping goes away with the buffer
+            logger.debug("Unable to unmap passivation segment", e);
+        }
+    }
+
+    @Managed
+    public synchronized int getSegments() {
+        return segments.size();
+    }
+
+    @Managed
+    public synchronized int getPassivatedBeans() {
+        return index.size();
+    }
+
+    @Managed
+    public synchronized long getLiveBytes() {
+        long bytes = 0;
+        for (final Segment segment : segments) {
+            bytes += segment.liveBytes;
+        }
+        return bytes;
+    }
+
+    @Managed
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    @Managed
+    public boolean isCompressed() {
+        return compress;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long getBytesCompacted() {
+        return bytesCompacted.get();
+    }
+
+    public Stats getActivationTime() {
+        return activationTime;
+    }
+
+    private static final class Segment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private final Map<Object, Record> live = new HashMap<Object, Record>();
+        private long liveBytes;
+
+        private Segment(final File file, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class Record {
+        private final Object key;
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+
+        private Record(final Object key, final Segment segment, final int offset, final int length) {
+            this.key = key;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.openejb.core.stateful;
 
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -32,6 +33,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.openejb.OpenEJBRuntimeException;
+import org.apache.openejb.loader.IO;
 import org.apache.openejb.util.LogCategory;
 import org.apache.openejb.util.Logger;
 import org.apache.openejb.util.Duration;
@@ -114,6 +116,9 @@ public class SimpleCache<K, V> implements Cache<K, V> {
         if (future != null) {
             future.cancel(false);
         }
+        if (passivator instanceof Closeable) {
+            IO.close((Closeable) passivator);
+        }
     }
     
     private synchronized void initScheduledExecutorService() {
@@ -20,6 +20,7 @@ import org.apache.openejb.ApplicationException;
 import org.apache.openejb.BeanContext;
 import org.apache.openejb.ContainerType;
 import org.apache.openejb.InterfaceType;
+import org.apache.openejb.InvocationDescriptor;
 import org.apache.openejb.InvalidateReferenceException;
 import org.apache.openejb.OpenEJBException;
 import org.apache.openejb.OpenEJBRuntimeException;
@@ -257,6 +258,14 @@ public class StatefulContainer implements RpcContainer {
         return deploymentsById.get(deploymentID);
     }
 
+    /**
+     * Destroys the cache, and with it the passivated beans, once the
+     * container is removed.
+     */
+    public void destroy() {
+        cache.destroy();
+    }
+
     @Override
     public void start(final BeanContext beanContext) throws OpenEJBException {
     }
@@ -633,8 +642,10 @@ public class StatefulContainer implements RpcContainer {
             // Security check
             checkAuthorization(callMethod, interfaceType);
 
+            final InvocationDescriptor descriptor = beanContext.getInvocationDescriptor(callMethod);
+
             // Start transaction
-            final TransactionPolicy txPolicy = createTransactionPolicy(callContext.getBeanContext().getTransactionType(callMethod, interfaceType), callContext);
+            final TransactionPolicy txPolicy = createTransactionPolicy(descriptor.getTransactionType(interfaceType), callContext);
 
             Object returnValue = null;
             Instance instance = null;
@@ -662,11 +673,11 @@ public class StatefulContainer implements RpcContainer {
                 callContext.setCurrentOperation(Operation.BUSINESS);
                 callContext.setCurrentAllowedStates(null);
                 callContext.setInvokedInterface(callInterface);
-                final Method runMethod = beanContext.getMatchingBeanMethod(callMethod);
+                final Method runMethod = descriptor.getBeanMethod();
                 callContext.set(Method.class, runMethod);
 
                 // Initialize interceptor stack
-                final List<InterceptorData> interceptors = beanContext.getMethodInterceptors(runMethod);
+                final List<InterceptorData> interceptors = descriptor.getInterceptors();
                 final InterceptorStack interceptorStack = new InterceptorStack(instance.bean, runMethod, Operation.BUSINESS, interceptors, instance.interceptors);
 
                 // Invoke
@@ -754,10 +765,8 @@ public class StatefulContainer implements RpcContainer {
         return instance;
     }
 
-    private Duration getAccessTimeout(final BeanContext beanContext, Method callMethod) {
-        callMethod = beanContext.getMatchingBeanMethod(callMethod);
-
-        Duration accessTimeout = beanContext.getAccessTimeout(callMethod);
+    private Duration getAccessTimeout(final BeanContext beanContext, final Method callMethod) {
+        Duration accessTimeout = beanContext.getInvocationDescriptor(callMethod).getAccessTimeout();
         if (accessTimeout == null) {
             accessTimeout = beanContext.getAccessTimeout();
             if (accessTimeout == null) {
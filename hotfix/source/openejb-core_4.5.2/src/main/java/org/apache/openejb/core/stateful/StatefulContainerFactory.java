@@ -87,6 +87,18 @@ public class StatefulContainerFactory {
     public void setFrequency(String s) {
         properties.put("Frequency", s);
     }
+
+    public void setSegmentSize(String s) {
+        properties.put(MappedPassivater.SEGMENT_SIZE, s);
+    }
+
+    public void setCompressPassivation(String s) {
+        properties.put(MappedPassivater.COMPRESS, s);
+    }
+
+    public void setCompactionThreshold(String s) {
+        properties.put(MappedPassivater.COMPACTION_THRESHOLD, s);
+    }
     
     public Properties getProperties() {
         return properties;
@@ -136,6 +148,20 @@ public class StatefulContainerFactory {
 
         // assign value
         this.cache = (Cache<Object, Instance>) cache;
+
+        // the passivator is created by the cache, hand it the container settings
+        PassivationStrategy passivator = null;
+        if (cache instanceof SimpleCache) {
+            passivator = ((SimpleCache) cache).getPassivator();
+        } else if (cache instanceof ClockCache) {
+            passivator = ((ClockCache) cache).getPassivator();
+        }
+        if (passivator != null) {
+            Properties passivatorProperties = new Properties();
+            passivatorProperties.putAll(properties);
+            passivatorProperties.setProperty(MappedPassivater.CONTAINER_ID, String.valueOf(id));
+            passivator.init(passivatorProperties);
+        }
     }
 
     private Object getProperty(String name) {
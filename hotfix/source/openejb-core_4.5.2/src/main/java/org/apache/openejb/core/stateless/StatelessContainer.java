@@ -40,6 +40,7 @@ import org.apache.openejb.ApplicationException;
 import org.apache.openejb.BeanContext;
 import org.apache.openejb.ContainerType;
 import org.apache.openejb.InterfaceType;
+import org.apache.openejb.InvocationDescriptor;
 import org.apache.openejb.OpenEJBException;
 import org.apache.openejb.ProxyInfo;
 import org.apache.openejb.SystemException;
@@ -163,7 +164,8 @@ public class StatelessContainer implements org.apache.openejb.RpcContainer {
         // Use the backup way to determine call type if null was supplied.
         if (type == null) type = beanContext.getInterfaceType(callInterface);
 
-        Method runMethod = beanContext.getMatchingBeanMethod(callMethod);
+        InvocationDescriptor descriptor = beanContext.getInvocationDescriptor(callMethod);
+        Method runMethod = descriptor.getBeanMethod();
 
         ThreadContext callContext = new ThreadContext(beanContext, primKey);
         ThreadContext oldCallContext = ThreadContext.enter(callContext);
@@ -188,7 +190,7 @@ public class StatelessContainer implements org.apache.openejb.RpcContainer {
             callContext.setCurrentOperation(type == InterfaceType.TIMEOUT ? Operation.TIMEOUT : Operation.BUSINESS);
             callContext.set(Method.class, runMethod);
             callContext.setInvokedInterface(callInterface);
-            Object retValue = _invoke(callMethod, runMethod, args, (Instance) bean, callContext, type);
+            Object retValue = _invoke(descriptor, runMethod, args, (Instance) bean, callContext, type);
 
             return retValue;
 
@@ -222,10 +224,15 @@ public class StatelessContainer implements org.apache.openejb.RpcContainer {
 
     protected Object _invoke(Method callMethod, Method runMethod, Object[] args, Instance instance, ThreadContext callContext, InterfaceType type)
             throws OpenEJBException {
+        return _invoke(callContext.getBeanContext().getInvocationDescriptor(callMethod), runMethod, args, instance, callContext, type);
+    }
+
+    private Object _invoke(InvocationDescriptor descriptor, Method runMethod, Object[] args, Instance instance, ThreadContext callContext, InterfaceType type)
+            throws OpenEJBException {
 
         BeanContext beanContext = callContext.getBeanContext();
 
-        TransactionPolicy txPolicy = createTransactionPolicy(beanContext.getTransactionType(callMethod, type), callContext);
+        TransactionPolicy txPolicy = createTransactionPolicy(descriptor.getTransactionType(type), callContext);
 
         Object returnValue = null;
         try {
@@ -233,7 +240,7 @@ public class StatelessContainer implements org.apache.openejb.RpcContainer {
                 callContext.setCurrentOperation(Operation.BUSINESS_WS);
                 returnValue = invokeWebService(args, beanContext, runMethod, instance, returnValue);
             } else {
-                List<InterceptorData> interceptors = beanContext.getMethodInterceptors(runMethod);
+                List<InterceptorData> interceptors = descriptor.getInterceptors();
                 InterceptorStack interceptorStack = new InterceptorStack(instance.bean, runMethod, type == InterfaceType.TIMEOUT ? Operation.TIMEOUT : Operation.BUSINESS, interceptors,
                         instance.interceptors);
                 returnValue = interceptorStack.invoke(args);
@@ -86,6 +86,18 @@ public class StatelessContainerFactory {
         pool.setStrictPooling(strict);
     }
 
+    public void setStripedPooling(boolean striped) {
+        pool.setStripedPooling(striped);
+    }
+
+    public void setAdaptivePooling(boolean adaptive) {
+        pool.setAdaptivePooling(adaptive);
+    }
+
+    public void setAdaptiveInterval(Duration interval) {
+        pool.setAdaptiveInterval(interval);
+    }
+
     public void setMaxAge(Duration maxAge) {
         pool.setMaxAge(maxAge);
     }
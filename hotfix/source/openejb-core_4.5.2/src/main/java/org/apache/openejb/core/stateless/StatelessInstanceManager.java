@@ -197,7 +197,10 @@ public class StatelessInstanceManager {
 
         if (instance != null) return instance;
 
-        return ceateInstance(callContext, beanContext);
+        final long start = System.nanoTime();
+        instance = ceateInstance(callContext, beanContext);
+        data.getPool().created(System.nanoTime() - start);
+        return instance;
     }
 
     private Instance ceateInstance(final ThreadContext callContext, final BeanContext beanContext) throws org.apache.openejb.ApplicationException {
@@ -319,6 +322,7 @@ public class StatelessInstanceManager {
         setDefault(builder.getMaxAge(), TimeUnit.HOURS);
         setDefault(builder.getIdleTimeout(), TimeUnit.MINUTES);
         setDefault(builder.getInterval(), TimeUnit.MINUTES);
+        setDefault(builder.getAdaptiveInterval(), TimeUnit.SECONDS);
 
         final StatelessSupplier supplier = new StatelessSupplier(beanContext);
         builder.setSupplier(supplier);
@@ -23,6 +23,7 @@ import org.quartz.impl.triggers.CronTriggerImpl;
 import javax.ejb.ScheduleExpression;
 import java.text.DateFormatSymbols;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
@@ -83,26 +84,31 @@ public class EJBCronTrigger extends CronTriggerImpl {
         }
     }
 
-    private static final int[] ORDERED_CALENDAR_FIELDS = { Calendar.YEAR, Calendar.MONTH, Calendar.DAY_OF_MONTH, Calendar.HOUR_OF_DAY, Calendar.MINUTE, Calendar.SECOND };
+    private static final int MAX_YEAR = 9999;
 
-    private static final Map<Integer, Integer> CALENDAR_FIELD_TYPE_ORDERED_INDEX_MAP = new LinkedHashMap<Integer, Integer>();
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
 
-    static {
-        //Initialize a calendar field -> ordered array index map
-        CALENDAR_FIELD_TYPE_ORDERED_INDEX_MAP.put(Calendar.YEAR, 0);
-        CALENDAR_FIELD_TYPE_ORDERED_INDEX_MAP.put(Calendar.MONTH, 1);
-        CALENDAR_FIELD_TYPE_ORDERED_INDEX_MAP.put(Calendar.DAY_OF_MONTH, 2);
-        CALENDAR_FIELD_TYPE_ORDERED_INDEX_MAP.put(Calendar.DAY_OF_WEEK, 3);
-        CALENDAR_FIELD_TYPE_ORDERED_INDEX_MAP.put(Calendar.HOUR_OF_DAY, 4);
-        CALENDAR_FIELD_TYPE_ORDERED_INDEX_MAP.put(Calendar.MINUTE, 5);
-        CALENDAR_FIELD_TYPE_ORDERED_INDEX_MAP.put(Calendar.SECOND, 6);
-    }
+    private static final long NONE = Long.MIN_VALUE;
+
+    private static final int[] MONTH_LENGTHS = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
 
 	private final FieldExpression[] expressions = new FieldExpression[7];
 
 	private TimeZone timezone;
     private String rawValue;
 
+    // the expressions compiled to bit masks, bit n set meaning value n is allowed
+    private BitSet years; // null for any year
+    private long months;
+    private long daysOfMonth;
+    private long[] daysOfWeek; // days of the month matching the day of week expression, indexed by the weekday of the 1st
+    private boolean anyDayOfMonth;
+    private boolean anyDayOfWeek;
+    private boolean dynamicDaysOfMonth;
+    private long hours;
+    private long minutes;
+    private long seconds;
+
     public EJBCronTrigger(ScheduleExpression expr) throws ParseException {
 	    
 		Map<Integer, String> fieldValues = new LinkedHashMap<Integer, String>();
@@ -137,6 +143,8 @@ public class EJBCronTrigger extends CronTriggerImpl {
 			throw new ParseException(errors);
 		}
 
+        compile();
+
         rawValue = expr.getYear() + DELIMITER + expr.getMonth() + DELIMITER + expr.getDayOfMonth() + DELIMITER + expr.getDayOfWeek()
                     + DELIMITER + expr.getHour() + DELIMITER + expr.getMinute() + DELIMITER + expr.getSecond();
     }
@@ -304,227 +312,429 @@ public class EJBCronTrigger extends CronTriggerImpl {
         }
     
     }
+    /**
+     * Turns the parsed expressions into bit masks, bit n set meaning value n is
+     * allowed.  Only the days of the month depend on the month, their mask is
+     * computed when needed from the month length and its first weekday.
+     */
+    private void compile() {
+        years = compileYears(expressions[0]);
+        months = expressions[1].getMask(0, 0);
+        anyDayOfMonth = expressions[2] instanceof AsteriskExpression;
+        anyDayOfWeek = expressions[3] instanceof AsteriskExpression;
+        dynamicDaysOfMonth = expressions[2].isDynamic();
+        daysOfMonth = dynamicDaysOfMonth ? 0 : expressions[2].getMask(31, 1);
+        hours = expressions[4].getMask(0, 0);
+        minutes = expressions[5].getMask(0, 0);
+        seconds = expressions[6].getMask(0, 0);
+
+        // days of a 31 days month matching the weekdays, for each weekday of the 1st
+        final long weekdays = expressions[3].getMask(0, 0);
+        daysOfWeek = new long[8];
+        for (int first = 1; first <= 7; first++) {
+            for (int day = 1; day <= 31; day++) {
+                final int weekday = (first - 1 + day - 1) % 7 + 1;
+                if ((weekdays & (1L << weekday)) != 0) {
+                    daysOfWeek[first] |= 1L << day;
+                }
+            }
+        }
+    }
+
+    private static BitSet compileYears(final FieldExpression expr) {
+        if (expr instanceof AsteriskExpression) {
+            return null;
+        }
+
+        final BitSet set = new BitSet(MAX_YEAR + 1);
+        if (expr instanceof RangeExpression) {
+            final RangeExpression range = (RangeExpression) expr;
+            addRange(set, range.start, range.end);
+            if (range.start2 != -1) {
+                addRange(set, range.start2, MAX_YEAR);
+            }
+        } else if (expr instanceof ListExpression) {
+            for (final int year : ((ListExpression) expr).values) {
+                if (year >= 0 && year <= MAX_YEAR) set.set(year);
+            }
+        }
+        return set;
+    }
+
+    private static void addRange(final BitSet set, final int from, final int to) {
+        if (from <= to) {
+            set.set(Math.max(from, 0), Math.min(to, MAX_YEAR) + 1);
+        }
+    }
+
+    /**
+     * @return the allowed days of the month, bit n for day n
+     */
+    private long getDays(final int year, final int month) {
+        final int length = monthLength(year, month);
+        final long all = bits(1, length);
+        if (anyDayOfMonth && anyDayOfWeek) {
+            return all;
+        }
+
+        final int first = weekday(daysFromCivil(year, month, 1));
+        final long byWeekday = daysOfWeek[first];
+        if (anyDayOfMonth) {
+            return byWeekday & all;
+        }
+
+        final long byDay = dynamicDaysOfMonth ? expressions[2].getMask(length, first) : daysOfMonth;
+        if (anyDayOfWeek) {
+            return byDay & all;
+        }
+
+        /*
+         * 18.2.1.2 Expression Rules
+         * If dayOfMonth has a non-wildcard value and dayOfWeek has a non-wildcard value, then either the
+         * dayOfMonth field or the dayOfWeek field must match the current day (even though the other of the
+         * two fields need not match the current day).
+         */
+        return (byDay | byWeekday) & all;
+    }
+
 	/**
 	 * Works similarly to getFireTimeAfter() but backwards.
 	 */
 	@Override
 	public Date getFinalFireTime() {
-		Calendar calendar = new GregorianCalendar(timezone);
-        //calendar.setLenient(false);
-		calendar.setFirstDayOfWeek(Calendar.SUNDAY);
-
-		if (getEndTime() == null) {
-			// If the year field has been left default, there is no end time
-            if (expressions[0] instanceof AsteriskExpression) {
+        final long limit;
+        if (getEndTime() == null) {
+            // If the year field has been left default, there is no end time
+            if (years == null || years.isEmpty()) {
                 return null;
             }
-			resetFields(calendar, 0, true);
-			calendar.set(Calendar.MILLISECOND, 0);
-		} else {
-			calendar.setTime(getEndTime());
-		}
-
-		// Calculate time to give up scheduling
-		Calendar stopCalendar = new  GregorianCalendar(timezone);
-		if (getStartTime() != null) {
-			stopCalendar.setTime(getStartTime());
-		} else {
-			stopCalendar.setTimeInMillis(0);
-		}
+            limit = toUtc(daysFromCivil(years.length() - 1, 11, 31) * DAY_MILLIS + DAY_MILLIS - 1000);
+        } else {
+            limit = getEndTime().getTime();
+        }
 
-		int currentFieldIndex = 0;
-        while (currentFieldIndex <= 6 && calendar.after(stopCalendar)) {
-            FieldExpression expr = expressions[currentFieldIndex];
-			Integer value = expr.getPreviousValue(calendar);
-            if (value != null) {
-                int oldValue = calendar.get(expr.field);
-                if (oldValue != value) {
-                    // The value has changed, so update the calendar and reset all
-                    // less significant fields
-                    calendar.set(expr.field, value);
-                    resetFields(calendar, expr.field, true);
-
-                    // If the weekday changed, the day of month changed too
-                    if (expr.field == Calendar.DAY_OF_WEEK) {
-                        currentFieldIndex--;
-                    } else {
-                        currentFieldIndex++;
-                    }
-                } else {
-                    currentFieldIndex++;
-                }
-            } else if (currentFieldIndex >= 1) {
-                // No suitable value was found, so move back to the previous field
-                // and decrease the value
-                int maxAffectedFieldType = upadteCalendar(calendar, expressions[currentFieldIndex - 1].field, -1);
-                currentFieldIndex = CALENDAR_FIELD_TYPE_ORDERED_INDEX_MAP.get(maxAffectedFieldType);
-                resetFields(calendar, maxAffectedFieldType, true);
-            } else {
-                return null; // The job will never be run
-            }
-		}
-        
-		return calendar.after(stopCalendar) ? calendar.getTime() : null;
-		
-		
+        final long stop = getStartTime() == null ? 0 : getStartTime().getTime();
+        final long time = previous(limit, stop);
+        return time == NONE ? null : new Date(time);
 	}
 
 	@Override
 	public Date getFireTimeAfter(Date afterTime) {
-	    log.debug("start to getFireTimeAfter:"+afterTime);
-		Calendar calendar = new GregorianCalendar(timezone);
-        // calendar.setLenient(false);
-		calendar.setFirstDayOfWeek(Calendar.SUNDAY);
+        if (afterTime == null) {
+            afterTime = new Date();
+        }
 
 		// Calculate starting time
-		if (getStartTime() != null && getStartTime().after(afterTime)) {
-			calendar.setTime(getStartTime());
-		} else {
-			calendar.setTime(afterTime);
-			calendar.add(Calendar.SECOND, 1);
-		}
+        final long start;
+        if (getStartTime() != null && getStartTime().after(afterTime)) {
+            start = getStartTime().getTime();
+        } else {
+            start = afterTime.getTime() + 1000;
+        }
 
-		// Calculate time to give up scheduling
-		Calendar stopCalendar = new GregorianCalendar(timezone);
-		if (getEndTime() != null) {
-			stopCalendar.setTime(getEndTime());
-		} else {
-			int stopYear = calendar.get(Calendar.YEAR) + 100;
-			stopCalendar.set(Calendar.YEAR, stopYear);
-		}
+        final long time = next(start, getEndTime() == null ? NONE : getEndTime().getTime());
 
-		int currentFieldIndex = 0;
-		
-        while (currentFieldIndex <= 6 && calendar.before(stopCalendar)) {
+        if (log.isDebugEnabled()) {
+            log.debug("getFireTimeAfter " + afterTime + " is " + (time == NONE ? null : new Date(time)));
+        }
+        return time == NONE ? null : new Date(time);
+	}
 
-           
-            FieldExpression expr = expressions[currentFieldIndex];
-            Integer value = expr.getNextValue(calendar);
+    /**
+     * Walks the fields from the year down to the second on the wall clock time
+     * of the trigger's time zone.  When a field has no allowed value left the
+     * more significant field is incremented and the less significant ones
+     * reset, no Calendar or other object is created.  The milliseconds of the
+     * start time are kept.
+     *
+     * @return the first fire time at or after start and before end, or NONE
+     */
+    private long next(final long start, final long end) {
+        final long local = start + timezone.getOffset(start);
+        final long millis = floorMod(local, 1000);
+        long days = floorDiv(local, DAY_MILLIS);
+        final int secondOfDay = (int) (floorMod(local, DAY_MILLIS) / 1000);
+
+        final int date = civilFromDays(days);
+        int year = date >> 9;
+        int month = date >> 5 & 15;
+        int day = date & 31;
+        int hour = secondOfDay / 3600;
+        int minute = secondOfDay / 60 % 60;
+        int second = secondOfDay % 60;
+
+        final int lastYear = end == NONE ? year + 100 : civilYear(end + timezone.getOffset(end)) + 1;
+
+        while (year <= lastYear) {
+            if (years != null && !years.get(year)) {
+                year = years.nextSetBit(year + 1);
+                if (year < 0) return NONE;
+                month = 0;
+                day = 1;
+                hour = minute = second = 0;
+                continue;
+            }
 
-            /*
-             * 18.2.1.2 Expression Rules
-             * If dayOfMonth has a non-wildcard value and dayOfWeek has a non-wildcard value, then either the
-             * dayOfMonth field or the dayOfWeek field must match the current day (even though the other of the
-             * two fields need not match the current day).
-             */
-            if (currentFieldIndex == 2 && !(expressions[3] instanceof AsteriskExpression)) {
-                Calendar clonedCalendarDayOfWeek = (Calendar) calendar.clone();
-                Integer nextDayOfWeek = expressions[3].getNextValue(clonedCalendarDayOfWeek);
-                while (nextDayOfWeek == null) {
-                    clonedCalendarDayOfWeek.add(Calendar.DAY_OF_MONTH, 1);
-                    nextDayOfWeek = expressions[3].getNextValue(clonedCalendarDayOfWeek);
-                }
+            final int nextMonth = nextBit(months, month);
+            if (nextMonth < 0) {
+                year++;
+                month = 0;
+                day = 1;
+                hour = minute = second = 0;
+                continue;
+            } else if (nextMonth != month) {
+                month = nextMonth;
+                day = 1;
+                hour = minute = second = 0;
+            }
 
-                if (nextDayOfWeek != null) {
-                    clonedCalendarDayOfWeek.set(expressions[3].field, nextDayOfWeek);
-                    int newDayOfMonth = clonedCalendarDayOfWeek.get(expressions[2].field);
-                    
-                    if (value == null) {
-                        value = newDayOfMonth;
-                    } else if (clonedCalendarDayOfWeek.get(expressions[1].field)==calendar.get(expressions[1].field)){
-                        value = Math.min(value, newDayOfMonth);
-                    } 
-                    
-                    //Next valid DayOfWeek might exist in next month.
-                    if(expressions[1].getNextValue(clonedCalendarDayOfWeek)==null){
-                        return null;
-                    } else if (value != calendar.get(expressions[2].field)
-                            && clonedCalendarDayOfWeek.get(expressions[1].field) > calendar.get(expressions[1].field)) {
-                        calendar.set(Calendar.MONTH, clonedCalendarDayOfWeek.get(Calendar.MONTH));
-                    }
-                }
+            final int nextDay = nextBit(getDays(year, month), day);
+            if (nextDay < 0) {
+                month++;
+                day = 1;
+                hour = minute = second = 0;
+                continue;
+            } else if (nextDay != day) {
+                day = nextDay;
+                hour = minute = second = 0;
             }
 
-            if (currentFieldIndex >= 1 && value == null) {
+            final int nextHour = nextBit(hours, hour);
+            if (nextHour < 0) {
+                day++;
+                hour = minute = second = 0;
+                continue;
+            } else if (nextHour != hour) {
+                hour = nextHour;
+                minute = second = 0;
+            }
 
-                if (currentFieldIndex == 3 && !(expressions[2] instanceof AsteriskExpression)) {
-                    /*
-                     *18.2.1.2 Expression Rules, the day has been resolved when dayOfMonth expression
-                     *is not AsteriskExpression.
-                     */
-                    currentFieldIndex++;
-                } else {
-                    // No suitable value was found, so move back to the previous field
-                    // and increase the value
-                    // When current field is HOUR_OF_DAY, its upper field is DAY_OF_MONTH, so we need to -2 due to
-                    // DAY_OF_WEEK.
-                    int parentFieldIndex = currentFieldIndex == 4 ? currentFieldIndex - 2 : currentFieldIndex - 1;
-                    int maxAffectedFieldType = upadteCalendar(calendar, expressions[parentFieldIndex].field, 1);
-                    currentFieldIndex = CALENDAR_FIELD_TYPE_ORDERED_INDEX_MAP.get(maxAffectedFieldType);
-                    resetFields(calendar, maxAffectedFieldType, false);
-                }
-                
-            } else if (value != null) {
-                
-                int oldValue = calendar.get(expr.field);
-                if (oldValue != value) {
-                    
-                    if (currentFieldIndex == 3 && !(expressions[2] instanceof AsteriskExpression)) {
-                        /*
-                         *18.2.1.2 Expression Rules, the day has been resolved when dayOfMonth expression
-                         *is not AsteriskExpression.
-                         */
-                        currentFieldIndex++;
-                    } else {
-                        // The value has changed, so update the calendar and reset all
-                        // less significant fields
-                        calendar.set(expr.field, value);
-                        resetFields(calendar, expr.field, false);
-                        currentFieldIndex++;
-                    }
-                } else {
-                    currentFieldIndex++;
-                }
-            } else {
-                log.debug("end of getFireTimeAfter, result is:" + null);
-                return null;
+            final int nextMinute = nextBit(minutes, minute);
+            if (nextMinute < 0) {
+                hour++;
+                minute = second = 0;
+                continue;
+            } else if (nextMinute != minute) {
+                minute = nextMinute;
+                second = 0;
+            }
+
+            final int nextSecond = nextBit(seconds, second);
+            if (nextSecond < 0) {
+                minute++;
+                second = 0;
+                continue;
+            }
+            second = nextSecond;
+
+            days = daysFromCivil(year, month, day);
+            final long time = toUtc(days * DAY_MILLIS + (hour * 3600 + minute * 60 + second) * 1000L + millis);
+            if (time < start) {
+                // the wall clock time was skipped by a daylight saving change
+                second++;
+                continue;
             }
+            return end != NONE && time >= end ? NONE : time;
         }
-		
-		log.debug("end of getFireTimeAfter, result is:"+ (calendar.before(stopCalendar) ? calendar.getTime() : null));
-		
-		return calendar.before(stopCalendar) ? calendar.getTime() : null;
-	}
+        return NONE;
+    }
 
-	/**
-	 * Update the value of target field by one, and return the max affected field value
-	 * @param calendar
-	 * @param field
-	 * @return
-	 */
-    private int upadteCalendar(Calendar calendar, int field, int amount) {
-        Calendar old = new GregorianCalendar(timezone);
-        old.setTime(calendar.getTime());
-        calendar.add(field, amount);
-        for (int fieldType : ORDERED_CALENDAR_FIELDS) {
-            if (calendar.get(fieldType) != old.get(fieldType)) {
-                return fieldType;
+    /**
+     * Same as {@link #next} walking backwards
+     *
+     * @return the last fire time at or before limit and after stop, or NONE
+     */
+    private long previous(final long limit, final long stop) {
+        final long local = limit + timezone.getOffset(limit);
+        final long millis = floorMod(local, 1000);
+        final int secondOfDay = (int) (floorMod(local, DAY_MILLIS) / 1000);
+
+        final int date = civilFromDays(floorDiv(local, DAY_MILLIS));
+        int year = date >> 9;
+        int month = date >> 5 & 15;
+        int day = date & 31;
+        int hour = secondOfDay / 3600;
+        int minute = secondOfDay / 60 % 60;
+        int second = secondOfDay % 60;
+
+        final int firstYear = civilYear(stop + timezone.getOffset(stop)) - 1;
+
+        while (year >= firstYear) {
+            if (years != null && !years.get(year)) {
+                while (year >= firstYear && !years.get(year)) year--;
+                month = 11;
+                day = 31;
+                hour = 23;
+                minute = second = 59;
+                continue;
+            }
+
+            final int previousMonth = previousBit(months, month);
+            if (previousMonth < 0) {
+                year--;
+                month = 11;
+                day = 31;
+                hour = 23;
+                minute = second = 59;
+                continue;
+            } else if (previousMonth != month) {
+                month = previousMonth;
+                day = 31;
+                hour = 23;
+                minute = second = 59;
+            }
+
+            final int previousDay = previousBit(getDays(year, month), Math.min(day, monthLength(year, month)));
+            if (previousDay < 0) {
+                if (--month < 0) {
+                    year--;
+                    month = 11;
+                }
+                day = 31;
+                hour = 23;
+                minute = second = 59;
+                continue;
+            } else if (previousDay != day) {
+                day = previousDay;
+                hour = 23;
+                minute = second = 59;
+            }
+
+            final int previousHour = previousBit(hours, hour);
+            if (previousHour < 0) {
+                day--;
+                hour = 23;
+                minute = second = 59;
+                continue;
+            } else if (previousHour != hour) {
+                hour = previousHour;
+                minute = second = 59;
+            }
+
+            final int previousMinute = previousBit(minutes, minute);
+            if (previousMinute < 0) {
+                hour--;
+                minute = second = 59;
+                continue;
+            } else if (previousMinute != minute) {
+                minute = previousMinute;
+                second = 59;
+            }
+
+            final int previousSecond = previousBit(seconds, second);
+            if (previousSecond < 0) {
+                minute--;
+                second = 59;
+                continue;
             }
+            second = previousSecond;
+
+            final long time = toUtc(daysFromCivil(year, month, day) * DAY_MILLIS + (hour * 3600 + minute * 60 + second) * 1000L + millis);
+            if (time > limit) {
+                second--;
+                continue;
+            }
+            return time > stop ? time : NONE;
         }
-        //Should never get here
-        return -1;
+        return NONE;
     }
 
-    public String getRawValue() {
-        return rawValue;
+    /**
+     * Converts a wall clock time to UTC.  A time skipped by a daylight saving
+     * change is moved forward and an ambiguous one is read as standard time,
+     * as a lenient GregorianCalendar does.
+     */
+    private long toUtc(final long local) {
+        final int offset = timezone.getOffset(local - timezone.getRawOffset());
+        final long time = local - offset;
+        final int actual = timezone.getOffset(time);
+        return actual == offset ? time : local - actual;
+    }
+
+    private static int nextBit(final long mask, final int from) {
+        if (from > 63) return -1;
+        final long bits = mask & (-1L << from);
+        return bits == 0 ? -1 : Long.numberOfTrailingZeros(bits);
+    }
+
+    private static int previousBit(final long mask, final int from) {
+        if (from < 0) return -1;
+        final long bits = mask & (-1L >>> (63 - Math.min(from, 63)));
+        return bits == 0 ? -1 : 63 - Long.numberOfLeadingZeros(bits);
     }
 
     /**
-     * reset those sub field values, we need to configure from the end to begin, as getActualMaximun consider other fields' values
-     * @param calendar
-     * @param currentField
-     * @param max
+     * @return bits from to to, both included
      */
-	private void resetFields(Calendar calendar, int currentField, boolean max) {
-        for (int index = ORDERED_CALENDAR_FIELDS.length - 1; index >= 0; index--) {
-            int calendarField = ORDERED_CALENDAR_FIELDS[index];
-            if (calendarField > currentField) {
-                int value = max ? calendar.getActualMaximum(calendarField) : calendar.getActualMinimum(calendarField);
-                calendar.set(calendarField, value);
-            } else {
-                break;
-            }
-        }
+    private static long bits(final int from, final int to) {
+        if (from > to) return 0;
+        return (-1L >>> (63 - to)) & (-1L << from);
+    }
+
+    private static long floorDiv(final long x, final long y) {
+        final long q = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? q - 1 : q;
+    }
+
+    private static long floorMod(final long x, final long y) {
+        return x - floorDiv(x, y) * y;
+    }
+
+    private static boolean isLeapYear(final int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    /**
+     * @param month 0 based, as in Calendar
+     */
+    private static int monthLength(final int year, final int month) {
+        return month == 1 && isLeapYear(year) ? 29 : MONTH_LENGTHS[month];
+    }
+
+    /**
+     * @return the Calendar.DAY_OF_WEEK of the given epoch day, 1970-01-01 was a Thursday
+     */
+    private static int weekday(final long epochDay) {
+        return (int) floorMod(epochDay + 4, 7) + 1;
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic gregorian date, month 0 based
+     */
+    private static long daysFromCivil(int year, final int month, final int day) {
+        final int m = month + 1;
+        if (m <= 2) year--;
+        final long era = floorDiv(year, 400);
+        final long yearOfEra = year - era * 400;
+        final long dayOfYear = (153 * (m > 2 ? m - 3 : m + 9) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Inverse of {@link #daysFromCivil}
+     *
+     * @return year << 9 | month << 5 | day, month 0 based
+     */
+    private static int civilFromDays(final long epochDay) {
+        final long z = epochDay + 719468;
+        final long era = floorDiv(z, 146097);
+        final long dayOfEra = z - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long mp = (5 * dayOfYear + 2) / 153;
+        final int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        final int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+        final int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        return year << 9 | (month - 1) << 5 | day;
+    }
+
+    private static int civilYear(final long local) {
+        return civilFromDays(floorDiv(local, DAY_MILLIS)) >> 9;
+    }
+
+    public String getRawValue() {
+        return rawValue;
     }
 
     @Override // we don't want to be a CronTrigger for persistence
@@ -578,11 +788,8 @@ public class EJBCronTrigger extends CronTriggerImpl {
 
 	private abstract static class FieldExpression {
 
-
 		protected static final Calendar CALENDAR = new GregorianCalendar(Locale.US); // For getting min/max field values
 
-       
-
 		protected static int convertValue(String value, int field) throws ParseException {
 			// If the value begins with a digit, parse it as a number
 			if (Character.isDigit(value.charAt(0))) {
@@ -613,6 +820,10 @@ public class EJBCronTrigger extends CronTriggerImpl {
 			throw new ParseException(field, value, "Unparseable value");
 		}
 
+        protected static int getMaximum(int field) {
+            return field == Calendar.YEAR ? MAX_YEAR : CALENDAR.getMaximum(field);
+        }
+
 		public final int field;
 
 		protected FieldExpression(int field) {
@@ -622,42 +833,42 @@ public class EJBCronTrigger extends CronTriggerImpl {
 		protected int convertValue(String value) throws ParseException {
 			return convertValue(value, field);
 		}
-		
-		protected boolean isValidResult(Calendar calendar, Integer result){
-		    
-		    if (result!=null && result>=calendar.getActualMinimum(field) && result <=calendar.getActualMaximum(field)){
-                return true;
-            } 
-		    
-		    return false;
-		    
-		}
 
-		/**
-		 * Returns the next allowed value in this calendar for the given
-		 * field.
-		 *
-		 * @param calendar
-		 *            a Calendar where all the more significant fields have
-		 *            been filled out
-		 * @return the next value allowed by this expression, or
-		 *         <code>null</code> if none further allowed values are
-		 *         found
-		 */
-		public abstract Integer getNextValue(Calendar calendar);
-
-		/**
-		 * Returns the last allowed value in this calendar for the given field.
-		 *
-		 * @param calendar
-		 *            a Calendar where all the more significant fields have
-		 *            been filled out
-		 * @return the last value allowed by this expression, or
-		 *         <code>null</code> if none further allowed values are
-		 *         found
-		 */
-		public abstract Integer getPreviousValue(Calendar calendar);
+        /**
+         * @return true if the allowed values depend on the month, only
+         *         possible for the days of the month
+         */
+        public boolean isDynamic() {
+            return false;
+        }
+
+        /**
+         * Returns the values allowed by this expression, bit n set meaning
+         * value n is allowed.  The days of the week use the
+         * Calendar.DAY_OF_WEEK values, 1 for Sunday, and the months are 0
+         * based.  Not used for the years.
+         *
+         * @param days
+         *            length of the month, only used by dynamic expressions
+         * @param firstWeekday
+         *            Calendar.DAY_OF_WEEK of the first day of the month, only
+         *            used by dynamic expressions
+         */
+        public abstract long getMask(int days, int firstWeekday);
+
+        protected long range(int from, int to) {
+            return bits(Math.max(from, 0), Math.min(to, 63));
+        }
 
+        /**
+         * Sunday is both 0 and 7, that is 1 and 8 once converted
+         */
+        protected long normalize(long mask) {
+            if (field == Calendar.DAY_OF_WEEK && (mask & (1L << 8)) != 0) {
+                return (mask & ~(1L << 8)) | (1L << 1);
+            }
+            return mask;
+        }
 	}
 
 	private static class RangeExpression extends FieldExpression {
@@ -668,270 +879,158 @@ public class EJBCronTrigger extends CronTriggerImpl {
 
         private String startWeekDay;
         private String endWeekDay;
-        
-        
+
         private WeekdayExpression startWeekdayExpr = null;
         private WeekdayExpression endWeekdayExpr = null;
-        
+
         private DaysFromLastDayExpression startDaysFromLastDayExpr = null;
         private DaysFromLastDayExpression endDaysFromLastDayExpr = null;
-        
-        
-        
+
+        // numeric bounds of a dynamic range, -1 when the bound is dynamic
+        private int startDay = -1;
+        private int endDay = -1;
+
         //Indicate if the range expression is for "1st mon - 2nd fri" style range of days of month.
         private boolean isDynamicRangeExpression = false;
 
+        private long mask;
 
-        public boolean isDynamicRangeExpression() {
+        @Override
+        public boolean isDynamic() {
             return isDynamicRangeExpression;
         }
 
-        public RangeExpression(int field, int start, int end, int start2) {
-            super(field);
-            this.start = start;
-            this.end = end;
-            this.start2 = start2;
-        }
-
 		public RangeExpression(Matcher m, int field) throws ParseException {
-            
+
 			super(field);
-            
+
             startWeekDay = m.group(1);
             endWeekDay = m.group(2);
-            
-            
+
             if (field == Calendar.DAY_OF_MONTH) {
-                
+
                 Matcher startWeekDayMatcher = WEEKDAY.matcher(m.group(1));
                 Matcher endWeekDayMatcher = WEEKDAY.matcher(m.group(2));
-                
+
                 Matcher startDaysFromLastDayMatcher = DAYS_TO_LAST.matcher(m.group(1));
                 Matcher endDaysFromLastDayMatcher = DAYS_TO_LAST.matcher(m.group(2));
-                
+
                 if (startWeekDayMatcher.matches()) {
                     startWeekdayExpr = new WeekdayExpression(startWeekDayMatcher);
+                }
 
-                } 
-                
                 if (endWeekDayMatcher.matches()) {
                     endWeekdayExpr = new WeekdayExpression(endWeekDayMatcher);
-                } 
-                
+                }
+
                 if (startDaysFromLastDayMatcher.matches()) {
                     startDaysFromLastDayExpr = new DaysFromLastDayExpression(startDaysFromLastDayMatcher);
-                } 
-                
+                }
+
                 if (endDaysFromLastDayMatcher.matches()) {
                     endDaysFromLastDayExpr = new DaysFromLastDayExpression(endDaysFromLastDayMatcher);
-                } 
-                
+                }
 
                 if (startWeekdayExpr != null || endWeekdayExpr != null || startDaysFromLastDayExpr != null
                         || endDaysFromLastDayExpr != null || startWeekDay.equals(LAST_IDENTIFIER)|| endWeekDay.equals(LAST_IDENTIFIER)) {
-                    
+
                     isDynamicRangeExpression = true;
+
+                    if (startWeekdayExpr == null && startDaysFromLastDayExpr == null && !startWeekDay.equals(LAST_IDENTIFIER)) {
+                        startDay = convertValue(startWeekDay);
+                    }
+                    if (endWeekdayExpr == null && endDaysFromLastDayExpr == null && !endWeekDay.equals(LAST_IDENTIFIER)) {
+                        endDay = convertValue(endWeekDay);
+                    }
                     return;
                 }
-                
             }
-            
-            //not a dynamic range expression, go ahead to init start and end values without a calendar
-            initStartEndValues(null);
-           
-            
+
+            //not a dynamic range expression, go ahead to init start and end values
+            initStartEndValues(convertValue(startWeekDay), convertValue(endWeekDay));
+            mask = normalize(range(start, end) | (start2 == -1 ? 0 : range(start2, getMaximum(field))));
          }
-        
-        private void initStartEndValues(Calendar calendar) throws ParseException{
-            
-            int beginValue;
-            int endValue;
-            
-            if(isDynamicRangeExpression){
-                
-                if (startWeekDay.equals(LAST_IDENTIFIER)) {
-                    beginValue = calendar.getActualMaximum(field);
-                } else if (startWeekdayExpr != null) {
-                    beginValue = startWeekdayExpr.getWeekdayInMonth(calendar);
-                } else if (startDaysFromLastDayExpr != null) {
-                    Integer next = startDaysFromLastDayExpr.getNextValue(calendar);
-                    beginValue = next == null ? calendar.get(field) : next;
-                } else {
-                    beginValue = convertValue(startWeekDay);
-                }
 
-                if (endWeekDay.equals(LAST_IDENTIFIER)) {
-                    endValue = calendar.getActualMaximum(field);
-                } else if (endWeekdayExpr != null) {
-                    endValue = endWeekdayExpr.getWeekdayInMonth(calendar);
-                } else if (endDaysFromLastDayExpr != null) {
-                    Integer next = endDaysFromLastDayExpr.getNextValue(calendar);
-                    endValue = next == null ? calendar.get(field) : next;
-                } else {
-                    endValue = convertValue(endWeekDay);
-                }
-                
-            } else {
-                beginValue=convertValue(startWeekDay);
-                endValue=convertValue(endWeekDay);
-            }
-            
-            
+        private void initStartEndValues(int beginValue, int endValue) {
+
             /*
              * handle 0-7 for day of week range.
-             * 
+             *
              * both 0 and 7 represent Sun.  We need to remove one from the range.
-             * 
+             *
              */
             if (field == Calendar.DAY_OF_WEEK) {
-                
+
                 if ((beginValue == 8 && endValue == 1)||(endValue == 8 && beginValue == 1)) {
                     beginValue = 1;
                     endValue = 7;
                 } else {
-                    
-                    
+
                     if (beginValue == 8) {
                         beginValue = 1;
                     }
 
                     if (endValue == 8) {
                         endValue = 1;
-                    }           
+                    }
                 }
             }
-            
-            
-            
-            
-            // Try converting a textual value to numeric
-            if (endWeekDay.equals(LAST_IDENTIFIER)) {
-                start = -1;
-                end = -1;
-                start2= beginValue;
+
+            if (beginValue > endValue) {
+                start = CALENDAR.getMinimum(field);
+                end = endValue;
+                start2 = beginValue;
             } else {
-                if (beginValue > endValue) {
-                    start = CALENDAR.getMinimum(field);
-                    end = endValue;
-                    start2 = beginValue;
-                } else {
-                    start = beginValue;
-                    end = endValue;
-                }
+                start = beginValue;
+                end = endValue;
             }
 		}
 
-
         @Override
-        public Integer getNextValue(Calendar calendar) {
-            
-            if (isDynamicRangeExpression){
-                
-                Integer nextStartWeekday = startWeekdayExpr == null ? start : startWeekdayExpr
-                        .getWeekdayInMonth(calendar);
-                
-                Integer nextendWeekday = endWeekdayExpr == null ? end : endWeekdayExpr.
-                        getWeekdayInMonth(calendar);
-                
-                if (nextStartWeekday == null || nextendWeekday == null) {
-                    return null;
-                }
-                
-                try {
-                    initStartEndValues(calendar);
-                } catch (ParseException e) {
-                    return null;
-                }
+        public long getMask(int days, int firstWeekday) {
+            if (!isDynamicRangeExpression) {
+                return mask;
             }
-            
-            
-            int currValue = calendar.get(field);
-            if (start2 != -1) {
-                if (currValue >= start2) {
-                    return isValidResult(calendar,currValue)?currValue:null;
-                } else if (currValue > end) {
-                    return isValidResult(calendar,start2)?start2:null;
-                }
-            }
-            if (currValue <= start) {
-                return isValidResult(calendar,start)?start:null;
-            } else if (currValue <= end) {
-                return isValidResult(calendar,currValue)?currValue:null;
-            } else {
-                return null;
-            }
-        }
 
-		@Override
-		public Integer getPreviousValue(Calendar calendar) {
-            
-            if (isDynamicRangeExpression){
-                try {
-                    initStartEndValues(calendar);
-                } catch (ParseException e) {
-                    return null;
-                }
-             }
-            
-            
-		    int currValue = calendar.get(field);
-            if (start2 != -1) {
-                if (currValue >= start2) {
-                    return isValidResult(calendar,currValue)?currValue:null;
-                }
+            final int begin = getDay(startWeekDay, startWeekdayExpr, startDaysFromLastDayExpr, startDay, days, firstWeekday);
+            if (begin < 1) {
+                return 0;
             }
-            if (currValue <= start) {
-                return null;
-            } else if (currValue <= end) {
-                return isValidResult(calendar,currValue)?currValue:null;
-            } else {
-                return isValidResult(calendar,end)?end:null;
+
+            if (endWeekDay.equals(LAST_IDENTIFIER)) {
+                return range(begin, days);
             }
-		}
 
-       public List<Integer> getAllValuesInRange(Calendar calendar){
-           
-           List<Integer> values=new ArrayList<Integer>();
-           
-           if (isDynamicRangeExpression){
-               try {
-                   initStartEndValues(calendar);
-               } catch (ParseException e) {
-                  return values;
-               }
+            final int last = getDay(endWeekDay, endWeekdayExpr, endDaysFromLastDayExpr, endDay, days, firstWeekday);
+            if (last < 1) {
+                return 0;
             }
-           
-            if (start2==-1) {
-                for (int i = start; i <= end; i++) {
-                    values.add(i);
-                }
-            } else {
+            return begin > last ? range(1, last) | range(begin, days) : range(begin, last);
+        }
 
-                for (int i = start; i <= end; i++) {
-                    values.add(i);
-                }
-                for (int i = start2; i <= CALENDAR.getMaximum(field); i++) {
-                    values.add(i);
-                }
+        private static int getDay(String value, WeekdayExpression weekday, DaysFromLastDayExpression fromLast, int day, int days, int firstWeekday) {
+            if (value.equals(LAST_IDENTIFIER)) {
+                return days;
+            } else if (weekday != null) {
+                return weekday.getDay(days, firstWeekday);
+            } else if (fromLast != null) {
+                return fromLast.getDay(days);
             }
-            
-            return values;
-       }
-        
+            return day;
+        }
     }
+
 	/*
-	 * Just find that it is hard to keep those ranges in the list are not overlapped.
-	 * The easy way is to list all the values, also we keep a range expression if user defines a LAST expression, e.g. 12-LAST
+	 * The static values are kept in one mask, the LAST, nth weekday and dynamic
+	 * range values are computed for each month, e.g. 12-LAST
 	 */
 	private static class ListExpression extends FieldExpression {
 
         private final Set<Integer> values = new TreeSet<Integer>();
 
-        private final List<RangeExpression> weekDayRangeExpressions = new ArrayList<RangeExpression>();
-		
-        private final List<WeekdayExpression> weekDayExpressions = new ArrayList<WeekdayExpression>();
-		
-        private final List<DaysFromLastDayExpression> daysFromLastDayExpressions = new ArrayList<DaysFromLastDayExpression>();;
+        private final List<FieldExpression> dynamicExpressions = new ArrayList<FieldExpression>();
+
+        private long mask;
 
 		public ListExpression(Matcher m, int field) throws ParseException {
 			super(field);
@@ -939,165 +1038,97 @@ public class EJBCronTrigger extends CronTriggerImpl {
 		}
 
         private void initialize(Matcher m) throws ParseException {
-            
+
             for (String value : m.group().split("[,]")) {
-                
+
                 Matcher rangeMatcher = RANGE.matcher(value);
                 Matcher weekDayMatcher = WEEKDAY.matcher(value);
                 Matcher daysToLastMatcher = DAYS_TO_LAST.matcher(value);
-                
+
                 if (value.equals(LAST_IDENTIFIER)) {
-                    daysFromLastDayExpressions.add(new DaysFromLastDayExpression());
-                    continue;
+                    dynamicExpressions.add(new DaysFromLastDayExpression());
                 } else if(daysToLastMatcher.matches()){
-                    daysFromLastDayExpressions.add(new DaysFromLastDayExpression(daysToLastMatcher));
-                    continue;
+                    dynamicExpressions.add(new DaysFromLastDayExpression(daysToLastMatcher));
                 } else if (weekDayMatcher.matches()){
-                    weekDayExpressions.add(new WeekdayExpression(weekDayMatcher));
-                    continue;
+                    dynamicExpressions.add(new WeekdayExpression(weekDayMatcher));
                 } else if (rangeMatcher.matches()) {
-                    
+
                     RangeExpression rangeExpression= new RangeExpression(rangeMatcher,field);
-                    
-                    if (rangeExpression.isDynamicRangeExpression()){
-                        weekDayRangeExpressions.add(new RangeExpression(rangeMatcher,field));
+
+                    if (rangeExpression.isDynamic()){
+                        dynamicExpressions.add(rangeExpression);
                         continue;
                     }
-                    
-                    values.addAll(rangeExpression.getAllValuesInRange(null));
-                    
+
+                    addRange(rangeExpression.start, rangeExpression.end);
+                    if (rangeExpression.start2 != -1) {
+                        addRange(rangeExpression.start2, getMaximum(field));
+                    }
+
                 } else {
                     int individualValue = convertValue(value);
-                    
+
                     if(field == Calendar.DAY_OF_WEEK && individualValue == 8){
-                        individualValue = 1;  
+                        individualValue = 1;
                     }
-                    
+
                     values.add(individualValue);
                 }
             }
-            
-        }
-        
-        private TreeSet<Integer> getNewValuesFromDynamicExpressions(Calendar calendar){
-            
-            TreeSet<Integer> newValues = new TreeSet<Integer>();
 
-                newValues.addAll(values);
-                
-                for (RangeExpression weekDayRangeExpression : weekDayRangeExpressions) {
-                    
-                        newValues.addAll(weekDayRangeExpression.getAllValuesInRange(calendar));
-                }
-                
-                for (WeekdayExpression weekdayExpression : weekDayExpressions) {
-                    Integer value=weekdayExpression.getNextValue(calendar);
-                    if (value != null) {
-                        newValues.add(value);
+            if (field != Calendar.YEAR) {
+                for (int value : values) {
+                    if (value >= 0 && value <= 63) {
+                        mask |= 1L << value;
                     }
                 }
-                
-                for (DaysFromLastDayExpression daysFromLastDayExpression : daysFromLastDayExpressions) {
-                    Integer value=daysFromLastDayExpression.getNextValue(calendar);
-                    if (value != null) {
-                        newValues.add(value);
-                    }
-                }
-                
+                mask = normalize(mask);
+            }
+        }
 
-            return newValues;
-            
+        private void addRange(int from, int to) {
+            for (int i = from; i <= to; i++) {
+                values.add(i);
+            }
         }
 
-		@Override
-		public Integer getNextValue(Calendar calendar) {
-		    
-		    TreeSet<Integer> newValues= getNewValuesFromDynamicExpressions(calendar);
-		    
-			int currValue = calendar.get(field);
-			
-			Integer result = newValues.ceiling(currValue);
-			
-			return isValidResult(calendar, result)? result : null;
-			
-		}
+        @Override
+        public boolean isDynamic() {
+            return !dynamicExpressions.isEmpty();
+        }
 
 		@Override
-		public Integer getPreviousValue(Calendar calendar) {
-		    
-		    TreeSet<Integer> newValues= getNewValuesFromDynamicExpressions(calendar);
-		    
-			int currValue = calendar.get(field);
-			
-			Integer result =newValues.floor(currValue);
-            
-			return isValidResult(calendar, result)? result : null;
+		public long getMask(int days, int firstWeekday) {
+            long result = mask;
+            for (int i = 0; i < dynamicExpressions.size(); i++) {
+                result |= dynamicExpressions.get(i).getMask(days, firstWeekday);
+            }
+            return result;
 		}
 	}
 
 	private static class IncrementExpression extends FieldExpression {
 
-		private final int start;
-		private final int interval;
+		private final long mask;
 
 		public IncrementExpression(Matcher m, int field) {
 			super(field);
 			int minValue = CALENDAR.getMinimum(field);
-			start = m.group(1).equals("*") ? minValue : Integer.parseInt(m.group(1));
-			interval = Integer.parseInt(m.group(2));
-		}
+			int start = m.group(1).equals("*") ? minValue : Integer.parseInt(m.group(1));
+			int interval = Integer.parseInt(m.group(2));
 
-		@Override
-		public Integer getNextValue(Calendar calendar) {
-		    
-            int currValue = calendar.get(field);
-
-            if (currValue > start) {
-
-                Integer nextValue = start + interval;
-
-                while (isValidResult(calendar, nextValue)) {
-
-                    if (nextValue >= currValue)
-                        return nextValue;
-
-                    nextValue = nextValue + interval;
-
-                }
-
-            } else {
-                return new Integer(start);
+            long values = 0;
+            for (int value = start; value <= CALENDAR.getMaximum(field); value += interval) {
+                values |= 1L << value;
+                if (interval <= 0) break;
             }
-
-            return null;
-		
+            mask = values;
 		}
 
 		@Override
-		public Integer getPreviousValue(Calendar calendar) {
-		    
-            int currValue = calendar.get(field);
-
-            if (currValue < start) {
-
-                Integer previousValue = start - interval;
-
-                while (isValidResult(calendar, previousValue)) {
-
-                    if (previousValue < currValue)
-                        return previousValue;
-
-                    previousValue = previousValue - interval;
-
-                }
-
-            } else {
-                return new Integer(start);
-            }
-
-            return null;
-        }
-
+		public long getMask(int days, int firstWeekday) {
+            return mask;
+		}
 	}
 
 	private static class WeekdayExpression extends FieldExpression {
@@ -1111,48 +1142,26 @@ public class EJBCronTrigger extends CronTriggerImpl {
 			weekday = convertValue(m.group(2), Calendar.DAY_OF_WEEK);
 		}
 
-		@Override
-		public Integer getNextValue(Calendar calendar) {
-			int currDay = calendar.get(Calendar.DAY_OF_MONTH);
-            Integer nthDay = getWeekdayInMonth(calendar);
-			Integer result = nthDay != null && nthDay >= currDay ? nthDay : null;
-			
-			return isValidResult(calendar, result)? result : null;
-		}
-        
-        public Integer getWeekdayInMonth(Calendar calendar){
-            
-			int currDay = calendar.get(Calendar.DAY_OF_MONTH);
-			int currWeekday = calendar.get(Calendar.DAY_OF_WEEK);
-			int maxDay = calendar.getActualMaximum(Calendar.DAY_OF_MONTH);
-
-			// Calculate the first day in the month whose weekday is the same as the
-			// one we're looking for
-			int firstWeekday = (currDay % 7) - (currWeekday - weekday);
-			
-            firstWeekday = (firstWeekday == 0) ? 7 : firstWeekday;
-			
-			// Then calculate how many such weekdays there is in this month
-			int numWeekdays = firstWeekday>=0?(maxDay - firstWeekday) / 7 +1:(maxDay - firstWeekday) / 7;
-
-			// Then calculate the Nth of those days, or the last one if ordinal is null
-			int multiplier = ordinal != null ? ordinal : numWeekdays;
-			int nthDay = firstWeekday>=0?(firstWeekday + (multiplier-1) * 7):(firstWeekday + multiplier * 7);
-
-			// Return the calculated day, or null if the day is out of range
-			return nthDay <= maxDay ? nthDay : null;
+        @Override
+        public boolean isDynamic() {
+            return true;
         }
 
-        @Override
-        public Integer getPreviousValue(Calendar calendar) {
-            
-              int currDay = calendar.get(Calendar.DAY_OF_MONTH);
-              Integer nthDay = getWeekdayInMonth(calendar);
-              Integer result = nthDay != null && nthDay <= currDay ? nthDay : null;
-              
-              return isValidResult(calendar, result)? result : null;
-		}
+        /**
+         * @return the Nth weekday of the month, or the last one if ordinal is null, -1 if there is none
+         */
+        public int getDay(int days, int firstWeekday) {
+            // The first day in the month whose weekday is the same as the one we're looking for
+            int first = 1 + (weekday - firstWeekday + 7) % 7;
+            int day = ordinal == null ? first + (days - first) / 7 * 7 : first + (ordinal - 1) * 7;
+            return day <= days ? day : -1;
+        }
 
+		@Override
+		public long getMask(int days, int firstWeekday) {
+            int day = getDay(days, firstWeekday);
+            return day < 1 ? 0 : 1L << day;
+		}
 	}
 
 	private static class DaysFromLastDayExpression extends FieldExpression {
@@ -1169,38 +1178,34 @@ public class EJBCronTrigger extends CronTriggerImpl {
 			this.days = 0;
 		}
 
-		@Override
-		public Integer getNextValue(Calendar calendar) {
-			int currValue = calendar.get(field);
-			int maxValue = calendar.getActualMaximum(field);
-			int value = maxValue - days;
-			Integer result = currValue <= value ? value : null;
-			return isValidResult(calendar, result)? result : null;
-		}
+        @Override
+        public boolean isDynamic() {
+            return true;
+        }
+
+        public int getDay(int monthLength) {
+            return monthLength - days;
+        }
 
 		@Override
-		public Integer getPreviousValue(Calendar calendar) {
-			int maxValue = calendar.getActualMaximum(field);
-			Integer result = maxValue - days;
-			return isValidResult(calendar, result)? result : null;
+		public long getMask(int monthLength, int firstWeekday) {
+            int day = getDay(monthLength);
+            return day < 1 ? 0 : 1L << day;
 		}
-
 	}
 
 	private static class AsteriskExpression extends FieldExpression {
 
+        private final long mask;
+
         public AsteriskExpression(int field){
             super(field);
+            mask = field == Calendar.YEAR ? 0 : range(CALENDAR.getMinimum(field), CALENDAR.getMaximum(field));
         }
 
         @Override
-        public Integer getNextValue(Calendar calendar) {
-           return calendar.get(field);
-        }
-
-        @Override
-        public Integer getPreviousValue(Calendar calendar) {
-            return calendar.get(field);
+        public long getMask(int days, int firstWeekday) {
+            return mask;
         }
     }
-}
\ No newline at end of file
+}
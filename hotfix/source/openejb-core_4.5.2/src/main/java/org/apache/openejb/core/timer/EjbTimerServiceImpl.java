@@ -75,6 +75,13 @@ public class EjbTimerServiceImpl implements EjbTimerService, Serializable {
     public static final String EJB_TIMER_RETRY_ATTEMPTS = "EjbTimer.RetryAttempts";
     public static final String OPENEJB_QUARTZ_USE_TCCL = "openejb.quartz.use-TCCL";
 
+    /**
+     * Set to "wheel" on the bean, module, application or system properties to
+     * schedule the timers with the shared {@link TimingWheelScheduler} instead of Quartz
+     */
+    public static final String OPENEJB_TIMER_SCHEDULER = "openejb.timer.scheduler";
+    public static final String WHEEL_SCHEDULER = "wheel";
+
     private boolean transacted;
     private int retryAttempts;
 
@@ -84,7 +91,18 @@ public class EjbTimerServiceImpl implements EjbTimerService, Serializable {
     private transient Scheduler scheduler = null;
 
     public EjbTimerServiceImpl(BeanContext deployment) {
-        this(deployment, getDefaultTransactionManager(), new MemoryTimerStore(getDefaultTransactionManager()), -1);
+        this(deployment, getDefaultTransactionManager(), newTimerStore(deployment), -1);
+    }
+
+    /**
+     * @return a {@link JdbcTimerStore} when a datasource is configured for the bean, a {@link MemoryTimerStore} otherwise
+     */
+    private static TimerStore newTimerStore(final BeanContext deployment) {
+        final String dataSource = getProperty(deployment, JdbcTimerStore.OPENEJB_TIMER_STORE_DATASOURCE);
+        if (dataSource != null && dataSource.trim().length() > 0) {
+            return JdbcTimerStore.getInstance(dataSource.trim());
+        }
+        return new MemoryTimerStore(getDefaultTransactionManager());
     }
 
     public static TransactionManager getDefaultTransactionManager() {
@@ -141,6 +159,12 @@ public class EjbTimerServiceImpl implements EjbTimerService, Serializable {
                 return scheduler;
             }
 
+            if (WHEEL_SCHEDULER.equalsIgnoreCase(getProperty(deployment, OPENEJB_TIMER_SCHEDULER))) {
+                thisScheduler = getWheelScheduler();
+                deployment.set(Scheduler.class, thisScheduler);
+                return thisScheduler;
+            }
+
             final Properties properties = new Properties();
             putAll(properties, SystemInstance.get().getProperties());
             putAll(properties, deployment.getModuleContext().getAppContext().getProperties());
@@ -212,14 +236,7 @@ public class EjbTimerServiceImpl implements EjbTimerService, Serializable {
                         Thread.currentThread().setContextClassLoader(oldCl);
                     }
 
-                    //durability is configured with true, which means that the job will be kept in the store even if no trigger is attached to it.
-                    //Currently, all the EJB beans share with the same job instance
-                    JobDetail job = JobBuilder.newJob(EjbTimeoutJob.class)
-                            .withIdentity(OPENEJB_TIMEOUT_JOB_NAME, OPENEJB_TIMEOUT_JOB_GROUP_NAME)
-                            .storeDurably(true)
-                            .requestRecovery(false)
-                            .build();
-                    thisScheduler.addJob(job, true);
+                    thisScheduler.addJob(newTimeoutJob(), true);
                 } catch (SchedulerException e) {
                     throw new OpenEJBRuntimeException("Fail to initialize the default scheduler", e);
                 }
@@ -237,6 +254,50 @@ public class EjbTimerServiceImpl implements EjbTimerService, Serializable {
         return thisScheduler;
     }
 
+    private static JobDetail newTimeoutJob() {
+        //durability is configured with true, which means that the job will be kept in the store even if no trigger is attached to it.
+        //Currently, all the EJB beans share with the same job instance
+        return JobBuilder.newJob(EjbTimeoutJob.class)
+                .withIdentity(OPENEJB_TIMEOUT_JOB_NAME, OPENEJB_TIMEOUT_JOB_GROUP_NAME)
+                .storeDurably(true)
+                .requestRecovery(false)
+                .build();
+    }
+
+    private static Scheduler getWheelScheduler() {
+        final SystemInstance systemInstance = SystemInstance.get();
+
+        TimingWheelScheduler wheel = systemInstance.getComponent(TimingWheelScheduler.class);
+        if (wheel == null || wheel.isShutdown()) {
+            wheel = new TimingWheelScheduler("OpenEJB-TimerService-Wheel", systemInstance.getOptions());
+            try {
+                wheel.addJob(newTimeoutJob(), true);
+                wheel.start();
+            } catch (SchedulerException e) {
+                throw new OpenEJBRuntimeException("Fail to initialize the timing wheel scheduler", e);
+            }
+            systemInstance.setComponent(TimingWheelScheduler.class, wheel);
+        }
+        return wheel;
+    }
+
+    /**
+     * The most specific value wins: bean, module, application then system properties
+     */
+    private static String getProperty(final BeanContext deployment, final String key) {
+        String value = deployment.getProperties().getProperty(key);
+        if (value == null) {
+            value = deployment.getModuleContext().getProperties().getProperty(key);
+        }
+        if (value == null) {
+            value = deployment.getModuleContext().getAppContext().getProperties().getProperty(key);
+        }
+        if (value == null) {
+            value = SystemInstance.get().getProperty(key);
+        }
+        return value;
+    }
+
     private static void putAll(Properties a, final Properties b) {
         for (Map.Entry<Object, Object> entry : b.entrySet()) {
             final String key = entry.getKey().toString();
@@ -281,13 +342,9 @@ public class EjbTimerServiceImpl implements EjbTimerService, Serializable {
             return;
         }
 
-        boolean defaultScheduler = false;
-        final Scheduler ds = SystemInstance.get().getComponent(Scheduler.class);
-        try { // == is the faster way to test, we rely on name (key in quartz registry) only for serialization
-            defaultScheduler = ds == scheduler || scheduler.getSchedulerName().equals(ds.getSchedulerName());
-        } catch (Exception e) {
-            // no-op: default should be fine
-        }
+        final SystemInstance systemInstance = SystemInstance.get();
+        final boolean defaultScheduler = isSameScheduler(systemInstance.getComponent(Scheduler.class))
+                || isSameScheduler(systemInstance.getComponent(TimingWheelScheduler.class));
 
         // if specific instance
         if (!defaultScheduler) {
@@ -299,6 +356,18 @@ public class EjbTimerServiceImpl implements EjbTimerService, Serializable {
         }
     }
 
+    private boolean isSameScheduler(final Scheduler ds) {
+        if (ds == null) {
+            return false;
+        }
+
+        try { // == is the faster way to test, we rely on name (key in quartz registry) only for serialization
+            return ds == scheduler || scheduler.getSchedulerName().equals(ds.getSchedulerName());
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
     public static void shutdown() {
         final Scheduler scheduler = SystemInstance.get().getComponent(Scheduler.class);
         if (scheduler != null) {
@@ -308,6 +377,13 @@ public class EjbTimerServiceImpl implements EjbTimerService, Serializable {
                 throw new OpenEJBRuntimeException("Unable to shutdown scheduler", e);
             }
         }
+
+        final TimingWheelScheduler wheel = SystemInstance.get().getComponent(TimingWheelScheduler.class);
+        if (wheel != null) {
+            wheel.shutdown();
+        }
+
+        JdbcTimerStore.closeAll();
     }
 
     @Override
@@ -333,6 +409,9 @@ public class EjbTimerServiceImpl implements EjbTimerService, Serializable {
                 log.error("fail to stop timer", e);
             }
         }
+        if (timerStore instanceof JdbcTimerStore) {
+            ((JdbcTimerStore) timerStore).release((String) deployment.getDeploymentID());
+        }
         //scheduler.shutdown();
     }
 
@@ -538,6 +617,10 @@ public class EjbTimerServiceImpl implements EjbTimerService, Serializable {
      * @param timerData the timer to call.
      */
     public void ejbTimeout(TimerData timerData) {
+        // another node may own the timer now
+        if (timerStore instanceof JdbcTimerStore && !((JdbcTimerStore) timerStore).canFire(timerData)) {
+            return;
+        }
         try {
             Timer timer = getTimer(timerData.getId());
             // quartz can be backed by some advanced config (jdbc for instance)
@@ -0,0 +1,1201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.timer;
+
+import org.apache.openejb.BeanContext;
+import org.apache.openejb.OpenEJBRuntimeException;
+import org.apache.openejb.core.ivm.EjbObjectInputStream;
+import org.apache.openejb.loader.Options;
+import org.apache.openejb.loader.SystemInstance;
+import org.apache.openejb.spi.ContainerSystem;
+import org.apache.openejb.util.DaemonThreadFactory;
+import org.apache.openejb.util.Duration;
+import org.apache.openejb.util.LogCategory;
+import org.apache.openejb.util.Logger;
+
+import javax.ejb.ScheduleExpression;
+import javax.ejb.TimerConfig;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps persistent timers in a database so they survive restarts and are
+ * shared by the nodes using the same database.
+ * <p/>
+ * Each row is owned by one node through a lease: the owner and the time the
+ * lease expires.  A node only fires the timers it owns, and only while its
+ * lease is valid.  Every poll interval a node renews the lease of all its
+ * rows in one statement, drops the timers another node took over, and
+ * claims expired rows, those of dead nodes or released ones, until it owns
+ * its fair share of the timers.  A node owning more than its share releases
+ * the extra rows so a node joining the cluster gets some of the load.
+ * Claims are a compare and set on the lease expiry so a row is never owned
+ * by two nodes.
+ * <p/>
+ * Inserts and deletes done in a transaction are batched and written when
+ * the transaction completes, on the transaction's connection if the data
+ * source is JTA managed.  Timer data, including the info, is serialized in
+ * a BLOB.  Ids are allocated by blocks so creating a timer does not need a
+ * round trip.  Non persistent timers stay in memory only.
+ * <p/>
+ * The live timers are kept in a {@link MemoryTimerStore} so lookups never
+ * hit the database.  {@link #getTimers} only sees the timers owned by
+ * this node.
+ * <p/>
+ * Automatic timers are created on every node when the bean is deployed,
+ * only the first node inserts them; the others find the existing row by
+ * its key (deployment, method, schedule).
+ *
+ * @version $Rev$ $Date$
+ */
+public class JdbcTimerStore implements TimerStore {
+    private static final Logger log = Logger.getInstance(LogCategory.TIMER, "org.apache.openejb.util.resources");
+
+    /**
+     * Id of the DataSource resource; when set, on the bean, module, application or
+     * system properties, the timers of the bean are kept in this store
+     */
+    public static final String OPENEJB_TIMER_STORE_DATASOURCE = "openejb.timer.store.datasource";
+    public static final String OPENEJB_TIMER_STORE_NODE = "openejb.timer.store.node";
+    public static final String OPENEJB_TIMER_STORE_LEASE = "openejb.timer.store.lease";
+    public static final String OPENEJB_TIMER_STORE_POLL = "openejb.timer.store.poll";
+    public static final String OPENEJB_TIMER_STORE_CLAIM = "openejb.timer.store.claim";
+    public static final String OPENEJB_TIMER_STORE_CREATE_TABLES = "openejb.timer.store.create-tables";
+
+    private static final int ID_BLOCK = 100;
+
+    private static final String createTimerTableSQL = "create table OPENEJB_TIMER (ID bigint not null primary key, DEPLOYMENT_ID varchar(256) not null, AUTO_KEY varchar(1024), TIMER_TYPE varchar(32) not null, DATA blob not null, NEXT_TIMEOUT bigint not null, OWNER varchar(256), LEASE_EXPIRY bigint not null)";
+    private static final String createAutoKeyIndexSQL = "create unique index OPENEJB_TIMER_AUTO on OPENEJB_TIMER (AUTO_KEY)";
+    private static final String createLeaseIndexSQL = "create index OPENEJB_TIMER_LEASE on OPENEJB_TIMER (LEASE_EXPIRY)";
+    private static final String createNodeTableSQL = "create table OPENEJB_TIMER_NODE (NODE varchar(256) not null primary key, LEASE_EXPIRY bigint not null)";
+    private static final String createIdTableSQL = "create table OPENEJB_TIMER_ID (NAME varchar(64) not null primary key, NEXT_ID bigint not null)";
+    private static final String insertIdSQL = "insert into OPENEJB_TIMER_ID (NAME, NEXT_ID) values ('timer', 1)";
+    private static final String updateIdSQL = "update OPENEJB_TIMER_ID set NEXT_ID = NEXT_ID + ? where NAME = 'timer'";
+    private static final String selectIdSQL = "select NEXT_ID from OPENEJB_TIMER_ID where NAME = 'timer'";
+
+    private static final String insertSQL = "insert into OPENEJB_TIMER (ID, DEPLOYMENT_ID, AUTO_KEY, TIMER_TYPE, DATA, NEXT_TIMEOUT, OWNER, LEASE_EXPIRY) values (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String deleteSQL = "delete from OPENEJB_TIMER where ID = ?";
+    private static final String existsSQL = "select count(*) from OPENEJB_TIMER where ID = ?";
+    private static final String autoExistsSQL = "select count(*) from OPENEJB_TIMER where AUTO_KEY = ?";
+    private static final String renewSQL = "update OPENEJB_TIMER set LEASE_EXPIRY = ? where OWNER = ?";
+    private static final String ownedSQL = "select ID, DEPLOYMENT_ID from OPENEJB_TIMER where OWNER = ?";
+    private static final String countSQL = "select count(*) from OPENEJB_TIMER";
+    private static final String heartbeatSQL = "update OPENEJB_TIMER_NODE set LEASE_EXPIRY = ? where NODE = ?";
+    private static final String insertNodeSQL = "insert into OPENEJB_TIMER_NODE (LEASE_EXPIRY, NODE) values (?, ?)";
+    private static final String deleteNodesSQL = "delete from OPENEJB_TIMER_NODE where LEASE_EXPIRY < ?";
+    private static final String nodesSQL = "select count(*) from OPENEJB_TIMER_NODE where LEASE_EXPIRY >= ?";
+    private static final String expiredSQL = "select ID, DEPLOYMENT_ID, TIMER_TYPE, DATA, LEASE_EXPIRY from OPENEJB_TIMER where LEASE_EXPIRY < ? order by NEXT_TIMEOUT";
+    private static final String loadSQL = "select ID, DEPLOYMENT_ID, TIMER_TYPE, DATA, LEASE_EXPIRY from OPENEJB_TIMER where DEPLOYMENT_ID = ? and (LEASE_EXPIRY < ? or OWNER = ?)";
+    private static final String claimSQL = "update OPENEJB_TIMER set OWNER = ?, LEASE_EXPIRY = ? where ID = ? and LEASE_EXPIRY = ?";
+    private static final String releaseSQL = "update OPENEJB_TIMER set OWNER = null, LEASE_EXPIRY = 0 where ID = ? and OWNER = ?";
+    private static final String releaseDeploymentSQL = "update OPENEJB_TIMER set OWNER = null, LEASE_EXPIRY = 0 where DEPLOYMENT_ID = ? and OWNER = ?";
+
+    private final DataSource dataSource;
+    private final TransactionManager transactionManager;
+    private final MemoryTimerStore memory;
+    private final String node;
+    private final long lease;
+    private final int claimSize;
+
+    private final ConcurrentMap<String, EjbTimerServiceImpl> timerServices = new ConcurrentHashMap<String, EjbTimerServiceImpl>();
+    private final Set<String> started = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Map<String, List<TimerData>> automatic = new HashMap<String, List<TimerData>>();
+    private final Set<Long> owned = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    private final Set<Long> uncommitted = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    private final Map<Transaction, Batch> batches = new ConcurrentHashMap<Transaction, Batch>();
+    private final ScheduledExecutorService poller;
+
+    private volatile long leaseDeadline;
+
+    private long nextId;
+    private long maxId;
+
+    /**
+     * @param node      unique name of this node in the cluster
+     * @param lease     how long, in ms, the rows owned by a node stay its own without being renewed
+     * @param poll      ms between two polls, 0 to only poll when {@link #poll()} is called
+     * @param claimSize maximum number of rows claimed or released by a poll
+     */
+    public JdbcTimerStore(final DataSource dataSource, final TransactionManager transactionManager, final String node, final long lease, final long poll, final int claimSize, final boolean createTables) throws TimerStoreException {
+        if (poll >= lease) throw new IllegalArgumentException("the poll interval (" + poll + "ms) must be shorter than the lease (" + lease + "ms)");
+
+        this.dataSource = dataSource;
+        this.transactionManager = transactionManager;
+        this.memory = new MemoryTimerStore(transactionManager);
+        this.node = node;
+        this.lease = lease;
+        this.claimSize = claimSize;
+        this.leaseDeadline = System.currentTimeMillis() + lease;
+
+        if (createTables) {
+            createTables();
+        }
+
+        if (poll > 0) {
+            poller = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("EjbTimerStore", node));
+            poller.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    poll();
+                }
+            }, poll, poll, TimeUnit.MILLISECONDS);
+        } else {
+            poller = null;
+        }
+    }
+
+    /**
+     * @return the store shared by all the beans using this DataSource resource
+     */
+    public static synchronized JdbcTimerStore getInstance(final String resourceId) {
+        final SystemInstance systemInstance = SystemInstance.get();
+
+        Stores stores = systemInstance.getComponent(Stores.class);
+        if (stores == null) {
+            stores = new Stores();
+            systemInstance.setComponent(Stores.class, stores);
+        }
+
+        JdbcTimerStore store = stores.stores.get(resourceId);
+        if (store == null) {
+            final Object dataSource;
+            try {
+                dataSource = systemInstance.getComponent(ContainerSystem.class).getJNDIContext().lookup("openejb/Resource/" + resourceId);
+            } catch (NamingException e) {
+                throw new OpenEJBRuntimeException("Unknown timer store datasource " + resourceId, e);
+            }
+            if (!(dataSource instanceof DataSource)) {
+                throw new OpenEJBRuntimeException("Timer store resource " + resourceId + " is not a DataSource, but is " + dataSource.getClass().getName());
+            }
+
+            final Options options = systemInstance.getOptions();
+            try {
+                store = new JdbcTimerStore((DataSource) dataSource,
+                        systemInstance.getComponent(TransactionManager.class),
+                        options.get(OPENEJB_TIMER_STORE_NODE, defaultNode()),
+                        millis(options.get(OPENEJB_TIMER_STORE_LEASE, new Duration(60, TimeUnit.SECONDS))),
+                        millis(options.get(OPENEJB_TIMER_STORE_POLL, new Duration(10, TimeUnit.SECONDS))),
+                        options.get(OPENEJB_TIMER_STORE_CLAIM, 100),
+                        options.get(OPENEJB_TIMER_STORE_CREATE_TABLES, true));
+            } catch (TimerStoreException e) {
+                throw new OpenEJBRuntimeException("Unable to create the timer store on " + resourceId, e);
+            }
+            stores.stores.put(resourceId, store);
+        }
+        return store;
+    }
+
+    /**
+     * Stops the polling of all the stores, the rows stay owned until their lease expires.
+     */
+    public static synchronized void closeAll() {
+        final Stores stores = SystemInstance.get().getComponent(Stores.class);
+        if (stores == null) return;
+
+        for (final JdbcTimerStore store : stores.stores.values()) {
+            store.close();
+        }
+        stores.stores.clear();
+    }
+
+    private static String defaultNode() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    private static long millis(final Duration duration) {
+        if (duration.getUnit() == null) return duration.getTime();
+        return duration.getTime(TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * @return the number of persistent timers this node owns
+     */
+    public int getOwnedCount() {
+        return owned.size();
+    }
+
+    /**
+     * A persistent timer only fires on the node owning it, and only while the
+     * lease of that node is valid: once it expired another node may have
+     * claimed the timer.
+     */
+    public boolean canFire(final TimerData timerData) {
+        if (!timerData.isPersistent()) return true;
+        return owned.contains(timerData.getId()) && System.currentTimeMillis() < leaseDeadline;
+    }
+
+    public TimerData getTimer(final String deploymentId, final long timerId) {
+        return memory.getTimer(deploymentId, timerId);
+    }
+
+    public Collection<TimerData> getTimers(final String deploymentId) {
+        return memory.getTimers(deploymentId);
+    }
+
+    public Collection<TimerData> loadTimers(final EjbTimerServiceImpl timerService, final String deploymentId) throws TimerStoreException {
+        if (timerService != null) {
+            timerServices.put(deploymentId, timerService);
+        }
+        started.add(deploymentId);
+
+        final List<TimerData> timers;
+        synchronized (automatic) {
+            timers = automatic.remove(deploymentId);
+        }
+        if (timers != null) {
+            insertAutomatic(timers);
+        }
+
+        final long now = System.currentTimeMillis();
+        final List<Row> rows = new ArrayList<Row>();
+        final Connection c = getConnection();
+        try {
+            final PreparedStatement statement = c.prepareStatement(loadSQL);
+            try {
+                statement.setString(1, deploymentId);
+                statement.setLong(2, now);
+                statement.setString(3, node);
+                readRows(statement, rows);
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new TimerStoreException(e);
+        } finally {
+            close(c);
+        }
+
+        for (final Row row : claim(rows)) {
+            try {
+                store(toTimerData(row, timerService));
+            } catch (Exception e) {
+                log.error("Unable to load timer " + row.id + " of " + deploymentId, e);
+            }
+        }
+
+        return memory.getTimers(deploymentId);
+    }
+
+    /**
+     * Forgets the deployment and releases its timers so the other nodes can take them.
+     */
+    public void release(final String deploymentId) {
+        timerServices.remove(deploymentId);
+        started.remove(deploymentId);
+
+        for (final TimerData timerData : memory.getTimers(deploymentId)) {
+            owned.remove(timerData.getId());
+            memory.removeTimer(timerData.getId());
+        }
+
+        try {
+            final Connection c = getConnection();
+            try {
+                final PreparedStatement statement = c.prepareStatement(releaseDeploymentSQL);
+                try {
+                    statement.setString(1, deploymentId);
+                    statement.setString(2, node);
+                    statement.executeUpdate();
+                } finally {
+                    statement.close();
+                }
+            } finally {
+                close(c);
+            }
+        } catch (Exception e) {
+            log.warning("Unable to release the timers of " + deploymentId + ", they will be taken over when the lease expires", e);
+        }
+    }
+
+    public void addTimerData(final TimerData timerData) throws TimerStoreException {
+        memory.addTimerData(timerData);
+
+        // a cancel was rolled back, the row is still there unless it was deleted outside of the transaction
+        if (timerData.isPersistent() && !exists(timerData.getId())) {
+            write(Collections.singletonList(timerData), Collections.<Long>emptySet());
+            owned.add(timerData.getId());
+        }
+    }
+
+    @Override
+    public TimerData createSingleActionTimer(final EjbTimerServiceImpl timerService, final String deploymentId, final Object primaryKey, final Method timeoutMethod, final Date expiration, final TimerConfig timerConfig) throws TimerStoreException {
+        return add(new SingleActionTimerData(nextId(), timerService, deploymentId, primaryKey, timeoutMethod, timerConfig, expiration));
+    }
+
+    @Override
+    public TimerData createIntervalTimer(final EjbTimerServiceImpl timerService, final String deploymentId, final Object primaryKey, final Method timeoutMethod, final Date initialExpiration, final long intervalDuration, final TimerConfig timerConfig) throws TimerStoreException {
+        return add(new IntervalTimerData(nextId(), timerService, deploymentId, primaryKey, timeoutMethod, timerConfig, initialExpiration, intervalDuration));
+    }
+
+    @Override
+    public TimerData createCalendarTimer(final EjbTimerServiceImpl timerService, final String deploymentId, final Object primaryKey, final Method timeoutMethod, final ScheduleExpression schedule, final TimerConfig timerConfig) throws TimerStoreException {
+        final TimerData timerData = new CalendarTimerData(nextId(), timerService, deploymentId, primaryKey, timeoutMethod, timerConfig, schedule);
+
+        // automatic timers are created before the timer service starts, on every node
+        if (timerData.isPersistent() && !started.contains(deploymentId)) {
+            synchronized (automatic) {
+                List<TimerData> timers = automatic.get(deploymentId);
+                if (timers == null) {
+                    timers = new ArrayList<TimerData>();
+                    automatic.put(deploymentId, timers);
+                }
+                timers.add(timerData);
+            }
+            return timerData;
+        }
+
+        return add(timerData);
+    }
+
+    public void removeTimer(final long timerId) {
+        final TimerData timerData = memory.getTimer(null, timerId);
+        memory.removeTimer(timerId);
+
+        if (timerData != null && !timerData.isPersistent()) return;
+
+        try {
+            final Batch batch = getBatch();
+            if (batch != null) {
+                batch.remove(timerId);
+            } else {
+                write(Collections.<TimerData>emptyList(), Collections.singleton(timerId));
+                owned.remove(timerId);
+            }
+        } catch (TimerStoreException e) {
+            log.warning("Unable to remove timer " + timerId + " from the database", e);
+        }
+    }
+
+    public void updateIntervalTimer(final TimerData timerData) {
+        // the next timeout is computed from the initial expiration
+    }
+
+    private TimerData add(final TimerData timerData) throws TimerStoreException {
+        memory.addTimerData(timerData);
+        if (!timerData.isPersistent()) return timerData;
+
+        final Batch batch = getBatch();
+        if (batch != null) {
+            batch.add(timerData);
+        } else {
+            write(Collections.singletonList(timerData), Collections.<Long>emptySet());
+            owned.add(timerData.getId());
+        }
+        return timerData;
+    }
+
+    private void store(final TimerData timerData) throws TimerStoreException {
+        memory.addTimerData(timerData);
+        owned.add(timerData.getId());
+    }
+
+    /**
+     * @return the batch of the current transaction, null outside of a transaction
+     */
+    private Batch getBatch() throws TimerStoreException {
+        if (transactionManager == null) return null;
+
+        final Transaction transaction;
+        final int status;
+        try {
+            transaction = transactionManager.getTransaction();
+            status = transaction == null ? Status.STATUS_NO_TRANSACTION : transaction.getStatus();
+        } catch (SystemException e) {
+            return null;
+        }
+
+        if (status != Status.STATUS_ACTIVE && status != Status.STATUS_MARKED_ROLLBACK) {
+            return null;
+        }
+
+        Batch batch = batches.get(transaction);
+        if (batch == null) {
+            batch = new Batch(transaction);
+            try {
+                transaction.registerSynchronization(batch);
+            } catch (Exception e) {
+                throw new TimerStoreException("Unable to register the timer batch in the transaction", e);
+            }
+            batches.put(transaction, batch);
+        }
+        return batch;
+    }
+
+    /**
+     * Writes the inserts and deletes in one transaction.  A connection of a JTA
+     * managed DataSource enlisted in the current transaction is not committed
+     * here, the transaction manager does it.
+     */
+    private void write(final Collection<TimerData> inserts, final Collection<Long> deletes) throws TimerStoreException {
+        final long expiry = System.currentTimeMillis() + lease;
+
+        final Connection c = getConnection();
+        boolean autoCommit = false;
+        try {
+            autoCommit = c.getAutoCommit();
+            if (autoCommit) c.setAutoCommit(false);
+
+            if (!inserts.isEmpty()) {
+                final PreparedStatement statement = c.prepareStatement(insertSQL);
+                try {
+                    for (final TimerData timerData : inserts) {
+                        bindInsert(statement, timerData, null, expiry);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                } finally {
+                    statement.close();
+                }
+            }
+
+            if (!deletes.isEmpty()) {
+                final PreparedStatement statement = c.prepareStatement(deleteSQL);
+                try {
+                    for (final Long id : deletes) {
+                        statement.setLong(1, id);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                } finally {
+                    statement.close();
+                }
+            }
+
+            if (autoCommit) c.commit();
+        } catch (SQLException e) {
+            rollback(c, autoCommit);
+            throw new TimerStoreException(e);
+        } finally {
+            restore(c, autoCommit);
+            close(c);
+        }
+    }
+
+    private void insertAutomatic(final List<TimerData> timers) throws TimerStoreException {
+        final long expiry = System.currentTimeMillis() + lease;
+
+        final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        final Connection c = getConnection();
+        try {
+            for (final TimerData timerData : timers) {
+                // the same method can have the same schedule twice, with a different info
+                String key = autoKey((CalendarTimerData) timerData);
+                final Integer index = indexes.get(key);
+                indexes.put(key, index == null ? 1 : index + 1);
+                if (index != null) key = key + "#" + index;
+
+                if (count(c, autoExistsSQL, key) > 0) continue;
+
+                final PreparedStatement statement = c.prepareStatement(insertSQL);
+                try {
+                    bindInsert(statement, timerData, key, expiry);
+                    statement.executeUpdate();
+                } catch (SQLException e) {
+                    // another node inserted it first
+                    log.debug("Automatic timer " + key + " already exists: " + e.getMessage());
+                } finally {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new TimerStoreException(e);
+        } finally {
+            close(c);
+        }
+    }
+
+    private static String autoKey(final CalendarTimerData timerData) {
+        final ScheduleExpression s = timerData.getSchedule();
+        final Method method = timerData.getTimeoutMethod();
+        final String key = timerData.getDeploymentId() + "|" + (method == null ? "" : method.getName())
+                + "|" + s.getSecond() + " " + s.getMinute() + " " + s.getHour()
+                + " " + s.getDayOfMonth() + " " + s.getMonth() + " " + s.getDayOfWeek() + " " + s.getYear()
+                + "|" + s.getTimezone() + "|" + s.getStart() + "|" + s.getEnd();
+        return key.length() > 1000 ? key.substring(0, 1000) : key;
+    }
+
+    private void bindInsert(final PreparedStatement statement, final TimerData timerData, final String autoKey, final long expiry) throws SQLException {
+        statement.setLong(1, timerData.getId());
+        statement.setString(2, timerData.getDeploymentId());
+        statement.setString(3, autoKey);
+        statement.setString(4, timerData.getType().name());
+        statement.setBytes(5, serialize(timerData));
+        statement.setLong(6, nextTimeout(timerData));
+        statement.setString(7, node);
+        statement.setLong(8, expiry);
+    }
+
+    private static long nextTimeout(final TimerData timerData) {
+        switch (timerData.getType()) {
+            case SingleAction:
+                return ((SingleActionTimerData) timerData).getExpiration().getTime();
+            case Interval:
+                return ((IntervalTimerData) timerData).getInitialExpiration().getTime();
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Renews the lease, drops the timers another node took and claims or
+     * releases rows to own a fair share of the timers.
+     */
+    public void poll() {
+        try {
+            final long now = System.currentTimeMillis();
+
+            // rows written by a transaction still completing may not be visible yet
+            final Set<Long> committed = new HashSet<Long>(owned);
+            committed.removeAll(uncommitted);
+
+            final Map<Long, String> rows = new HashMap<Long, String>();
+            final long total;
+            final long nodes;
+
+            final Connection c = getConnection();
+            try {
+                final PreparedStatement renew = c.prepareStatement(renewSQL);
+                try {
+                    renew.setLong(1, now + lease);
+                    renew.setString(2, node);
+                    renew.executeUpdate();
+                } finally {
+                    renew.close();
+                }
+                leaseDeadline = now + lease;
+
+                heartbeat(c, now);
+
+                final PreparedStatement select = c.prepareStatement(ownedSQL);
+                try {
+                    select.setString(1, node);
+                    final ResultSet rs = select.executeQuery();
+                    try {
+                        while (rs.next()) {
+                            rows.put(rs.getLong(1), rs.getString(2));
+                        }
+                    } finally {
+                        rs.close();
+                    }
+                } finally {
+                    select.close();
+                }
+
+                total = count(c, countSQL, null);
+                nodes = count(c, nodesSQL, now);
+            } finally {
+                close(c);
+            }
+
+            // taken over by another node while our lease was expired
+            for (final Long id : committed) {
+                if (!rows.containsKey(id)) {
+                    log.warning("Timer " + id + " was taken over by another node");
+                    drop(id);
+                }
+            }
+
+            // rows we own but that nobody here can fire, an undeployed application for instance
+            final List<Long> orphans = new ArrayList<Long>();
+            for (final Map.Entry<Long, String> entry : rows.entrySet()) {
+                if (!started.contains(entry.getValue())) {
+                    orphans.add(entry.getKey());
+                }
+            }
+            if (!orphans.isEmpty()) {
+                releaseRows(orphans);
+            }
+
+            final long share = (total + nodes - 1) / Math.max(nodes, 1L);
+            final int mine = owned.size();
+            if (mine < share) {
+                claimExpired((int) Math.min(claimSize, share - mine));
+            } else if (mine > share + Math.max(1, share / 10)) {
+                rebalance((int) Math.min(claimSize, mine - share));
+            }
+        } catch (Throwable e) {
+            log.warning("Timer store poll failed on node " + node, e);
+        }
+    }
+
+    /**
+     * Nodes, with or without timers, are counted through their row in OPENEJB_TIMER_NODE
+     */
+    private void heartbeat(final Connection c, final long now) throws SQLException {
+        final PreparedStatement delete = c.prepareStatement(deleteNodesSQL);
+        try {
+            delete.setLong(1, now);
+            delete.executeUpdate();
+        } finally {
+            delete.close();
+        }
+
+        for (final String sql : new String[]{heartbeatSQL, insertNodeSQL}) {
+            final PreparedStatement statement = c.prepareStatement(sql);
+            try {
+                statement.setLong(1, now + lease);
+                statement.setString(2, node);
+                if (statement.executeUpdate() > 0) return;
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
+    private void claimExpired(final int max) throws TimerStoreException {
+        final List<Row> rows = new ArrayList<Row>();
+        final Connection c = getConnection();
+        try {
+            final PreparedStatement statement = c.prepareStatement(expiredSQL);
+            try {
+                statement.setLong(1, System.currentTimeMillis());
+                statement.setMaxRows(max * 2);
+                readRows(statement, rows);
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new TimerStoreException(e);
+        } finally {
+            close(c);
+        }
+
+        // only the deployments running here
+        for (final Iterator<Row> it = rows.iterator(); it.hasNext(); ) {
+            if (!started.contains(it.next().deploymentId)) it.remove();
+        }
+        while (rows.size() > max) {
+            rows.remove(rows.size() - 1);
+        }
+
+        for (final Row row : claim(rows)) {
+            try {
+                final EjbTimerServiceImpl timerService = timerServices.get(row.deploymentId);
+                final TimerData timerData = toTimerData(row, timerService);
+                store(timerData);
+                if (timerService != null) {
+                    timerData.newTimer();
+                }
+            } catch (Exception e) {
+                log.error("Unable to take over timer " + row.id + " of " + row.deploymentId, e);
+            }
+        }
+    }
+
+    /**
+     * Stops some of our timers locally, then lets the other nodes claim them.
+     */
+    private void rebalance(final int count) throws TimerStoreException {
+        final List<Long> ids = new ArrayList<Long>();
+        final List<TimerData> stopped = new ArrayList<TimerData>();
+        for (final Long id : owned) {
+            if (ids.size() >= count) break;
+
+            final TimerData timerData = memory.getTimer(null, id);
+            ids.add(id);
+            if (timerData != null) stopped.add(timerData);
+            drop(id);
+        }
+
+        try {
+            releaseRows(ids);
+        } catch (TimerStoreException e) {
+            // still ours, fire them here
+            for (final TimerData timerData : stopped) {
+                store(timerData);
+                timerData.newTimer();
+            }
+            throw e;
+        }
+    }
+
+    private void releaseRows(final List<Long> ids) throws TimerStoreException {
+        final Connection c = getConnection();
+        try {
+            final PreparedStatement statement = c.prepareStatement(releaseSQL);
+            try {
+                for (final Long id : ids) {
+                    statement.setLong(1, id);
+                    statement.setString(2, node);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new TimerStoreException(e);
+        } finally {
+            close(c);
+        }
+    }
+
+    /**
+     * Stops a timer locally without touching its row
+     */
+    private void drop(final Long id) {
+        owned.remove(id);
+
+        final TimerData timerData = memory.getTimer(null, id);
+        if (timerData == null) return;
+
+        memory.removeTimer(id);
+        try {
+            timerData.stop();
+        } catch (Exception e) {
+            log.warning("Unable to stop timer " + id, e);
+        }
+    }
+
+    /**
+     * Compare and set on the lease expiry each row was read with.
+     *
+     * @return the rows now owned by this node
+     */
+    private List<Row> claim(final List<Row> rows) throws TimerStoreException {
+        if (rows.isEmpty()) return rows;
+
+        final long expiry = System.currentTimeMillis() + lease;
+        final List<Row> claimed = new ArrayList<Row>();
+        final Connection c = getConnection();
+        try {
+            final PreparedStatement statement = c.prepareStatement(claimSQL);
+            try {
+                for (final Row row : rows) {
+                    statement.setString(1, node);
+                    statement.setLong(2, expiry);
+                    statement.setLong(3, row.id);
+                    statement.setLong(4, row.leaseExpiry);
+                    statement.addBatch();
+                }
+
+                final int[] counts = statement.executeBatch();
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] == 1) {
+                        claimed.add(rows.get(i));
+                    } else if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                        return verify(c, rows);
+                    }
+                }
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new TimerStoreException(e);
+        } finally {
+            close(c);
+        }
+        return claimed;
+    }
+
+    /**
+     * For drivers not reporting the update count of batched statements
+     */
+    private List<Row> verify(final Connection c, final List<Row> rows) throws SQLException {
+        final Set<Long> ids = new HashSet<Long>();
+        final PreparedStatement select = c.prepareStatement(ownedSQL);
+        try {
+            select.setString(1, node);
+            final ResultSet rs = select.executeQuery();
+            try {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            select.close();
+        }
+
+        final List<Row> claimed = new ArrayList<Row>();
+        for (final Row row : rows) {
+            if (ids.contains(row.id)) claimed.add(row);
+        }
+        return claimed;
+    }
+
+    private boolean exists(final long id) throws TimerStoreException {
+        final Connection c = getConnection();
+        try {
+            return count(c, existsSQL, id) > 0;
+        } catch (SQLException e) {
+            throw new TimerStoreException(e);
+        } finally {
+            close(c);
+        }
+    }
+
+    private static long count(final Connection c, final String sql, final Object parameter) throws SQLException {
+        final PreparedStatement statement = c.prepareStatement(sql);
+        try {
+            if (parameter != null) statement.setObject(1, parameter);
+            final ResultSet rs = statement.executeQuery();
+            try {
+                return rs.next() ? rs.getLong(1) : 0;
+            } finally {
+                rs.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void readRows(final PreparedStatement statement, final List<Row> rows) throws SQLException {
+        final ResultSet rs = statement.executeQuery();
+        try {
+            while (rs.next()) {
+                rows.add(new Row(rs.getLong(1), rs.getString(2), TimerType.valueOf(rs.getString(3)), rs.getBytes(4), rs.getLong(5)));
+            }
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Ids are reserved by blocks, outside of the caller's transaction so two
+     * transactions creating timers do not wait on each other.
+     */
+    private synchronized long nextId() throws TimerStoreException {
+        if (nextId < maxId) {
+            return nextId++;
+        }
+
+        Transaction suspended = null;
+        try {
+            if (transactionManager != null && transactionManager.getTransaction() != null) {
+                suspended = transactionManager.suspend();
+            }
+        } catch (SystemException e) {
+            throw new TimerStoreException("Unable to suspend the transaction to allocate timer ids", e);
+        }
+
+        try {
+            final Connection c = getConnection();
+            boolean autoCommit = false;
+            try {
+                autoCommit = c.getAutoCommit();
+                if (autoCommit) c.setAutoCommit(false);
+
+                final PreparedStatement update = c.prepareStatement(updateIdSQL);
+                try {
+                    update.setInt(1, ID_BLOCK);
+                    update.executeUpdate();
+                } finally {
+                    update.close();
+                }
+                maxId = count(c, selectIdSQL, null);
+                nextId = maxId - ID_BLOCK;
+
+                if (autoCommit) c.commit();
+            } catch (SQLException e) {
+                rollback(c, autoCommit);
+                throw new TimerStoreException(e);
+            } finally {
+                restore(c, autoCommit);
+                close(c);
+            }
+        } finally {
+            if (suspended != null) {
+                try {
+                    transactionManager.resume(suspended);
+                } catch (Exception e) {
+                    throw new TimerStoreException("Unable to resume the transaction after allocating timer ids", e);
+                }
+            }
+        }
+
+        return nextId++;
+    }
+
+    private byte[] serialize(final TimerData timerData) throws SQLException {
+        try {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final ObjectOutputStream out = new ObjectOutputStream(baos);
+            out.writeObject(timerData.getPrimaryKey());
+            out.writeObject(timerData.getInfo());
+
+            final Method method = timerData.getTimeoutMethod();
+            out.writeUTF(method == null ? "" : method.getName());
+            final Class<?>[] parameterTypes = method == null ? new Class<?>[0] : method.getParameterTypes();
+            out.writeInt(parameterTypes.length);
+            for (final Class<?> type : parameterTypes) {
+                out.writeUTF(type.getName());
+            }
+
+            switch (timerData.getType()) {
+                case SingleAction:
+                    out.writeLong(((SingleActionTimerData) timerData).getExpiration().getTime());
+                    break;
+                case Interval:
+                    out.writeLong(((IntervalTimerData) timerData).getInitialExpiration().getTime());
+                    out.writeLong(((IntervalTimerData) timerData).getIntervalDuration());
+                    break;
+                case Calendar:
+                    out.writeObject(((CalendarTimerData) timerData).getSchedule());
+                    break;
+            }
+            out.close();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new SQLException("Unable to serialize timer " + timerData.getId() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private TimerData toTimerData(final Row row, final EjbTimerServiceImpl timerService) throws Exception {
+        final BeanContext beanContext = beanContext(row.deploymentId);
+        final ClassLoader loader = beanContext == null ? getClass().getClassLoader() : beanContext.getClassLoader();
+
+        final Thread thread = Thread.currentThread();
+        final ClassLoader oldCl = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            final ObjectInputStream in = new EjbObjectInputStream(new ByteArrayInputStream(row.data));
+            final Object primaryKey = in.readObject();
+            final TimerConfig config = new TimerConfig((Serializable) in.readObject(), true);
+
+            final String methodName = in.readUTF();
+            final Class<?>[] parameterTypes = new Class<?>[in.readInt()];
+            for (int i = 0; i < parameterTypes.length; i++) {
+                parameterTypes[i] = Class.forName(in.readUTF(), false, loader);
+            }
+            final Method method = beanContext == null ? null : findMethod(beanContext.getBeanClass(), methodName, parameterTypes);
+
+            switch (row.type) {
+                case SingleAction:
+                    return new SingleActionTimerData(row.id, timerService, row.deploymentId, primaryKey, method, config, new Date(in.readLong()));
+                case Interval:
+                    final Date initialExpiration = new Date(in.readLong());
+                    return new IntervalTimerData(row.id, timerService, row.deploymentId, primaryKey, method, config, initialExpiration, in.readLong());
+                default:
+                    return new CalendarTimerData(row.id, timerService, row.deploymentId, primaryKey, method, config, (ScheduleExpression) in.readObject());
+            }
+        } finally {
+            thread.setContextClassLoader(oldCl);
+        }
+    }
+
+    private static BeanContext beanContext(final String deploymentId) {
+        final ContainerSystem containerSystem = SystemInstance.get().getComponent(ContainerSystem.class);
+        return containerSystem == null ? null : containerSystem.getBeanContext(deploymentId);
+    }
+
+    private static Method findMethod(final Class<?> beanClass, final String name, final Class<?>[] parameterTypes) {
+        for (Class<?> clazz = beanClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            try {
+                return clazz.getDeclaredMethod(name, parameterTypes);
+            } catch (NoSuchMethodException e) {
+                // look in the parent
+            }
+        }
+        return null;
+    }
+
+    private Connection getConnection() throws TimerStoreException {
+        try {
+            return dataSource.getConnection();
+        } catch (Exception e) {
+            throw new TimerStoreException(e);
+        }
+    }
+
+    private void createTables() {
+        final Connection c;
+        try {
+            c = getConnection();
+        } catch (TimerStoreException e) {
+            throw new OpenEJBRuntimeException("Unable to get a connection to create the timer tables", e);
+        }
+
+        try {
+            for (final String sql : new String[]{createTimerTableSQL, createAutoKeyIndexSQL, createLeaseIndexSQL, createNodeTableSQL, createIdTableSQL, insertIdSQL}) {
+                try {
+                    final PreparedStatement statement = c.prepareStatement(sql);
+                    try {
+                        statement.execute();
+                    } finally {
+                        statement.close();
+                    }
+                } catch (SQLException e) {
+                    // already exists
+                    log.debug("Timer store: " + e.getMessage());
+                }
+            }
+        } finally {
+            close(c);
+        }
+    }
+
+    private static void rollback(final Connection c, final boolean autoCommit) {
+        if (!autoCommit) return;
+        try {
+            c.rollback();
+        } catch (SQLException e) {
+            log.warning("Unable to rollback the timer store changes", e);
+        }
+    }
+
+    private static void restore(final Connection c, final boolean autoCommit) {
+        if (!autoCommit) return;
+        try {
+            c.setAutoCommit(true);
+        } catch (SQLException e) {
+            // the connection is closed right after
+        }
+    }
+
+    private static void close(final Connection c) {
+        try {
+            c.close();
+        } catch (Exception e) {
+            log.warning("Unable to close database connection", e);
+        }
+    }
+
+    private static final class Row {
+        private final long id;
+        private final String deploymentId;
+        private final TimerType type;
+        private final byte[] data;
+        private final long leaseExpiry;
+
+        private Row(final long id, final String deploymentId, final TimerType type, final byte[] data, final long leaseExpiry) {
+            this.id = id;
+            this.deploymentId = deploymentId;
+            this.type = type;
+            this.data = data;
+            this.leaseExpiry = leaseExpiry;
+        }
+    }
+
+    /**
+     * The inserts and deletes of a transaction, written just before it commits
+     * so they are part of it when the DataSource is JTA managed.
+     */
+    private class Batch implements Synchronization {
+        private final Transaction transaction;
+        private final Map<Long, TimerData> inserts = new LinkedHashMap<Long, TimerData>();
+        private final Set<Long> deletes = new LinkedHashSet<Long>();
+
+        private Batch(final Transaction transaction) {
+            this.transaction = transaction;
+        }
+
+        private void add(final TimerData timerData) {
+            inserts.put(timerData.getId(), timerData);
+        }
+
+        private void remove(final Long id) {
+            // created and cancelled in the same transaction, nothing to write
+            if (inserts.remove(id) == null) {
+                deletes.add(id);
+            }
+        }
+
+        public void beforeCompletion() {
+            try {
+                if (transaction.getStatus() != Status.STATUS_ACTIVE) return;
+
+                write(inserts.values(), deletes);
+
+                // owned before the commit so a timer due right away can fire
+                uncommitted.addAll(inserts.keySet());
+                owned.addAll(inserts.keySet());
+            } catch (Exception e) {
+                log.error("Unable to write the timers of transaction " + transaction + ", rolling it back", e);
+                try {
+                    transaction.setRollbackOnly();
+                } catch (SystemException se) {
+                    log.error("Unable to mark the transaction for rollback", se);
+                }
+            }
+        }
+
+        public void afterCompletion(final int status) {
+            batches.remove(transaction);
+            uncommitted.removeAll(inserts.keySet());
+
+            if (status == Status.STATUS_COMMITTED) {
+                owned.removeAll(deletes);
+            } else if (!inserts.isEmpty()) {
+                owned.removeAll(inserts.keySet());
+
+                // a DataSource not managed by the transaction manager already committed them
+                try {
+                    write(Collections.<TimerData>emptyList(), inserts.keySet());
+                } catch (TimerStoreException e) {
+                    log.warning("Unable to remove the timers of rolled back transaction " + transaction, e);
+                }
+            }
+        }
+    }
+
+    private static final class Stores {
+        private final Map<String, JdbcTimerStore> stores = new HashMap<String, JdbcTimerStore>();
+    }
+}
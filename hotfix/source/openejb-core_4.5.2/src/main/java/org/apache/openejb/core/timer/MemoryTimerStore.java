@@ -23,11 +23,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -44,12 +46,23 @@ import javax.transaction.TransactionManager;
 import org.apache.openejb.util.LogCategory;
 import org.apache.openejb.util.Logger;
 
+/**
+ * Keeps the timers in memory.
+ * <p/>
+ * Timers are indexed by id and, per deployment, in id order so
+ * {@link #getTimer} is a hash lookup and {@link #getTimers} only copies
+ * the timers of the deployment.  Inside a transaction the changes are
+ * recorded as a delta (timers added, ids removed) that is read on top of
+ * the committed timers and applied when the transaction commits.
+ */
 public class MemoryTimerStore implements TimerStore {
     private static final long serialVersionUID = 1L;
     private static final Logger log = Logger.getInstance(LogCategory.TIMER, "org.apache.openejb.util.resources");
     private final Map<Long,TimerData> taskStore = new ConcurrentHashMap<Long,TimerData>();
+    private final ConcurrentMap<String,Map<Long,TimerData>> tasksByDeployment = new ConcurrentHashMap<String, Map<Long,TimerData>>();
     private final Map<Transaction,TimerDataView> tasksByTransaction = new ConcurrentHashMap<Transaction, TimerDataView>();
     private final AtomicLong counter = new AtomicLong(0);
+    private final TimerDataView liveTasks = new LiveTimerDataView();
 
     private final TransactionManager transactionManager;
 
@@ -60,8 +73,7 @@ public class MemoryTimerStore implements TimerStore {
     public TimerData getTimer(String deploymentId, long timerId) {
         try {
             TimerDataView tasks = getTasks();
-            TimerData timerData = tasks.getTasks().get(new Long(timerId));
-            return timerData;
+            return tasks.getTimer(timerId);
         } catch (TimerStoreException e) {
             return null;
         }
@@ -70,8 +82,7 @@ public class MemoryTimerStore implements TimerStore {
     public Collection<TimerData> getTimers(String deploymentId) {
         try {
             TimerDataView tasks = getTasks();
-            Collection<TimerData> timerDatas = new ArrayList<TimerData>(tasks.getTasks().values());
-            return timerDatas;
+            return tasks.getTimers(deploymentId);
         } catch (TimerStoreException e) {
             return Collections.emptySet();
         }
@@ -79,8 +90,7 @@ public class MemoryTimerStore implements TimerStore {
 
     public Collection<TimerData> loadTimers(EjbTimerServiceImpl timerService, String deploymentId) throws TimerStoreException {
         TimerDataView tasks = getTasks();
-        Collection<TimerData> timerDatas = new ArrayList<TimerData>(tasks.getTasks().values());
-        return timerDatas;
+        return tasks.getTimers(deploymentId);
     }
 
     // used to re-register a TimerData, if a cancel() is rolledback...
@@ -116,7 +126,7 @@ public class MemoryTimerStore implements TimerStore {
 
     public void removeTimer(long id) {
         try {
-            getTasks().removeTimerData(new Long(id));
+            getTasks().removeTimerData(id);
         } catch (TimerStoreException e) {
             log.warning("Unable to remove timer data from memory store", e);
         }
@@ -137,7 +147,7 @@ public class MemoryTimerStore implements TimerStore {
         }
 
         if (status != Status.STATUS_ACTIVE && status != Status.STATUS_MARKED_ROLLBACK) {
-            return new LiveTimerDataView();
+            return liveTasks;
         }
 
         TxTimerDataView tasks = (TxTimerDataView) tasksByTransaction.get(transaction);
@@ -148,8 +158,58 @@ public class MemoryTimerStore implements TimerStore {
         return tasks;
     }
 
+    private void store(TimerData timerData) {
+        Long timerId = timerData.getId();
+        TimerData previous = taskStore.put(timerId, timerData);
+        if (previous != null && previous != timerData) {
+            deploymentTasks(previous.getDeploymentId()).remove(timerId);
+        }
+        deploymentTasks(timerData.getDeploymentId()).put(timerId, timerData);
+    }
+
+    private void unstore(Long timerId) {
+        TimerData timerData = taskStore.remove(timerId);
+        if (timerData != null) {
+            Map<Long,TimerData> tasks = tasksByDeployment.get(key(timerData.getDeploymentId()));
+            if (tasks != null) {
+                tasks.remove(timerId);
+            }
+        }
+    }
+
+    private Map<Long,TimerData> deploymentTasks(String deploymentId) {
+        String key = key(deploymentId);
+        Map<Long,TimerData> tasks = tasksByDeployment.get(key);
+        if (tasks == null) {
+            tasks = new ConcurrentSkipListMap<Long, TimerData>();
+            Map<Long,TimerData> existing = tasksByDeployment.putIfAbsent(key, tasks);
+            if (existing != null) {
+                tasks = existing;
+            }
+        }
+        return tasks;
+    }
+
+    private Collection<TimerData> committedTimers(String deploymentId) {
+        Map<Long,TimerData> tasks = tasksByDeployment.get(key(deploymentId));
+        if (tasks == null) {
+            return Collections.emptyList();
+        }
+        return tasks.values();
+    }
+
+    private static String key(String deploymentId) {
+        return deploymentId == null ? "" : deploymentId;
+    }
+
+    private static boolean sameDeployment(TimerData timerData, String deploymentId) {
+        return key(timerData.getDeploymentId()).equals(key(deploymentId));
+    }
+
     private interface TimerDataView {
-        Map<Long,TimerData> getTasks();
+        TimerData getTimer(Long timerId);
+
+        Collection<TimerData> getTimers(String deploymentId);
 
         void addTimerData(TimerData timerData);
 
@@ -157,22 +217,26 @@ public class MemoryTimerStore implements TimerStore {
     }
 
     private class LiveTimerDataView implements TimerDataView {
-        public Map<Long,TimerData> getTasks() {
-            return new TreeMap<Long,TimerData>(taskStore);
+        public TimerData getTimer(Long timerId) {
+            return taskStore.get(timerId);
+        }
+
+        public Collection<TimerData> getTimers(String deploymentId) {
+            return new ArrayList<TimerData>(committedTimers(deploymentId));
         }
 
         public void addTimerData(TimerData timerData) {
-            taskStore.put(new Long(timerData.getId()), timerData);
+            store(timerData);
         }
 
         public void removeTimerData(Long timerId) {
-            taskStore.remove(timerId);
+            unstore(timerId);
         }
     }
 
     private class TxTimerDataView implements Synchronization, TimerDataView {
-        private final Map<Long,TimerData> add = new TreeMap<Long,TimerData>();
-        private final Set<Long> remove = new TreeSet<Long>();
+        private final Map<Long,TimerData> add = new LinkedHashMap<Long,TimerData>();
+        private final Set<Long> remove = new HashSet<Long>();
         private final Lock lock = new ReentrantLock();
         private final RuntimeException concurentException;
         private final WeakReference<Transaction> tansactionReference;
@@ -206,13 +270,29 @@ public class MemoryTimerStore implements TimerStore {
             if (!lock.tryLock()) throw new IllegalStateException("Illegal access by Thread[" + Thread.currentThread().getName() + "]", concurentException);
         }
 
-        public Map<Long,TimerData> getTasks() {
+        public TimerData getTimer(Long timerId) {
             checkThread();
-            TreeMap<Long, TimerData> allTasks = new TreeMap<Long, TimerData>();
-            allTasks.putAll(taskStore);
-            for (Long key : remove) allTasks.remove(key);
-            allTasks.putAll(add);
-            return Collections.unmodifiableMap(allTasks);
+            TimerData timerData = add.get(timerId);
+            if (timerData != null) return timerData;
+            if (remove.contains(timerId)) return null;
+            return taskStore.get(timerId);
+        }
+
+        public Collection<TimerData> getTimers(String deploymentId) {
+            checkThread();
+            Collection<TimerData> timerDatas = new ArrayList<TimerData>();
+            for (TimerData timerData : committedTimers(deploymentId)) {
+                Long timerId = timerData.getId();
+                if (!remove.contains(timerId) && !add.containsKey(timerId)) {
+                    timerDatas.add(timerData);
+                }
+            }
+            for (TimerData timerData : add.values()) {
+                if (sameDeployment(timerData, deploymentId)) {
+                    timerDatas.add(timerData);
+                }
+            }
+            return timerDatas;
         }
 
         public void addTimerData(TimerData timerData) {
@@ -243,16 +323,20 @@ public class MemoryTimerStore implements TimerStore {
         public void afterCompletion(int status) {
             checkThread();
 
+            tasksByTransaction.remove(tansactionReference.get());
+
             // if the tx was not committed, there is nothign to update
             if (status != Status.STATUS_COMMITTED) return;
 
             // add the new work
-            taskStore.putAll(add);
+            for (TimerData timerData : add.values()) {
+                store(timerData);
+            }
 
             // remove work
-            taskStore.keySet().removeAll(remove);
-
-            tasksByTransaction.remove(tansactionReference.get());
+            for (Long timerId : remove) {
+                unstore(timerId);
+            }
         }
     }
 }
@@ -0,0 +1,892 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.timer;
+
+import org.apache.openejb.loader.Options;
+import org.apache.openejb.util.DaemonThreadFactory;
+import org.apache.openejb.util.Duration;
+import org.apache.openejb.util.ExecutorBuilder;
+import org.apache.openejb.util.LogCategory;
+import org.apache.openejb.util.Logger;
+import org.quartz.Calendar;
+import org.quartz.Job;
+import org.quartz.JobDataMap;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobKey;
+import org.quartz.JobPersistenceException;
+import org.quartz.ListenerManager;
+import org.quartz.ObjectAlreadyExistsException;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerContext;
+import org.quartz.SchedulerException;
+import org.quartz.SchedulerMetaData;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+import org.quartz.UnableToInterruptJobException;
+import org.quartz.impl.JobExecutionContextImpl;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.impl.triggers.SimpleTriggerImpl;
+import org.quartz.spi.JobFactory;
+import org.quartz.spi.OperableTrigger;
+import org.quartz.spi.TriggerFiredBundle;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Scheduler} backed by a hashed timing wheel, used instead of Quartz
+ * when {@value EjbTimerServiceImpl#OPENEJB_TIMER_SCHEDULER} is set to
+ * {@value EjbTimerServiceImpl#WHEEL_SCHEDULER}.
+ * <p/>
+ * The wheel is an array of buckets, each one covering a tick of time.  A
+ * trigger is put in the bucket of its next fire time along with the number of
+ * wheel turns left before it is due, so scheduling and unscheduling a timer
+ * cost the same whatever the number of timers.  Callers only touch a map and a
+ * queue; a single thread moves new triggers into their bucket, unlinks the
+ * cancelled ones and, at every tick, fires the due triggers of one bucket by
+ * handing the job to the executor.
+ * <p/>
+ * Fire times are still computed by the Quartz triggers themselves, so
+ * single action, interval and {@link EJBCronTrigger} calendar timers keep the
+ * same schedule as with Quartz.  A trigger never fires early, and at most one
+ * tick late.
+ * <p/>
+ * Only the part of the Scheduler API the timer service needs is implemented:
+ * jobs, triggers, start, standby and shutdown.  Listeners, calendars, pausing
+ * and interruption are not supported.
+ *
+ * @version $Rev$ $Date$
+ */
+public class TimingWheelScheduler implements Scheduler {
+
+    private static final Logger log = Logger.getInstance(LogCategory.TIMER, "org.apache.openejb.util.resources");
+
+    public static final String OPENEJB_TIMER_WHEEL_TICK = "openejb.timer.wheel.tick";
+    public static final String OPENEJB_TIMER_WHEEL_SIZE = "openejb.timer.wheel.size";
+
+    private final String name;
+    private final long tick;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Executor executor;
+    private final SchedulerContext context = new SchedulerContext();
+
+    private final ConcurrentMap<TriggerKey, Timeout> timeouts = new ConcurrentHashMap<TriggerKey, Timeout>();
+    private final ConcurrentMap<JobKey, JobDetail> jobs = new ConcurrentHashMap<JobKey, JobDetail>();
+    private final Set<JobExecutionContext> executing = Collections.newSetFromMap(new ConcurrentHashMap<JobExecutionContext, Boolean>());
+
+    /**
+     * Triggers waiting to be put in the wheel, new ones and the ones to fire again
+     */
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+
+    /**
+     * Triggers waiting to be removed from their bucket
+     */
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+
+    /**
+     * Fired jobs the executor rejected, handed to it again at the next tick.
+     * Only used by the worker thread.
+     */
+    private final Queue<Runnable> rejected = new ArrayDeque<Runnable>();
+
+    private final AtomicLong manualTriggers = new AtomicLong();
+    private final AtomicLong fired = new AtomicLong();
+
+    private final Object lifecycle = new Object();
+    private Thread worker;
+    private volatile boolean started;
+    private volatile boolean standby = true;
+    private volatile boolean shutdown;
+    private volatile JobFactory jobFactory;
+
+    /**
+     * Reads the tick and the wheel size from the options and creates its own
+     * executor, configured with the "EjbTimerWheel." prefixed options.
+     * <p/>
+     * The jobs are handed to the executor by the wheel thread, so its queue is
+     * unbounded unless EjbTimerWheel.QueueSize says otherwise, and a full queue
+     * rejects at once rather than blocking the wheel.
+     */
+    public TimingWheelScheduler(final String name, final Options options) {
+        this(name,
+                millis(options.get(OPENEJB_TIMER_WHEEL_TICK, new Duration(10, TimeUnit.MILLISECONDS))),
+                options.get(OPENEJB_TIMER_WHEEL_SIZE, 512),
+                new ExecutorBuilder()
+                        .size(options.get(DefaultTimerThreadPoolAdapter.OPENEJB_TIMER_POOL_SIZE, 3))
+                        .queueSize(Integer.MAX_VALUE)
+                        .prefix("EjbTimerWheel")
+                        .rejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy())
+                        .build(options));
+    }
+
+    /**
+     * @param tick      duration of a bucket in milliseconds
+     * @param wheelSize number of buckets, rounded up to a power of two
+     * @param executor  runs the jobs, shut down with the scheduler if it is an ExecutorService
+     */
+    public TimingWheelScheduler(final String name, final long tick, final int wheelSize, final Executor executor) {
+        if (tick <= 0) throw new IllegalArgumentException("tick must be greater than zero: " + tick);
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) throw new IllegalArgumentException("wheel size must be between 1 and 2^30: " + wheelSize);
+        if (executor == null) throw new NullPointerException("executor is null");
+
+        int size = 1;
+        while (size < wheelSize) size <<= 1;
+
+        this.name = name;
+        this.tick = tick;
+        this.executor = executor;
+        this.wheel = new Bucket[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+    }
+
+    private static long millis(final Duration duration) {
+        if (duration.getUnit() == null) return duration.getTime();
+        return duration.getTime(TimeUnit.MILLISECONDS);
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public int getWheelSize() {
+        return wheel.length;
+    }
+
+    /**
+     * @return the number of triggers currently scheduled
+     */
+    public int getTriggerCount() {
+        return timeouts.size();
+    }
+
+    /**
+     * @return the number of times a job was handed to the executor
+     */
+    public long getFiredCount() {
+        return fired.get();
+    }
+
+    @Override
+    public String getSchedulerName() {
+        return name;
+    }
+
+    @Override
+    public String getSchedulerInstanceId() {
+        return name;
+    }
+
+    @Override
+    public SchedulerContext getContext() {
+        return context;
+    }
+
+    @Override
+    public void start() throws SchedulerException {
+        synchronized (lifecycle) {
+            checkShutdown();
+
+            if (worker == null) {
+                worker = new DaemonThreadFactory(name).newThread(new Worker());
+                worker.start();
+            }
+            started = true;
+            standby = false;
+            lifecycle.notifyAll();
+        }
+    }
+
+    @Override
+    public void startDelayed(final int seconds) throws SchedulerException {
+        checkShutdown();
+
+        final Thread thread = new DaemonThreadFactory(name + "-delayed-start").newThread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(seconds * 1000L);
+                    if (!shutdown) start();
+                } catch (InterruptedException ignored) {
+                    // no-op
+                } catch (SchedulerException e) {
+                    log.error("Unable to start " + name, e);
+                }
+            }
+        });
+        thread.start();
+    }
+
+    @Override
+    public boolean isStarted() {
+        return started;
+    }
+
+    @Override
+    public void standby() {
+        standby = true;
+    }
+
+    @Override
+    public boolean isInStandbyMode() {
+        return standby;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown(false);
+    }
+
+    @Override
+    public void shutdown(final boolean waitForJobsToComplete) {
+        final Thread thread;
+        synchronized (lifecycle) {
+            if (shutdown) return;
+
+            shutdown = true;
+            standby = true;
+            thread = worker;
+            lifecycle.notifyAll();
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+        }
+
+        if (executor instanceof ExecutorService) {
+            final ExecutorService service = (ExecutorService) executor;
+            service.shutdown();
+            if (waitForJobsToComplete) {
+                try {
+                    service.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        timeouts.clear();
+        jobs.clear();
+        pending.clear();
+        cancelled.clear();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public SchedulerMetaData getMetaData() throws SchedulerException {
+        throw unsupported("getMetaData");
+    }
+
+    @Override
+    public List<JobExecutionContext> getCurrentlyExecutingJobs() {
+        return new ArrayList<JobExecutionContext>(executing);
+    }
+
+    @Override
+    public void setJobFactory(final JobFactory factory) {
+        jobFactory = factory;
+    }
+
+    @Override
+    public ListenerManager getListenerManager() throws SchedulerException {
+        throw unsupported("getListenerManager");
+    }
+
+    @Override
+    public Date scheduleJob(final JobDetail jobDetail, final Trigger trigger) throws SchedulerException {
+        checkShutdown();
+
+        if (trigger.getJobKey() != null && !trigger.getJobKey().equals(jobDetail.getKey())) {
+            throw new SchedulerException("Trigger does not reference given job!");
+        }
+        if (jobs.putIfAbsent(jobDetail.getKey(), jobDetail) != null) {
+            throw new ObjectAlreadyExistsException(jobDetail);
+        }
+
+        try {
+            return schedule(jobDetail, trigger);
+        } catch (SchedulerException e) {
+            jobs.remove(jobDetail.getKey(), jobDetail);
+            throw e;
+        }
+    }
+
+    @Override
+    public Date scheduleJob(final Trigger trigger) throws SchedulerException {
+        checkShutdown();
+
+        final JobDetail job = trigger.getJobKey() == null ? null : jobs.get(trigger.getJobKey());
+        if (job == null) {
+            throw new JobPersistenceException("The job (" + trigger.getJobKey() + ") referenced by the trigger does not exist.");
+        }
+        return schedule(job, trigger);
+    }
+
+    @Override
+    public void scheduleJobs(final Map<JobDetail, List<Trigger>> triggersAndJobs, final boolean replace) throws SchedulerException {
+        for (final Map.Entry<JobDetail, List<Trigger>> entry : triggersAndJobs.entrySet()) {
+            addJob(entry.getKey(), replace);
+            for (final Trigger trigger : entry.getValue()) {
+                if (replace) unscheduleJob(trigger.getKey());
+                schedule(entry.getKey(), trigger);
+            }
+        }
+    }
+
+    private Date schedule(final JobDetail job, final Trigger trigger) throws SchedulerException {
+        final OperableTrigger operable = (OperableTrigger) ((OperableTrigger) trigger).clone();
+        operable.setJobKey(job.getKey());
+        operable.validate();
+
+        final Date first = operable.computeFirstFireTime(null);
+        if (first == null) {
+            throw new SchedulerException("Based on configured schedule, the given trigger '" + trigger.getKey() + "' will never fire.");
+        }
+
+        final Timeout timeout = new Timeout(job, operable);
+        if (timeouts.putIfAbsent(operable.getKey(), timeout) != null) {
+            throw new ObjectAlreadyExistsException(trigger);
+        }
+        pending.add(timeout);
+
+        return first;
+    }
+
+    @Override
+    public boolean unscheduleJob(final TriggerKey key) {
+        final Timeout timeout = timeouts.remove(key);
+        if (timeout == null) return false;
+
+        timeout.cancelled = true;
+        cancelled.add(timeout);
+        return true;
+    }
+
+    @Override
+    public boolean unscheduleJobs(final List<TriggerKey> keys) {
+        boolean all = true;
+        for (final TriggerKey key : keys) {
+            all &= unscheduleJob(key);
+        }
+        return all;
+    }
+
+    @Override
+    public Date rescheduleJob(final TriggerKey key, final Trigger trigger) throws SchedulerException {
+        checkShutdown();
+
+        final Timeout timeout = timeouts.get(key);
+        if (timeout == null || !unscheduleJob(key)) return null;
+
+        return schedule(timeout.job, trigger);
+    }
+
+    @Override
+    public void addJob(final JobDetail jobDetail, final boolean replace) throws SchedulerException {
+        checkShutdown();
+
+        if (replace) {
+            jobs.put(jobDetail.getKey(), jobDetail);
+        } else if (jobs.putIfAbsent(jobDetail.getKey(), jobDetail) != null) {
+            throw new ObjectAlreadyExistsException(jobDetail);
+        }
+    }
+
+    @Override
+    public boolean deleteJob(final JobKey key) {
+        for (final Timeout timeout : timeouts.values()) {
+            if (timeout.job.getKey().equals(key)) {
+                unscheduleJob(timeout.key);
+            }
+        }
+        return jobs.remove(key) != null;
+    }
+
+    @Override
+    public boolean deleteJobs(final List<JobKey> keys) {
+        boolean all = true;
+        for (final JobKey key : keys) {
+            all &= deleteJob(key);
+        }
+        return all;
+    }
+
+    @Override
+    public void triggerJob(final JobKey key) throws SchedulerException {
+        triggerJob(key, null);
+    }
+
+    @Override
+    public void triggerJob(final JobKey key, final JobDataMap data) throws SchedulerException {
+        checkShutdown();
+
+        final JobDetail job = jobs.get(key);
+        if (job == null) {
+            throw new JobPersistenceException("The job (" + key + ") does not exist.");
+        }
+
+        final SimpleTriggerImpl trigger = new SimpleTriggerImpl();
+        trigger.setName("MT_" + manualTriggers.incrementAndGet());
+        trigger.setGroup(Scheduler.DEFAULT_GROUP);
+        trigger.setStartTime(new Date());
+        if (data != null) trigger.setJobDataMap(data);
+
+        schedule(job, trigger);
+    }
+
+    @Override
+    public void pauseJob(final JobKey key) throws SchedulerException {
+        throw unsupported("pauseJob");
+    }
+
+    @Override
+    public void pauseJobs(final GroupMatcher<JobKey> matcher) throws SchedulerException {
+        throw unsupported("pauseJobs");
+    }
+
+    @Override
+    public void pauseTrigger(final TriggerKey key) throws SchedulerException {
+        throw unsupported("pauseTrigger");
+    }
+
+    @Override
+    public void pauseTriggers(final GroupMatcher<TriggerKey> matcher) throws SchedulerException {
+        throw unsupported("pauseTriggers");
+    }
+
+    @Override
+    public void resumeJob(final JobKey key) throws SchedulerException {
+        throw unsupported("resumeJob");
+    }
+
+    @Override
+    public void resumeJobs(final GroupMatcher<JobKey> matcher) throws SchedulerException {
+        throw unsupported("resumeJobs");
+    }
+
+    @Override
+    public void resumeTrigger(final TriggerKey key) throws SchedulerException {
+        throw unsupported("resumeTrigger");
+    }
+
+    @Override
+    public void resumeTriggers(final GroupMatcher<TriggerKey> matcher) throws SchedulerException {
+        throw unsupported("resumeTriggers");
+    }
+
+    @Override
+    public void pauseAll() throws SchedulerException {
+        throw unsupported("pauseAll");
+    }
+
+    @Override
+    public void resumeAll() throws SchedulerException {
+        throw unsupported("resumeAll");
+    }
+
+    @Override
+    public List<String> getJobGroupNames() {
+        final Set<String> groups = new HashSet<String>();
+        for (final JobKey key : jobs.keySet()) {
+            groups.add(key.getGroup());
+        }
+        return new ArrayList<String>(groups);
+    }
+
+    @Override
+    public Set<JobKey> getJobKeys(final GroupMatcher<JobKey> matcher) {
+        final Set<JobKey> keys = new HashSet<JobKey>();
+        for (final JobKey key : jobs.keySet()) {
+            if (matcher.isMatch(key)) keys.add(key);
+        }
+        return keys;
+    }
+
+    @Override
+    public List<? extends Trigger> getTriggersOfJob(final JobKey key) {
+        final List<Trigger> triggers = new ArrayList<Trigger>();
+        for (final Timeout timeout : timeouts.values()) {
+            if (timeout.job.getKey().equals(key)) {
+                triggers.add(timeout.snapshot());
+            }
+        }
+        return triggers;
+    }
+
+    @Override
+    public List<String> getTriggerGroupNames() {
+        final Set<String> groups = new HashSet<String>();
+        for (final TriggerKey key : timeouts.keySet()) {
+            groups.add(key.getGroup());
+        }
+        return new ArrayList<String>(groups);
+    }
+
+    @Override
+    public Set<TriggerKey> getTriggerKeys(final GroupMatcher<TriggerKey> matcher) {
+        final Set<TriggerKey> keys = new HashSet<TriggerKey>();
+        for (final TriggerKey key : timeouts.keySet()) {
+            if (matcher.isMatch(key)) keys.add(key);
+        }
+        return keys;
+    }
+
+    @Override
+    public Set<String> getPausedTriggerGroups() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public JobDetail getJobDetail(final JobKey key) {
+        return jobs.get(key);
+    }
+
+    @Override
+    public Trigger getTrigger(final TriggerKey key) {
+        final Timeout timeout = timeouts.get(key);
+        if (timeout == null) return null;
+        return timeout.snapshot();
+    }
+
+    @Override
+    public Trigger.TriggerState getTriggerState(final TriggerKey key) {
+        if (timeouts.containsKey(key)) return Trigger.TriggerState.NORMAL;
+        return Trigger.TriggerState.NONE;
+    }
+
+    @Override
+    public void addCalendar(final String calName, final Calendar calendar, final boolean replace, final boolean updateTriggers) throws SchedulerException {
+        throw unsupported("addCalendar");
+    }
+
+    @Override
+    public boolean deleteCalendar(final String calName) {
+        return false;
+    }
+
+    @Override
+    public Calendar getCalendar(final String calName) {
+        return null;
+    }
+
+    @Override
+    public List<String> getCalendarNames() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean interrupt(final JobKey jobKey) throws UnableToInterruptJobException {
+        throw new UnableToInterruptJobException(name + " does not support interrupt");
+    }
+
+    @Override
+    public boolean interrupt(final String fireInstanceId) throws UnableToInterruptJobException {
+        throw new UnableToInterruptJobException(name + " does not support interrupt");
+    }
+
+    @Override
+    public boolean checkExists(final JobKey key) {
+        return jobs.containsKey(key);
+    }
+
+    @Override
+    public boolean checkExists(final TriggerKey key) {
+        return timeouts.containsKey(key);
+    }
+
+    @Override
+    public void clear() {
+        for (final TriggerKey key : timeouts.keySet()) {
+            unscheduleJob(key);
+        }
+        jobs.clear();
+    }
+
+    private void checkShutdown() throws SchedulerException {
+        if (shutdown) {
+            throw new SchedulerException("The Scheduler has been shutdown.");
+        }
+    }
+
+    private SchedulerException unsupported(final String method) {
+        return new SchedulerException(name + " does not support " + method);
+    }
+
+    /**
+     * Called by the worker thread only
+     */
+    private void fire(final Timeout timeout) {
+        final TriggerFiredBundle bundle;
+        synchronized (timeout) {
+            final OperableTrigger trigger = timeout.trigger;
+            final Date scheduled = trigger.getNextFireTime();
+            final Date previous = trigger.getPreviousFireTime();
+            trigger.triggered(null);
+            bundle = new TriggerFiredBundle(timeout.job, (OperableTrigger) trigger.clone(), null, false, new Date(), scheduled, previous, trigger.getNextFireTime());
+        }
+
+        final Date next = bundle.getNextFireTime();
+        if (next != null) {
+            pending.add(timeout);
+        } else {
+            timeouts.remove(timeout.key, timeout);
+        }
+
+        final Job job;
+        try {
+            final JobFactory factory = jobFactory;
+            if (factory != null) {
+                job = factory.newJob(bundle, this);
+            } else {
+                job = timeout.job.getJobClass().newInstance();
+            }
+        } catch (Exception e) {
+            log.error("Unable to create the job " + timeout.job.getKey() + " of trigger " + timeout.key, e);
+            return;
+        }
+
+        final JobExecutionContextImpl jobContext = new JobExecutionContextImpl(this, bundle, job);
+        final Runnable run = new Runnable() {
+            public void run() {
+                executing.add(jobContext);
+                try {
+                    job.execute(jobContext);
+                } catch (Throwable e) {
+                    log.error("Job " + timeout.job.getKey() + " of trigger " + timeout.key + " failed", e);
+                } finally {
+                    executing.remove(jobContext);
+                }
+            }
+        };
+
+        // keep the order of the jobs already waiting for the executor
+        if (!rejected.isEmpty() || !execute(run)) {
+            rejected.add(run);
+        }
+    }
+
+    /**
+     * Called by the worker thread only
+     */
+    private void resubmitRejected() {
+        Runnable run;
+        while ((run = rejected.peek()) != null && execute(run)) {
+            rejected.poll();
+        }
+    }
+
+    /**
+     * @return false if the executor rejected the job, it is then retried at the next tick
+     */
+    private boolean execute(final Runnable run) {
+        try {
+            executor.execute(run);
+            fired.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (shutdown) return true;
+
+            log.debug("The executor is full, the job is handed to it again at the next tick");
+            return false;
+        }
+    }
+
+    /**
+     * A scheduled trigger.  The bucket links are only used by the worker thread.
+     */
+    private static final class Timeout {
+        private final TriggerKey key;
+        private final JobDetail job;
+        private final OperableTrigger trigger;
+        private volatile boolean cancelled;
+
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+        private long rounds;
+
+        private Timeout(final JobDetail job, final OperableTrigger trigger) {
+            this.key = trigger.getKey();
+            this.job = job;
+            this.trigger = trigger;
+        }
+
+        private synchronized long deadline() {
+            final Date next = trigger.getNextFireTime();
+            return next == null ? Long.MAX_VALUE : next.getTime();
+        }
+
+        private synchronized Trigger snapshot() {
+            return (Trigger) trigger.clone();
+        }
+    }
+
+    /**
+     * Doubly linked list of the timeouts of one tick
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(final Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(final Timeout timeout) {
+            if (timeout.previous == null) {
+                head = timeout.next;
+            } else {
+                timeout.previous.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.previous;
+            } else {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.bucket = null;
+            timeout.previous = null;
+            timeout.next = null;
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        /**
+         * Wheel origin, tick n covers [start + n * tick, start + (n + 1) * tick)
+         */
+        private final long start = System.currentTimeMillis();
+        private long current;
+
+        public void run() {
+            while (!shutdown) {
+                if (standby && !awaitStart()) break;
+
+                final long end = start + (current + 1) * tick;
+                final long sleep = end - System.currentTimeMillis();
+                if (sleep > 0) {
+                    try {
+                        Thread.sleep(sleep);
+                    } catch (InterruptedException e) {
+                        continue; // shutdown, or spurious
+                    }
+                    continue; // a standby could have been asked while sleeping
+                }
+
+                // if we were late (standby, long GC) this catches up one tick at a time
+                transferPending();
+                removeCancelled();
+                resubmitRejected();
+                expire(wheel[(int) (current & mask)]);
+                current++;
+            }
+        }
+
+        /**
+         * @return false if the scheduler was shutdown while waiting
+         */
+        private boolean awaitStart() {
+            synchronized (lifecycle) {
+                while (standby && !shutdown) {
+                    try {
+                        lifecycle.wait();
+                    } catch (InterruptedException e) {
+                        // check the state again
+                    }
+                }
+            }
+            return !shutdown;
+        }
+
+        private void transferPending() {
+            Timeout timeout;
+            while ((timeout = pending.poll()) != null) {
+                if (timeout.cancelled) continue;
+
+                final long deadline = timeout.deadline();
+                if (deadline == Long.MAX_VALUE) {
+                    timeouts.remove(timeout.key, timeout);
+                    continue;
+                }
+
+                // an overdue trigger goes in the current bucket
+                final long due = Math.max((deadline - start) / tick, current);
+                timeout.rounds = (due - current) / wheel.length;
+                wheel[(int) (due & mask)].add(timeout);
+            }
+        }
+
+        private void removeCancelled() {
+            Timeout timeout;
+            while ((timeout = cancelled.poll()) != null) {
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                }
+            }
+        }
+
+        private void expire(final Bucket bucket) {
+            Timeout timeout = bucket.head;
+            while (timeout != null) {
+                final Timeout next = timeout.next;
+                if (timeout.rounds <= 0) {
+                    bucket.remove(timeout);
+                    if (!timeout.cancelled) {
+                        try {
+                            fire(timeout);
+                        } catch (Throwable e) {
+                            log.error("Unable to fire trigger " + timeout.key, e);
+                        }
+                    }
+                } else {
+                    timeout.rounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
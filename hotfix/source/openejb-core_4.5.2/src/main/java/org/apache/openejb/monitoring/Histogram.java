@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.monitoring;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of non negative long values using a fixed amount of memory.
+ * <p/>
+ * Values below 32 are counted exactly.  Above that every power of two is split in
+ * 16 linear buckets, so a recorded value is known within 1/16th (6.25%) of its
+ * magnitude whatever its size.  Values above the highest trackable value are counted
+ * in the last bucket; min, max, count and sum are always exact.
+ *
+ * @version $Rev$ $Date$
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1;
+
+    private final long highestTrackableValue;
+    private final AtomicLongArray counts;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    public Histogram() {
+        this(Long.MAX_VALUE);
+    }
+
+    public Histogram(final long highestTrackableValue) {
+        if (highestTrackableValue < 1) throw new IllegalArgumentException("highestTrackableValue must be positive");
+        this.highestTrackableValue = highestTrackableValue;
+        this.counts = new AtomicLongArray(index(highestTrackableValue) + 1);
+    }
+
+    public long getHighestTrackableValue() {
+        return highestTrackableValue;
+    }
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+
+        counts.incrementAndGet(index(Math.min(value, highestTrackableValue)));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+            // retry
+        }
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Adds all the values recorded by the other histogram to this one.
+     * Both histograms must have been created with the same highest trackable value.
+     */
+    public void add(final Histogram other) {
+        if (other.counts.length() != counts.length()) {
+            throw new IllegalArgumentException("Histograms of different sizes can not be added");
+        }
+
+        final long otherCount = other.count.get();
+        if (otherCount == 0) return;
+
+        for (int i = 0; i < counts.length(); i++) {
+            final long c = other.counts.get(i);
+            if (c != 0) counts.addAndGet(i, c);
+        }
+        count.addAndGet(otherCount);
+        sum.addAndGet(other.sum.get());
+
+        long current;
+        final long otherMin = other.min.get();
+        while (otherMin < (current = min.get()) && !min.compareAndSet(current, otherMin)) {
+            // retry
+        }
+        final long otherMax = other.max.get();
+        while (otherMax > (current = max.get()) && !max.compareAndSet(current, otherMax)) {
+            // retry
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMin() {
+        return count.get() == 0 ? 0 : min.get();
+    }
+
+    public long getMax() {
+        return count.get() == 0 ? 0 : max.get();
+    }
+
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? Double.NaN : (double) sum.get() / n;
+    }
+
+    /**
+     * The value below which the given percentage of the recorded values fall,
+     * estimated as the middle of the bucket holding it, or the max for the highest bucket.
+     *
+     * @param percentile between 0 and 100
+     */
+    public double getPercentile(final double percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in ]0, 100]: " + percentile);
+        }
+
+        long total = 0;
+        final long[] snapshot = snapshot();
+        for (final long c : snapshot) {
+            total += c;
+        }
+        if (total == 0) return Double.NaN;
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen == total) {
+                // the highest bucket holds the max which is known exactly
+                return getMax();
+            }
+            if (seen >= rank) {
+                return value(i);
+            }
+        }
+        return getMax();
+    }
+
+    public double getSumsq() {
+        double sumsq = 0;
+        final long[] snapshot = snapshot();
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] == 0) continue;
+            final double value = value(i);
+            sumsq += snapshot[i] * value * value;
+        }
+        return sumsq;
+    }
+
+    /**
+     * Bias corrected sample variance, estimated from the buckets around the exact mean.
+     */
+    public double getVariance() {
+        final long n = count.get();
+        if (n == 0) return Double.NaN;
+        if (n == 1) return 0;
+        return centralMoment(2) / (n - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    public double getGeometricMean() {
+        long n = 0;
+        double logs = 0;
+        final long[] snapshot = snapshot();
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] == 0) continue;
+            logs += snapshot[i] * Math.log(value(i));
+            n += snapshot[i];
+        }
+        return n == 0 ? Double.NaN : Math.exp(logs / n);
+    }
+
+    /**
+     * Bias corrected skewness, computed like commons-math does, NaN below 3 values.
+     */
+    public double getSkewness() {
+        final double n = count.get();
+        if (n < 3) return Double.NaN;
+
+        final double variance = centralMoment(2) / (n - 1);
+        if (variance < 1.0e-19) return 0;
+        return n / ((n - 1) * (n - 2)) * centralMoment(3) / (variance * Math.sqrt(variance));
+    }
+
+    /**
+     * Bias corrected excess kurtosis, computed like commons-math does, NaN below 4 values.
+     */
+    public double getKurtosis() {
+        final double n = count.get();
+        if (n < 4) return Double.NaN;
+
+        final double variance = centralMoment(2) / (n - 1);
+        if (variance < 1.0e-19) return 0;
+        final double coefficient = n * (n + 1) / ((n - 1) * (n - 2) * (n - 3));
+        final double term = 3 * (n - 1) * (n - 1) / ((n - 2) * (n - 3));
+        return coefficient * centralMoment(4) / (variance * variance) - term;
+    }
+
+    /**
+     * The recorded values in ascending order, each one approximated by its bucket.
+     */
+    public double[] getSortedValues() {
+        final long[] snapshot = snapshot();
+        long total = 0;
+        for (final long c : snapshot) {
+            total += c;
+        }
+
+        final double[] values = new double[(int) Math.min(total, Integer.MAX_VALUE - 8)];
+        int position = 0;
+        for (int i = 0; i < snapshot.length && position < values.length; i++) {
+            final double value = value(i);
+            for (long c = 0; c < snapshot[i] && position < values.length; c++) {
+                values[position++] = value;
+            }
+        }
+        return values;
+    }
+
+    private double centralMoment(final int order) {
+        final double mean = getMean();
+        double moment = 0;
+        final long[] snapshot = snapshot();
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] == 0) continue;
+            moment += snapshot[i] * Math.pow(value(i) - mean, order);
+        }
+        return moment;
+    }
+
+    private long[] snapshot() {
+        final long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * The value standing for the bucket: its middle, kept within the exact min and max.
+     */
+    private double value(final int index) {
+        final long low = lowestValue(index);
+        final double middle = low + (bucketWidth(index) - 1) / 2.0;
+        return Math.max(getMin(), Math.min(getMax(), middle));
+    }
+
+    static int index(final long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS + (int) ((value >>> shift) - HALF_SUB_BUCKETS);
+    }
+
+    static long lowestValue(final int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        final int offset = index - SUB_BUCKETS;
+        final int exponent = offset / HALF_SUB_BUCKETS + SUB_BUCKET_BITS;
+        final long mantissa = offset % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return mantissa << (exponent - (SUB_BUCKET_BITS - 1));
+    }
+
+    static long bucketWidth(final int index) {
+        if (index < SUB_BUCKETS) return 1;
+        return 1L << ((index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1);
+    }
+}
@@ -159,7 +159,9 @@ public class ManagedMBean implements DynamicMBean {
             try {
                 String s = "";
                 if (managed.append()) s = member.getName();
-                scan(member.get(), s);
+                // optional parts, such as the sizing of a pool that is not adaptive, are left out
+                Object value = member.get();
+                if (value != null) scan(value, s);
             } catch (IllegalAccessException e) {
                 e.printStackTrace();
             } catch (InvocationTargetException e) {
@@ -16,23 +16,25 @@
  */
 package org.apache.openejb.monitoring;
 
-import org.apache.openejb.math.stat.descriptive.SynchronizedDescriptiveStatistics;
 
 /**
+ * Statistics of the most recent values, kept in a {@link StripedHistogram} so
+ * recording never locks and percentiles are read from the buckets.
+ *
  * @version $Rev$ $Date$
  */
 @Managed(append = true)
 public class Stats {
 
     private final Event event = new Event();
-    private final SynchronizedDescriptiveStatistics samples;
+    private final StripedHistogram samples;
 
     public Stats() {
         this(1000);
     }
 
     public Stats(final int window) {
-        this.samples = new SynchronizedDescriptiveStatistics(window);
+        this.samples = new StripedHistogram(Long.MAX_VALUE, window);
     }
 
     @Managed
@@ -47,102 +49,113 @@ public class Stats {
 
     @Managed
     public double getPercentile99() {
-        return samples.getPercentile(99.0);
+        return snapshot().getPercentile(99.0);
     }
 
     @Managed
     public double getPercentile90() {
-        return samples.getPercentile(90.0);
+        return snapshot().getPercentile(90.0);
     }
 
     @Managed
     public double getPercentile75() {
-        return samples.getPercentile(75.0);
+        return snapshot().getPercentile(75.0);
     }
 
     @Managed
     public double getPercentile50() {
-        return samples.getPercentile(50.0);
+        return snapshot().getPercentile(50.0);
     }
 
     @Managed
     public double getPercentile25() {
-        return samples.getPercentile(25.0);
+        return snapshot().getPercentile(25.0);
     }
 
     @Managed
     public double getPercentile10() {
-        return samples.getPercentile(10.0);
+        return snapshot().getPercentile(10.0);
     }
 
     @Managed
     public double getPercentile01() {
-        return samples.getPercentile(1.0);
+        return snapshot().getPercentile(1.0);
     }
 
     @Managed
     public double getStandardDeviation() {
-        return samples.getStandardDeviation();
+        return snapshot().getStandardDeviation();
     }
 
     @Managed
     public double getMean() {
-        return samples.getMean();
+        return snapshot().getMean();
     }
 
     @Managed
     public double getVariance() {
-        return samples.getVariance();
+        return snapshot().getVariance();
     }
 
     @Managed
     public double getGeometricMean() {
-        return samples.getGeometricMean();
+        return snapshot().getGeometricMean();
     }
 
     @Managed
     public double getSkewness() {
-        return samples.getSkewness();
+        return snapshot().getSkewness();
     }
 
     @Managed
     public double getKurtosis() {
-        return samples.getKurtosis();
+        return snapshot().getKurtosis();
     }
 
     @Managed
     public double getMax() {
-        return samples.getMax();
+        return valueOf(snapshot().getMax());
     }
 
     @Managed
     public double getMin() {
-        return samples.getMin();
+        return valueOf(snapshot().getMin());
     }
 
     @Managed
     public double getSum() {
-        return samples.getSum();
+        return valueOf(snapshot().getSum());
     }
 
     @Managed
     public double getSumsq() {
-        return samples.getSumsq();
+        return valueOf(snapshot().getSumsq());
     }
 
     @Managed
     public double[] sortedValues() {
-        return samples.getSortedValues();
+        return snapshot().getSortedValues();
     }
 
     @Managed
     public double[] values() {
-        return samples.getValues();
+        return snapshot().getSortedValues();
+    }
+
+    /**
+     * A copy of the recent values which can be merged with the ones of other stats.
+     */
+    public Histogram snapshot() {
+        return samples.snapshot();
+    }
+
+    private double valueOf(final double value) {
+        return samples.getCount() == 0 ? Double.NaN : value;
     }
 
     public void record(long time) {
         event.record();
-        samples.addValue(time);
+        samples.record(time);
     }
 
     @Managed
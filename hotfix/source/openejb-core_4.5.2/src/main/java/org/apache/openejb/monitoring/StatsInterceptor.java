@@ -17,7 +17,6 @@
 package org.apache.openejb.monitoring;
 
 import org.apache.openejb.loader.SystemInstance;
-import org.apache.openejb.math.stat.descriptive.SynchronizedDescriptiveStatistics;
 import org.apache.xbean.finder.ClassFinder;
 import org.apache.openejb.api.Monitor;
 import org.apache.openejb.core.interceptor.InterceptorData;
@@ -45,6 +44,9 @@ import java.util.concurrent.atomic.AtomicLong;
 public class StatsInterceptor {
     private static final String DISABLE_STAT_INTERCEPTOR_PROPERTY = "openejb.stats.interceptor.disable";
 
+    // times are recorded in milliseconds, longer ones only keep an exact max
+    private static final long HIGHEST_TRACKABLE_TIME = TimeUnit.HOURS.toMillis(1);
+
     public static final InterceptorData metadata = InterceptorData.scan(StatsInterceptor.class);
 
     private final Map<Method, Stats> map = new ConcurrentHashMap<Method, Stats>();
@@ -203,8 +205,7 @@ public class StatsInterceptor {
     }
 
     public class Stats {
-        private final AtomicLong count = new AtomicLong();
-        private final SynchronizedDescriptiveStatistics samples;
+        private final StripedHistogram samples;
 
         // Used as the prefix for the MBeanAttributeInfo
         private final String method;
@@ -214,7 +215,7 @@ public class StatsInterceptor {
 
             int window = (methodAnnotation != null) ? methodAnnotation.sample() : (classAnnotation != null) ? classAnnotation.sample() : 2000;
 
-            this.samples = new SynchronizedDescriptiveStatistics(window);
+            this.samples = new StripedHistogram(HIGHEST_TRACKABLE_TIME, window);
             String s = ",";
 
             StringBuilder sb = new StringBuilder(method.getName());
@@ -242,107 +243,117 @@ public class StatsInterceptor {
 
         @Managed
         public long getCount() {
-            return count.get();
+            return samples.getCount();
         }
 
         @Managed
         public double getPercentile99() {
-            return samples.getPercentile(99.0);
+            return snapshot().getPercentile(99.0);
         }
 
         @Managed
         public double getPercentile90() {
-            return samples.getPercentile(90.0);
+            return snapshot().getPercentile(90.0);
         }
 
         @Managed
         public double getPercentile75() {
-            return samples.getPercentile(75.0);
+            return snapshot().getPercentile(75.0);
         }
 
         @Managed
         public double getPercentile50() {
-            return samples.getPercentile(50.0);
+            return snapshot().getPercentile(50.0);
         }
 
         @Managed
         public double getPercentile25() {
-            return samples.getPercentile(25.0);
+            return snapshot().getPercentile(25.0);
         }
 
         @Managed
         public double getPercentile10() {
-            return samples.getPercentile(10.0);
+            return snapshot().getPercentile(10.0);
         }
 
         @Managed
         public double getPercentile01() {
-            return samples.getPercentile(1.0);
+            return snapshot().getPercentile(1.0);
         }
 
         @Managed
         public double getStandardDeviation() {
-            return samples.getStandardDeviation();
+            return snapshot().getStandardDeviation();
         }
 
         @Managed
         public double getMean() {
-            return samples.getMean();
+            return snapshot().getMean();
         }
 
         @Managed
         public double getVariance() {
-            return samples.getVariance();
+            return snapshot().getVariance();
         }
 
         @Managed
         public double getGeometricMean() {
-            return samples.getGeometricMean();
+            return snapshot().getGeometricMean();
         }
 
         @Managed
         public double getSkewness() {
-            return samples.getSkewness();
+            return snapshot().getSkewness();
         }
 
         @Managed
         public double getKurtosis() {
-            return samples.getKurtosis();
+            return snapshot().getKurtosis();
         }
 
         @Managed
         public double getMax() {
-            return samples.getMax();
+            return valueOf(snapshot().getMax());
         }
 
         @Managed
         public double getMin() {
-            return samples.getMin();
+            return valueOf(snapshot().getMin());
         }
 
         @Managed
         public double getSum() {
-            return samples.getSum();
+            return valueOf(snapshot().getSum());
         }
 
         @Managed
         public double getSumsq() {
-            return samples.getSumsq();
+            return valueOf(snapshot().getSumsq());
         }
 
         @Managed
         public double[] sortedValues() {
-            return samples.getSortedValues();
+            return snapshot().getSortedValues();
         }
 
         @Managed
         public double[] values() {
-            return samples.getValues();
+            return snapshot().getSortedValues();
+        }
+
+        /**
+         * A copy of the recent times which can be merged with the ones of other methods or beans.
+         */
+        public Histogram snapshot() {
+            return samples.snapshot();
+        }
+
+        private double valueOf(final double value) {
+            return samples.getCount() == 0 ? Double.NaN : value;
         }
 
         public void record(long time) {
-            count.incrementAndGet();
-            samples.addValue(time);
+            samples.record(time);
         }
 
     }
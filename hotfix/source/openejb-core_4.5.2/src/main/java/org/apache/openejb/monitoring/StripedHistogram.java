@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.monitoring;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock free {@link Histogram} meant to be recorded from many threads at once.
+ * <p/>
+ * Recording threads are spread over a fixed number of stripes, each one a
+ * histogram of its own created on first use, so concurrent callers rarely
+ * touch the same counters.  Reads merge the stripes into a snapshot.
+ * <p/>
+ * When a window size is set, only the recent values are kept: once the current
+ * interval holds that many values it becomes the previous one and a new interval
+ * is started, so a snapshot covers between one and two windows of values while
+ * the memory stays bounded.  The count stays the total number of recorded values.
+ *
+ * @version $Rev$ $Date$
+ */
+public class StripedHistogram {
+
+    private static final int MAX_STRIPES = 64;
+    private static final int MAX_CHECK_INTERVAL = 64;
+
+    private final long highestTrackableValue;
+    private final int stripes;
+    private final AtomicReference<Window> window = new AtomicReference<Window>();
+    private volatile int windowSize;
+    private volatile int checkMask;
+
+    public StripedHistogram(final long highestTrackableValue, final int windowSize) {
+        this(highestTrackableValue, windowSize, Runtime.getRuntime().availableProcessors());
+    }
+
+    public StripedHistogram(final long highestTrackableValue, final int windowSize, final int stripes) {
+        if (highestTrackableValue < 1) throw new IllegalArgumentException("highestTrackableValue must be positive");
+        this.highestTrackableValue = highestTrackableValue;
+        this.stripes = stripes <= 1 ? 1 : Math.min(MAX_STRIPES, Integer.highestOneBit((stripes - 1) << 1));
+        this.window.set(new Window(new Interval(), new Interval(), 0));
+        setWindowSize(windowSize);
+    }
+
+    public void record(final long value) {
+        final Window current = window.get();
+        final Histogram stripe = current.current.stripe((int) Thread.currentThread().getId() & (stripes - 1));
+        stripe.record(value);
+
+        // only look at the other stripes from time to time, the window is approximate anyway
+        final int size = windowSize;
+        if (size > 0 && (stripe.getCount() & checkMask) == 0 && current.current.getCount() >= size) {
+            window.compareAndSet(current, new Window(new Interval(), current.current, current.retired + current.previous.getCount()));
+        }
+    }
+
+    /**
+     * A copy of the values of the current window which can be read or merged with
+     * the snapshots of other histograms having the same highest trackable value.
+     */
+    public Histogram snapshot() {
+        final Window current = window.get();
+        final Histogram snapshot = new Histogram(highestTrackableValue);
+        current.previous.addTo(snapshot);
+        current.current.addTo(snapshot);
+        return snapshot;
+    }
+
+    public long getCount() {
+        final Window current = window.get();
+        return current.retired + current.previous.getCount() + current.current.getCount();
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @param windowSize the number of values after which a new interval is started, zero or less to keep them all
+     */
+    public void setWindowSize(final int windowSize) {
+        this.windowSize = windowSize;
+        this.checkMask = Math.min(MAX_CHECK_INTERVAL, Integer.highestOneBit(Math.max(1, windowSize / (stripes * 8)))) - 1;
+    }
+
+    public long getHighestTrackableValue() {
+        return highestTrackableValue;
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    private static final class Window {
+        private final Interval current;
+        private final Interval previous;
+        private final long retired;
+
+        private Window(final Interval current, final Interval previous, final long retired) {
+            this.current = current;
+            this.previous = previous;
+            this.retired = retired;
+        }
+    }
+
+    private final class Interval {
+        private final AtomicReferenceArray<Histogram> histograms = new AtomicReferenceArray<Histogram>(stripes);
+
+        private Histogram stripe(final int index) {
+            final Histogram histogram = histograms.get(index);
+            if (histogram != null) return histogram;
+
+            histograms.compareAndSet(index, null, new Histogram(highestTrackableValue));
+            return histograms.get(index);
+        }
+
+        private long getCount() {
+            long count = 0;
+            for (int i = 0; i < stripes; i++) {
+                final Histogram histogram = histograms.get(i);
+                if (histogram != null) count += histogram.getCount();
+            }
+            return count;
+        }
+
+        private void addTo(final Histogram target) {
+            for (int i = 0; i < stripes; i++) {
+                final Histogram histogram = histograms.get(i);
+                if (histogram != null) target.add(histogram);
+            }
+        }
+    }
+}
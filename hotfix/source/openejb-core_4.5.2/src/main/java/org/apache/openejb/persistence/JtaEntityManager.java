@@ -17,6 +17,7 @@
 package org.apache.openejb.persistence;
 
 import org.apache.openejb.BeanContext;
+import org.apache.openejb.assembler.classic.ReloadableEntityManagerFactory;
 import org.apache.openejb.core.ThreadContext;
 import org.apache.openejb.core.ivm.IntraVmArtifact;
 import org.apache.openejb.util.LogCategory;
@@ -60,6 +61,7 @@ public class JtaEntityManager implements EntityManager, Serializable {
     private final boolean extended;
     private final String unitName;
     private final Logger logger;
+    private final PersistenceUnitStatistics statistics;
 
     public JtaEntityManager(JtaEntityManagerRegistry registry, EntityManagerFactory entityManagerFactory, Map properties, String unitName) {
         this(unitName, registry, entityManagerFactory, properties, false);
@@ -74,12 +76,24 @@ public class JtaEntityManager implements EntityManager, Serializable {
         this.properties = properties;
         this.extended = extended;
         logger = (unitName == null) ? baseLogger : baseLogger.getChildLogger(unitName);
+        statistics = (entityManagerFactory instanceof ReloadableEntityManagerFactory) ? ((ReloadableEntityManagerFactory) entityManagerFactory).getStatistics() : null;
+    }
+
+    PersistenceUnitStatistics getStatistics() {
+        return statistics;
     }
 
     EntityManager getEntityManager() {
         return registry.getEntityManager(entityManagerFactory, properties, extended, unitName);
     }
 
+    /**
+     * @return a new entity manager that is not bound to the current invocation
+     */
+    EntityManager createNonTxEntityManager() {
+        return registry.createNonTxEntityManager(entityManagerFactory, properties, unitName);
+    }
+
     boolean isTransactionActive() {
         return registry.isTransactionActive();
     }
@@ -98,11 +112,11 @@ public class JtaEntityManager implements EntityManager, Serializable {
     /**
      * Closes a non-extended entity manager if no transaction is active.  For methods on an
      * entity manager that do not require an active transaction, a temp entity manager is created
-     * for the operation and then closed.
+     * for the operation and then closed, unless the registry bound it to the current invocation.
      * @param entityManager the entity manager to close if non-extended and a transaction is not active
      */
     void closeIfNoTx(EntityManager entityManager) {
-        if (!extended && !isTransactionActive()) {
+        if (!extended && !isTransactionActive() && !registry.isNonTxEntityManagerBound(entityManager)) {
             entityManager.close();
             logger.debug("Closed EntityManager(unit=" + unitName + ", hashCode=" + entityManager.hashCode() + ")");
         }
@@ -256,71 +270,111 @@ public class JtaEntityManager implements EntityManager, Serializable {
         }
     }
 
-    public Query createQuery(String qlString) {
+    public Query createQuery(final String qlString) {
         final Timer timer = Op.createQuery.start(this);
         try {
             EntityManager entityManager = getEntityManager();
             Query query = entityManager.createQuery(qlString);
-            return proxyIfNoTx(entityManager, query);
+            JtaQuery.QueryCreator creator = new JtaQuery.QueryCreator() {
+                public Query createQuery(EntityManager em) {
+                    return em.createQuery(qlString);
+                }
+            };
+            return proxyIfNoTx(entityManager, query, qlString, creator);
         } finally {
             timer.stop();
         }
     }
 
-    public Query createNamedQuery(String name) {
+    public Query createNamedQuery(final String name) {
         final Timer timer = Op.createNamedQuery.start(this);
         try {
             EntityManager entityManager = getEntityManager();
             Query query = entityManager.createNamedQuery(name);
-            return proxyIfNoTx(entityManager, query);
+            JtaQuery.QueryCreator creator = new JtaQuery.QueryCreator() {
+                public Query createQuery(EntityManager em) {
+                    return em.createNamedQuery(name);
+                }
+            };
+            return proxyIfNoTx(entityManager, query, "NamedQuery(" + name + ")", creator);
         } finally {
             timer.stop();
         }
     }
 
-    public Query createNativeQuery(String sqlString) {
+    public Query createNativeQuery(final String sqlString) {
         final Timer timer = Op.createNativeQuery.start(this);
         try {
             EntityManager entityManager = getEntityManager();
             Query query = entityManager.createNativeQuery(sqlString);
-            return proxyIfNoTx(entityManager, query);
+            JtaQuery.QueryCreator creator = new JtaQuery.QueryCreator() {
+                public Query createQuery(EntityManager em) {
+                    return em.createNativeQuery(sqlString);
+                }
+            };
+            return proxyIfNoTx(entityManager, query, sqlString, creator);
         } finally {
             timer.stop();
         }
     }
 
-    public Query createNativeQuery(String sqlString, Class resultClass) {
+    public Query createNativeQuery(final String sqlString, final Class resultClass) {
         final Timer timer = Op.createNativeQuery.start(this);
         try {
             EntityManager entityManager = getEntityManager();
             Query query = entityManager.createNativeQuery(sqlString, resultClass);
-            return proxyIfNoTx(entityManager, query);
+            JtaQuery.QueryCreator creator = new JtaQuery.QueryCreator() {
+                public Query createQuery(EntityManager em) {
+                    return em.createNativeQuery(sqlString, resultClass);
+                }
+            };
+            return proxyIfNoTx(entityManager, query, sqlString, creator);
         } finally {
             timer.stop();
         }
     }
 
-    public Query createNativeQuery(String sqlString, String resultSetMapping) {
+    public Query createNativeQuery(final String sqlString, final String resultSetMapping) {
         final Timer timer = Op.createNativeQuery.start(this);
         try {
             EntityManager entityManager = getEntityManager();
             Query query = entityManager.createNativeQuery(sqlString, resultSetMapping);
-            return proxyIfNoTx(entityManager, query);
+            JtaQuery.QueryCreator creator = new JtaQuery.QueryCreator() {
+                public Query createQuery(EntityManager em) {
+                    return em.createNativeQuery(sqlString, resultSetMapping);
+                }
+            };
+            return proxyIfNoTx(entityManager, query, sqlString, creator);
         } finally {
             timer.stop();
         }
     }
 
-    private Query proxyIfNoTx(EntityManager entityManager, Query query) {
+    /**
+     * Wraps queries created outside of a transaction so they use a temp entity manager when executed,
+     * and all queries when statistics are enabled so their executions are timed.  The creator creates
+     * the query again when the entity manager bound to the invocation is closed before the query is done.
+     */
+    private Query proxyIfNoTx(EntityManager entityManager, Query query, String queryKey, JtaQuery.QueryCreator creator) {
         if (!extended && !isTransactionActive()) {
-            return new JtaQuery(entityManager, this, query);
+            JtaQuery jtaQuery = new JtaQuery(entityManager, this, query, queryKey, creator);
+            registry.nonTxQueryCreated(entityManager, jtaQuery);
+            return jtaQuery;
+        }
+        if (statistics != null) {
+            return new JtaQuery(entityManager, this, query, queryKey);
         }
         return query;
     }
     
-    private <T> TypedQuery<T> proxyIfNoTx(EntityManager entityManager, TypedQuery<T> query) {
+    private <T> TypedQuery<T> proxyIfNoTx(EntityManager entityManager, TypedQuery<T> query, String queryKey, JtaQuery.QueryCreator creator) {
         if (!extended && !isTransactionActive()) {
-            return new JtaTypedQuery<T>(entityManager, this, query);
+            JtaTypedQuery<T> jtaQuery = new JtaTypedQuery<T>(entityManager, this, query, queryKey, creator);
+            registry.nonTxQueryCreated(entityManager, jtaQuery);
+            return jtaQuery;
+        }
+        if (statistics != null) {
+            return new JtaTypedQuery<T>(entityManager, this, query, queryKey);
         }
         return query;
     }
@@ -353,12 +407,17 @@ public class JtaEntityManager implements EntityManager, Serializable {
     /* (non-Javadoc)
      * @see javax.persistence.EntityManager#createNamedQuery(java.lang.String, java.lang.Class)
      */
-    public <T> TypedQuery<T> createNamedQuery(String name, Class<T> resultClass) {
+    public <T> TypedQuery<T> createNamedQuery(final String name, final Class<T> resultClass) {
         final Timer timer = Op.createNamedQuery.start(this);
         try {
             EntityManager entityManager = getEntityManager();
             TypedQuery<T> query = entityManager.createNamedQuery(name, resultClass);
-            return proxyIfNoTx(entityManager, query);
+            JtaQuery.QueryCreator creator = new JtaQuery.QueryCreator() {
+                public Query createQuery(EntityManager em) {
+                    return em.createNamedQuery(name, resultClass);
+                }
+            };
+            return proxyIfNoTx(entityManager, query, "NamedQuery(" + name + ")", creator);
         } finally {
             timer.stop();
         }
@@ -366,12 +425,17 @@ public class JtaEntityManager implements EntityManager, Serializable {
     /* (non-Javadoc)
      * @see javax.persistence.EntityManager#createQuery(javax.persistence.criteria.CriteriaQuery)
      */
-    public <T> TypedQuery<T> createQuery(CriteriaQuery<T> criteriaQuery) {
+    public <T> TypedQuery<T> createQuery(final CriteriaQuery<T> criteriaQuery) {
         final Timer timer = Op.createQuery.start(this);
         try {
             EntityManager entityManager = getEntityManager();
             TypedQuery<T> query = entityManager.createQuery(criteriaQuery);
-            return proxyIfNoTx(entityManager, query);
+            JtaQuery.QueryCreator creator = new JtaQuery.QueryCreator() {
+                public Query createQuery(EntityManager em) {
+                    return em.createQuery(criteriaQuery);
+                }
+            };
+            return proxyIfNoTx(entityManager, query, "CriteriaQuery(" + criteriaQuery.getResultType().getName() + ")", creator);
         } finally {
             timer.stop();
         }
@@ -379,12 +443,17 @@ public class JtaEntityManager implements EntityManager, Serializable {
     /* (non-Javadoc)
      * @see javax.persistence.EntityManager#createQuery(java.lang.String, java.lang.Class)
      */
-    public <T> TypedQuery<T> createQuery(String qlString, Class<T> resultClass) {
+    public <T> TypedQuery<T> createQuery(final String qlString, final Class<T> resultClass) {
         final Timer timer = Op.createQuery.start(this);
         try {
             EntityManager entityManager = getEntityManager();
             TypedQuery<T> query = entityManager.createQuery(qlString, resultClass);
-            return proxyIfNoTx(entityManager, query);
+            JtaQuery.QueryCreator creator = new JtaQuery.QueryCreator() {
+                public Query createQuery(EntityManager em) {
+                    return em.createQuery(qlString, resultClass);
+                }
+            };
+            return proxyIfNoTx(entityManager, query, qlString, creator);
         } finally {
             timer.stop();
         }
@@ -598,9 +667,14 @@ public class JtaEntityManager implements EntityManager, Serializable {
         }
 
         public void stop() {
+            final long elapsed = System.nanoTime() - start;
+            if (em.statistics != null) {
+                em.statistics.record(operation.name(), elapsed);
+            }
+
             if (!em.logger.isDebugEnabled()) return;
 
-            final long time = TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            final long time = TimeUnit.MILLISECONDS.convert(elapsed, TimeUnit.NANOSECONDS);
 
             em.logger.debug("PersistenceUnit(name=" + em.unitName + ") - entityManager." + operation + " - " + time + "ms");
         }
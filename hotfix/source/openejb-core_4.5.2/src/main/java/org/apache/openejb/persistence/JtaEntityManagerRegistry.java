@@ -17,6 +17,9 @@
 package org.apache.openejb.persistence;
 
 
+import org.apache.openejb.core.ThreadContext;
+import org.apache.openejb.core.ThreadContextListener;
+import org.apache.openejb.loader.SystemInstance;
 import org.apache.openejb.util.Geronimo;
 import org.apache.openejb.util.LogCategory;
 import org.apache.openejb.util.Logger;
@@ -27,8 +30,14 @@ import javax.persistence.TransactionRequiredException;
 import javax.transaction.Status;
 import javax.transaction.Synchronization;
 import javax.transaction.TransactionSynchronizationRegistry;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The JtaEntityManagerRegistry tracks JTA entity managers for transaction and extended scoped
@@ -40,7 +49,15 @@ import java.util.Map;
 public class JtaEntityManagerRegistry {
 
     private static final Logger logger = Logger.getInstance(LogCategory.OPENEJB.createChild("persistence"), JtaEntityManager.class);
-    
+
+    /**
+     * When true, an entity manager used outside of a transaction is kept for the rest of the current
+     * invocation (ThreadContext) instead of being created and closed around every operation.
+     */
+    public static final String OPENEJB_JPA_REUSE_NON_TX_ENTITYMANAGER = "openejb.jpa.reuse-non-tx-entitymanager";
+
+    private static final AtomicBoolean listenerRegistered = new AtomicBoolean();
+
     /**
      * Registry of transaction associated entity managers.
      */
@@ -55,12 +72,31 @@ public class JtaEntityManagerRegistry {
         }
     };
 
+    /**
+     * Reuse non transactional entity managers for the duration of an invocation?
+     */
+    private final boolean reuseNonTxEntityManagers;
+
+    /**
+     * Non transactional entity manager usage per persistence unit name.
+     */
+    private final ConcurrentMap<String, NonTxStats> nonTxStats = new ConcurrentHashMap<String, NonTxStats>();
+
     /**
      * Creates a JtaEntityManagerRegistry using the specified transactionSynchronizationRegistry for the registry
      * if transaction associated entity managers.
      */
     public JtaEntityManagerRegistry(TransactionSynchronizationRegistry transactionSynchronizationRegistry) {
+        this(transactionSynchronizationRegistry, SystemInstance.get().getOptions().get(OPENEJB_JPA_REUSE_NON_TX_ENTITYMANAGER, false));
+    }
+
+    public JtaEntityManagerRegistry(TransactionSynchronizationRegistry transactionSynchronizationRegistry, boolean reuseNonTxEntityManagers) {
         this.transactionRegistry = transactionSynchronizationRegistry;
+        this.reuseNonTxEntityManagers = reuseNonTxEntityManagers;
+
+        if (reuseNonTxEntityManagers && listenerRegistered.compareAndSet(false, true)) {
+            ThreadContext.addThreadContextListener(new CloseNonTxEntityManagers());
+        }
     }
 
     /**
@@ -109,21 +145,40 @@ public class JtaEntityManagerRegistry {
             return entityManager;
         } else {
 
-            // create a new entity manager
-            EntityManager entityManager;
-            if (properties != null) {
-                entityManager = entityManagerFactory.createEntityManager(properties);
-            } else {
-                entityManager = entityManagerFactory.createEntityManager();
+            // outside of a transaction reuse the entity manager already bound to this invocation
+            NonTxEntityManagers bound = null;
+            NonTxKey nonTxKey = null;
+            if (reuseNonTxEntityManagers) {
+                bound = getNonTxEntityManagers(!transactionActive);
+                if (bound != null) {
+                    nonTxKey = new NonTxKey(entityManagerFactory, properties);
+                    EntityManager entityManager = bound.entityManagers.get(nonTxKey);
+                    if (entityManager != null) {
+                        if (!transactionActive) {
+                            getNonTxStats(unitName).reused.incrementAndGet();
+                            return entityManager;
+                        }
+
+                        // entities loaded outside of the transaction must not stay attached to the
+                        // bound entity manager while the transactional one manages them
+                        entityManager.clear();
+                    }
+                }
             }
 
-            logger.debug("Created EntityManager(unit=" + unitName + ", hashCode=" + entityManager.hashCode() + ")");
+            // create a new entity manager
+            EntityManager entityManager = createEntityManager(entityManagerFactory, properties, unitName);
 
             // if we are in a transaction associate the entity manager with the transaction; otherwise it is
-            // expected the caller will close this entity manager after use
+            // expected the caller will close this entity manager after use, unless it is bound to the invocation
             if (transactionActive) {
                 transactionRegistry.registerInterposedSynchronization(new CloseEntityManager(entityManager, unitName));
                 transactionRegistry.putResource(txKey, entityManager);
+            } else {
+                getNonTxStats(unitName).created.incrementAndGet();
+                if (bound != null) {
+                    bound.entityManagers.put(nonTxKey, entityManager);
+                }
             }
             return entityManager;
         }
@@ -179,6 +234,97 @@ public class JtaEntityManagerRegistry {
         return transactionActive;
     }
 
+    /**
+     * Is the entity manager bound to the current invocation?  Such an entity manager is closed when the
+     * invocation exits and must not be closed after the individual operation.
+     * @param entityManager an entity manager obtained outside of a transaction
+     * @return true if the entity manager will be closed by the registry
+     */
+    public boolean isNonTxEntityManagerBound(EntityManager entityManager) {
+        if (!reuseNonTxEntityManagers) {
+            return false;
+        }
+        NonTxEntityManagers bound = getNonTxEntityManagers(false);
+        return bound != null && bound.entityManagers.containsValue(entityManager);
+    }
+
+    /**
+     * Notifies the registry that a query which can outlive the invocation was created with the entity manager.
+     * When the invocation exits, the query is detached before the bound entity manager is closed.
+     * @param entityManager an entity manager obtained outside of a transaction
+     * @param query the query created with the entity manager
+     */
+    void nonTxQueryCreated(EntityManager entityManager, JtaQuery query) {
+        if (!reuseNonTxEntityManagers) {
+            return;
+        }
+        NonTxEntityManagers bound = getNonTxEntityManagers(false);
+        if (bound != null && bound.entityManagers.containsValue(entityManager)) {
+            bound.queries.add(query);
+        }
+    }
+
+    /**
+     * Creates an entity manager outside of a transaction that is not bound to the current invocation,
+     * the registry never closes it.
+     * @param entityManagerFactory the entity manager factory from which an entity manager is required
+     * @param properties the properties passed to the entity manager factory
+     * @param unitName the persistence unit name
+     * @return the new entity manager
+     */
+    EntityManager createNonTxEntityManager(EntityManagerFactory entityManagerFactory, Map properties, String unitName) {
+        EntityManager entityManager = createEntityManager(entityManagerFactory, properties, unitName);
+        getNonTxStats(unitName).created.incrementAndGet();
+        return entityManager;
+    }
+
+    private static EntityManager createEntityManager(EntityManagerFactory entityManagerFactory, Map properties, String unitName) {
+        EntityManager entityManager;
+        if (properties != null) {
+            entityManager = entityManagerFactory.createEntityManager(properties);
+        } else {
+            entityManager = entityManagerFactory.createEntityManager();
+        }
+
+        logger.debug("Created EntityManager(unit=" + unitName + ", hashCode=" + entityManager.hashCode() + ")");
+        return entityManager;
+    }
+
+    public boolean isReuseNonTxEntityManagers() {
+        return reuseNonTxEntityManagers;
+    }
+
+    /**
+     * Gets the number of entity managers created and reused outside of a transaction for a persistence unit.
+     * @param unitName the persistence unit name
+     * @return the statistics, never null
+     */
+    public NonTxStats getNonTxStats(String unitName) {
+        String key = unitName == null ? "" : unitName;
+        NonTxStats stats = nonTxStats.get(key);
+        if (stats == null) {
+            stats = new NonTxStats();
+            NonTxStats existing = nonTxStats.putIfAbsent(key, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    private static NonTxEntityManagers getNonTxEntityManagers(boolean create) {
+        ThreadContext threadContext = ThreadContext.getThreadContext();
+        if (threadContext == null) {
+            return null;
+        }
+        NonTxEntityManagers bound = threadContext.get(NonTxEntityManagers.class);
+        if (bound == null && create) {
+            bound = new NonTxEntityManagers(threadContext);
+            threadContext.set(NonTxEntityManagers.class, bound);
+        }
+        return bound;
+    }
+
     private class ExtendedRegistry {
         private final Map<InstanceId, Map<EntityManagerFactory, EntityManagerTracker>> entityManagersByDeploymentId =
                 new HashMap<InstanceId, Map<EntityManagerFactory, EntityManagerTracker>>();
@@ -324,6 +470,92 @@ public class JtaEntityManagerRegistry {
         }
     }
 
+    public static class NonTxStats {
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong reused = new AtomicLong();
+
+        public long getCreated() {
+            return created.get();
+        }
+
+        public long getReused() {
+            return reused.get();
+        }
+    }
+
+    private static class NonTxKey {
+        private final EntityManagerFactory entityManagerFactory;
+        private final Map properties;
+
+        public NonTxKey(EntityManagerFactory entityManagerFactory, Map properties) {
+            this.entityManagerFactory = entityManagerFactory;
+            this.properties = properties == null || properties.isEmpty() ? null : properties;
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            final NonTxKey that = (NonTxKey) o;
+            return entityManagerFactory.equals(that.entityManagerFactory) &&
+                    (properties == null ? that.properties == null : properties.equals(that.properties));
+        }
+
+        public int hashCode() {
+            return entityManagerFactory.hashCode();
+        }
+    }
+
+    /**
+     * The non transactional entity managers bound to one ThreadContext.  ThreadContext data is copied
+     * when a context is cloned so the owner is kept to only close them when the original exits.
+     */
+    private static class NonTxEntityManagers {
+        private final ThreadContext owner;
+        private final Map<NonTxKey, EntityManager> entityManagers = new HashMap<NonTxKey, EntityManager>();
+        // queries created with a bound entity manager
+        private final List<JtaQuery> queries = new ArrayList<JtaQuery>();
+
+        private NonTxEntityManagers(ThreadContext owner) {
+            this.owner = owner;
+        }
+    }
+
+    private static class CloseNonTxEntityManagers implements ThreadContextListener {
+        public void contextEntered(ThreadContext oldContext, ThreadContext newContext) {
+        }
+
+        public void contextExited(ThreadContext exitedContext, ThreadContext reenteredContext) {
+            if (exitedContext == null) return;
+
+            NonTxEntityManagers bound = exitedContext.get(NonTxEntityManagers.class);
+            if (bound == null || bound.owner != exitedContext) return;
+            exitedContext.remove(NonTxEntityManagers.class);
+
+            // the queries are created again with their own entity manager if they are used after the invocation
+            for (JtaQuery query : bound.queries) {
+                try {
+                    query.detach();
+                } catch (RuntimeException e) {
+                    logger.warning("Can't detach query from the EntityManager of the invocation", e);
+                }
+            }
+
+            for (EntityManager entityManager : bound.entityManagers.values()) {
+                try {
+                    entityManager.close();
+                    logger.debug("Closed EntityManager(hashCode=" + entityManager.hashCode() + ")");
+                } catch (RuntimeException e) {
+                    logger.warning("Can't close EntityManager(hashCode=" + entityManager.hashCode() + ")", e);
+                }
+            }
+        }
+    }
+
     private static class CloseEntityManager implements Synchronization {
         private final EntityManager entityManager;
         private String unitName;
@@ -24,23 +24,47 @@ import javax.persistence.Query;
 import javax.persistence.TemporalType;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
  * The JtaQuery is a wrapper around a query and and entity manager that automatically closes the entity managers
- * when the query is finished.  This implementation is only for non-transaction queryies
+ * when the query is finished.  This implementation is only for non-transaction queryies, or for any query when
+ * the persistence unit statistics are enabled so the executions are timed.  A query created with the entity
+ * manager bound to an invocation is created again with a new entity manager when used after the invocation.
  */
 public class JtaQuery implements Query {
-    private final EntityManager entityManager;
+    private EntityManager entityManager;
     private final JtaEntityManager jtaEntityManager;
-    private final Query query;
+    private Query query;
+    private final String queryKey;
+    private final QueryCreator creator;
+    // set when the entity manager the query was created with was closed at the end of the invocation
+    private volatile Settings detached;
 
     public JtaQuery(EntityManager entityManager, JtaEntityManager jtaEntityManager, Query query) {
+        this(entityManager, jtaEntityManager, query, null);
+    }
+
+    /**
+     * @param queryKey the query string or name the executions of this query are recorded under
+     */
+    public JtaQuery(EntityManager entityManager, JtaEntityManager jtaEntityManager, Query query, String queryKey) {
+        this(entityManager, jtaEntityManager, query, queryKey, null);
+    }
+
+    /**
+     * @param creator creates the query again when the entity manager it was created with is closed
+     */
+    JtaQuery(EntityManager entityManager, JtaEntityManager jtaEntityManager, Query query, String queryKey, QueryCreator creator) {
         this.entityManager = entityManager;
         this.jtaEntityManager = jtaEntityManager;
         this.query = query;
+        this.queryKey = queryKey;
+        this.creator = creator;
     }
 
     private EntityManager getEntityManager() {
@@ -51,80 +75,119 @@ public class JtaQuery implements Query {
         return em;
     }
 
+    /**
+     * Keeps the settings of the query before the entity manager it was created with is closed, the
+     * query is created again with a new entity manager the next time it is used.
+     */
+    void detach() {
+        if (creator != null) {
+            detached = new Settings(query);
+        }
+    }
+
+    private Query delegate() {
+        final Settings settings = detached;
+        if (settings != null) {
+            detached = null;
+            // kept open as long as the query, as the entity manager of a query created without the reuse
+            final EntityManager em = jtaEntityManager.createNonTxEntityManager();
+            query = creator.createQuery(em);
+            entityManager = em;
+            settings.apply(query);
+        }
+        return query;
+    }
+
+    private void recordExecution(final long start) {
+        final PersistenceUnitStatistics statistics = jtaEntityManager.getStatistics();
+        if (statistics != null) {
+            statistics.recordQuery(queryKey, System.nanoTime() - start);
+        }
+    }
+
     public List getResultList() {
+        final Query delegate = delegate();
         final EntityManager em = getEntityManager();
+        final long start = System.nanoTime();
         try {
-            return query.getResultList();
+            return delegate.getResultList();
         } finally {
+            recordExecution(start);
             jtaEntityManager.closeIfNoTx(em);
         }
     }
 
     public Object getSingleResult() {
+        final Query delegate = delegate();
         final EntityManager em = getEntityManager();
+        final long start = System.nanoTime();
         try {
-            return query.getSingleResult();
+            return delegate.getSingleResult();
         } finally {
+            recordExecution(start);
             jtaEntityManager.closeIfNoTx(em);
         }
     }
 
     public int executeUpdate() {
+        final Query delegate = delegate();
         final EntityManager em = getEntityManager();
+        final long start = System.nanoTime();
         try {
-            return query.executeUpdate();
+            return delegate.executeUpdate();
         } finally {
+            recordExecution(start);
             jtaEntityManager.closeIfNoTx(em);
         }
     }
 
     public Query setMaxResults(int i) {
-        query.setMaxResults(i);
+        delegate().setMaxResults(i);
         return this;
     }
 
     public Query setFirstResult(int i) {
-        query.setFirstResult(i);
+        delegate().setFirstResult(i);
         return this;
     }
 
     public Query setFlushMode(FlushModeType flushModeType) {
-        query.setFlushMode(flushModeType);
+        delegate().setFlushMode(flushModeType);
         return this;
     }
 
     public Query setHint(String s, Object o) {
-        query.setHint(s, o);
+        delegate().setHint(s, o);
         return this;
     }
 
     public Query setParameter(String s, Object o) {
-        query.setParameter(s, o);
+        delegate().setParameter(s, o);
         return this;
     }
 
     public Query setParameter(String s, Date date, TemporalType temporalType) {
-        query.setParameter(s, date, temporalType);
+        delegate().setParameter(s, date, temporalType);
         return this;
     }
 
     public Query setParameter(String s, Calendar calendar, TemporalType temporalType) {
-        query.setParameter(s, calendar, temporalType);
+        delegate().setParameter(s, calendar, temporalType);
         return this;
     }
 
     public Query setParameter(int i, Object o) {
-        query.setParameter(i, o);
+        delegate().setParameter(i, o);
         return this;
     }
 
     public Query setParameter(int i, Date date, TemporalType temporalType) {
-        query.setParameter(i, date, temporalType);
+        delegate().setParameter(i, date, temporalType);
         return this;
     }
 
     public Query setParameter(int i, Calendar calendar, TemporalType temporalType) {
-        query.setParameter(i, calendar, temporalType);
+        delegate().setParameter(i, calendar, temporalType);
         return this;
     }
 
@@ -133,132 +196,196 @@ public class JtaQuery implements Query {
      * @see javax.persistence.Query#getFirstResult()
      */
     public int getFirstResult() {
-        return query.getFirstResult();
+        return delegate().getFirstResult();
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#getFlushMode()
      */
     public FlushModeType getFlushMode() {
-        return query.getFlushMode();
+        return delegate().getFlushMode();
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#getHints()
      */
     public Map<String, Object> getHints() {
-        return query.getHints();
+        return delegate().getHints();
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#getLockMode()
      */
     public LockModeType getLockMode() {
-        return query.getLockMode();
+        return delegate().getLockMode();
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#getMaxResults()
      */
     public int getMaxResults() {
-        return query.getMaxResults();
+        return delegate().getMaxResults();
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#getParameter(java.lang.String)
      */
     public Parameter<?> getParameter(String name) {
-        return query.getParameter(name);
+        return delegate().getParameter(name);
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#getParameter(int)
      */
     public Parameter<?> getParameter(int position) {
-        return query.getParameter(position);
+        return delegate().getParameter(position);
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#getParameter(java.lang.String, java.lang.Class)
      */
     public <T> Parameter<T> getParameter(String name, Class<T> type) {
-        return query.getParameter(name, type);
+        return delegate().getParameter(name, type);
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#getParameter(int, java.lang.Class)
      */
     public <T> Parameter<T> getParameter(int position, Class<T> type) {
-        return query.getParameter(position, type);
+        return delegate().getParameter(position, type);
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#getParameterValue(javax.persistence.Parameter)
      */
     public <T> T getParameterValue(Parameter<T> param) {
-        return query.getParameterValue(param);
+        return delegate().getParameterValue(param);
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#getParameterValue(java.lang.String)
      */
     public Object getParameterValue(String name) {
-        return query.getParameterValue(name);
+        return delegate().getParameterValue(name);
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#getParameterValue(int)
      */
     public Object getParameterValue(int position) {
-        return query.getParameterValue(position);
+        return delegate().getParameterValue(position);
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#getParameters()
      */
     public Set<Parameter<?>> getParameters() {
-        return query.getParameters();
+        return delegate().getParameters();
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#isBound(javax.persistence.Parameter)
      */
     public boolean isBound(Parameter<?> param) {
-        return query.isBound(param);
+        return delegate().isBound(param);
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#setLockMode(javax.persistence.LockModeType)
      */
     public Query setLockMode(LockModeType lockMode) {
-        return query.setLockMode(lockMode);
+        return delegate().setLockMode(lockMode);
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#setParameter(javax.persistence.Parameter, java.lang.Object)
      */
     public <T> Query setParameter(Parameter<T> param, T value) {
-        return query.setParameter(param, value);
+        return delegate().setParameter(param, value);
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#setParameter(javax.persistence.Parameter, java.util.Calendar, javax.persistence.TemporalType)
      */
     public Query setParameter(Parameter<Calendar> param, Calendar value, TemporalType temporalType) {
-        return query.setParameter(param, value, temporalType);
+        return delegate().setParameter(param, value, temporalType);
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#setParameter(javax.persistence.Parameter, java.util.Date, javax.persistence.TemporalType)
      */
     public Query setParameter(Parameter<Date> param, Date value, TemporalType temporalType) {
-        return query.setParameter(param, value, temporalType);
+        return delegate().setParameter(param, value, temporalType);
     }
 
     /* (non-Javadoc)
      * @see javax.persistence.Query#unwrap(java.lang.Class)
      */
     public <T> T unwrap(Class<T> cls) {
-        return query.unwrap(cls);
+        return delegate().unwrap(cls);
+    }
+
+    /**
+     * Creates the query of a JtaQuery with an entity manager.
+     */
+    interface QueryCreator {
+        Query createQuery(EntityManager entityManager);
+    }
+
+    /**
+     * The parameters and options set on a query, applied to the query created again.
+     */
+    private static class Settings {
+        private final Map<Object, Object> parameters = new LinkedHashMap<Object, Object>();
+        private final Map<String, Object> hints;
+        private final int firstResult;
+        private final int maxResults;
+        private final FlushModeType flushMode;
+        private final LockModeType lockMode;
+
+        private Settings(Query query) {
+            for (Parameter<?> parameter : query.getParameters()) {
+                if (query.isBound(parameter)) {
+                    final Object key = parameter.getName() != null ? parameter.getName() : parameter.getPosition();
+                    parameters.put(key, query.getParameterValue(parameter));
+                }
+            }
+            hints = new HashMap<String, Object>(query.getHints());
+            firstResult = query.getFirstResult();
+            maxResults = query.getMaxResults();
+            flushMode = query.getFlushMode();
+
+            LockModeType mode;
+            try {
+                mode = query.getLockMode();
+            } catch (IllegalStateException e) {
+                // not a select query
+                mode = null;
+            }
+            lockMode = mode;
+        }
+
+        private void apply(Query query) {
+            for (Map.Entry<Object, Object> parameter : parameters.entrySet()) {
+                if (parameter.getKey() instanceof String) {
+                    query.setParameter((String) parameter.getKey(), parameter.getValue());
+                } else {
+                    query.setParameter((Integer) parameter.getKey(), parameter.getValue());
+                }
+            }
+            for (Map.Entry<String, Object> hint : hints.entrySet()) {
+                query.setHint(hint.getKey(), hint.getValue());
+            }
+            if (firstResult != 0) {
+                query.setFirstResult(firstResult);
+            }
+            if (maxResults != Integer.MAX_VALUE) {
+                query.setMaxResults(maxResults);
+            }
+            query.setFlushMode(flushMode);
+            if (lockMode != null && lockMode != LockModeType.NONE) {
+                query.setLockMode(lockMode);
+            }
+        }
     }
 }
@@ -37,6 +37,14 @@ public class JtaTypedQuery<X> extends JtaQuery implements TypedQuery<X> {
         super(entityManager, jtaEm, query);
     }
 
+    public JtaTypedQuery(EntityManager entityManager, JtaEntityManager jtaEm, Query query, String queryKey) {
+        super(entityManager, jtaEm, query, queryKey);
+    }
+
+    JtaTypedQuery(EntityManager entityManager, JtaEntityManager jtaEm, Query query, String queryKey, QueryCreator creator) {
+        super(entityManager, jtaEm, query, queryKey, creator);
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public List<X> getResultList() {
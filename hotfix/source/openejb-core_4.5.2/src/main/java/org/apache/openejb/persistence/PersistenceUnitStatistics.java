@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.persistence;
+
+import org.apache.openejb.monitoring.Histogram;
+import org.apache.openejb.monitoring.Managed;
+import org.apache.openejb.monitoring.ManagedCollection;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings of the operations done through the JtaEntityManagers of a persistence unit,
+ * grouped by EntityManager operation and by query.  Times are recorded in nanoseconds
+ * and exposed in milliseconds.
+ *
+ * @version $Rev$ $Date$
+ */
+@Managed
+public class PersistenceUnitStatistics {
+    public static final String OPENEJB_JPA_STATISTICS = "openejb.jpa.statistics";
+    public static final String OPENEJB_JPA_STATISTICS_MAX_QUERIES = "openejb.jpa.statistics.max-queries";
+
+    public static final String EXECUTE_QUERY = "executeQuery";
+    public static final String OTHER_QUERIES = "<other queries>";
+
+    private static final long HIGHEST_TRACKABLE_TIME = TimeUnit.MINUTES.toNanos(10);
+
+    private final String unitName;
+    private final int maxQueries;
+    private final ConcurrentMap<String, Timing> operations = new ConcurrentHashMap<String, Timing>();
+    private final ConcurrentMap<String, Timing> queries = new ConcurrentHashMap<String, Timing>();
+    private final JtaEntityManagerRegistry.NonTxStats nonTxStats;
+
+    public PersistenceUnitStatistics(final String unitName, final int maxQueries) {
+        this(unitName, maxQueries, null);
+    }
+
+    public PersistenceUnitStatistics(final String unitName, final int maxQueries, final JtaEntityManagerRegistry.NonTxStats nonTxStats) {
+        this.unitName = unitName;
+        this.maxQueries = maxQueries;
+        this.nonTxStats = nonTxStats;
+    }
+
+    public void record(final String operation, final long nanos) {
+        timing(operations, operation).histogram.record(nanos);
+    }
+
+    /**
+     * Records a query execution under its query string, and under the executeQuery operation.
+     * Once maxQueries distinct queries are tracked, new ones are recorded together.
+     */
+    public void recordQuery(final String query, final long nanos) {
+        record(EXECUTE_QUERY, nanos);
+
+        String key = query == null ? OTHER_QUERIES : query;
+        if (!queries.containsKey(key) && queries.size() >= maxQueries) {
+            key = OTHER_QUERIES;
+        }
+        timing(queries, key).histogram.record(nanos);
+    }
+
+    public Timing getOperation(final String operation) {
+        return operations.get(operation);
+    }
+
+    public Timing getQuery(final String query) {
+        return queries.get(query);
+    }
+
+    @Managed
+    public String getUnitName() {
+        return unitName;
+    }
+
+    @Managed
+    public int getTrackedQueries() {
+        return queries.size();
+    }
+
+    @Managed
+    public long getNonTxEntityManagersCreated() {
+        return nonTxStats == null ? 0 : nonTxStats.getCreated();
+    }
+
+    @Managed
+    public long getNonTxEntityManagersReused() {
+        return nonTxStats == null ? 0 : nonTxStats.getReused();
+    }
+
+    @Managed
+    public void reset() {
+        operations.clear();
+        queries.clear();
+    }
+
+    @ManagedCollection(type = Timing.class, key = "name")
+    public Collection<Timing> operations() {
+        return operations.values();
+    }
+
+    @ManagedCollection(type = Timing.class, key = "name")
+    public Collection<Timing> queries() {
+        return queries.values();
+    }
+
+    private static Timing timing(final ConcurrentMap<String, Timing> timings, final String name) {
+        Timing timing = timings.get(name);
+        if (timing == null) {
+            timing = new Timing(name);
+            final Timing existing = timings.putIfAbsent(name, timing);
+            if (existing != null) {
+                timing = existing;
+            }
+        }
+        return timing;
+    }
+
+    @Managed
+    public static class Timing {
+        private final String name;
+        private final Histogram histogram = new Histogram(HIGHEST_TRACKABLE_TIME);
+
+        public Timing(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Histogram getHistogram() {
+            return histogram;
+        }
+
+        @Managed
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        @Managed
+        public double getTotal() {
+            return millis(histogram.getSum());
+        }
+
+        @Managed
+        public double getMean() {
+            return millis(histogram.getMean());
+        }
+
+        @Managed
+        public double getMin() {
+            return millis(histogram.getMin());
+        }
+
+        @Managed
+        public double getMax() {
+            return millis(histogram.getMax());
+        }
+
+        @Managed
+        public double getPercentile50() {
+            return millis(histogram.getPercentile(50.0));
+        }
+
+        @Managed
+        public double getPercentile90() {
+            return millis(histogram.getPercentile(90.0));
+        }
+
+        @Managed
+        public double getPercentile99() {
+            return millis(histogram.getPercentile(99.0));
+        }
+
+        private static double millis(final double nanos) {
+            return nanos / 1000000.0;
+        }
+    }
+}
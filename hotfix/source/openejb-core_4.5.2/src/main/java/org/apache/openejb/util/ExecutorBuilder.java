@@ -35,6 +35,7 @@ import java.util.concurrent.TimeUnit;
 public class ExecutorBuilder {
 
     private int size = 10;
+    private int queueSize = -1;
     private String prefix = "Pool";
     private ThreadFactory threadFactory;
     private RejectedExecutionHandler rejectedExecutionHandler;
@@ -47,6 +48,14 @@ public class ExecutorBuilder {
         return this;
     }
 
+    /**
+     * Queue size used when the QueueSize option is not set, the core pool size by default
+     */
+    public ExecutorBuilder queueSize(final int queueSize) {
+        this.queueSize = queueSize;
+        return this;
+    }
+
     public ExecutorBuilder prefix(final String prefix) {
         this.prefix = prefix;
         return this;
@@ -78,7 +87,7 @@ public class ExecutorBuilder {
         }
 
         // Default QueueSize is bounded using the corePoolSize, else bounded pools will never grow
-        final int qsize = options.get(prefix + ".QueueSize", corePoolSize);
+        final int qsize = options.get(prefix + ".QueueSize", queueSize < 0 ? corePoolSize : queueSize);
 
         // Keep Threads inactive threads alive for 60 seconds by default
         final Duration keepAliveTime = options.get(prefix + ".KeepAliveTime", new Duration(60, TimeUnit.SECONDS));
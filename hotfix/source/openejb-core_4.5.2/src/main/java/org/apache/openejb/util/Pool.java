@@ -23,7 +23,6 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.NoSuchElementException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -35,6 +34,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 
@@ -55,9 +55,9 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
  */
 public class Pool<T> {
 
-    private final LinkedList<Entry> pool = new LinkedList<Entry>();
-    private final Semaphore instances;
-    private final Semaphore available;
+    private final FreeList<Entry> pool;
+    private final Resizable instances;
+    private final Resizable available;
     private final Semaphore minimum;
     private final Executor executor;
 
@@ -91,18 +91,45 @@ public class Pool<T> {
     @Managed
     private final boolean garbageCollection;
 
+    @Managed
+    private final boolean stripedPooling;
+
+    @Managed
+    private final boolean adaptivePooling;
+
+    @Managed
+    private final Sizing sizing;
+
+    /**
+     * The current size of the pool, always the max size
+     * unless adaptive pooling moves it
+     */
+    private final AtomicInteger limit = new AtomicInteger();
+
     public Pool(final int max, final int min, final boolean strict) {
         this(max, min, strict, 0, 0, 0, null, null, false, -1, false, false);
     }
 
     public Pool(final int max, final int min, final boolean strict, final long maxAge, final long idleTimeout, long sweepInterval, final Executor executor, final Supplier<T> supplier, final boolean replaceAged, final double maxAgeOffset, final boolean garbageCollection, final boolean replaceFlushed) {
+        this(max, min, strict, maxAge, idleTimeout, sweepInterval, executor, supplier, replaceAged, maxAgeOffset, garbageCollection, replaceFlushed, false);
+    }
+
+    public Pool(final int max, final int min, final boolean strict, final long maxAge, final long idleTimeout, long sweepInterval, final Executor executor, final Supplier<T> supplier, final boolean replaceAged, final double maxAgeOffset, final boolean garbageCollection, final boolean replaceFlushed, final boolean striped) {
+        this(max, min, strict, maxAge, idleTimeout, sweepInterval, executor, supplier, replaceAged, maxAgeOffset, garbageCollection, replaceFlushed, striped, false, 0);
+    }
+
+    public Pool(final int max, final int min, final boolean strict, final long maxAge, final long idleTimeout, long sweepInterval, final Executor executor, final Supplier<T> supplier, final boolean replaceAged, final double maxAgeOffset, final boolean garbageCollection, final boolean replaceFlushed, final boolean striped, final boolean adaptive, long adaptiveInterval) {
         if (min > max) greater("max", max, "min", min);
         if (maxAge != 0 && idleTimeout > maxAge) greater("MaxAge", maxAge, "IdleTimeout", idleTimeout);
         this.executor = executor != null ? executor : createExecutor();
         this.supplier = supplier != null ? supplier : new NoSupplier();
-        this.available = (strict) ? new Semaphore(max) : new Overdraft(max);
+        this.adaptivePooling = adaptive && max > 0;
+        if (adaptiveInterval <= 0) adaptiveInterval = 1000; // one second
+        this.sizing = adaptivePooling ? new Sizing(Math.min(Math.max(min, 1), max), max, adaptiveInterval) : null;
+        this.limit.set(adaptivePooling ? sizing.lower : max);
+        this.available = (strict) ? new Resizable(limit.get()) : new Overdraft(limit.get());
         this.minimum = new Semaphore(min);
-        this.instances = new Semaphore(max);
+        this.instances = new Resizable(limit.get());
         this.maxAge = maxAge;
         this.maxAgeOffset = maxAgeOffset;
         this.replaceAged = replaceAged;
@@ -112,11 +139,16 @@ public class Pool<T> {
         this.sweeper = new Sweeper(idleTimeout, max);
         this.stats = new Stats(min, max, idleTimeout);
         this.garbageCollection = garbageCollection;
+        this.stripedPooling = striped;
+        this.pool = striped ? new StripedFreeList<Entry>() : new LinkedFreeList<Entry>();
     }
 
     public Pool start() {
         if (this.scheduler.compareAndSet(null, Executors.newScheduledThreadPool(1, new SchedulerThreadFactory()))) {
             this.scheduler.get().scheduleAtFixedRate(sweeper, 0, this.sweepInterval, MILLISECONDS);
+            if (adaptivePooling) {
+                this.scheduler.get().scheduleAtFixedRate(sizing, sizing.adaptiveInterval, sizing.adaptiveInterval, MILLISECONDS);
+            }
         }
         return this;
     }
@@ -187,7 +219,7 @@ public class Pool<T> {
     private Entry pop(final long timeout, final TimeUnit unit, final boolean record) throws InterruptedException, TimeoutException {
         if (timeout == -1) {
             available.tryAcquire();
-        } else if (!available.tryAcquire(timeout, unit)) {
+        } else if (!acquire(timeout, unit, record)) {
             if (record) stats.accessTimeouts.record();
             throw new TimeoutException("Waited " + timeout + " " + unit);
         }
@@ -195,13 +227,9 @@ public class Pool<T> {
         Entry entry = null;
         while (entry == null) {
 
-            synchronized (pool) {
-                try {
-                    entry = pool.removeFirst();
-                } catch (NoSuchElementException e) {
-                    return null;
-                }
-            }
+            entry = pool.pop();
+
+            if (entry == null) return null;
 
             final Pool<T>.Entry.Instance instance = entry.soft.get();
 
@@ -221,6 +249,44 @@ public class Pool<T> {
         return null;
     }
 
+    /**
+     * Tells the pool how long the caller took to create an instance
+     * after a pop() returned null, adaptive pooling weighs that cost
+     * against the time callers wait for an instance.
+     *
+     * @param nanos creation time in nanoseconds
+     */
+    public void created(final long nanos) {
+        if (adaptivePooling) sizing.created(nanos);
+    }
+
+    private boolean acquire(final long timeout, final TimeUnit unit, final boolean record) throws InterruptedException {
+        if (!adaptivePooling || !record) return available.tryAcquire(timeout, unit);
+
+        if (available.tryAcquire()) {
+            final int size = limit.get();
+            final int inUse = size - available.availablePermits();
+            if (inUse > size) {
+                // without strict pooling callers never wait, this one
+                // gets a temporary instance discarded once returned
+                sizing.overdrawn(inUse);
+            } else {
+                sizing.arrived(inUse);
+            }
+            return true;
+        }
+
+        // every instance is in use, this caller and the ones
+        // already queued are the demand the pool could not meet
+        final int demand = limit.get() + available.getQueueLength() + 1;
+        final long start = System.nanoTime();
+        try {
+            return available.tryAcquire(timeout, unit);
+        } finally {
+            sizing.waited(demand, System.nanoTime() - start);
+        }
+    }
+
     /**
      * Attempt to aquire a permit to add the object to the pool.
      *
@@ -269,7 +335,14 @@ public class Pool<T> {
      * @return false if the pool max size was exceeded
      */
     public boolean push(final T obj) {
-        return push(obj, 0);
+        if (!adaptivePooling) return push(obj, 0);
+
+        final boolean pushed = push(obj, 0);
+
+        // the pool shrank while the instance was created, the
+        // caller still holds the permit it got from pop()
+        if (!pushed && !(available instanceof Overdraft)) available.release();
+        return pushed;
     }
 
     /**
@@ -325,13 +398,14 @@ public class Pool<T> {
                     entry.active.set(obj);
                     executor.execute(new Replace(entry));
                 }
+            } else if (adaptivePooling && instances.availablePermits() < 0 && !entry.hasHardReference()) {
+                // the pool was shrunk while this instance was in use
+                event = Event.SHRUNK;
             } else {
                 // make this a "min" instance if we can
                 if (!entry.hasHardReference() && minimum.tryAcquire()) entry.hard.set(obj);
 
-                synchronized (pool) {
-                    pool.addFirst(entry);
-                }
+                pool.push(entry);
                 added = true;
             }
         } finally {
@@ -705,8 +779,44 @@ public class Pool<T> {
 
     }
 
+    /**
+     * Holds the idle entries of the pool.  Both implementations
+     * are LIFO so the most recently used instance is handed out first.
+     */
+    private static interface FreeList<E> {
+
+        void push(E e);
+
+        /**
+         * @return an idle entry or null if the list is empty
+         */
+        E pop();
+    }
+
+    private static final class LinkedFreeList<E> implements FreeList<E> {
+
+        private final LinkedList<E> list = new LinkedList<E>();
+
+        @Override
+        public synchronized void push(final E e) {
+            list.addFirst(e);
+        }
+
+        @Override
+        public synchronized E pop() {
+            return list.isEmpty() ? null : list.removeFirst();
+        }
+    }
+
+    /**
+     * Lock-free, one stripe per core, idle entries are stolen
+     * from the other stripes when the local one is empty.
+     */
+    private static final class StripedFreeList<E> extends StripedStack<E> implements FreeList<E> {
+    }
+
     public static enum Event {
-        FULL, IDLE, AGED, FLUSHED, GC
+        FULL, IDLE, AGED, FLUSHED, GC, SHRUNK
     }
 
     private class Expired {
@@ -763,7 +873,9 @@ public class Pool<T> {
             }
 
             try {
+                final long start = System.nanoTime();
                 final T t = supplier.create();
+                if (adaptivePooling && t != null) sizing.created(System.nanoTime() - start);
 
                 if (t == null) {
                     discard(expired);
@@ -811,6 +923,9 @@ public class Pool<T> {
                 case GC:
                     stats.garbageCollected.record();
                     break;
+                case SHRUNK:
+                    sizing.shrunk.record();
+                    break;
             }
             try {
                 supplier.discard(expired, event);
@@ -839,7 +954,24 @@ public class Pool<T> {
         }
     }
 
-    private static final class Overdraft extends Semaphore {
+    /**
+     * A semaphore whose number of permits can be lowered
+     * while permits are held, used to resize the pool.
+     */
+    private static class Resizable extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        public Resizable(final int permits) {
+            super(permits);
+        }
+
+        public void reduce(final int permits) {
+            reducePermits(permits);
+        }
+    }
+
+    private static final class Overdraft extends Resizable {
 
         private static final long serialVersionUID = 1L;
         private final AtomicInteger permits = new AtomicInteger();
@@ -915,6 +1047,7 @@ public class Pool<T> {
 
         @Override
         protected void reducePermits(final int reduction) {
+            this.permits.addAndGet(-reduction);
         }
     }
 
@@ -975,7 +1108,7 @@ public class Pool<T> {
 
         @Managed
         private int getInstancesPooled() {
-            return maxSize - Pool.this.instances.availablePermits();
+            return limit.get() - Pool.this.instances.availablePermits();
         }
 
         @Managed
@@ -990,7 +1123,7 @@ public class Pool<T> {
 
         @Managed
         private int getInstancesActive() {
-            return maxSize - getAvailablePermits();
+            return limit.get() - getAvailablePermits();
         }
 
         @Managed
@@ -999,6 +1132,248 @@ public class Pool<T> {
         }
     }
 
+
+    /**
+     * Moves the size of the pool between the min size (at least one)
+     * and the max size when adaptive pooling is enabled.
+     * <p/>
+     * Callers record their arrival and how long they waited for an
+     * instance, {@link Pool#created(long)} records how long creating a
+     * new one took.  At each interval the pool grows to the demand that
+     * could not be met if callers had to wait, and if waiting cost more
+     * than creating an instance would.  Without strict pooling callers
+     * never wait, they are overdrawn instead and each one creates an
+     * instance that is thrown away, so any overdraft grows the pool.
+     * After {@link #QUIET} intervals without waiting or overdrafts the
+     * pool shrinks half way down to the highest
+     * number of instances in use during those intervals, idle instances
+     * above the new size are discarded and busy ones are discarded when
+     * they are returned.
+     */
+    @Managed
+    private final class Sizing implements Runnable {
+
+        private static final int QUIET = 3;
+
+        private final int lower;
+        private final int upper;
+
+        @Managed
+        private final long adaptiveInterval;
+
+        private final AtomicLong arrivals = new AtomicLong();
+        private final AtomicLong waits = new AtomicLong();
+        private final AtomicLong waitTime = new AtomicLong();
+        private final AtomicLong overdrafts = new AtomicLong();
+        private final AtomicLong creations = new AtomicLong();
+        private final AtomicLong creationTime = new AtomicLong();
+        private final AtomicInteger demand = new AtomicInteger();
+
+        @Managed
+        private final org.apache.openejb.monitoring.Event grows = new org.apache.openejb.monitoring.Event();
+
+        @Managed
+        private final org.apache.openejb.monitoring.Event shrinks = new org.apache.openejb.monitoring.Event();
+
+        @Managed
+        private final org.apache.openejb.monitoring.Event shrunk = new org.apache.openejb.monitoring.Event();
+
+        private volatile double arrivalRate;
+        private volatile double waitRatio;
+        private volatile double averageWait;
+        private volatile double averageCreation;
+        private volatile int peakDemand;
+        private volatile String decision = "-";
+
+        // only touched by the scheduler thread
+        private long last = System.nanoTime();
+        private int quiet;
+        private int quietDemand;
+
+        private Sizing(final int lower, final int upper, final long interval) {
+            this.lower = lower;
+            this.upper = upper;
+            this.adaptiveInterval = interval;
+        }
+
+        private void arrived(final int inUse) {
+            arrivals.incrementAndGet();
+            peak(inUse);
+        }
+
+        private void waited(final int demand, final long nanos) {
+            arrivals.incrementAndGet();
+            waits.incrementAndGet();
+            waitTime.addAndGet(nanos);
+            peak(demand);
+        }
+
+        private void overdrawn(final int demand) {
+            arrivals.incrementAndGet();
+            overdrafts.incrementAndGet();
+            peak(demand);
+        }
+
+        private void peak(final int value) {
+            int current;
+            while (value > (current = demand.get())) {
+                if (demand.compareAndSet(current, value)) return;
+            }
+        }
+
+        private void created(final long nanos) {
+            creations.incrementAndGet();
+            creationTime.addAndGet(nanos);
+        }
+
+        @Override
+        public void run() {
+            final long now = System.nanoTime();
+            final long elapsed = Math.max(1, now - last);
+            last = now;
+
+            final long arrivals = this.arrivals.getAndSet(0);
+            final long waits = this.waits.getAndSet(0);
+            final long waitTime = this.waitTime.getAndSet(0);
+            final long overdrafts = this.overdrafts.getAndSet(0);
+            final long creations = this.creations.getAndSet(0);
+            final long creationTime = this.creationTime.getAndSet(0);
+            final int demand = this.demand.getAndSet(0);
+
+            arrivalRate = arrivals * 1e9 / elapsed;
+            waitRatio = arrivals == 0 ? 0 : (double) waits / arrivals;
+            averageWait = waits == 0 ? 0 : waitTime / 1e6 / waits;
+            peakDemand = demand;
+
+            if (creations > 0) {
+                // creation cost moves slowly, smooth it over the intervals
+                final double creation = creationTime / 1e6 / creations;
+                averageCreation = averageCreation == 0 ? creation : 0.7 * averageCreation + 0.3 * creation;
+            }
+
+            final int size = limit.get();
+
+            if (waits > 0 || overdrafts > 0) {
+                quiet = 0;
+                quietDemand = 0;
+
+                if (size >= upper) {
+                    decision = "hold at max " + size + ": " + describe(waits, overdrafts, arrivals);
+                } else if (overdrafts == 0 && averageWait <= averageCreation) {
+                    decision = "hold at " + size + ": " + describe(waits, overdrafts, arrivals) + ", creating takes " + format(averageCreation) + " ms";
+                } else {
+                    final int target = Math.min(upper, Math.max(size + 1, demand));
+                    resize(size, target);
+                    grows.record();
+                    decision = "grow " + size + " -> " + target + ": " + describe(waits, overdrafts, arrivals);
+                }
+                return;
+            }
+
+            quietDemand = Math.max(quietDemand, demand);
+            if (++quiet < QUIET) return;
+
+            final int needed = Math.max(lower, quietDemand);
+            quiet = 0;
+            quietDemand = 0;
+
+            if (needed < size) {
+                final int target = Math.max(needed, size - (size - needed + 1) / 2);
+                resize(size, target);
+                shrinks.record();
+                decision = "shrink " + size + " -> " + target + ": at most " + needed + " in use";
+            }
+        }
+
+        private String describe(final long waits, final long overdrafts, final long arrivals) {
+            if (overdrafts > 0) return overdrafts + " of " + arrivals + " calls overdrawn";
+            return waits + " of " + arrivals + " calls waited " + format(averageWait) + " ms";
+        }
+
+        private String format(final double millis) {
+            return String.format("%.2f", millis);
+        }
+
+        private void resize(final int size, final int target) {
+            final int delta = target - size;
+            limit.set(target);
+
+            if (delta > 0) {
+                instances.release(delta);
+                available.release(delta);
+            } else if (delta < 0) {
+                available.reduce(-delta);
+                instances.reduce(-delta);
+                evict(-instances.availablePermits());
+            }
+        }
+
+        /**
+         * Discards up to count idle entries, entries of the
+         * "min" pool are kept.
+         */
+        private void evict(final int count) {
+            final List<Entry> kept = new ArrayList<Entry>();
+
+            int evicted = 0;
+            while (evicted < count) {
+                final Entry entry = pool.pop();
+                if (entry == null) break;
+
+                final Entry.Instance instance = entry.soft.get();
+                if (instance == null) {
+                    // the SoftReference was garbage collected
+                    instances.release();
+                } else if (entry.hasHardReference()) {
+                    kept.add(entry);
+                } else {
+                    instances.release();
+                    executor.execute(instance.discard(Event.SHRUNK));
+                    evicted++;
+                }
+            }
+
+            for (final Entry entry : kept) {
+                pool.push(entry);
+            }
+        }
+
+        @Managed
+        private int getPoolSize() {
+            return limit.get();
+        }
+
+        @Managed
+        private double getArrivalRate() {
+            return arrivalRate;
+        }
+
+        @Managed
+        private double getWaitRatio() {
+            return waitRatio;
+        }
+
+        @Managed
+        private double getAverageWait() {
+            return averageWait;
+        }
+
+        @Managed
+        private double getAverageCreation() {
+            return averageCreation;
+        }
+
+        @Managed
+        private int getPeakDemand() {
+            return peakDemand;
+        }
+
+        @Managed
+        private String getSizingDecision() {
+            return decision;
+        }
+    }
+
     public static class Builder<T> {
 
         private int max = 10;
@@ -1013,6 +1388,9 @@ public class Pool<T> {
         private boolean replaceAged;
         private boolean replaceFlushed;
         private boolean garbageCollection = true;
+        private boolean striped;
+        private boolean adaptive;
+        private Duration adaptiveInterval = new Duration(1, TimeUnit.SECONDS);
 
         public Builder(final Builder<T> that) {
             this.max = that.max;
@@ -1027,6 +1405,9 @@ public class Pool<T> {
             this.replaceAged = that.replaceAged;
             this.replaceFlushed = that.replaceFlushed;
             this.garbageCollection = that.garbageCollection;
+            this.striped = that.striped;
+            this.adaptive = that.adaptive;
+            this.adaptiveInterval = that.adaptiveInterval;
         }
 
         public Builder() {
@@ -1052,6 +1433,41 @@ public class Pool<T> {
             this.replaceFlushed = replaceFlushed;
         }
 
+        public boolean isStriped() {
+            return striped;
+        }
+
+        /**
+         * Replaces the synchronized free list by lock-free per-core stripes.
+         *
+         * @param striped use the striped free list
+         */
+        public void setStripedPooling(final boolean striped) {
+            this.striped = striped;
+        }
+
+        public boolean isAdaptive() {
+            return adaptive;
+        }
+
+        /**
+         * Lets the pool grow and shrink between the min size
+         * (at least one) and the max size according to the load.
+         *
+         * @param adaptive use adaptive sizing
+         */
+        public void setAdaptivePooling(final boolean adaptive) {
+            this.adaptive = adaptive;
+        }
+
+        public Duration getAdaptiveInterval() {
+            return adaptiveInterval;
+        }
+
+        public void setAdaptiveInterval(final Duration adaptiveInterval) {
+            this.adaptiveInterval = adaptiveInterval;
+        }
+
         public void setMaxSize(final int max) {
             this.max = max;
         }
@@ -1124,7 +1540,7 @@ public class Pool<T> {
 
         public Pool<T> build() {
             //noinspection unchecked
-            return new Pool(max, min, strict, maxAge.getTime(MILLISECONDS), idleTimeout.getTime(MILLISECONDS), interval.getTime(MILLISECONDS), executor, supplier, replaceAged, maxAgeOffset, this.garbageCollection, replaceFlushed);
+            return new Pool(max, min, strict, maxAge.getTime(MILLISECONDS), idleTimeout.getTime(MILLISECONDS), interval.getTime(MILLISECONDS), executor, supplier, replaceAged, maxAgeOffset, this.garbageCollection, replaceFlushed, striped, adaptive, adaptiveInterval.getTime(MILLISECONDS));
         }
     }
 
@@ -0,0 +1,324 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A reader-writer lock for data that is read far more often than written.
+ * <p/>
+ * Readers do not share a single lock word.  Each thread counts itself in
+ * one of several reader stripes picked from its thread id and then checks
+ * that no writer is active, so concurrent readers on different cores
+ * mostly touch different cache lines.  A writer first takes a plain
+ * {@link ReentrantLock}, which keeps writers exclusive of each other and
+ * is where readers line up while it is held, announces itself and then
+ * waits for every stripe to drain.
+ * <p/>
+ * Reentrancy follows {@link java.util.concurrent.locks.ReentrantReadWriteLock}:
+ * both locks are reentrant, the writer may also take the read lock, but a
+ * reader asking for the write lock waits until it gives up.  Neither lock
+ * supports conditions.
+ *
+ * @version $Rev$ $Date$
+ */
+public class StripedReadWriteLock implements ReadWriteLock {
+
+    /**
+     * Counters are spread out in the backing array so that two stripes do
+     * not share a cache line.
+     */
+    private static final int SPACING = 16;
+
+    private final AtomicIntegerArray readers;
+    private final int stripes;
+    private final int mask;
+
+    private final ReentrantLock writers = new ReentrantLock();
+    private volatile Thread writer;
+
+    private final ThreadLocal<Holds> holds = new ThreadLocal<Holds>() {
+        @Override
+        protected Holds initialValue() {
+            return new Holds(home() * SPACING);
+        }
+    };
+
+    private final ReadLock readLock = new ReadLock();
+    private final WriteLock writeLock = new WriteLock();
+
+    public StripedReadWriteLock() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public StripedReadWriteLock(final int stripes) {
+        if (stripes < 1) throw new IllegalArgumentException("stripes must be greater than zero: stripes=" + stripes);
+
+        int size = 1;
+        while (size < stripes) size <<= 1;
+
+        this.stripes = size;
+        this.mask = size - 1;
+        this.readers = new AtomicIntegerArray(size * SPACING);
+    }
+
+    public Lock readLock() {
+        return readLock;
+    }
+
+    public Lock writeLock() {
+        return writeLock;
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    public int getReadLockCount() {
+        int count = 0;
+        for (int i = 0; i < stripes; i++) {
+            count += readers.get(i * SPACING);
+        }
+        return count;
+    }
+
+    public boolean isWriteLocked() {
+        return writer != null;
+    }
+
+    private int home() {
+        final long id = Thread.currentThread().getId();
+        // spread the bits a little, thread ids are sequential
+        final int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * @param nanos how long to wait, negative to wait forever
+     * @return false if the timeout was reached
+     */
+    private boolean acquireRead(final long nanos, final boolean interruptible) throws InterruptedException {
+        final Holds holds = this.holds.get();
+        final Thread current = Thread.currentThread();
+
+        // a reentrant read, or a read by the writer itself, must not wait
+        // for a writer or it would wait for itself
+        if (holds.count > 0 || writer == current) {
+            readers.incrementAndGet(holds.index);
+            holds.count++;
+            return true;
+        }
+
+        // fast path, the writer reads our counter after announcing itself
+        // so at least one of us sees the other
+        readers.incrementAndGet(holds.index);
+        if (writer == null) {
+            holds.count++;
+            return true;
+        }
+        release(holds.index);
+
+        // slow path, wait behind the writer.  No writer can be active
+        // while we hold its lock so the counter can be taken as is
+        if (!lockWriters(nanos, interruptible)) return false;
+        try {
+            readers.incrementAndGet(holds.index);
+            holds.count++;
+            return true;
+        } finally {
+            writers.unlock();
+        }
+    }
+
+    private void releaseRead() {
+        final Holds holds = this.holds.get();
+        if (holds.count == 0) throw new IllegalMonitorStateException("read lock not held by the current thread");
+
+        holds.count--;
+        release(holds.index);
+    }
+
+    private void release(final int index) {
+        readers.decrementAndGet(index);
+
+        final Thread waiting = writer;
+        if (waiting != null) LockSupport.unpark(waiting);
+    }
+
+    private boolean acquireWrite(final long nanos, final boolean interruptible) throws InterruptedException {
+        if (writers.isHeldByCurrentThread()) {
+            writers.lock();
+            return true;
+        }
+
+        final long deadline = System.nanoTime() + nanos;
+
+        if (!lockWriters(nanos, interruptible)) return false;
+
+        writer = Thread.currentThread();
+
+        // wait for the readers that got in before us to leave
+        boolean interrupted = false;
+        try {
+            for (int i = 0; i < stripes; i++) {
+                final int index = i * SPACING;
+                while (readers.get(index) != 0) {
+                    if (nanos < 0) {
+                        LockSupport.park(this);
+                    } else {
+                        final long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            unlockWriter();
+                            return false;
+                        }
+                        LockSupport.parkNanos(this, remaining);
+                    }
+
+                    if (Thread.interrupted()) {
+                        if (interruptible) {
+                            unlockWriter();
+                            throw new InterruptedException();
+                        }
+                        interrupted = true;
+                    }
+                }
+            }
+        } finally {
+            // keep the interrupt for the caller
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+
+        return true;
+    }
+
+    private void releaseWrite() {
+        if (!writers.isHeldByCurrentThread()) throw new IllegalMonitorStateException("write lock not held by the current thread");
+
+        if (writers.getHoldCount() == 1) {
+            unlockWriter();
+        } else {
+            writers.unlock();
+        }
+    }
+
+    private void unlockWriter() {
+        writer = null;
+        writers.unlock();
+    }
+
+    private boolean lockWriters(final long nanos, final boolean interruptible) throws InterruptedException {
+        if (nanos < 0) {
+            if (interruptible) {
+                writers.lockInterruptibly();
+            } else {
+                writers.lock();
+            }
+            return true;
+        } else if (nanos == 0) {
+            return writers.tryLock();
+        } else {
+            return writers.tryLock(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static final class Holds {
+        private final int index;
+        private int count;
+
+        private Holds(final int index) {
+            this.index = index;
+        }
+    }
+
+    private final class ReadLock implements Lock {
+        public void lock() {
+            try {
+                acquireRead(-1, false);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public void lockInterruptibly() throws InterruptedException {
+            if (Thread.interrupted()) throw new InterruptedException();
+            acquireRead(-1, true);
+        }
+
+        public boolean tryLock() {
+            try {
+                return acquireRead(0, false);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public boolean tryLock(final long time, final TimeUnit unit) throws InterruptedException {
+            if (Thread.interrupted()) throw new InterruptedException();
+            return acquireRead(Math.max(0, unit.toNanos(time)), true);
+        }
+
+        public void unlock() {
+            releaseRead();
+        }
+
+        public Condition newCondition() {
+            throw new UnsupportedOperationException("newCondition()");
+        }
+    }
+
+    private final class WriteLock implements Lock {
+        public void lock() {
+            try {
+                acquireWrite(-1, false);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public void lockInterruptibly() throws InterruptedException {
+            if (Thread.interrupted()) throw new InterruptedException();
+            acquireWrite(-1, true);
+        }
+
+        public boolean tryLock() {
+            try {
+                return acquireWrite(0, false);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public boolean tryLock(final long time, final TimeUnit unit) throws InterruptedException {
+            if (Thread.interrupted()) throw new InterruptedException();
+            return acquireWrite(Math.max(0, unit.toNanos(time)), true);
+        }
+
+        public void unlock() {
+            releaseWrite();
+        }
+
+        public Condition newCondition() {
+            throw new UnsupportedOperationException("newCondition()");
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free LIFO free list split into several stripes.
+ * <p/>
+ * Each thread has a home stripe picked from its thread id, pushes always
+ * go to the home stripe and pops try the home stripe first before
+ * stealing from the others.  Each stripe is a plain Treiber stack so
+ * callers never block on a monitor, and under load threads mostly touch
+ * different stripes instead of one shared head.
+ * <p/>
+ * Nodes are never reused, so the classic ABA problem of Treiber stacks
+ * does not apply here.
+ *
+ * @version $Rev$ $Date$
+ */
+public class StripedStack<E> {
+
+    /**
+     * Heads are spread out in the backing array so that two stripes do
+     * not share a cache line.
+     */
+    private static final int SPACING = 16;
+
+    private final AtomicReferenceArray<Node<E>> heads;
+    private final int stripes;
+    private final int mask;
+
+    public StripedStack() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public StripedStack(final int stripes) {
+        if (stripes < 1) throw new IllegalArgumentException("stripes must be greater than zero: stripes=" + stripes);
+
+        int size = 1;
+        while (size < stripes) size <<= 1;
+
+        this.stripes = size;
+        this.mask = size - 1;
+        this.heads = new AtomicReferenceArray<Node<E>>(size * SPACING);
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    public void push(final E item) {
+        if (item == null) throw new NullPointerException("item cannot be null");
+
+        final int index = home() * SPACING;
+        final Node<E> node = new Node<E>(item);
+
+        while (true) {
+            final Node<E> head = heads.get(index);
+            node.next = head;
+            if (heads.compareAndSet(index, head, node)) return;
+        }
+    }
+
+    /**
+     * @return the most recently pushed item of the home stripe, an item
+     *         stolen from another stripe or null if every stripe is empty
+     */
+    public E pop() {
+        final int home = home();
+
+        for (int i = 0; i < stripes; i++) {
+            final E item = pop(((home + i) & mask) * SPACING);
+            if (item != null) return item;
+        }
+
+        return null;
+    }
+
+    public boolean isEmpty() {
+        for (int i = 0; i < stripes; i++) {
+            if (heads.get(i * SPACING) != null) return false;
+        }
+        return true;
+    }
+
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < stripes; i++) {
+            for (Node<E> node = heads.get(i * SPACING); node != null; node = node.next) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private E pop(final int index) {
+        while (true) {
+            final Node<E> head = heads.get(index);
+            if (head == null) return null;
+            if (heads.compareAndSet(index, head, head.next)) return head.item;
+        }
+    }
+
+    private int home() {
+        final long id = Thread.currentThread().getId();
+        // spread the bits a little, thread ids are sequential
+        final int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static final class Node<E> {
+        private final E item;
+        private Node<E> next;
+
+        private Node(final E item) {
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.util.executor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Starts a new thread for every task instead of queueing tasks for a
+ * fixed set of workers, meant to be used with virtual threads.
+ * <p/>
+ * At most maxConcurrency tasks run at the same time, the threads of the
+ * other tasks wait for a permit in arrival order.  With virtual threads
+ * waiting is cheap, so the waiting threads take the place of the queue.
+ *
+ * @version $Rev$ $Date$
+ */
+public class ThreadPerTaskExecutor implements Executor {
+
+    private final ThreadFactory threadFactory;
+    private final Semaphore limiter;
+    private final int maxConcurrency;
+
+    public ThreadPerTaskExecutor(final ThreadFactory threadFactory, final int maxConcurrency) {
+        if (threadFactory == null) throw new IllegalArgumentException("ThreadFactory must not be null");
+        if (maxConcurrency <= 0) throw new IllegalArgumentException("maxConcurrency must be greater than zero");
+
+        this.threadFactory = threadFactory;
+        this.maxConcurrency = maxConcurrency;
+        this.limiter = new Semaphore(maxConcurrency, true);
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (command == null) throw new NullPointerException("command is null");
+
+        final Thread thread = threadFactory.newThread(new Limited(command));
+        if (thread == null) throw new RejectedExecutionException("ThreadFactory did not create a thread");
+
+        try {
+            thread.start();
+        } catch (OutOfMemoryError e) {
+            // unable to create new native thread
+            throw new RejectedExecutionException(e);
+        }
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getActiveCount() {
+        return maxConcurrency - limiter.availablePermits();
+    }
+
+    public int getWaitingCount() {
+        return limiter.getQueueLength();
+    }
+
+    /**
+     * @param name prefix of the thread names
+     * @return a factory of virtual threads or null if this JVM has none
+     */
+    public static ThreadFactory virtualThreadFactory(final String name) {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            final Method named = builderClass.getMethod("name", String.class, long.class);
+            final Method factory = builderClass.getMethod("factory");
+
+            final Object builder = named.invoke(ofVirtual.invoke(null), name, 1L);
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private class Limited implements Runnable {
+        private final Runnable command;
+
+        private Limited(final Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            limiter.acquireUninterruptibly();
+            try {
+                command.run();
+            } finally {
+                limiter.release();
+            }
+        }
+    }
+}
@@ -682,7 +682,7 @@ public class LocalBeanProxyFactory implements Opcodes {
     /**
      * The methods of this class model sun.misc.Unsafe which is used reflectively
      */
-    private static class Unsafe {
+    static class Unsafe {
 
         // sun.misc.Unsafe
         private static final Object unsafe;
@@ -794,7 +794,7 @@ public class LocalBeanProxyFactory implements Opcodes {
             }
         }
 
-        private static Class defineClass(Class<?> clsToProxy, String proxyName, byte[] proxyBytes, ClassLoader cl) throws IllegalAccessException, InvocationTargetException {
+        static Class defineClass(Class<?> clsToProxy, String proxyName, byte[] proxyBytes, ClassLoader cl) throws IllegalAccessException, InvocationTargetException {
             return (Class<?>) defineClass.invoke(unsafe, proxyName, proxyBytes, 0, proxyBytes.length, cl, clsToProxy.getProtectionDomain());
         }
     }
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.util.proxy;
+
+/**
+ * Calls one specific method on a target instance.
+ * <p/>
+ * Unlike {@link java.lang.reflect.Method#invoke} an exception thrown by the
+ * method is rethrown as is, it is never wrapped in an
+ * {@link java.lang.reflect.InvocationTargetException}.
+ * <p/>
+ * Instances are obtained from {@link MethodInvokerFactory#getInvoker}.
+ *
+ * @version $Rev$ $Date$
+ */
+public abstract class MethodInvoker {
+
+    protected MethodInvoker() {
+    }
+
+    /**
+     * @param target the instance to call the method on
+     * @param args the method arguments, primitives boxed
+     * @return the value returned by the method, boxed if primitive, or null for void methods
+     * @throws Exception any exception thrown by the method itself
+     */
+    public abstract Object invoke(Object target, Object[] args) throws Exception;
+}
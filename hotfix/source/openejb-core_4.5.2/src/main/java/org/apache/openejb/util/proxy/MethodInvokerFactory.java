@@ -0,0 +1,325 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.util.proxy;
+
+import org.apache.openejb.loader.SystemInstance;
+import org.apache.openejb.util.LogCategory;
+import org.apache.openejb.util.Logger;
+import org.apache.xbean.asm.ClassWriter;
+import org.apache.xbean.asm.MethodVisitor;
+import org.apache.xbean.asm.Opcodes;
+import org.apache.xbean.asm.Type;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates {@link MethodInvoker}s that call the method with plain bytecode
+ * instead of going through {@link Method#invoke}.
+ * <p/>
+ * The invoker class is generated with ASM and defined in the class loader
+ * and package of the method's declaring class, so package-private and
+ * protected methods can be called directly.  When that is not possible
+ * (private or static methods, classes of the bootstrap loader, parameter
+ * types the invoker could not see, class loaders that cannot see
+ * {@link MethodInvoker}) a reflection based invoker is used instead.
+ * <p/>
+ * The name of the invoker class only depends on the method, the class is
+ * looked up in the declaring class loader before being generated, so the
+ * loader is the cache: an interceptor or library class of a shared loader
+ * gets one invoker class whatever the number of beans and redeployments,
+ * and the invokers of an application go away with its class loader.  The
+ * instances are resolved once and kept by their owner, the
+ * {@link org.apache.openejb.BeanContext} for the bean methods and the
+ * {@link org.apache.openejb.core.interceptor.InterceptorData} for the
+ * interceptor methods, see {@link #getInvoker(ConcurrentMap, Method)}.
+ * <p/>
+ * Generation can be turned off with the system property
+ * {@value #OPENEJB_INVOKER_BYTECODE}.
+ *
+ * @version $Rev$ $Date$
+ */
+public class MethodInvokerFactory implements Opcodes {
+
+    public static final String OPENEJB_INVOKER_BYTECODE = "openejb.invoker.bytecode";
+
+    private static final Logger logger = Logger.getInstance(LogCategory.OPENEJB, MethodInvokerFactory.class);
+
+    private static final String INVOKER_NAME = Type.getInternalName(MethodInvoker.class);
+    private static final String INVOKE_DESCRIPTOR = "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;";
+
+    /**
+     * Constant of the invoker class holding the descriptor of its method,
+     * tells overloads apart should the hashes in their names collide
+     */
+    private static final String DESCRIPTOR_FIELD = "METHOD_DESCRIPTOR";
+
+    /**
+     * Returns the invoker kept in the given map, creating it on the first call
+     * for the method.
+     *
+     * @param invokers the invokers of the owner, BeanContext or InterceptorData
+     */
+    public static MethodInvoker getInvoker(final ConcurrentMap<Method, MethodInvoker> invokers, final Method method) {
+        MethodInvoker invoker = invokers.get(method);
+        if (invoker == null) {
+            invoker = getInvoker(method);
+            final MethodInvoker existing = invokers.putIfAbsent(method, invoker);
+            if (existing != null) invoker = existing;
+        }
+        return invoker;
+    }
+
+    /**
+     * Creates a new invoker, loading or generating its class when possible.
+     * Callers keep the result, see {@link #getInvoker(ConcurrentMap, Method)}.
+     */
+    public static MethodInvoker getInvoker(final Method method) {
+        if (method == null) throw new NullPointerException("method is null");
+
+        if (!SystemInstance.get().getOptions().get(OPENEJB_INVOKER_BYTECODE, true) || !canGenerate(method)) {
+            return new ReflectionInvoker(method);
+        }
+
+        try {
+            final Class<?> invokerClass = getInvokerClass(method);
+            if (invokerClass != null) {
+                return (MethodInvoker) invokerClass.newInstance();
+            }
+        } catch (Throwable e) {
+            // NoClassDefFoundError, SecurityException on sealed or signed packages, ...
+            logger.debug("Cannot generate an invoker for " + method + ", using reflection: " + e);
+        }
+        return new ReflectionInvoker(method);
+    }
+
+    /**
+     * @return the invoker class of the method, loaded from the declaring class
+     * loader or generated into it, null if the name is taken by another method
+     */
+    private static Class<?> getInvokerClass(final Method method) throws Exception {
+        final Class<?> declaringClass = method.getDeclaringClass();
+        final ClassLoader loader = declaringClass.getClassLoader();
+        final String descriptor = Type.getMethodDescriptor(method);
+        final String invokerName = declaringClass.getName() + "$$Invoker$" + method.getName() + "$" + Integer.toHexString(descriptor.hashCode());
+
+        Class<?> invokerClass = load(loader, invokerName);
+        if (invokerClass == null) {
+            synchronized (MethodInvokerFactory.class) { // it can be done by concurrent threads
+                invokerClass = load(loader, invokerName);
+                if (invokerClass == null) {
+                    final byte[] bytes = generateInvoker(method, invokerName.replace('.', '/'));
+                    invokerClass = LocalBeanProxyFactory.Unsafe.defineClass(declaringClass, invokerName, bytes, loader);
+                }
+            }
+        }
+
+        if (!descriptor.equals(invokerClass.getField(DESCRIPTOR_FIELD).get(null))) {
+            return null;
+        }
+        return invokerClass;
+    }
+
+    private static Class<?> load(final ClassLoader loader, final String name) {
+        try {
+            return loader.loadClass(name);
+        } catch (Exception e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Calls the method through {@link Method#invoke}, unwrapping the exceptions
+     * it throws.  Nothing is generated, so it can be created on the fly.
+     */
+    public static MethodInvoker getReflectionInvoker(final Method method) {
+        if (method == null) throw new NullPointerException("method is null");
+        return new ReflectionInvoker(method);
+    }
+
+    private static boolean canGenerate(final Method method) {
+        if (method.getDeclaringClass().getClassLoader() == null) return false;
+
+        final int modifiers = method.getModifiers();
+        if (Modifier.isPrivate(modifiers) || Modifier.isStatic(modifiers)) return false;
+
+        final Class<?> declaringClass = method.getDeclaringClass();
+        if (declaringClass.getName().startsWith("java.")) return false;
+
+        for (final Class<?> type : method.getParameterTypes()) {
+            if (!isVisible(type, declaringClass)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The invoker casts its arguments, so their types have to be accessible
+     * from the package of the declaring class.  At the bytecode level a nested
+     * class is public if it was declared public or protected.
+     */
+    private static boolean isVisible(Class<?> type, final Class<?> from) {
+        while (type.isArray()) type = type.getComponentType();
+        if (type.isPrimitive()) return true;
+
+        final int modifiers = type.getModifiers();
+        if (Modifier.isPublic(modifiers) || Modifier.isProtected(modifiers)) return true;
+
+        return type.getClassLoader() == from.getClassLoader() && packageOf(type).equals(packageOf(from));
+    }
+
+    private static String packageOf(final Class<?> type) {
+        final String name = type.getName();
+        final int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(0, dot);
+    }
+
+    static byte[] generateInvoker(final Method method, final String invokerName) {
+        final Class<?> declaringClass = method.getDeclaringClass();
+        final String declaringName = Type.getInternalName(declaringClass);
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        final Class<?> returnType = method.getReturnType();
+
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_5, ACC_PUBLIC + ACC_SUPER + ACC_FINAL + ACC_SYNTHETIC, invokerName, null, INVOKER_NAME, null);
+
+        cw.visitField(ACC_PUBLIC + ACC_STATIC + ACC_FINAL, DESCRIPTOR_FIELD, "Ljava/lang/String;", null, Type.getMethodDescriptor(method)).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, INVOKER_NAME, "<init>", "()V");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // return ((<declaringClass>) target).<method>((<type0>) args[0], ...);
+        mv = cw.visitMethod(ACC_PUBLIC, "invoke", INVOKE_DESCRIPTOR, null, new String[]{"java/lang/Exception"});
+        mv.visitCode();
+
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitTypeInsn(CHECKCAST, declaringName);
+
+        for (int i = 0; i < parameterTypes.length; i++) {
+            final Class<?> parameterType = parameterTypes[i];
+
+            mv.visitVarInsn(ALOAD, 2);
+            pushInt(mv, i);
+            mv.visitInsn(AALOAD);
+
+            if (parameterType.isPrimitive()) {
+                final Type wrapper = Type.getType(wrapperOf(parameterType));
+                mv.visitTypeInsn(CHECKCAST, wrapper.getInternalName());
+                mv.visitMethodInsn(INVOKEVIRTUAL, wrapper.getInternalName(), parameterType.getName() + "Value", "()" + Type.getDescriptor(parameterType));
+            } else if (parameterType != Object.class) {
+                mv.visitTypeInsn(CHECKCAST, Type.getInternalName(parameterType));
+            }
+        }
+
+        if (declaringClass.isInterface()) {
+            mv.visitMethodInsn(INVOKEINTERFACE, declaringName, method.getName(), Type.getMethodDescriptor(method));
+        } else {
+            mv.visitMethodInsn(INVOKEVIRTUAL, declaringName, method.getName(), Type.getMethodDescriptor(method));
+        }
+
+        if (returnType == Void.TYPE) {
+            mv.visitInsn(ACONST_NULL);
+        } else if (returnType.isPrimitive()) {
+            final Type wrapper = Type.getType(wrapperOf(returnType));
+            mv.visitMethodInsn(INVOKESTATIC, wrapper.getInternalName(), "valueOf", "(" + Type.getDescriptor(returnType) + ")" + wrapper.getDescriptor());
+        }
+        mv.visitInsn(ARETURN);
+
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static Class<?> wrapperOf(final Class<?> type) {
+        if (Integer.TYPE.equals(type)) {
+            return Integer.class;
+        } else if (Boolean.TYPE.equals(type)) {
+            return Boolean.class;
+        } else if (Character.TYPE.equals(type)) {
+            return Character.class;
+        } else if (Byte.TYPE.equals(type)) {
+            return Byte.class;
+        } else if (Short.TYPE.equals(type)) {
+            return Short.class;
+        } else if (Float.TYPE.equals(type)) {
+            return Float.class;
+        } else if (Long.TYPE.equals(type)) {
+            return Long.class;
+        } else if (Double.TYPE.equals(type)) {
+            return Double.class;
+        }
+
+        throw new IllegalStateException("Type: " + type.getName() + " is not a primitive type");
+    }
+
+    private static void pushInt(final MethodVisitor mv, final int i) {
+        if (i <= 5) {
+            mv.visitInsn(ICONST_0 + i);
+        } else if (i <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, i);
+        } else {
+            mv.visitIntInsn(SIPUSH, i);
+        }
+    }
+
+    /**
+     * Used when no invoker can be generated for the method.
+     */
+    static class ReflectionInvoker extends MethodInvoker {
+        private final Method method;
+
+        ReflectionInvoker(final Method method) {
+            this.method = method;
+        }
+
+        public Object invoke(final Object target, final Object[] args) throws Exception {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw unwrap(e);
+            }
+        }
+
+        /**
+         * @param e the invocation target exception of a reflection method invoke
+         * @return the cause of the exception
+         * @throws AssertionError if the cause is not an Exception or Error.
+         */
+        private static Exception unwrap(final InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause == null) {
+                return e;
+            } else if (cause instanceof Exception) {
+                return (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new AssertionError(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb;
+
+import junit.framework.TestCase;
+import org.apache.openejb.assembler.classic.Assembler;
+import org.apache.openejb.assembler.classic.ProxyFactoryInfo;
+import org.apache.openejb.assembler.classic.SecurityServiceInfo;
+import org.apache.openejb.assembler.classic.SingletonSessionContainerInfo;
+import org.apache.openejb.assembler.classic.TransactionServiceInfo;
+import org.apache.openejb.config.ConfigurationFactory;
+import org.apache.openejb.core.interceptor.InterceptorData;
+import org.apache.openejb.core.ivm.naming.InitContextFactory;
+import org.apache.openejb.core.transaction.TransactionType;
+import org.apache.openejb.jee.EjbJar;
+import org.apache.openejb.jee.SingletonBean;
+import org.apache.openejb.loader.SystemInstance;
+import org.apache.openejb.spi.ContainerSystem;
+import org.apache.openejb.util.Duration;
+
+import javax.ejb.AccessTimeout;
+import javax.ejb.Asynchronous;
+import javax.ejb.Local;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptors;
+import javax.interceptor.InvocationContext;
+import javax.naming.InitialContext;
+import javax.security.jacc.EJBMethodPermission;
+import java.lang.reflect.Method;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class InvocationDescriptorTest extends TestCase {
+
+    private BeanContext beanContext;
+
+    protected void setUp() throws Exception {
+        System.setProperty(javax.naming.Context.INITIAL_CONTEXT_FACTORY, InitContextFactory.class.getName());
+
+        final ConfigurationFactory config = new ConfigurationFactory();
+        final Assembler assembler = new Assembler();
+
+        assembler.createProxyFactory(config.configureService(ProxyFactoryInfo.class));
+        assembler.createTransactionManager(config.configureService(TransactionServiceInfo.class));
+        assembler.createSecurityService(config.configureService(SecurityServiceInfo.class));
+        assembler.createContainer(config.configureService(SingletonSessionContainerInfo.class));
+
+        final EjbJar ejbJar = new EjbJar();
+        ejbJar.addEnterpriseBean(new SingletonBean(WidgetBean.class));
+        assembler.createApplication(config.configureApplication(ejbJar));
+
+        beanContext = SystemInstance.get().getComponent(ContainerSystem.class).getBeanContext("WidgetBean");
+    }
+
+    protected void tearDown() throws Exception {
+        SystemInstance.reset();
+    }
+
+    public void testDescriptor() throws Exception {
+        final Method read = Widget.class.getMethod("read");
+        final InvocationDescriptor descriptor = beanContext.getInvocationDescriptor(read);
+
+        assertSame(descriptor, beanContext.getInvocationDescriptor(read));
+        assertEquals(WidgetBean.class.getMethod("read"), descriptor.getBeanMethod());
+        assertEquals(LockType.READ, descriptor.getLockType());
+        assertEquals(new Duration(5, TimeUnit.SECONDS), descriptor.getAccessTimeout());
+        assertEquals(TransactionType.Supports, descriptor.getTransactionType(InterfaceType.BUSINESS_LOCAL));
+        assertEquals(TransactionType.Supports, descriptor.getTransactionType(null));
+        assertFalse(descriptor.isAsynchronous());
+        assertTrue(hasInterceptor(descriptor, Audit.class));
+
+        final InvocationDescriptor write = beanContext.getInvocationDescriptor(Widget.class.getMethod("write"));
+        assertEquals(LockType.WRITE, write.getLockType());
+        assertNull(write.getAccessTimeout());
+        assertEquals(TransactionType.Required, write.getTransactionType(InterfaceType.BUSINESS_LOCAL));
+        assertTrue(write.isAsynchronous());
+        assertFalse(hasInterceptor(write, Audit.class));
+
+        // matches what the BeanContext answers method by method
+        assertEquals(beanContext.getTransactionType(read, InterfaceType.BUSINESS_LOCAL), descriptor.getTransactionType(InterfaceType.BUSINESS_LOCAL));
+        assertEquals(beanContext.getConcurrencyAttribute(descriptor.getBeanMethod()), descriptor.getLockType());
+        assertEquals(beanContext.getMethodInterceptors(descriptor.getBeanMethod()), descriptor.getInterceptors());
+
+        assertEquals(new EJBMethodPermission(beanContext.getEjbName(), "Local", read), descriptor.getPermission(InterfaceType.BUSINESS_LOCAL));
+        assertEquals(new EJBMethodPermission(beanContext.getEjbName(), null, read), descriptor.getPermission(InterfaceType.LOCALBEAN));
+        assertSame(descriptor.getPermission(null), descriptor.getPermission(null));
+
+        try {
+            descriptor.getInterceptors().clear();
+            fail("the interceptors are read only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    private static boolean hasInterceptor(final InvocationDescriptor descriptor, final Class<?> interceptor) {
+        for (final InterceptorData data : descriptor.getInterceptors()) {
+            if (data.getInterceptorClass() == interceptor) return true;
+        }
+        return false;
+    }
+
+    public void testMetadataChanges() throws Exception {
+        final Method read = Widget.class.getMethod("read");
+        final InvocationDescriptor descriptor = beanContext.getInvocationDescriptor(read);
+
+        beanContext.setMethodTransactionAttribute(WidgetBean.class.getMethod("read"), TransactionType.Mandatory);
+
+        final InvocationDescriptor changed = beanContext.getInvocationDescriptor(read);
+        assertNotSame(descriptor, changed);
+        assertEquals(TransactionType.Mandatory, changed.getTransactionType(InterfaceType.BUSINESS_LOCAL));
+    }
+
+    public void testInvocation() throws Exception {
+        final Widget widget = (Widget) new InitialContext().lookup("WidgetBeanLocal");
+        assertEquals("audited:read", widget.read());
+    }
+
+    @Local
+    public static interface Widget {
+        String read();
+
+        Future<String> write();
+    }
+
+    @Lock(LockType.READ)
+    public static class WidgetBean implements Widget {
+
+        @AccessTimeout(value = 5, unit = TimeUnit.SECONDS)
+        @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+        @Interceptors(Audit.class)
+        public String read() {
+            return "read";
+        }
+
+        @Lock(LockType.WRITE)
+        @Asynchronous
+        public Future<String> write() {
+            return null;
+        }
+    }
+
+    public static class Audit {
+        @AroundInvoke
+        public Object invoke(final InvocationContext context) throws Exception {
+            return "audited:" + context.proceed();
+        }
+    }
+}
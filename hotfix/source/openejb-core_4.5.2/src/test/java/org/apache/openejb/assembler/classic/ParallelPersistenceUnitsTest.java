@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.assembler.classic;
+
+import org.apache.openejb.OpenEJBException;
+import org.apache.openejb.jee.jpa.unit.Persistence;
+import org.apache.openejb.jee.jpa.unit.PersistenceUnit;
+import org.apache.openejb.junit.ApplicationComposer;
+import org.apache.openejb.testing.Configuration;
+import org.apache.openejb.testing.Module;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(ApplicationComposer.class)
+public class ParallelPersistenceUnitsTest {
+    @javax.persistence.PersistenceUnit(unitName = "unit-a")
+    private EntityManagerFactory a;
+
+    @javax.persistence.PersistenceUnit(unitName = "unit-b")
+    private EntityManagerFactory b;
+
+    @javax.persistence.PersistenceUnit(unitName = "unit-c")
+    private EntityManagerFactory c;
+
+    @javax.persistence.PersistenceUnit(unitName = "deferred")
+    private EntityManagerFactory deferred;
+
+    @Test
+    public void unitsAreUsable() {
+        for (EntityManagerFactory emf : new EntityManagerFactory[]{a, b, c}) {
+            assertNotNull(((ReloadableEntityManagerFactory) emf).getDelegate());
+            select(emf);
+        }
+    }
+
+    @Test
+    public void deferredInit() {
+        final ReloadableEntityManagerFactory remf = (ReloadableEntityManagerFactory) deferred;
+        assertNull(remf.getDelegate());
+        assertTrue(remf.isOpen());
+
+        select(deferred);
+        assertNotNull(remf.getDelegate());
+    }
+
+    @Test
+    public void firstFailingUnitIsReported() throws Exception {
+        final List<PersistenceUnitInfo> infos = new ArrayList<PersistenceUnitInfo>();
+        for (int i = 0; i < 6; i++) {
+            final PersistenceUnitInfo info = new PersistenceUnitInfo();
+            info.id = "missing-" + i;
+            info.name = "missing-" + i;
+            info.jtaDataSource = "NoSuchDataSource" + i;
+            infos.add(info);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            try {
+                new PersistenceBuilder(null).createEntityManagerFactories(infos, getClass().getClassLoader());
+                fail("data sources do not exist");
+            } catch (OpenEJBException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("'missing-0'"));
+            }
+        }
+    }
+
+    private static void select(final EntityManagerFactory emf) {
+        final EntityManager em = emf.createEntityManager();
+        try {
+            assertEquals(0, em.createQuery("select e from ParallelPersistenceUnitsTest$Item e").getResultList().size());
+        } finally {
+            em.close();
+        }
+    }
+
+    @Configuration
+    public Properties config() {
+        final Properties p = new Properties();
+        p.put(PersistenceBuilder.OPENEJB_JPA_BOOTSTRAP_THREADS, "4");
+        p.put("ParallelPersistenceUnitsTest", "new://Resource?type=DataSource");
+        p.put("ParallelPersistenceUnitsTest.JdbcDriver", "org.hsqldb.jdbcDriver");
+        p.put("ParallelPersistenceUnitsTest.JdbcUrl", "jdbc:hsqldb:mem:ParallelPersistenceUnitsTest");
+        return p;
+    }
+
+    @Module
+    public Persistence persistence() {
+        final Persistence persistence = new Persistence(unit("unit-a"), unit("unit-b"), unit("unit-c"), unit("deferred"));
+        persistence.getPersistenceUnit().get(3).setProperty(PersistenceBuilder.OPENEJB_JPA_DEFERRED_INIT, "true");
+        persistence.setVersion("2.0");
+        return persistence;
+    }
+
+    private static PersistenceUnit unit(final String name) {
+        final PersistenceUnit unit = new PersistenceUnit(name);
+        unit.addClass(Item.class);
+        unit.setProperty("openjpa.jdbc.SynchronizeMappings", "buildSchema(ForeignKeys=true)");
+        unit.getProperties().setProperty("openjpa.RuntimeUnenhancedClasses", "supported");
+        unit.setExcludeUnlistedClasses(true);
+        return unit;
+    }
+
+    @Entity
+    public static class Item {
+        @Id
+        @GeneratedValue
+        private long id;
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(final long id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.async;
+
+import junit.framework.TestCase;
+import org.apache.openejb.core.ThreadContext;
+import org.apache.openejb.loader.Options;
+import org.apache.openejb.util.DaemonThreadFactory;
+import org.apache.openejb.util.ExecutorBuilder;
+import org.apache.openejb.util.executor.ThreadPerTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class AsynchronousPoolTest extends TestCase {
+
+    public void testMaxConcurrency() throws Throwable {
+        final ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor(new DaemonThreadFactory("test"), 2);
+        final AsynchronousPool pool = new AsynchronousPool(executor);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        final List<Future> futures = new ArrayList<Future>();
+        for (int i = 0; i < 6; i++) {
+            futures.add((Future) pool.invoke(new Callable<Object>() {
+                public Object call() throws Exception {
+                    final int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    release.await();
+                    running.decrementAndGet();
+                    return null;
+                }
+            }, false));
+        }
+
+        waitFor(executor, 2, 4);
+        assertEquals(2, running.get());
+
+        release.countDown();
+        for (final Future future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(2, maxRunning.get());
+    }
+
+    public void testCancelThreadPerTask() throws Throwable {
+        final ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor(new DaemonThreadFactory("test"), 1);
+        assertCancel(new AsynchronousPool(executor));
+    }
+
+    public void testCancelThreadPool() throws Throwable {
+        final Properties properties = new Properties();
+        properties.setProperty("AsynchronousPool.CorePoolSize", "1");
+        final ThreadPoolExecutor executor = new ExecutorBuilder().prefix("AsynchronousPool").build(new Options(properties));
+
+        assertCancel(new AsynchronousPool(executor));
+    }
+
+    /**
+     * A cancelled invocation leaves the bounded queue, the next one
+     * takes its place instead of being rejected.
+     */
+    public void testCancelFreesQueue() throws Throwable {
+        final Properties properties = new Properties();
+        properties.setProperty("AsynchronousPool.CorePoolSize", "1");
+        properties.setProperty("AsynchronousPool.QueueSize", "1");
+        properties.setProperty("AsynchronousPool.OfferTimeout", "100 milliseconds");
+        final ThreadPoolExecutor executor = new ExecutorBuilder().prefix("AsynchronousPool").build(new Options(properties));
+        final AsynchronousPool pool = new AsynchronousPool(executor);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Object> blocking = new Callable<Object>() {
+            public Object call() throws Exception {
+                started.countDown();
+                release.await();
+                return null;
+            }
+        };
+        final Callable<Object> noop = new Callable<Object>() {
+            public Object call() throws Exception {
+                return null;
+            }
+        };
+
+        final Future first = (Future) pool.invoke(blocking, false);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        final Future second = (Future) pool.invoke(noop, false);
+        assertEquals(1, executor.getQueue().size());
+        assertTrue(second.cancel(false));
+        assertEquals(0, executor.getQueue().size());
+
+        final Future third = (Future) pool.invoke(noop, false);
+
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        third.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+    }
+
+    /**
+     * Only one invocation can run at a time.  The second one can be
+     * cancelled before it is dispatched, the running one cannot but
+     * sees the cancel request through its SessionContext.
+     */
+    private void assertCancel(final AsynchronousPool pool) throws Throwable {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean cancelSeen = new AtomicBoolean();
+        final AtomicBoolean secondRan = new AtomicBoolean();
+
+        final Future first = (Future) pool.invoke(new Callable<Object>() {
+            public Object call() throws Exception {
+                started.countDown();
+                release.await();
+                cancelSeen.set(ThreadContext.isAsynchronousCancelled());
+                return null;
+            }
+        }, false);
+
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        final Future second = (Future) pool.invoke(new Callable<Object>() {
+            public Object call() throws Exception {
+                secondRan.set(true);
+                return null;
+            }
+        }, false);
+
+        assertTrue(second.cancel(false));
+        assertTrue(second.isCancelled());
+        assertTrue(second.cancel(false));
+        try {
+            second.get();
+            fail("CancellationException expected");
+        } catch (CancellationException e) {
+            // expected
+        }
+
+        assertFalse(first.cancel(true));
+        assertFalse(first.isCancelled());
+
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        assertTrue(first.isDone());
+        assertTrue(cancelSeen.get());
+
+        // give the cancelled invocation a chance to be picked up
+        final Future third = (Future) pool.invoke(new Callable<Object>() {
+            public Object call() throws Exception {
+                return null;
+            }
+        }, false);
+        third.get(10, TimeUnit.SECONDS);
+        assertFalse(secondRan.get());
+    }
+
+    private static void waitFor(final ThreadPerTaskExecutor executor, final int active, final int waiting) throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < timeout) {
+            if (executor.getActiveCount() == active && executor.getWaitingCount() == waiting) return;
+            Thread.sleep(10);
+        }
+        fail("active=" + executor.getActiveCount() + ", waiting=" + executor.getWaitingCount());
+    }
+
+    /**
+     * 10000 outstanding invocations that each block for 5ms, with the
+     * default thread pool and with a thread per invocation (virtual
+     * threads when the JVM has them).  Not a test, run it by hand.
+     */
+    public void _testSpeed() throws Throwable {
+        final int calls = 10000;
+
+        final ThreadPoolExecutor threadPool = new ExecutorBuilder()
+                .prefix("AsynchronousPool")
+                .size(3)
+                .threadFactory(new DaemonThreadFactory("@Asynchronous"))
+                .build(new Options(new Properties()));
+
+        ThreadFactory threadFactory = ThreadPerTaskExecutor.virtualThreadFactory("@Asynchronous - ");
+        final String threads = threadFactory != null ? "virtual" : "platform";
+        if (threadFactory == null) threadFactory = new DaemonThreadFactory("@Asynchronous");
+
+        final long pooled = speed(new AsynchronousPool(threadPool), calls);
+        final long perTask = speed(new AsynchronousPool(new ThreadPerTaskExecutor(threadFactory, 1000)), calls);
+
+        fail(String.format("%d calls: thread pool %d calls/s, %s thread per call %d calls/s", calls, pooled, threads, perTask));
+    }
+
+    private static long speed(final AsynchronousPool pool, final int calls) throws Throwable {
+        final Callable<Object> callable = new Callable<Object>() {
+            public Object call() throws Exception {
+                Thread.sleep(5);
+                return null;
+            }
+        };
+
+        final long start = System.nanoTime();
+
+        final List<Future> futures = new ArrayList<Future>(calls);
+        for (int i = 0; i < calls; i++) {
+            futures.add((Future) pool.invoke(callable, false));
+        }
+        for (final Future future : futures) {
+            future.get();
+        }
+
+        final long elapsed = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return calls * 1000L / elapsed;
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core;
+
+import junit.framework.TestCase;
+import org.apache.geronimo.transaction.manager.GeronimoTransactionManager;
+import org.apache.openejb.assembler.classic.Assembler;
+import org.apache.openejb.assembler.classic.ProxyFactoryInfo;
+import org.apache.openejb.assembler.classic.SecurityServiceInfo;
+import org.apache.openejb.assembler.classic.SingletonSessionContainerInfo;
+import org.apache.openejb.assembler.classic.StatefulSessionContainerInfo;
+import org.apache.openejb.assembler.classic.StatelessSessionContainerInfo;
+import org.apache.openejb.assembler.classic.TransactionServiceInfo;
+import org.apache.openejb.config.ConfigurationFactory;
+import org.apache.openejb.core.interceptor.InterceptorData;
+import org.apache.openejb.core.interceptor.InterceptorStack;
+import org.apache.openejb.core.ivm.naming.InitContextFactory;
+import org.apache.openejb.core.transaction.JtaTransactionPolicy;
+import org.apache.openejb.core.transaction.TxRequired;
+import org.apache.openejb.core.transaction.TxSupports;
+import org.apache.openejb.jee.EjbJar;
+import org.apache.openejb.jee.SingletonBean;
+import org.apache.openejb.jee.StatefulBean;
+import org.apache.openejb.jee.StatelessBean;
+import org.apache.openejb.loader.SystemInstance;
+
+import javax.ejb.Local;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Remote;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.InvocationContext;
+import javax.naming.InitialContext;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Measures the cost of a business method call along the EJB invocation
+ * path: the proxy handler with and without the intra-vm copy, the
+ * stateless, singleton (READ and WRITE lock) and stateful containers,
+ * the interceptor stack with 0, 1 and 5 interceptors and the Required
+ * and Supports transaction policies.
+ * <p/>
+ * {@link #test()} only checks that every scenario runs.  {@link #testSpeed()}
+ * measures them when run with -Dopenejb.invocation-speed=true and fails if a
+ * scenario is slower than in invocation-speed.properties, next to this class,
+ * by more than -Dopenejb.invocation-speed.tolerance percent (50 by default).
+ * The baseline depends on the machine, record a new one with
+ * -Dopenejb.invocation-speed.output=file before comparing.
+ *
+ * @version $Rev$ $Date$
+ */
+public class InvocationSpeedTest extends TestCase {
+
+    private static final String BASELINE = "invocation-speed.properties";
+
+    private final Map<String, Scenario> scenarios = new LinkedHashMap<String, Scenario>();
+
+    public void test() throws Exception {
+        for (final Map.Entry<String, Scenario> entry : scenarios.entrySet()) {
+            for (int i = 0; i < 10; i++) {
+                entry.getValue().run();
+            }
+        }
+    }
+
+    public void testSpeed() throws Exception {
+        if (!Boolean.getBoolean("openejb.invocation-speed")) return;
+
+        final Properties baseline = new Properties();
+        final InputStream in = getClass().getResourceAsStream(BASELINE);
+        if (in != null) {
+            try {
+                baseline.load(in);
+            } finally {
+                in.close();
+            }
+        }
+
+        final int tolerance = Integer.getInteger("openejb.invocation-speed.tolerance", 50);
+        final Properties results = new Properties();
+        final StringBuilder sb = new StringBuilder();
+        final List<String> slower = new ArrayList<String>();
+
+        // warm up everything first so the JIT sees all the paths before we measure
+        for (final Scenario scenario : scenarios.values()) {
+            run(scenario, 50000);
+        }
+
+        final Map<String, Long> best = measure(scenarios);
+        for (final Map.Entry<String, Long> entry : best.entrySet()) {
+            final String name = entry.getKey();
+            final long nanos = entry.getValue();
+            results.setProperty(name, Long.toString(nanos));
+
+            sb.append(String.format("%-30s %8d ns/call", name, nanos));
+
+            final String expected = baseline.getProperty(name);
+            if (expected != null) {
+                final long base = Long.parseLong(expected);
+                final double change = (nanos - base) * 100.0 / base;
+                sb.append(String.format("  baseline %8d ns/call  %+6.1f%%", base, change));
+                if (change > tolerance) {
+                    slower.add(name);
+                }
+            }
+            sb.append("\n");
+        }
+
+        System.out.print(sb);
+
+        final String output = System.getProperty("openejb.invocation-speed.output");
+        if (output != null) {
+            final FileOutputStream out = new FileOutputStream(output);
+            try {
+                results.store(out, "ns per call, " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+            } finally {
+                out.close();
+            }
+        } else if (!slower.isEmpty()) {
+            fail("Slower than the baseline by more than " + tolerance + "%: " + slower + "\n" + sb);
+        }
+    }
+
+    /**
+     * Runs the scenarios in turn, round after round, so a slow moment of the
+     * machine hits all of them rather than one.
+     *
+     * @return the best round of each scenario, in ns per call
+     */
+    private static Map<String, Long> measure(final Map<String, Scenario> scenarios) throws Exception {
+        final int iterations = 100000;
+
+        final Map<String, Long> best = new LinkedHashMap<String, Long>();
+        for (int round = 0; round < 10; round++) {
+            for (final Map.Entry<String, Scenario> entry : scenarios.entrySet()) {
+                final long start = System.nanoTime();
+                run(entry.getValue(), iterations);
+                final long nanos = (System.nanoTime() - start) / iterations;
+
+                final Long previous = best.get(entry.getKey());
+                if (previous == null || nanos < previous) {
+                    best.put(entry.getKey(), nanos);
+                }
+            }
+        }
+        return best;
+    }
+
+    private static void run(final Scenario scenario, final int iterations) throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            scenario.run();
+        }
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        System.setProperty(javax.naming.Context.INITIAL_CONTEXT_FACTORY, InitContextFactory.class.getName());
+
+        final ConfigurationFactory config = new ConfigurationFactory();
+        final Assembler assembler = new Assembler();
+
+        assembler.createProxyFactory(config.configureService(ProxyFactoryInfo.class));
+        assembler.createTransactionManager(config.configureService(TransactionServiceInfo.class));
+        assembler.createSecurityService(config.configureService(SecurityServiceInfo.class));
+
+        assembler.createContainer(config.configureService(StatelessSessionContainerInfo.class));
+        assembler.createContainer(config.configureService(SingletonSessionContainerInfo.class));
+        assembler.createContainer(config.configureService(StatefulSessionContainerInfo.class));
+
+        final EjbJar ejbJar = new EjbJar();
+        ejbJar.addEnterpriseBean(new StatelessBean(StatelessEcho.class));
+        ejbJar.addEnterpriseBean(new SingletonBean(SingletonEcho.class));
+        ejbJar.addEnterpriseBean(new StatefulBean(StatefulEcho.class));
+
+        assembler.createApplication(config.configureApplication(ejbJar));
+
+        final InitialContext context = new InitialContext();
+        final Echo statelessLocal = (Echo) context.lookup("StatelessEchoLocal");
+        final RemoteEcho statelessRemote = (RemoteEcho) context.lookup("StatelessEchoRemote");
+        final Echo singleton = (Echo) context.lookup("SingletonEchoLocal");
+        final Echo stateful = (Echo) context.lookup("StatefulEchoLocal");
+
+        final Data data = new Data("data", 42);
+
+        scenarios.put("proxy.local.nocopy", new Scenario() {
+            public void run() {
+                statelessLocal.echo(data);
+            }
+        });
+        scenarios.put("proxy.remote.copy", new Scenario() {
+            public void run() {
+                statelessRemote.echo(data);
+            }
+        });
+        scenarios.put("stateless", new Scenario() {
+            public void run() {
+                statelessLocal.ping();
+            }
+        });
+        scenarios.put("singleton.read", new Scenario() {
+            public void run() {
+                singleton.ping();
+            }
+        });
+        scenarios.put("singleton.write", new Scenario() {
+            public void run() {
+                singleton.echo(data);
+            }
+        });
+        scenarios.put("stateful", new Scenario() {
+            public void run() {
+                stateful.ping();
+            }
+        });
+
+        final Method ping = Target.class.getMethod("ping");
+        final Target target = new Target();
+        scenarios.put("interceptors.0", new InterceptorScenario(target, ping, 0));
+        scenarios.put("interceptors.1", new InterceptorScenario(target, ping, 1));
+        scenarios.put("interceptors.5", new InterceptorScenario(target, ping, 5));
+
+        final GeronimoTransactionManager transactionManager = new GeronimoTransactionManager();
+        scenarios.put("tx.required", new Scenario() {
+            public void run() throws Exception {
+                final JtaTransactionPolicy policy = new TxRequired(transactionManager);
+                policy.commit();
+            }
+        });
+        scenarios.put("tx.supports", new Scenario() {
+            public void run() throws Exception {
+                final JtaTransactionPolicy policy = new TxSupports(transactionManager);
+                policy.commit();
+            }
+        });
+    }
+
+    protected void tearDown() throws Exception {
+        scenarios.clear();
+        SystemInstance.reset();
+        super.tearDown();
+    }
+
+    private static interface Scenario {
+        void run() throws Exception;
+    }
+
+    private static class InterceptorScenario implements Scenario {
+        private final Target target;
+        private final Method method;
+        private final List<InterceptorData> datas = new ArrayList<InterceptorData>();
+        private final Map<String, Object> instances = new HashMap<String, Object>();
+
+        private InterceptorScenario(final Target target, final Method method, final int count) {
+            this.target = target;
+            this.method = method;
+
+            final Class[] classes = {One.class, Two.class, Three.class, Four.class, Five.class};
+            for (int i = 0; i < count; i++) {
+                datas.add(InterceptorData.scan(classes[i]));
+                try {
+                    instances.put(classes[i].getName(), classes[i].newInstance());
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        public void run() throws Exception {
+            new InterceptorStack(target, method, Operation.BUSINESS, datas, instances).invoke();
+        }
+    }
+
+    public static class Data implements Serializable {
+        private final String name;
+        private final int value;
+
+        public Data(final String name, final int value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    @Local
+    public static interface Echo {
+        void ping();
+
+        Data echo(Data data);
+    }
+
+    @Remote
+    public static interface RemoteEcho {
+        Data echo(Data data);
+    }
+
+    public static class StatelessEcho implements Echo, RemoteEcho {
+        public void ping() {
+        }
+
+        public Data echo(final Data data) {
+            return data;
+        }
+    }
+
+    @Lock(LockType.READ)
+    public static class SingletonEcho implements Echo {
+        public void ping() {
+        }
+
+        @Lock(LockType.WRITE)
+        public Data echo(final Data data) {
+            return data;
+        }
+    }
+
+    public static class StatefulEcho implements Echo, Serializable {
+        public void ping() {
+        }
+
+        public Data echo(final Data data) {
+            return data;
+        }
+    }
+
+    public static class Target {
+        public void ping() {
+        }
+    }
+
+    public static class One {
+        @AroundInvoke
+        public Object invoke(final InvocationContext context) throws Exception {
+            return context.proceed();
+        }
+    }
+
+    public static class Two extends One {
+    }
+
+    public static class Three extends One {
+    }
+
+    public static class Four extends One {
+    }
+
+    public static class Five extends One {
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.ivm;
+
+import junit.framework.TestCase;
+
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class FastIntraVmCopierTest extends TestCase {
+
+    private final IntraVmCopier copier = new FastIntraVmCopier();
+
+    public void testImmutables() throws Exception {
+        for (final Object o : new Object[]{"string", 1, 2L, (short) 3, (byte) 4, 'c', true, 1.5f, 2.5d, new BigDecimal("1.5"), TimeUnit.SECONDS, String.class}) {
+            assertSame(o, copy(o));
+        }
+    }
+
+    public void testArrays() throws Exception {
+        final int[] ints = {1, 2, 3};
+        final int[] intsCopy = (int[]) copy(ints);
+        assertNotSame(ints, intsCopy);
+        assertTrue(Arrays.equals(ints, intsCopy));
+
+        final Date[] dates = {new Date(1), new Date(2)};
+        final Date[] datesCopy = (Date[]) copy(dates);
+        assertNotSame(dates, datesCopy);
+        assertNotSame(dates[0], datesCopy[0]);
+        assertEquals(dates[1], datesCopy[1]);
+    }
+
+    public void testCollections() throws Exception {
+        final Date date = new Date();
+        final List<Object> list = new ArrayList<Object>();
+        list.add("a");
+        list.add(date);
+        list.add(date);
+
+        final Map<String, Object> map = new HashMap<String, Object>();
+        map.put("list", list);
+        map.put("set", new TreeSet<String>(Arrays.asList("x", "y")));
+
+        final Map<String, Object> copy = (Map<String, Object>) copy(map);
+        assertNotSame(map, copy);
+        assertEquals(map, copy);
+
+        final List<Object> listCopy = (List<Object>) copy.get("list");
+        assertNotSame(list, listCopy);
+        assertSame(list.get(0), listCopy.get(0));
+        assertNotSame(date, listCopy.get(1));
+
+        // shared references stay shared
+        assertSame(listCopy.get(1), listCopy.get(2));
+    }
+
+    public void testUnknownTypesAreSerialized() throws Exception {
+        final Data data = new Data();
+        final List<Object> list = new ArrayList<Object>(Arrays.asList(data, data, "a"));
+
+        final List<Object> copy = (List<Object>) copy(list);
+        assertNotSame(list, copy);
+        assertNotSame(data, copy.get(0));
+        assertEquals("data", ((Data) copy.get(0)).value);
+        assertSame(copy.get(0), copy.get(1));
+
+        // subclasses of known types are not known types
+        final Date timestamp = new java.sql.Timestamp(1);
+        final Date timestampCopy = (Date) copy(timestamp);
+        assertNotSame(timestamp, timestampCopy);
+        assertEquals(java.sql.Timestamp.class, timestampCopy.getClass());
+    }
+
+    public void testNotSerializable() throws Exception {
+        try {
+            copy(Arrays.asList(new Object()));
+            fail("NotSerializableException expected");
+        } catch (NotSerializableException e) {
+            assertTrue(e.getMessage().contains(BaseEjbProxyHandler.OPENEJB_LOCALCOPY));
+        }
+    }
+
+    public void _testSpeed() throws Exception {
+        final Map<String, Object> map = new HashMap<String, Object>();
+        for (int i = 0; i < 10; i++) {
+            map.put("key" + i, new ArrayList<Object>(Arrays.asList("a", i, (long) i, new Date())));
+        }
+
+        final IntraVmCopier serialization = new SerializationIntraVmCopier();
+        final int iterations = 20000;
+
+        final StringBuilder sb = new StringBuilder();
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                serialization.copy(map);
+            }
+            final long serialized = (System.nanoTime() - start) / iterations;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                copy(map);
+            }
+            final long fast = (System.nanoTime() - start) / iterations;
+
+            sb.append(String.format("serialization %6d ns  fast %6d ns%n", serialized, fast));
+        }
+
+        fail(sb.toString());
+    }
+
+    private Object copy(final Object object) throws Exception {
+        IntraVmCopyMonitor.pre(IntraVmCopyMonitor.State.COPY);
+        try {
+            return copier.copy(object);
+        } finally {
+            IntraVmCopyMonitor.post();
+        }
+    }
+
+    public static class Data implements Serializable {
+        private String value = "data";
+    }
+}
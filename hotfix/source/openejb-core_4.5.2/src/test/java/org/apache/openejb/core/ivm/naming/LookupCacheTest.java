@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.ivm.naming;
+
+import junit.framework.TestCase;
+import org.apache.openejb.monitoring.LocalMBeanServer;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.naming.Context;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class LookupCacheTest extends TestCase {
+
+    public void testBounded() throws Exception {
+        final LookupCache cache = new LookupCache(100);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("name" + i, i, 0);
+            assertTrue(cache.size() <= 100);
+        }
+
+        // the recent entries are still there
+        assertEquals(999, cache.get("name999", 0));
+    }
+
+    public void testReferencedEntriesSurvive() throws Exception {
+        final LookupCache cache = new LookupCache(100);
+        cache.put("hot", "hot", 0);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("hot", cache.get("hot", 0));
+            cache.put("name" + i, i, 0);
+        }
+        assertEquals("hot", cache.get("hot", 0));
+    }
+
+    public void testGeneration() throws Exception {
+        final LookupCache cache = new LookupCache(100);
+        cache.put("name", "value", 1);
+
+        assertTrue(cache.contains("name", 1));
+        assertEquals("value", cache.get("name", 1));
+
+        assertFalse(cache.contains("name", 2));
+        assertNull(cache.get("name", 2));
+        assertEquals(0, cache.size());
+    }
+
+    public void testRebindIsSeen() throws Exception {
+        final IvmContext root = new IvmContext();
+        root.bind("app/module/bean", "one");
+
+        final Context module = (Context) root.lookup("app/module");
+        assertEquals("one", module.lookup("bean"));
+        assertEquals("one", module.lookup("bean"));
+
+        // changed through another context of the same tree
+        root.rebind("app/module/bean", "two");
+        assertEquals("two", module.lookup("bean"));
+
+        root.unbind("app/module/bean");
+        try {
+            module.lookup("bean");
+            fail("name should be unbound");
+        } catch (javax.naming.NameNotFoundException expected) {
+            // ok
+        }
+    }
+
+    public void testInvalidateAll() throws Exception {
+        final IvmContext federated = new IvmContext();
+        federated.bind("bean", "one");
+
+        final IvmContext context = new IvmContext();
+        context.bind("env", federated);
+        assertEquals("one", context.lookup("env/bean"));
+
+        // a change in the federated tree is not seen by the context's tree...
+        federated.rebind("bean", "two");
+        assertEquals("one", context.lookup("env/bean"));
+
+        // ...until everything is invalidated, as after an undeploy
+        LookupCache.invalidateAll();
+        assertEquals("two", context.lookup("env/bean"));
+    }
+
+    public void testStatistics() throws Exception {
+        final LookupCache.Statistics statistics = LookupCache.getStatistics();
+
+        final IvmContext context = new IvmContext();
+        context.bind("bean", "one");
+
+        final long hits = statistics.getHits();
+        final long misses = statistics.getMisses();
+
+        context.lookup("bean");
+        context.lookup("bean");
+        context.lookup("bean");
+
+        assertEquals(misses + 1, statistics.getMisses());
+        assertEquals(hits + 2, statistics.getHits());
+    }
+
+    public void testMBean() throws Exception {
+        LookupCache.register();
+        try {
+            final MBeanServer server = LocalMBeanServer.get();
+            final ObjectName name = new ObjectName("openejb.management:J2EEServer=openejb,J2EEApplication=null,j2eeType=JNDI,name=LookupCache");
+            assertTrue(server.isRegistered(name));
+
+            final IvmContext context = new IvmContext();
+            context.bind("bean", "one");
+            context.lookup("bean");
+            context.lookup("bean");
+
+            assertEquals(LookupCache.getStatistics().getHits(), server.getAttribute(name, "Hits"));
+            assertEquals(LookupCache.getStatistics().getMisses(), server.getAttribute(name, "Misses"));
+        } finally {
+            LookupCache.unregister();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.ivm.naming;
+
+import junit.framework.TestCase;
+
+import javax.naming.Context;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class NameNodeTest extends TestCase {
+
+    public void testResolvePreParsedName() throws Exception {
+        final IvmContext context = new IvmContext();
+        context.bind("comp/env/jdbc/db", "db");
+        context.bind("comp/env/jms/queue", "queue");
+
+        final ParsedName name = new ParsedName("/comp/env/jdbc/db");
+        assertEquals("db", context.mynode.resolve(name));
+
+        // the same instance can be used again
+        name.reset();
+        assertEquals("db", context.mynode.resolve(name));
+    }
+
+    public void testManySiblings() throws Exception {
+        final IvmContext context = new IvmContext();
+        for (int i = 0; i < 2000; i++) {
+            context.bind("app/bean" + i, i);
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(i, context.lookup("app/bean" + i));
+        }
+
+        final List<String> names = list(context, "app");
+        assertEquals(2000, names.size());
+        assertEquals("bean0", names.get(0));
+        assertEquals("bean1999", names.get(1999));
+    }
+
+    public void testAlreadyBound() throws Exception {
+        final IvmContext context = new IvmContext();
+        context.bind("a/b", 1);
+
+        try {
+            context.mynode.bind(new ParsedName("a/b"), 2);
+            fail("NameAlreadyBoundException expected");
+        } catch (NameAlreadyBoundException expected) {
+            // ok
+        }
+
+        try {
+            context.mynode.bind(new ParsedName("a/b/c"), 2);
+            fail("NameAlreadyBoundException expected");
+        } catch (NameAlreadyBoundException expected) {
+            // ok
+        }
+
+        try {
+            context.mynode.bind(new ParsedName("a"), 2);
+            fail("NameAlreadyBoundException expected");
+        } catch (NameAlreadyBoundException expected) {
+            // ok
+        }
+    }
+
+    public void testUnbindRemovesSubtree() throws Exception {
+        final IvmContext context = new IvmContext();
+        context.bind("global/app/one", 1);
+        context.bind("global/app/two", 2);
+        context.bind("other", 3);
+
+        context.unbind("global");
+
+        try {
+            context.lookup("global/app/one");
+            fail("name should be unbound");
+        } catch (NameNotFoundException expected) {
+            // ok
+        }
+        assertEquals(3, context.lookup("other"));
+        assertEquals(1, list(context, "").size());
+
+        // the name can be bound again
+        context.bind("global/app/one", 4);
+        assertEquals(4, context.lookup("global/app/one"));
+    }
+
+    public void testFederation() throws Exception {
+        final IvmContext federated = new IvmContext();
+        federated.bind("queue", "queue");
+        federated.bind("jdbc/db", "db");
+
+        final IvmContext context = new IvmContext();
+        context.bind("comp/env", federated);
+        context.bind("comp/env/local", "local");
+
+        assertEquals("local", context.lookup("comp/env/local"));
+        assertEquals("queue", context.lookup("comp/env/queue"));
+        assertEquals("db", context.lookup("comp/env/jdbc/db"));
+    }
+
+    public void testLookupsWhileBinding() throws Exception {
+        final IvmContext context = new IvmContext();
+        context.bind("app/fixed", "fixed");
+
+        final int threads = 4;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            final String name = "app/t" + id + "/n" + i;
+                            context.mynode.bind(new ParsedName(name), i);
+                            assertEquals(i, context.mynode.resolve(new ParsedName("/" + name)));
+                            assertEquals("fixed", context.mynode.resolve(new ParsedName("/app/fixed")));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+
+        if (failure.get() != null) throw new Exception(failure.get());
+        for (int t = 0; t < threads; t++) {
+            assertEquals(500, list(context, "app/t" + t).size());
+        }
+    }
+
+    /**
+     * Lookups in a tree of 50,000 bindings: 50 applications of 1,000 beans.
+     */
+    public void _testSpeed() throws Exception {
+        final int apps = 50;
+        final int beans = 1000;
+
+        final IvmContext context = new IvmContext();
+        final ParsedName[] names = new ParsedName[apps * beans];
+        final String[] strings = new String[apps * beans];
+
+        long start = System.nanoTime();
+        for (int a = 0; a < apps; a++) {
+            for (int b = 0; b < beans; b++) {
+                final String name = "global/app" + a + "/module/Bean" + b;
+                context.bind(name, b);
+                names[a * beans + b] = new ParsedName("/" + name);
+                strings[a * beans + b] = name;
+            }
+        }
+        final long bind = (System.nanoTime() - start) / names.length;
+
+        long resolve = Long.MAX_VALUE;
+        long lookup = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            start = System.nanoTime();
+            for (final ParsedName name : names) {
+                name.reset();
+                context.mynode.resolve(name);
+            }
+            resolve = Math.min(resolve, (System.nanoTime() - start) / names.length);
+
+            context.fastCache.clear();
+            start = System.nanoTime();
+            for (final String name : strings) {
+                context.lookup(name);
+            }
+            lookup = Math.min(lookup, (System.nanoTime() - start) / names.length);
+        }
+
+        fail(String.format("%d bindings: bind %d ns, resolve %d ns, uncached lookup %d ns", names.length, bind, resolve, lookup));
+    }
+
+    private static List<String> list(final Context context, final String name) throws Exception {
+        final List<String> names = new ArrayList<String>();
+        final NamingEnumeration<NameClassPair> enumeration = context.list(name);
+        while (enumeration.hasMore()) {
+            names.add(enumeration.next().getName());
+        }
+        return names;
+    }
+}
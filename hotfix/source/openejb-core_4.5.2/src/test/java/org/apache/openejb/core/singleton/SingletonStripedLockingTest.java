@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.singleton;
+
+import junit.framework.TestCase;
+import org.apache.openejb.BeanContext;
+import org.apache.openejb.assembler.classic.Assembler;
+import org.apache.openejb.assembler.classic.ProxyFactoryInfo;
+import org.apache.openejb.assembler.classic.SecurityServiceInfo;
+import org.apache.openejb.assembler.classic.SingletonSessionContainerInfo;
+import org.apache.openejb.assembler.classic.TransactionServiceInfo;
+import org.apache.openejb.config.ConfigurationFactory;
+import org.apache.openejb.config.EjbModule;
+import org.apache.openejb.core.ThreadContext;
+import org.apache.openejb.core.ivm.naming.InitContextFactory;
+import org.apache.openejb.jee.EjbJar;
+import org.apache.openejb.jee.SingletonBean;
+import org.apache.openejb.jee.oejb3.EjbDeployment;
+import org.apache.openejb.jee.oejb3.OpenejbJar;
+import org.apache.openejb.loader.SystemInstance;
+import org.apache.openejb.spi.ContainerSystem;
+import org.apache.openejb.util.StripedReadWriteLock;
+
+import javax.ejb.AccessTimeout;
+import javax.ejb.ConcurrentAccessTimeoutException;
+import javax.ejb.Local;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.naming.InitialContext;
+import java.lang.reflect.Field;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class SingletonStripedLockingTest extends TestCase {
+
+    private ExecutorService executor;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty(javax.naming.Context.INITIAL_CONTEXT_FACTORY, InitContextFactory.class.getName());
+        executor = Executors.newCachedThreadPool();
+    }
+
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        SystemInstance.reset();
+        super.tearDown();
+    }
+
+    public void testBeanProperty() throws Exception {
+        deploy(false);
+
+        assertTrue(lockOf("Striped") instanceof StripedReadWriteLock);
+        assertTrue(lockOf("Plain") instanceof ReentrantReadWriteLock);
+    }
+
+    public void testContainerProperty() throws Exception {
+        deploy(true);
+
+        assertTrue(lockOf("Striped") instanceof StripedReadWriteLock);
+        assertTrue(lockOf("Plain") instanceof StripedReadWriteLock);
+    }
+
+    public void testReadAndWrite() throws Exception {
+        deploy(false);
+
+        final Counter counter = (Counter) new InitialContext().lookup("StripedLocal");
+        Striped.inside = new CountDownLatch(2);
+        Striped.leave = new CountDownLatch(1);
+
+        final Future<Integer> first = read(counter);
+        final Future<Integer> second = read(counter);
+
+        // both readers are in the bean at the same time
+        assertTrue(Striped.inside.await(10, TimeUnit.SECONDS));
+
+        // while writes wait for them and give up after the AccessTimeout
+        try {
+            counter.increment();
+            fail("ConcurrentAccessTimeoutException expected");
+        } catch (ConcurrentAccessTimeoutException e) {
+            // expected
+        }
+
+        Striped.leave.countDown();
+        assertEquals(0, first.get(10, TimeUnit.SECONDS).intValue());
+        assertEquals(0, second.get(10, TimeUnit.SECONDS).intValue());
+
+        Striped.inside = new CountDownLatch(1);
+        counter.increment();
+        assertEquals(1, counter.get());
+    }
+
+    private Future<Integer> read(final Counter counter) {
+        return executor.submit(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                return counter.get();
+            }
+        });
+    }
+
+    private void deploy(final boolean containerStriped) throws Exception {
+        final ConfigurationFactory config = new ConfigurationFactory();
+        final Assembler assembler = new Assembler();
+
+        assembler.createProxyFactory(config.configureService(ProxyFactoryInfo.class));
+        assembler.createTransactionManager(config.configureService(TransactionServiceInfo.class));
+        assembler.createSecurityService(config.configureService(SecurityServiceInfo.class));
+
+        final SingletonSessionContainerInfo containerInfo = config.configureService(SingletonSessionContainerInfo.class);
+        containerInfo.properties.setProperty("StripedLocking", Boolean.toString(containerStriped));
+        assembler.createContainer(containerInfo);
+
+        final EjbModule ejbModule = new EjbModule(new EjbJar(), new OpenejbJar());
+        final SingletonBean striped = ejbModule.getEjbJar().addEnterpriseBean(new SingletonBean(Striped.class));
+        ejbModule.getEjbJar().addEnterpriseBean(new SingletonBean(Plain.class));
+
+        final EjbDeployment deployment = ejbModule.getOpenejbJar().addEjbDeployment(striped);
+        deployment.getProperties().put("StripedLocking", "true");
+
+        assembler.createApplication(config.configureApplication(ejbModule));
+    }
+
+    private static ReadWriteLock lockOf(final String deploymentId) throws Exception {
+        final BeanContext beanContext = SystemInstance.get().getComponent(ContainerSystem.class).getBeanContext(deploymentId);
+        final SingletonContainer container = (SingletonContainer) beanContext.getContainer();
+
+        final Field field = SingletonContainer.class.getDeclaredField("instanceManager");
+        field.setAccessible(true);
+        final SingletonInstanceManager instanceManager = (SingletonInstanceManager) field.get(container);
+
+        final ThreadContext callContext = new ThreadContext(beanContext, null);
+        final ThreadContext old = ThreadContext.enter(callContext);
+        try {
+            return instanceManager.getInstance(callContext).lock;
+        } finally {
+            ThreadContext.exit(old);
+        }
+    }
+
+    @Local
+    public static interface Counter {
+        int get();
+
+        void increment();
+    }
+
+    @Lock(LockType.READ)
+    @AccessTimeout(value = 100, unit = TimeUnit.MILLISECONDS)
+    public static class Striped implements Counter {
+        private static CountDownLatch inside;
+        private static CountDownLatch leave;
+
+        private int count;
+
+        public int get() {
+            inside.countDown();
+            try {
+                leave.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return count;
+        }
+
+        @Lock(LockType.WRITE)
+        public void increment() {
+            count++;
+        }
+    }
+
+    public static class Plain implements Counter {
+        private int count;
+
+        public int get() {
+            return count;
+        }
+
+        public void increment() {
+            count++;
+        }
+    }
+}
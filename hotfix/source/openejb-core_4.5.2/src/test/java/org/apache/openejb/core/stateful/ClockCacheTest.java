@@ -0,0 +1,391 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.stateful;
+
+import junit.framework.TestCase;
+import org.apache.openejb.assembler.classic.Assembler;
+import org.apache.openejb.assembler.classic.ProxyFactoryInfo;
+import org.apache.openejb.assembler.classic.SecurityServiceInfo;
+import org.apache.openejb.assembler.classic.StatefulSessionContainerInfo;
+import org.apache.openejb.assembler.classic.TransactionServiceInfo;
+import org.apache.openejb.config.ConfigurationFactory;
+import org.apache.openejb.core.ivm.naming.InitContextFactory;
+import org.apache.openejb.jee.EjbJar;
+import org.apache.openejb.jee.StatefulBean;
+import org.apache.openejb.loader.SystemInstance;
+import org.apache.openejb.util.Duration;
+
+import javax.ejb.Local;
+import javax.ejb.Remove;
+import javax.naming.InitialContext;
+import java.io.Serializable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class ClockCacheTest extends TestCase {
+
+    private final Store store = new Store();
+    private final Listener listener = new Listener();
+
+    public void testCheckOutCheckIn() throws Exception {
+        final ClockCache<String, String> cache = cache(10, 1, "-1");
+
+        cache.add("a", "A");
+        assertEquals(0, cache.getAvailable());
+
+        try {
+            cache.add("a", "A");
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        cache.checkIn("a");
+        assertEquals(1, cache.getAvailable());
+
+        assertEquals("A", cache.checkOut("a", true));
+        assertEquals(0, cache.getAvailable());
+
+        try {
+            cache.checkOut("a", true);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        cache.checkIn("a");
+        assertEquals("A", cache.remove("a"));
+        assertEquals(0, cache.getAvailable());
+        assertNull(cache.checkOut("a", true));
+        assertNull(cache.checkOut("unknown", false));
+    }
+
+    public void testCapacity() throws Exception {
+        final ClockCache<String, String> cache = cache(3, 2, "-1");
+
+        for (int i = 0; i < 10; i++) {
+            cache.add("bean" + i, "value" + i);
+            cache.checkIn("bean" + i);
+        }
+
+        assertTrue(cache.getAvailable() <= 3);
+        assertEquals(10, cache.getAvailable() + store.size());
+        assertEquals(store.size(), listener.stored.size());
+
+        // passivated beans come back
+        for (int i = 0; i < 10; i++) {
+            assertEquals("value" + i, cache.checkOut("bean" + i, true));
+        }
+        assertEquals(0, store.size());
+        assertEquals(new HashSet<String>(listener.stored), new HashSet<String>(listener.loaded));
+    }
+
+    public void testSecondChance() throws Exception {
+        final ClockCache<String, String> cache = cache(2, 1, "-1");
+
+        cache.add("a", "A");
+        cache.checkIn("a");
+        cache.add("b", "B");
+        cache.checkIn("b");
+        cache.add("c", "C");
+        cache.checkIn("c");
+
+        // one of them went, the other two are not marked as used any more
+        assertEquals(1, store.size());
+        final List<String> left = new ArrayList<String>();
+        for (final String key : new String[]{"a", "b", "c"}) {
+            if (!store.contains(key)) left.add(key);
+        }
+        final String used = left.get(0);
+        final String unused = left.get(1);
+
+        // use one again, it is spared the next time
+        cache.checkOut(used, false);
+        cache.checkIn(used);
+
+        cache.add("d", "D");
+        cache.checkIn("d");
+
+        assertEquals(2, store.size());
+        assertTrue(store.contains(unused));
+        assertFalse(store.contains(used));
+        assertEquals(used.toUpperCase(), cache.checkOut(used, false));
+    }
+
+    public void testInUseIsNotPassivated() throws Exception {
+        final ClockCache<String, String> cache = cache(1, 10, "-1");
+
+        cache.add("busy", "BUSY");
+        for (int i = 0; i < 5; i++) {
+            cache.add("bean" + i, "value" + i);
+            cache.checkIn("bean" + i);
+        }
+
+        assertFalse(store.contains("busy"));
+        assertEquals(5, cache.getAvailable() + store.size());
+
+        cache.checkIn("busy");
+        assertEquals("BUSY", cache.checkOut("busy", true));
+    }
+
+    public void testTimeOut() throws Exception {
+        final ClockCache<String, String> cache = cache(10, 1, "50 milliseconds");
+
+        cache.add("a", "A");
+        cache.checkIn("a");
+        cache.add("b", "B");
+
+        cache.processLRU();
+        assertTrue(listener.timedOut.isEmpty());
+
+        Thread.sleep(100);
+        cache.processLRU();
+
+        // b is checked out, it cannot time out
+        assertEquals(Collections.singletonList("A"), listener.timedOut);
+        assertNull(cache.checkOut("a", true));
+
+        cache.checkIn("b");
+        assertEquals("B", cache.checkOut("b", false));
+    }
+
+    public void testRemoveAll() throws Exception {
+        final ClockCache<String, String> cache = cache(10, 1, "-1");
+
+        for (int i = 0; i < 6; i++) {
+            cache.add("bean" + i, "value" + i);
+            cache.checkIn("bean" + i);
+        }
+
+        cache.removeAll(new Cache.CacheFilter<String>() {
+            public boolean matches(final String value) {
+                return value.compareTo("value3") < 0;
+            }
+        });
+
+        assertEquals(3, cache.getAvailable());
+        assertNull(cache.checkOut("bean0", true));
+        assertEquals("value4", cache.checkOut("bean4", true));
+    }
+
+    public void testConcurrency() throws Exception {
+        final ClockCache<String, String> cache = cache(20, 5, "-1");
+
+        final int threads = 8;
+        final int beans = 25;
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final String prefix = "thread" + t + "-";
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < beans; i++) {
+                            cache.add(prefix + i, prefix + i);
+                            cache.checkIn(prefix + i);
+                        }
+                        for (int round = 0; round < 200; round++) {
+                            final String key = prefix + (round % beans);
+                            if (!key.equals(cache.checkOut(key, true))) errors.incrementAndGet();
+                            cache.checkIn(key);
+                        }
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                        errors.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertEquals(0, errors.get());
+        assertEquals(threads * beans, cache.getAvailable() + store.size());
+    }
+
+    public void testContainer() throws Exception {
+        System.setProperty(javax.naming.Context.INITIAL_CONTEXT_FACTORY, InitContextFactory.class.getName());
+        try {
+            final ConfigurationFactory config = new ConfigurationFactory();
+            final Assembler assembler = new Assembler();
+
+            assembler.createProxyFactory(config.configureService(ProxyFactoryInfo.class));
+            assembler.createTransactionManager(config.configureService(TransactionServiceInfo.class));
+            assembler.createSecurityService(config.configureService(SecurityServiceInfo.class));
+
+            final StatefulSessionContainerInfo statefulContainerInfo = config.configureService(StatefulSessionContainerInfo.class);
+            statefulContainerInfo.properties.setProperty("Cache", ClockCache.class.getName());
+            statefulContainerInfo.properties.setProperty("Capacity", "2");
+            statefulContainerInfo.properties.setProperty("BulkPassivate", "1");
+            // SimplePassivater's IntraVmArtifact handles have to be read back in the
+            // order they were written, which the clock hand does not guarantee
+            statefulContainerInfo.properties.setProperty("Passivator", Store.class.getName());
+            assembler.createContainer(statefulContainerInfo);
+
+            final EjbJar ejbJar = new EjbJar();
+            ejbJar.addEnterpriseBean(new StatefulBean(CounterBean.class));
+            assembler.createApplication(config.configureApplication(ejbJar));
+
+            final InitialContext context = new InitialContext();
+            final List<Counter> counters = new ArrayList<Counter>();
+            for (int i = 0; i < 5; i++) {
+                counters.add((Counter) context.lookup("CounterBeanLocal"));
+            }
+
+            for (int round = 1; round <= 3; round++) {
+                for (final Counter counter : counters) {
+                    assertEquals(round, counter.increment());
+                }
+            }
+
+            for (final Counter counter : counters) {
+                counter.remove();
+            }
+        } finally {
+            SystemInstance.reset();
+        }
+    }
+
+    public void _testSpeed() throws Exception {
+        final StringBuilder sb = new StringBuilder();
+        for (int round = 0; round < 3; round++) {
+            final SimpleCache<String, String> simple = new SimpleCache<String, String>(listener, store, 10000, 100, new Duration(-1, TimeUnit.MILLISECONDS));
+            simple.setFrequency("60");
+            sb.append(String.format("simple %8d ops/ms  clock %8d ops/ms%n", run(simple), run(cache(10000, 100, "-1"))));
+        }
+        fail(sb.toString());
+    }
+
+    private static long run(final Cache<String, String> cache) throws Exception {
+        final int threads = Runtime.getRuntime().availableProcessors() * 2;
+        final int beans = 5000;
+        final long duration = 1000;
+
+        for (int i = 0; i < threads * beans; i++) {
+            cache.add("bean" + i, "value" + i);
+            cache.checkIn("bean" + i);
+        }
+
+        final AtomicInteger ops = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * beans;
+            new Thread() {
+                public void run() {
+                    try {
+                        final long end = System.currentTimeMillis() + duration;
+                        int count = 0;
+                        while (System.currentTimeMillis() < end) {
+                            final String key = "bean" + (offset + count % beans);
+                            cache.checkOut(key, true);
+                            cache.checkIn(key);
+                            count++;
+                        }
+                        ops.addAndGet(count);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        return ops.get() / duration;
+    }
+
+    private ClockCache<String, String> cache(final int capacity, final int bulkPassivate, final String timeOut) {
+        final ClockCache<String, String> cache = new ClockCache<String, String>(listener, store, capacity, bulkPassivate, new Duration(-1, TimeUnit.MILLISECONDS));
+        cache.setTimeOut(timeOut);
+        cache.setFrequency("60");
+        return cache;
+    }
+
+    @Local
+    public static interface Counter {
+        int increment();
+
+        @Remove
+        void remove();
+    }
+
+    public static class CounterBean implements Counter, Serializable {
+        private int count;
+
+        public int increment() {
+            return ++count;
+        }
+
+        public void remove() {
+        }
+    }
+
+    public static class Store implements PassivationStrategy {
+        private final Map<Object, Object> beans = new ConcurrentHashMap<Object, Object>();
+
+        public void init(final Properties props) {
+        }
+
+        public void passivate(final Map stateTable) {
+            beans.putAll(stateTable);
+        }
+
+        public Object activate(final Object primaryKey) {
+            return beans.remove(primaryKey);
+        }
+
+        public boolean contains(final Object key) {
+            return beans.containsKey(key);
+        }
+
+        public int size() {
+            return beans.size();
+        }
+    }
+
+    private static class Listener implements Cache.CacheListener<String> {
+        private final List<String> loaded = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> stored = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> timedOut = Collections.synchronizedList(new ArrayList<String>());
+
+        public void afterLoad(final String value) {
+            loaded.add(value);
+        }
+
+        public void beforeStore(final String value) {
+            stored.add(value);
+        }
+
+        public void timedOut(final String value) {
+            timedOut.add(value);
+        }
+    }
+}
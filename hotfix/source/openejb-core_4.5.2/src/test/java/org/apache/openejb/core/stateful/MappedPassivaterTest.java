@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.stateful;
+
+import junit.framework.TestCase;
+import org.apache.openejb.SystemException;
+import org.apache.openejb.assembler.classic.Assembler;
+import org.apache.openejb.assembler.classic.ProxyFactoryInfo;
+import org.apache.openejb.assembler.classic.SecurityServiceInfo;
+import org.apache.openejb.assembler.classic.StatefulSessionContainerInfo;
+import org.apache.openejb.assembler.classic.TransactionServiceInfo;
+import org.apache.openejb.config.ConfigurationFactory;
+import org.apache.openejb.core.ivm.naming.InitContextFactory;
+import org.apache.openejb.jee.EjbJar;
+import org.apache.openejb.jee.StatefulBean;
+import org.apache.openejb.loader.SystemInstance;
+import org.apache.openejb.monitoring.LocalMBeanServer;
+
+import javax.ejb.Local;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.naming.InitialContext;
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class MappedPassivaterTest extends TestCase {
+
+    public void testPassivateActivate() throws Exception {
+        final MappedPassivater passivater = passivater(false);
+
+        final Map<Object, Object> beans = new LinkedHashMap<Object, Object>();
+        for (int i = 0; i < 100; i++) {
+            beans.put("bean" + i, new State("bean" + i, 1000));
+        }
+        passivater.passivate(beans);
+
+        assertEquals(100, passivater.getPassivatedBeans());
+        assertEquals(1, passivater.getSegments());
+        assertTrue(passivater.getBytesWritten() > 100 * 1000);
+
+        for (int i = 0; i < 100; i++) {
+            final State state = (State) passivater.activate("bean" + i);
+            assertEquals("bean" + i, state.name);
+            assertEquals(1000, state.data.length);
+        }
+
+        // activation forgets the bean
+        assertNull(passivater.activate("bean0"));
+        assertNull(passivater.activate("unknown"));
+        assertEquals(0, passivater.getPassivatedBeans());
+        assertEquals(0, passivater.getLiveBytes());
+        assertEquals(100, passivater.getActivationTime().getCount());
+    }
+
+    public void testCompression() throws Exception {
+        final MappedPassivater plain = passivater(false);
+        final MappedPassivater compressed = passivater(true);
+
+        final Map<Object, Object> beans = new LinkedHashMap<Object, Object>();
+        beans.put("bean", new State("bean", 100000));
+
+        plain.passivate(beans);
+        compressed.passivate(beans);
+
+        assertTrue(compressed.isCompressed());
+        assertTrue(compressed.getBytesWritten() * 10 < plain.getBytesWritten());
+
+        final State state = (State) compressed.activate("bean");
+        assertEquals("bean", state.name);
+        assertEquals(100000, state.data.length);
+    }
+
+    public void testSegments() throws Exception {
+        final MappedPassivater passivater = passivater(false);
+
+        // about 1.2 segments worth of beans, written in batches like the cache does
+        final List<Object> keys = new ArrayList<Object>();
+        for (int batch = 0; batch < 12; batch++) {
+            final Map<Object, Object> beans = new LinkedHashMap<Object, Object>();
+            for (int i = 0; i < 10; i++) {
+                final String key = "bean" + batch + "-" + i;
+                beans.put(key, new State(key, 10000));
+                keys.add(key);
+            }
+            passivater.passivate(beans);
+        }
+        assertEquals(2, passivater.getSegments());
+
+        // the beans are still in the first segment, it is not compacted
+        assertEquals(0, passivater.getBytesCompacted());
+
+        // empty the first segment, a bit over a hundred beans fit in it, it is deleted
+        for (final Object key : keys.subList(0, 110)) {
+            assertNotNull(passivater.activate(key));
+        }
+        assertEquals(1, passivater.getSegments());
+
+        for (final Object key : keys.subList(110, 120)) {
+            assertEquals(key, ((State) passivater.activate(key)).name);
+        }
+    }
+
+    public void testCompaction() throws Exception {
+        final MappedPassivater passivater = passivater(false);
+
+        final List<Object> keys = new ArrayList<Object>();
+        final Map<Object, Object> beans = new LinkedHashMap<Object, Object>();
+        for (int i = 0; i < 100; i++) {
+            final String key = "bean" + i;
+            beans.put(key, new State(key, 10000));
+            keys.add(key);
+        }
+        passivater.passivate(beans);
+
+        // most of the first segment is activated again
+        for (final Object key : keys.subList(0, 90)) {
+            passivater.activate(key);
+        }
+        assertEquals(0, passivater.getBytesCompacted());
+
+        // the next batch does not fit, the first segment is compacted into the new one
+        beans.clear();
+        for (int i = 0; i < 10; i++) {
+            final String key = "other" + i;
+            beans.put(key, new State(key, 10000));
+            keys.add(key);
+        }
+        passivater.passivate(beans);
+
+        assertEquals(1, passivater.getSegments());
+        assertTrue(passivater.getBytesCompacted() > 10 * 10000);
+        assertEquals(20, passivater.getPassivatedBeans());
+
+        for (final Object key : keys.subList(90, 110)) {
+            assertEquals(key, ((State) passivater.activate(key)).name);
+        }
+    }
+
+    public void testPassivateTwice() throws Exception {
+        final MappedPassivater passivater = passivater(false);
+
+        final Map<Object, Object> beans = new LinkedHashMap<Object, Object>();
+        beans.put("k", new State("k", 100000));
+        passivater.passivate(beans);
+        beans.put("k", new State("k", 1000));
+        passivater.passivate(beans);
+        assertEquals(1, passivater.getPassivatedBeans());
+
+        // roll the segment, mostly unused it is compacted and "k" moves along
+        beans.clear();
+        beans.put("big", new State("big", 1000000));
+        passivater.passivate(beans);
+        assertEquals(1, passivater.getSegments());
+
+        assertEquals(1000, ((State) passivater.activate("k")).data.length);
+        assertNull(passivater.activate("k"));
+        assertEquals("big", ((State) passivater.activate("big")).name);
+        passivater.close();
+    }
+
+    public void testSegmentSize() throws Exception {
+        for (final String size : new String[]{"0", "2048", "4097"}) {
+            final Properties properties = new Properties();
+            properties.setProperty(MappedPassivater.SEGMENT_SIZE, size);
+            try {
+                new MappedPassivater().init(properties);
+                fail("SystemException expected for " + size);
+            } catch (SystemException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testClose() throws Exception {
+        final MappedPassivater passivater = passivater(false);
+
+        final Map<Object, Object> beans = new LinkedHashMap<Object, Object>();
+        beans.put("bean", new State("bean", 1000));
+        passivater.passivate(beans);
+        assertEquals(1, passivater.getSegments());
+
+        passivater.close();
+        assertEquals(0, passivater.getSegments());
+        assertEquals(0, passivater.getPassivatedBeans());
+        assertNull(passivater.activate("bean"));
+
+        // a new log is started
+        passivater.passivate(beans);
+        assertEquals("bean", ((State) passivater.activate("bean")).name);
+        passivater.close();
+    }
+
+    public void testNotSerializable() throws Exception {
+        final MappedPassivater passivater = passivater(false);
+
+        final Map<Object, Object> beans = new LinkedHashMap<Object, Object>();
+        beans.put("bean", new Object());
+        try {
+            passivater.passivate(beans);
+            fail("SystemException expected");
+        } catch (SystemException e) {
+            assertTrue(e.getCause() instanceof NotSerializableException);
+        }
+        assertEquals(0, passivater.getPassivatedBeans());
+    }
+
+    public void testContainer() throws Exception {
+        System.setProperty(javax.naming.Context.INITIAL_CONTEXT_FACTORY, InitContextFactory.class.getName());
+        try {
+            final ConfigurationFactory config = new ConfigurationFactory();
+            final Assembler assembler = new Assembler();
+
+            assembler.createProxyFactory(config.configureService(ProxyFactoryInfo.class));
+            assembler.createTransactionManager(config.configureService(TransactionServiceInfo.class));
+            assembler.createSecurityService(config.configureService(SecurityServiceInfo.class));
+
+            final StatefulSessionContainerInfo statefulContainerInfo = config.configureService(StatefulSessionContainerInfo.class);
+            statefulContainerInfo.properties.setProperty("Passivator", MappedPassivater.class.getName());
+            statefulContainerInfo.properties.setProperty("Capacity", "1");
+            statefulContainerInfo.properties.setProperty("BulkPassivate", "1");
+            statefulContainerInfo.properties.setProperty("Frequency", "0");
+            statefulContainerInfo.properties.setProperty("CompressPassivation", "true");
+            assembler.createContainer(statefulContainerInfo);
+
+            final EjbJar ejbJar = new EjbJar();
+            ejbJar.addEnterpriseBean(new StatefulBean(CounterBean.class));
+            assembler.createApplication(config.configureApplication(ejbJar));
+
+            final InitialContext context = new InitialContext();
+            final List<Counter> counters = new ArrayList<Counter>();
+            for (int i = 0; i < 5; i++) {
+                counters.add((Counter) context.lookup("CounterBeanLocal"));
+            }
+
+            for (int round = 1; round <= 3; round++) {
+                for (final Counter counter : counters) {
+                    assertEquals(round, counter.increment());
+                }
+            }
+
+            final MBeanServer server = LocalMBeanServer.get();
+            final Set<ObjectName> names = server.queryNames(new ObjectName("openejb.management:j2eeType=Passivation,*"), null);
+            assertEquals(1, names.size());
+
+            final ObjectName name = names.iterator().next();
+            assertEquals(true, server.getAttribute(name, "Compressed"));
+            assertTrue((Long) server.getAttribute(name, "Passivations") > 0);
+            assertTrue((Long) server.getAttribute(name, "BytesWritten") > 0);
+            assertTrue((Long) server.getAttribute(name, "ActivationTime.Count") > 0);
+
+            // destroying the container closes the passivater
+            assembler.destroy();
+            assertFalse(server.isRegistered(name));
+        } finally {
+            SystemInstance.reset();
+        }
+    }
+
+    private static MappedPassivater passivater(final boolean compress) throws SystemException {
+        final Properties properties = new Properties();
+        properties.setProperty(MappedPassivater.SEGMENT_SIZE, "1");
+        properties.setProperty(MappedPassivater.COMPRESS, Boolean.toString(compress));
+
+        final MappedPassivater passivater = new MappedPassivater();
+        passivater.init(properties);
+        return passivater;
+    }
+
+    public static class State implements Serializable {
+        private final String name;
+        private final byte[] data;
+
+        public State(final String name, final int size) {
+            this.name = name;
+            this.data = new byte[size];
+            Arrays.fill(data, (byte) name.length());
+        }
+    }
+
+    @Local
+    public static interface Counter {
+        int increment();
+    }
+
+    public static class CounterBean implements Counter, Serializable {
+        private int count;
+
+        public int increment() {
+            return ++count;
+        }
+    }
+}
@@ -87,6 +87,7 @@ public class StatelessPoolStatsTest extends TestCase {
         expectedAttributes.add(new MBeanAttributeInfo("AccessTimeouts", "long", "", true, false, false));
         expectedAttributes.add(new MBeanAttributeInfo("AccessTimeouts.Latest", "java.lang.String", "", true, false, false));
         expectedAttributes.add(new MBeanAttributeInfo("AccessTimeouts.LatestTime", "long", "", true, false, false));
+        expectedAttributes.add(new MBeanAttributeInfo("AdaptivePooling", "boolean", "", true, false, false));
         expectedAttributes.add(new MBeanAttributeInfo("Aged", "long", "", true, false, false));
         expectedAttributes.add(new MBeanAttributeInfo("Aged.Latest", "java.lang.String", "", true, false, false));
         expectedAttributes.add(new MBeanAttributeInfo("Aged.LatestTime", "long", "", true, false, false));
@@ -124,6 +125,7 @@ public class StatelessPoolStatsTest extends TestCase {
         expectedAttributes.add(new MBeanAttributeInfo("Replaced.Latest", "java.lang.String", "", true, false, false));
         expectedAttributes.add(new MBeanAttributeInfo("Replaced.LatestTime", "long", "", true, false, false));
         expectedAttributes.add(new MBeanAttributeInfo("StrictPooling", "boolean", "", true, false, false));
+        expectedAttributes.add(new MBeanAttributeInfo("StripedPooling", "boolean", "", true, false, false));
         expectedAttributes.add(new MBeanAttributeInfo("SweepInterval", "long", "", true, false, false));
         expectedAttributes.add(new MBeanAttributeInfo("Sweeps", "long", "", true, false, false));
         expectedAttributes.add(new MBeanAttributeInfo("Sweeps.Latest", "java.lang.String", "", true, false, false));
@@ -132,6 +134,7 @@ public class StatelessPoolStatsTest extends TestCase {
 
         // The hardest part, check the values of each, PoolVersion is AtomicaInteger, *.Latest are time-sensitive, so not verified.
         final Map<String, Object> expectedAttributesValue = new TreeMap<String, Object>();
+        expectedAttributesValue.put("AdaptivePooling", false);
         expectedAttributesValue.put("AccessTimeouts", (long) 0);
         expectedAttributesValue.put("Aged", (long) 0);
         expectedAttributesValue.put("AvailablePermits", 15);
@@ -158,6 +161,7 @@ public class StatelessPoolStatsTest extends TestCase {
         expectedAttributesValue.put("SweepInterval", (long) 10);
         // expectedAttributesValue.put("Sweeps", (long) 1);
         expectedAttributesValue.put("StrictPooling", true);
+        expectedAttributesValue.put("StripedPooling", false);
 
         final List<MBeanAttributeInfo> actualAttributes = new ArrayList<MBeanAttributeInfo>();
         final Map<String, Object> actualAttributesValue = new TreeMap<String, Object>();
@@ -0,0 +1,355 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.timer;
+
+import junit.framework.TestCase;
+import org.apache.geronimo.transaction.manager.GeronimoTransactionManager;
+import org.apache.openejb.BeanContext;
+import org.apache.openejb.assembler.classic.Assembler;
+import org.apache.openejb.assembler.classic.ProxyFactoryInfo;
+import org.apache.openejb.assembler.classic.ResourceInfo;
+import org.apache.openejb.assembler.classic.SecurityServiceInfo;
+import org.apache.openejb.assembler.classic.StatelessSessionContainerInfo;
+import org.apache.openejb.assembler.classic.TransactionServiceInfo;
+import org.apache.openejb.config.ConfigurationFactory;
+import org.apache.openejb.config.EjbModule;
+import org.apache.openejb.core.ivm.naming.InitContextFactory;
+import org.apache.openejb.jee.EjbJar;
+import org.apache.openejb.jee.StatelessBean;
+import org.apache.openejb.jee.oejb3.EjbDeployment;
+import org.apache.openejb.jee.oejb3.OpenejbJar;
+import org.apache.openejb.loader.SystemInstance;
+import org.apache.openejb.spi.ContainerSystem;
+import org.hsqldb.jdbc.JDBCDataSource;
+
+import javax.annotation.Resource;
+import javax.ejb.Local;
+import javax.ejb.ScheduleExpression;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.naming.InitialContext;
+import javax.transaction.TransactionManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two nodes sharing an in memory HSQLDB database.  The stores do not poll
+ * by themselves, the tests call {@link JdbcTimerStore#poll()}.
+ *
+ * @version $Rev$ $Date$
+ */
+public class JdbcTimerStoreTest extends TestCase {
+
+    private static final long LEASE = 500;
+    private static int databases;
+
+    private JDBCDataSource dataSource;
+    private TransactionManager transactionManager;
+    private JdbcTimerStore a;
+    private JdbcTimerStore b;
+
+    protected void setUp() throws Exception {
+        dataSource = new JDBCDataSource();
+        dataSource.setUrl("jdbc:hsqldb:mem:timers" + databases++);
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+
+        transactionManager = new GeronimoTransactionManager();
+        a = new JdbcTimerStore(dataSource, transactionManager, "a", LEASE, 0, 100, true);
+        b = new JdbcTimerStore(dataSource, transactionManager, "b", LEASE, 0, 100, true);
+        a.loadTimers(null, "bean");
+        b.loadTimers(null, "bean");
+    }
+
+    protected void tearDown() throws Exception {
+        a.close();
+        b.close();
+        final Connection c = dataSource.getConnection();
+        try {
+            c.prepareStatement("shutdown").execute();
+        } finally {
+            c.close();
+        }
+    }
+
+    public void testBatchedAtCommit() throws Exception {
+        transactionManager.begin();
+        final TimerData kept = create(a, "info");
+        final TimerData cancelled = create(a, "info");
+        create(a, "info");
+        a.removeTimer(cancelled.getId());
+
+        // nothing written before the commit
+        assertEquals(0, rows());
+        transactionManager.commit();
+
+        assertEquals(2, rows());
+        assertEquals(2, a.getOwnedCount());
+
+        // the lease runs from the last poll
+        a.poll();
+        assertTrue(a.canFire(kept));
+        assertFalse(a.canFire(cancelled));
+
+        a.removeTimer(kept.getId());
+        assertEquals(1, rows());
+        assertEquals(1, a.getOwnedCount());
+    }
+
+    public void testRollback() throws Exception {
+        final TimerData committed = create(a, "info");
+
+        transactionManager.begin();
+        create(a, "info");
+        a.removeTimer(committed.getId());
+        transactionManager.rollback();
+
+        assertEquals(1, rows());
+        assertEquals(1, a.getOwnedCount());
+        a.poll();
+        assertTrue(a.canFire(committed));
+    }
+
+    public void testLargeInfo() throws Exception {
+        final StringBuilder info = new StringBuilder();
+        while (info.length() < 100000) {
+            info.append("0123456789");
+        }
+
+        final TimerData timer = create(a, info.toString());
+        a.release("bean");
+
+        final Collection<TimerData> loaded = b.loadTimers(null, "bean");
+        assertEquals(1, loaded.size());
+
+        final TimerData copy = loaded.iterator().next();
+        assertEquals(timer.getId(), copy.getId());
+        assertEquals(info.toString(), copy.getInfo());
+        assertEquals(((SingleActionTimerData) timer).getExpiration(), ((SingleActionTimerData) copy).getExpiration());
+    }
+
+    public void testNonPersistent() throws Exception {
+        final TimerData timer = a.createIntervalTimer(null, "bean", null, null, new Date(), 1000, new TimerConfig("info", false));
+
+        assertEquals(0, rows());
+        assertTrue(a.canFire(timer));
+        assertSame(timer, a.getTimer("bean", timer.getId()));
+    }
+
+    public void testFailover() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            create(a, "info");
+        }
+        a.poll();
+        b.poll();
+        assertEquals(4, a.getOwnedCount());
+        assertEquals(0, b.getOwnedCount());
+
+        // a stops polling, its lease expires
+        Thread.sleep(LEASE + 100);
+        for (final TimerData timer : a.getTimers("bean")) {
+            assertFalse(a.canFire(timer));
+        }
+
+        b.poll();
+        assertEquals(4, b.getOwnedCount());
+        for (final TimerData timer : b.getTimers("bean")) {
+            assertTrue(b.canFire(timer));
+        }
+
+        // a comes back and drops what it lost
+        a.poll();
+        assertEquals(0, a.getOwnedCount());
+        assertTrue(a.getTimers("bean").isEmpty());
+    }
+
+    public void testFairShare() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            create(a, "info");
+        }
+        a.poll();
+        b.poll();
+        assertEquals(10, a.getOwnedCount());
+
+        a.poll();
+        assertEquals(5, a.getOwnedCount());
+
+        b.poll();
+        assertEquals(5, b.getOwnedCount());
+
+        // stable once balanced
+        a.poll();
+        b.poll();
+        assertEquals(5, a.getOwnedCount());
+        assertEquals(5, b.getOwnedCount());
+        assertFalse(owners().contains(null));
+    }
+
+    public void testConcurrentClaims() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            create(a, "info");
+        }
+        a.release("bean");
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (final JdbcTimerStore store : new JdbcTimerStore[]{a, b}) {
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        store.loadTimers(null, "bean");
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+        }
+        for (final Thread thread : threads) thread.start();
+        start.countDown();
+        for (final Thread thread : threads) thread.join();
+
+        assertEquals(50, a.getOwnedCount() + b.getOwnedCount());
+
+        final Set<Long> ids = new HashSet<Long>();
+        for (final TimerData timer : a.getTimers("bean")) ids.add(timer.getId());
+        for (final TimerData timer : b.getTimers("bean")) assertTrue(ids.add(timer.getId()));
+        assertEquals(50, ids.size());
+    }
+
+    public void testAutomaticTimers() throws Exception {
+        a.release("bean");
+        b.release("bean");
+
+        final ScheduleExpression schedule = new ScheduleExpression().hour("*").minute("*/5");
+        for (final JdbcTimerStore store : new JdbcTimerStore[]{a, b}) {
+            store.createCalendarTimer(null, "bean", null, getClass().getMethod("timeout"), schedule, null);
+        }
+
+        a.loadTimers(null, "bean");
+        b.loadTimers(null, "bean");
+
+        assertEquals(1, rows());
+        assertEquals(1, a.getOwnedCount());
+        assertEquals(0, b.getOwnedCount());
+
+        final TimerData timer = a.getTimers("bean").iterator().next();
+        assertEquals("*/5", ((CalendarTimerData) timer).getSchedule().getMinute());
+    }
+
+    public void testDeployment() throws Exception {
+        System.setProperty(javax.naming.Context.INITIAL_CONTEXT_FACTORY, InitContextFactory.class.getName());
+        try {
+            final ConfigurationFactory config = new ConfigurationFactory();
+            final Assembler assembler = new Assembler();
+
+            assembler.createProxyFactory(config.configureService(ProxyFactoryInfo.class));
+            assembler.createTransactionManager(config.configureService(TransactionServiceInfo.class));
+            assembler.createSecurityService(config.configureService(SecurityServiceInfo.class));
+            assembler.createContainer(config.configureService(StatelessSessionContainerInfo.class));
+
+            final org.apache.openejb.config.sys.Resource resource = new org.apache.openejb.config.sys.Resource("TimerDS", "DataSource");
+            resource.getProperties().put("JdbcDriver", "org.hsqldb.jdbcDriver");
+            resource.getProperties().put("JdbcUrl", "jdbc:hsqldb:mem:timerds");
+            assembler.createResource(config.configureService(resource, ResourceInfo.class));
+
+            final EjbModule ejbModule = new EjbModule(new EjbJar(), new OpenejbJar());
+            final StatelessBean bean = ejbModule.getEjbJar().addEnterpriseBean(new StatelessBean(PersistentBean.class));
+            final EjbDeployment deployment = ejbModule.getOpenejbJar().addEjbDeployment(bean);
+            deployment.getProperties().put(JdbcTimerStore.OPENEJB_TIMER_STORE_DATASOURCE, "TimerDS");
+
+            assembler.createApplication(config.configureApplication(ejbModule));
+
+            PersistentBean.fired = new CountDownLatch(1);
+            ((Timed) new InitialContext().lookup("PersistentBeanLocal")).schedule(100);
+            assertTrue(PersistentBean.fired.await(10, TimeUnit.SECONDS));
+
+            final JdbcTimerStore store = JdbcTimerStore.getInstance("TimerDS");
+            final BeanContext beanContext = SystemInstance.get().getComponent(ContainerSystem.class).getBeanContext("PersistentBean");
+            assertSame(store, ((EjbTimerServiceImpl) beanContext.getEjbTimerService()).getTimerStore());
+
+            // the row is deleted when the timeout transaction commits
+            for (int i = 0; i < 100 && store.getOwnedCount() > 0; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(0, store.getOwnedCount());
+            assertTrue(store.getTimers("PersistentBean").isEmpty());
+        } finally {
+            EjbTimerServiceImpl.shutdown();
+            SystemInstance.reset();
+        }
+    }
+
+    public void timeout() {
+    }
+
+    @Local
+    public static interface Timed {
+        void schedule(long delay);
+    }
+
+    public static class PersistentBean implements Timed {
+        private static CountDownLatch fired;
+
+        @Resource
+        private TimerService timerService;
+
+        public void schedule(final long delay) {
+            timerService.createSingleActionTimer(delay, new TimerConfig("persistent", true));
+        }
+
+        @Timeout
+        public void timeout() {
+            fired.countDown();
+        }
+    }
+
+    private static TimerData create(final JdbcTimerStore store, final String info) throws TimerStoreException {
+        return store.createSingleActionTimer(null, "bean", null, null, new Date(System.currentTimeMillis() + 3600000), new TimerConfig(info, true));
+    }
+
+    private int rows() throws Exception {
+        return owners().size();
+    }
+
+    private List<String> owners() throws Exception {
+        final List<String> owners = new ArrayList<String>();
+        final Connection c = dataSource.getConnection();
+        try {
+            final PreparedStatement statement = c.prepareStatement("select OWNER from OPENEJB_TIMER");
+            final ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                owners.add(rs.getString(1));
+            }
+            rs.close();
+            statement.close();
+        } finally {
+            c.close();
+        }
+        return owners;
+    }
+}
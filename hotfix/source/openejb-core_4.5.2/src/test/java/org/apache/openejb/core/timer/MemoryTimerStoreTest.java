@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.timer;
+
+import junit.framework.TestCase;
+import org.apache.geronimo.transaction.manager.GeronimoTransactionManager;
+
+import javax.transaction.TransactionManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class MemoryTimerStoreTest extends TestCase {
+
+    private TransactionManager transactionManager;
+    private MemoryTimerStore store;
+
+    protected void setUp() throws Exception {
+        transactionManager = new GeronimoTransactionManager();
+        store = new MemoryTimerStore(transactionManager);
+    }
+
+    public void testTimersPerDeployment() throws Exception {
+        final TimerData a1 = create("a");
+        final TimerData b1 = create("b");
+        final TimerData a2 = create("a");
+
+        assertEquals(ids(a1, a2), ids(store.getTimers("a")));
+        assertEquals(ids(b1), ids(store.getTimers("b")));
+        assertTrue(store.getTimers("c").isEmpty());
+
+        assertSame(b1, store.getTimer("b", b1.getId()));
+
+        store.removeTimer(a1.getId());
+        assertEquals(ids(a2), ids(store.getTimers("a")));
+        assertNull(store.getTimer("a", a1.getId()));
+    }
+
+    public void testTransactionCommit() throws Exception {
+        final TimerData committed = create("a");
+
+        transactionManager.begin();
+        final TimerData added = create("a");
+        store.removeTimer(committed.getId());
+
+        // the transaction sees its own changes...
+        assertEquals(ids(added), ids(store.getTimers("a")));
+        assertNull(store.getTimer("a", committed.getId()));
+        assertSame(added, store.getTimer("a", added.getId()));
+
+        // ...the others do not
+        assertEquals(ids(committed), ids(otherThread("a")));
+
+        transactionManager.commit();
+
+        assertEquals(ids(added), ids(store.getTimers("a")));
+        assertNull(store.getTimer("a", committed.getId()));
+    }
+
+    public void testTransactionRollback() throws Exception {
+        final TimerData committed = create("a");
+
+        transactionManager.begin();
+        create("a");
+        store.removeTimer(committed.getId());
+        assertEquals(1, store.getTimers("a").size());
+        transactionManager.rollback();
+
+        assertEquals(ids(committed), ids(store.getTimers("a")));
+
+        // the view of the rolled back transaction is gone
+        transactionManager.begin();
+        assertEquals(ids(committed), ids(store.getTimers("a")));
+        transactionManager.commit();
+    }
+
+    public void testReAddInTransaction() throws Exception {
+        final TimerData timer = create("a");
+
+        transactionManager.begin();
+        store.removeTimer(timer.getId());
+        store.addTimerData(timer);
+        assertEquals(ids(timer), ids(store.getTimers("a")));
+        transactionManager.commit();
+
+        assertEquals(ids(timer), ids(store.getTimers("a")));
+    }
+
+    /**
+     * Create, getTimers and cancel with 1,000,000 timers spread over 100 deployments.
+     */
+    public void _testSpeed() throws Exception {
+        final int deployments = 100;
+        final int timers = 1000000;
+        final Date expiration = new Date(System.currentTimeMillis() + 3600000);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < timers; i++) {
+            store.createSingleActionTimer(null, "deployment" + (i % deployments), null, null, expiration, null);
+        }
+        final long create = (System.nanoTime() - start) / timers;
+
+        start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < 1000; i++) {
+            found += store.getTimers("deployment" + (i % deployments)).size();
+        }
+        final long getTimers = (System.nanoTime() - start) / 1000;
+
+        start = System.nanoTime();
+        transactionManager.begin();
+        for (int i = 0; i < 100; i++) {
+            found += store.getTimers("deployment" + i).size();
+        }
+        transactionManager.commit();
+        final long txGetTimers = (System.nanoTime() - start) / 100;
+
+        start = System.nanoTime();
+        for (long id = 1; id <= timers; id++) {
+            store.removeTimer(id);
+        }
+        final long cancel = (System.nanoTime() - start) / timers;
+
+        fail(String.format("%d timers: create %d ns, getTimers %d us, getTimers in tx %d us, cancel %d ns (%d)",
+                timers, create, getTimers / 1000, txGetTimers / 1000, cancel, found));
+    }
+
+    private TimerData create(final String deploymentId) throws TimerStoreException {
+        return store.createSingleActionTimer(null, deploymentId, null, null, new Date(), null);
+    }
+
+    private Collection<TimerData> otherThread(final String deploymentId) throws InterruptedException {
+        final List<Collection<TimerData>> result = new ArrayList<Collection<TimerData>>();
+        final Thread thread = new Thread() {
+            public void run() {
+                result.add(store.getTimers(deploymentId));
+            }
+        };
+        thread.start();
+        thread.join();
+        return result.get(0);
+    }
+
+    private static List<Long> ids(final TimerData... timers) {
+        final List<Long> ids = new ArrayList<Long>();
+        for (final TimerData timer : timers) ids.add(timer.getId());
+        return ids;
+    }
+
+    private static List<Long> ids(final Collection<TimerData> timers) {
+        return ids(timers.toArray(new TimerData[timers.size()]));
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.core.timer;
+
+import junit.framework.TestCase;
+import org.apache.openejb.BeanContext;
+import org.apache.openejb.assembler.classic.Assembler;
+import org.apache.openejb.assembler.classic.ProxyFactoryInfo;
+import org.apache.openejb.assembler.classic.SecurityServiceInfo;
+import org.apache.openejb.assembler.classic.StatelessSessionContainerInfo;
+import org.apache.openejb.assembler.classic.TransactionServiceInfo;
+import org.apache.openejb.config.ConfigurationFactory;
+import org.apache.openejb.config.EjbModule;
+import org.apache.openejb.core.ivm.naming.InitContextFactory;
+import org.apache.openejb.jee.EjbJar;
+import org.apache.openejb.jee.StatelessBean;
+import org.apache.openejb.jee.oejb3.EjbDeployment;
+import org.apache.openejb.jee.oejb3.OpenejbJar;
+import org.apache.openejb.loader.Options;
+import org.apache.openejb.loader.SystemInstance;
+import org.apache.openejb.spi.ContainerSystem;
+import org.quartz.Job;
+import org.quartz.JobBuilder;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.TriggerKey;
+import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.impl.triggers.SimpleTriggerImpl;
+
+import javax.annotation.Resource;
+import javax.ejb.Local;
+import javax.ejb.ScheduleExpression;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.naming.InitialContext;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class TimingWheelSchedulerTest extends TestCase {
+
+    private static final JobKey JOB = new JobKey("job", "test");
+
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+    private TimingWheelScheduler scheduler;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        scheduler = new TimingWheelScheduler("test", 5, 64, Executors.newFixedThreadPool(2));
+        scheduler.addJob(JobBuilder.newJob(CountingJob.class).withIdentity(JOB).storeDurably().build(), true);
+        scheduler.start();
+    }
+
+    protected void tearDown() throws Exception {
+        scheduler.shutdown(true);
+        counters.clear();
+        super.tearDown();
+    }
+
+    public void testSingleAction() throws Exception {
+        final Counter counter = counter("single", 1);
+        final long start = System.currentTimeMillis() + 100;
+
+        scheduler.scheduleJob(single("single", start));
+        assertTrue(scheduler.checkExists(new TriggerKey("single")));
+
+        assertTrue(counter.await());
+        assertTrue("fired early", counter.first >= start);
+        assertFalse(scheduler.checkExists(new TriggerKey("single")));
+        assertEquals(1, counter.count.get());
+    }
+
+    public void testRejected() throws Exception {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadPoolExecutor.AbortPolicy());
+        final TimingWheelScheduler wheel = new TimingWheelScheduler("rejected", 5, 64, executor);
+        wheel.addJob(JobBuilder.newJob(CountingJob.class).withIdentity(JOB).storeDurably().build(), true);
+        wheel.start();
+        try {
+            // one thread and no queue: all but one of the jobs are rejected at first
+            final int count = 20;
+            final Counter counter = counter("rejected", count);
+            final long due = System.currentTimeMillis() + 100;
+            for (int i = 0; i < count; i++) {
+                final SimpleTriggerImpl trigger = single("rejected-" + i, due);
+                trigger.getJobDataMap().put("name", "rejected");
+                wheel.scheduleJob(trigger);
+            }
+
+            assertTrue(counter.await());
+            assertEquals(count, counter.count.get());
+        } finally {
+            wheel.shutdown(true);
+        }
+    }
+
+    public void testInterval() throws Exception {
+        final Counter counter = counter("interval", 5);
+
+        final SimpleTriggerImpl trigger = single("interval", System.currentTimeMillis());
+        trigger.setRepeatCount(4);
+        trigger.setRepeatInterval(20);
+        scheduler.scheduleJob(trigger);
+
+        assertTrue(counter.await());
+        assertEquals(5, counter.count.get());
+        Thread.sleep(100);
+        assertEquals(5, counter.count.get());
+        assertFalse(scheduler.checkExists(new TriggerKey("interval")));
+    }
+
+    public void testLongerThanTheWheel() throws Exception {
+        final Counter counter = counter("rounds", 1);
+
+        // 64 buckets of 5ms, this one needs two turns of the wheel
+        final long start = System.currentTimeMillis() + 700;
+        scheduler.scheduleJob(single("rounds", start));
+
+        assertTrue(counter.await());
+        assertTrue("fired early", counter.first >= start);
+    }
+
+    public void testCalendar() throws Exception {
+        final Counter counter = counter("cron", 2);
+
+        final EJBCronTrigger trigger = new EJBCronTrigger(new ScheduleExpression().second("*").minute("*").hour("*"));
+        trigger.setName("cron");
+        trigger.setJobName(JOB.getName());
+        trigger.setJobGroup(JOB.getGroup());
+        trigger.getJobDataMap().put("name", "cron");
+        scheduler.scheduleJob(trigger);
+
+        assertTrue(counter.await());
+        assertTrue(scheduler.checkExists(new TriggerKey("cron")));
+        assertNotNull(scheduler.getTrigger(new TriggerKey("cron")).getNextFireTime());
+    }
+
+    public void testUnschedule() throws Exception {
+        final Counter counter = counter("cancelled", 1);
+
+        scheduler.scheduleJob(single("cancelled", System.currentTimeMillis() + 100));
+        assertTrue(scheduler.unscheduleJob(new TriggerKey("cancelled")));
+        assertFalse(scheduler.unscheduleJob(new TriggerKey("cancelled")));
+        assertEquals(0, scheduler.getTriggerCount());
+
+        Thread.sleep(300);
+        assertEquals(0, counter.count.get());
+    }
+
+    public void testDuplicateTrigger() throws Exception {
+        scheduler.scheduleJob(single("twice", System.currentTimeMillis() + 10000));
+        try {
+            scheduler.scheduleJob(single("twice", System.currentTimeMillis() + 10000));
+            fail("ObjectAlreadyExistsException expected");
+        } catch (SchedulerException e) {
+            // expected
+        }
+    }
+
+    public void testStandby() throws Exception {
+        final Counter counter = counter("standby", 1);
+
+        scheduler.standby();
+        scheduler.scheduleJob(single("standby", System.currentTimeMillis() + 20));
+        Thread.sleep(200);
+        assertEquals(0, counter.count.get());
+
+        scheduler.start();
+        assertTrue(counter.await());
+    }
+
+    public void testDeployment() throws Exception {
+        System.setProperty(javax.naming.Context.INITIAL_CONTEXT_FACTORY, InitContextFactory.class.getName());
+        try {
+            final ConfigurationFactory config = new ConfigurationFactory();
+            final Assembler assembler = new Assembler();
+
+            assembler.createProxyFactory(config.configureService(ProxyFactoryInfo.class));
+            assembler.createTransactionManager(config.configureService(TransactionServiceInfo.class));
+            assembler.createSecurityService(config.configureService(SecurityServiceInfo.class));
+            assembler.createContainer(config.configureService(StatelessSessionContainerInfo.class));
+
+            final EjbModule ejbModule = new EjbModule(new EjbJar(), new OpenejbJar());
+            final StatelessBean bean = ejbModule.getEjbJar().addEnterpriseBean(new StatelessBean(WheelBean.class));
+            ejbModule.getEjbJar().addEnterpriseBean(new StatelessBean(QuartzBean.class));
+
+            final EjbDeployment deployment = ejbModule.getOpenejbJar().addEjbDeployment(bean);
+            deployment.getProperties().put(EjbTimerServiceImpl.OPENEJB_TIMER_SCHEDULER, EjbTimerServiceImpl.WHEEL_SCHEDULER);
+
+            assembler.createApplication(config.configureApplication(ejbModule));
+
+            WheelBean.fired = new CountDownLatch(2);
+            final Timed timed = (Timed) new InitialContext().lookup("WheelBeanLocal");
+            timed.schedule(50);
+            timed.schedule(100);
+            assertTrue(WheelBean.fired.await(10, TimeUnit.SECONDS));
+
+            final ContainerSystem containerSystem = SystemInstance.get().getComponent(ContainerSystem.class);
+            final BeanContext wheelContext = containerSystem.getBeanContext("WheelBean");
+            assertTrue(wheelContext.get(Scheduler.class) instanceof TimingWheelScheduler);
+
+            final BeanContext quartzContext = containerSystem.getBeanContext("QuartzBean");
+            ((Timed) new InitialContext().lookup("QuartzBeanLocal")).schedule(60000);
+            assertFalse(quartzContext.get(Scheduler.class) instanceof TimingWheelScheduler);
+
+            EjbTimerServiceImpl.shutdown();
+            assertTrue(SystemInstance.get().getComponent(TimingWheelScheduler.class).isShutdown());
+        } finally {
+            SystemInstance.reset();
+        }
+    }
+
+    /**
+     * Schedules, fires and cancels timers with the wheel and with the default
+     * Quartz RAMJobStore scheduler, both with four job threads.  The wheel uses
+     * the executor the container builds for it.  Keep the count
+     * moderate: RAMJobStore scans all the triggers of the job on each unschedule,
+     * and all the EJB timers share one job.
+     */
+    public void _testSpeed() throws Exception {
+        final int count = 20000;
+
+        final Properties properties = new Properties();
+        properties.setProperty(StdSchedulerFactory.PROP_SCHED_INSTANCE_NAME, "speed");
+        properties.setProperty("org.quartz.threadPool.threadCount", "4");
+        properties.setProperty("org.quartz.scheduler.skipUpdateCheck", "true");
+        final Scheduler quartz = new StdSchedulerFactory(properties).getScheduler();
+        quartz.addJob(JobBuilder.newJob(CountingJob.class).withIdentity(JOB).storeDurably().build(), true);
+        quartz.start();
+
+        final Properties options = new Properties();
+        options.setProperty(DefaultTimerThreadPoolAdapter.OPENEJB_TIMER_POOL_SIZE, "4");
+        final TimingWheelScheduler wheel = new TimingWheelScheduler("speed", new Options(options));
+        wheel.addJob(JobBuilder.newJob(CountingJob.class).withIdentity(JOB).storeDurably().build(), true);
+        wheel.start();
+
+        final StringBuilder sb = new StringBuilder();
+        try {
+            // warm up
+            speed(quartz, count / 10, "quartz-warmup");
+            speed(wheel, count / 10, "wheel-warmup");
+
+            sb.append("quartz ").append(speed(quartz, count, "quartz")).append("\n");
+            sb.append("wheel  ").append(speed(wheel, count, "wheel")).append("\n");
+        } finally {
+            quartz.shutdown(true);
+            wheel.shutdown(true);
+        }
+
+        fail(sb.toString());
+    }
+
+    private String speed(final Scheduler scheduler, final int count, final String name) throws Exception {
+        final Counter counter = counter(name, count);
+
+        // far away timers: insertion and cancel cost
+        long start = System.nanoTime();
+        final long later = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        for (int i = 0; i < count; i++) {
+            scheduler.scheduleJob(single(name + "-later-" + i, later + i));
+        }
+        final long schedule = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            scheduler.unscheduleJob(new TriggerKey(name + "-later-" + i));
+        }
+        final long cancel = System.nanoTime() - start;
+
+        // firing throughput: all the timers are due within 500ms
+        final long due = System.currentTimeMillis() + 1000;
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            final SimpleTriggerImpl trigger = single(name + "-" + i, due + i % 500);
+            trigger.getJobDataMap().put("name", name);
+            scheduler.scheduleJob(trigger);
+        }
+        counter.fired.await(5, TimeUnit.MINUTES);
+        final long fire = System.nanoTime() - start;
+
+        return String.format("schedule %6d ns/timer  cancel %6d ns/timer  %d timers fired in %5d ms",
+                schedule / count, cancel / count, counter.count.get(), TimeUnit.NANOSECONDS.toMillis(fire));
+    }
+
+    private static SimpleTriggerImpl single(final String name, final long time) {
+        final SimpleTriggerImpl trigger = new SimpleTriggerImpl();
+        trigger.setName(name);
+        trigger.setStartTime(new Date(time));
+        trigger.setJobName(JOB.getName());
+        trigger.setJobGroup(JOB.getGroup());
+        trigger.getJobDataMap().put("name", name);
+        return trigger;
+    }
+
+    private static Counter counter(final String name, final int expected) {
+        final Counter counter = new Counter(expected);
+        counters.put(name, counter);
+        return counter;
+    }
+
+    private static class Counter {
+        private final AtomicInteger count = new AtomicInteger();
+        private final CountDownLatch fired;
+        private volatile long first;
+
+        private Counter(final int expected) {
+            fired = new CountDownLatch(expected);
+        }
+
+        private boolean await() throws InterruptedException {
+            return fired.await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    public static class CountingJob implements Job {
+        public void execute(final JobExecutionContext context) {
+            final Counter counter = counters.get(context.getMergedJobDataMap().getString("name"));
+            if (counter == null) return;
+
+            if (counter.count.incrementAndGet() == 1) {
+                counter.first = System.currentTimeMillis();
+            }
+            counter.fired.countDown();
+        }
+    }
+
+    @Local
+    public static interface Timed {
+        void schedule(long delay);
+    }
+
+    public static class WheelBean implements Timed {
+        private static CountDownLatch fired;
+
+        @Resource
+        private TimerService timerService;
+
+        public void schedule(final long delay) {
+            timerService.createSingleActionTimer(delay, new TimerConfig(null, false));
+        }
+
+        @Timeout
+        public void timeout() {
+            fired.countDown();
+        }
+    }
+
+    public static class QuartzBean implements Timed {
+        @Resource
+        private TimerService timerService;
+
+        public void schedule(final long delay) {
+            timerService.createSingleActionTimer(delay, new TimerConfig(null, false));
+        }
+
+        @Timeout
+        public void timeout() {
+        }
+    }
+}
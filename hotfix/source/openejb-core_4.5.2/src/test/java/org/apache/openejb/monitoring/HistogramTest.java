@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.monitoring;
+
+import junit.framework.TestCase;
+import org.apache.openejb.math.stat.descriptive.DescriptiveStatistics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class HistogramTest extends TestCase {
+
+    public void testBuckets() throws Exception {
+        for (int i = 0; i < 32; i++) {
+            assertEquals(i, Histogram.index(i));
+        }
+
+        long previous = -1;
+        for (int i = 0; i <= Histogram.index(Long.MAX_VALUE); i++) {
+            final long low = Histogram.lowestValue(i);
+            assertTrue(low > previous);
+            assertEquals(i, Histogram.index(low));
+            assertEquals(i, Histogram.index(low + Histogram.bucketWidth(i) - 1));
+            previous = low;
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.lowestValue(Histogram.index(Long.MAX_VALUE)) + Histogram.bucketWidth(Histogram.index(Long.MAX_VALUE)) - 1);
+    }
+
+    public void testPercentiles() throws Exception {
+        final Histogram histogram = new Histogram();
+        final Random random = new Random(42);
+        final long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.abs(random.nextGaussian() * 1000000) + 1000;
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double p : new double[]{1, 10, 25, 50, 75, 90, 99, 99.9}) {
+            final long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            final double estimate = histogram.getPercentile(p);
+            assertEquals("p" + p, exact, estimate, exact * 0.0625);
+        }
+
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[0], histogram.getMin());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values[values.length - 1], histogram.getPercentile(100), 0);
+    }
+
+    public void testHighestTrackableValue() throws Exception {
+        final Histogram histogram = new Histogram(1000);
+        histogram.record(10);
+        histogram.record(1000000);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500005.0, histogram.getMean(), 0);
+        assertTrue(histogram.getPercentile(100) <= 1000000);
+    }
+
+    public void testAdd() throws Exception {
+        final Histogram a = new Histogram(1000000);
+        final Histogram b = new Histogram(1000000);
+        for (int i = 1; i <= 100; i++) {
+            a.record(i);
+            b.record(i * 100);
+        }
+
+        a.add(b);
+        assertEquals(200, a.getCount());
+        assertEquals(1, a.getMin());
+        assertEquals(10000, a.getMax());
+        assertEquals(5050 + 505000, a.getSum());
+        assertEquals(100, a.getPercentile(50), 100 * 0.0625);
+
+        try {
+            a.add(new Histogram());
+            fail("sizes differ");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+
+        a.reset();
+        assertEquals(0, a.getCount());
+        assertTrue(Double.isNaN(a.getPercentile(50)));
+    }
+
+    public void testMoments() throws Exception {
+        // values below 32 have buckets of their own so the moments are exact
+        final Histogram histogram = new Histogram(1000);
+        final DescriptiveStatistics statistics = new DescriptiveStatistics();
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            final int value = 1 + random.nextInt(30);
+            histogram.record(value);
+            statistics.addValue(value);
+        }
+
+        assertEquals(statistics.getVariance(), histogram.getVariance(), 1e-9);
+        assertEquals(statistics.getStandardDeviation(), histogram.getStandardDeviation(), 1e-9);
+        assertEquals(statistics.getGeometricMean(), histogram.getGeometricMean(), 1e-9);
+        assertEquals(statistics.getSkewness(), histogram.getSkewness(), 1e-9);
+        assertEquals(statistics.getKurtosis(), histogram.getKurtosis(), 1e-9);
+        assertEquals(statistics.getSumsq(), histogram.getSumsq(), 1e-9);
+        assertTrue(Arrays.equals(statistics.getSortedValues(), histogram.getSortedValues()));
+
+        final Histogram single = new Histogram(1000);
+        single.record(0);
+        assertEquals(0.0, single.getVariance());
+        assertEquals(0.0, single.getGeometricMean());
+        assertTrue(Double.isNaN(single.getSkewness()));
+        assertTrue(Double.isNaN(single.getKurtosis()));
+        assertTrue(Double.isNaN(new Histogram(1000).getVariance()));
+    }
+
+    public void testConcurrentRecords() throws Exception {
+        final Histogram histogram = new Histogram();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(i % 1000);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(400000, histogram.getCount());
+        assertEquals(4 * 100 * 499500L, histogram.getSum());
+        assertEquals(0, histogram.getMin());
+        assertEquals(999, histogram.getMax());
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.monitoring;
+
+import junit.framework.TestCase;
+import org.apache.openejb.math.stat.descriptive.SynchronizedDescriptiveStatistics;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class StripedHistogramTest extends TestCase {
+
+    public void testStripes() throws Exception {
+        assertEquals(1, new StripedHistogram(1000, 0, 1).getStripes());
+        assertEquals(4, new StripedHistogram(1000, 0, 3).getStripes());
+        assertEquals(4, new StripedHistogram(1000, 0, 4).getStripes());
+        assertEquals(64, new StripedHistogram(1000, 0, 1000).getStripes());
+    }
+
+    public void testWindow() throws Exception {
+        final StripedHistogram histogram = new StripedHistogram(100000, 100, 4);
+        for (int i = 0; i < 1050; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(1050, histogram.getCount());
+
+        // only the last one or two windows are kept
+        final Histogram snapshot = histogram.snapshot();
+        assertTrue(snapshot.getCount() >= 100);
+        assertTrue(snapshot.getCount() <= 200);
+        assertEquals(1049, snapshot.getMax());
+        assertTrue(snapshot.getMin() >= 850);
+
+        histogram.setWindowSize(0);
+        for (int i = 0; i < 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(2050, histogram.getCount());
+        assertEquals(snapshot.getCount() + 1000, histogram.snapshot().getCount());
+    }
+
+    public void testConcurrentRecords() throws Exception {
+        final StripedHistogram histogram = new StripedHistogram(1000, 0, 4);
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(i % 1000);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        final Histogram snapshot = histogram.snapshot();
+        assertEquals(800000, histogram.getCount());
+        assertEquals(800000, snapshot.getCount());
+        assertEquals(8 * 100 * 499500L, snapshot.getSum());
+        assertEquals(0, snapshot.getMin());
+        assertEquals(999, snapshot.getMax());
+    }
+
+    public void testMerge() throws Exception {
+        final Stats a = new Stats();
+        final Stats b = new Stats();
+        for (int i = 1; i <= 10; i++) {
+            a.record(i);
+            b.record(i + 10);
+        }
+
+        final Histogram merged = a.snapshot();
+        merged.add(b.snapshot());
+        assertEquals(20, merged.getCount());
+        assertEquals(10.5, merged.getMean());
+        assertEquals(10.0, merged.getPercentile(50));
+        assertEquals(5.5, a.getMean());
+        assertEquals(20.0, b.getMax());
+        assertEquals(10, a.getCount());
+        assertTrue(Double.isNaN(new Stats().getMax()));
+    }
+
+    public void _testSpeed() throws Exception {
+        final int threads = Runtime.getRuntime().availableProcessors() * 2;
+        final int calls = 2000000;
+
+        final SynchronizedDescriptiveStatistics synchronizedStatistics = new SynchronizedDescriptiveStatistics(2000);
+        final long locked = time(threads, calls, new Recorder() {
+            public void record(long value) {
+                synchronizedStatistics.addValue(value);
+            }
+        });
+
+        final StripedHistogram histogram = new StripedHistogram(3600000, 2000);
+        final long striped = time(threads, calls, new Recorder() {
+            public void record(long value) {
+                histogram.record(value);
+            }
+        });
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            synchronizedStatistics.getPercentile(99);
+        }
+        final long lockedRead = (System.nanoTime() - start) / 1000;
+
+        start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            histogram.snapshot().getPercentile(99);
+        }
+        final long stripedRead = (System.nanoTime() - start) / 1000;
+
+        fail(String.format("%s threads: synchronized %sns/call, striped %sns/call; percentile read synchronized %sns, striped %sns",
+                threads, locked / calls, striped / calls, lockedRead, stripedRead));
+    }
+
+    private static long time(final int threads, final int calls, final Recorder recorder) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < calls / threads; i++) {
+                            recorder.record(i & 1023);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.interrupted();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        final long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+
+    private interface Recorder {
+        void record(long value);
+    }
+}
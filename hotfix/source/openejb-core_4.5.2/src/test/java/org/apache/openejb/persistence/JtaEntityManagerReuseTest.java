@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.persistence;
+
+import org.apache.openejb.jee.Empty;
+import org.apache.openejb.jee.StatelessBean;
+import org.apache.openejb.jee.jpa.unit.Persistence;
+import org.apache.openejb.jee.jpa.unit.PersistenceUnit;
+import org.apache.openejb.junit.ApplicationComposer;
+import org.apache.openejb.loader.SystemInstance;
+import org.apache.openejb.testing.Configuration;
+import org.apache.openejb.testing.Module;
+import org.apache.openjpa.persistence.OpenJPAQuery;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.util.Properties;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(ApplicationComposer.class)
+public class JtaEntityManagerReuseTest {
+    @EJB
+    private Reader reader;
+
+    @EJB
+    private Writer writer;
+
+    @Test
+    public void reuse() {
+        final JtaEntityManagerRegistry registry = SystemInstance.get().getComponent(JtaEntityManagerRegistry.class);
+        assertTrue(registry.isReuseNonTxEntityManagers());
+
+        final long id = writer.create("foo");
+        final JtaEntityManagerRegistry.NonTxStats stats = registry.getNonTxStats("reuse-unit");
+        final long created = stats.getCreated();
+        final long reused = stats.getReused();
+
+        final EntityManager[] delegates = reader.delegates(id);
+        assertSame(delegates[0], delegates[1]);
+        assertFalse(delegates[0].isOpen());
+        assertEquals(created + 1, stats.getCreated());
+        assertEquals(reused + 3, stats.getReused());
+
+        // every invocation gets its own entity manager
+        assertNotSame(delegates[0], reader.delegates(id)[0]);
+        assertEquals(created + 2, stats.getCreated());
+    }
+
+    @Test
+    public void queryOutlivesInvocation() {
+        writer.create("bar");
+        writer.create("bar2");
+        final Query query = reader.query();
+
+        // the entity manager of the invocation is closed, the query gets its own
+        assertEquals(1, query.setParameter("name", "bar").getResultList().size());
+        assertTrue(query.unwrap(OpenJPAQuery.class).getEntityManager().isOpen());
+        assertEquals(1, query.getResultList().size());
+        assertEquals(1, query.setParameter("name", "bar2").getResultList().size());
+    }
+
+    @Test
+    public void queryExecutedInInvocation() {
+        writer.create("quux");
+        writer.create("quux");
+        final Query query = reader.queryTwice("quux");
+        assertEquals(1, query.getMaxResults());
+        assertEquals(1, query.getResultList().size());
+        assertEquals(1, query.getResultList().size());
+        assertEquals(2, query.setMaxResults(2).getResultList().size());
+    }
+
+    @Test
+    public void entityManagerClosedAfterQuery() {
+        writer.create("corge");
+        assertFalse(reader.queryThenDelegate("corge").isOpen());
+    }
+
+    @Test
+    public void transactionAfterReuse() {
+        final long id = writer.create("baz");
+        assertEquals("baz", reader.readThenUpdate(id, "qux"));
+        assertEquals("qux", reader.name(id));
+    }
+
+    @Configuration
+    public Properties config() {
+        final Properties p = new Properties();
+        p.put(JtaEntityManagerRegistry.OPENEJB_JPA_REUSE_NON_TX_ENTITYMANAGER, "true");
+        p.put("JtaEntityManagerReuseTest", "new://Resource?type=DataSource");
+        p.put("JtaEntityManagerReuseTest.JdbcDriver", "org.hsqldb.jdbcDriver");
+        p.put("JtaEntityManagerReuseTest.JdbcUrl", "jdbc:hsqldb:mem:JtaEntityManagerReuseTest");
+        return p;
+    }
+
+    @Module
+    public StatelessBean reader() {
+        final StatelessBean bean = new StatelessBean(Reader.class);
+        bean.setLocalBean(new Empty());
+        return bean;
+    }
+
+    @Module
+    public StatelessBean writer() {
+        final StatelessBean bean = new StatelessBean(Writer.class);
+        bean.setLocalBean(new Empty());
+        return bean;
+    }
+
+    @Module
+    public Persistence persistence() {
+        final PersistenceUnit unit = new PersistenceUnit("reuse-unit");
+        unit.addClass(Item.class);
+        unit.setProperty("openjpa.jdbc.SynchronizeMappings", "buildSchema(ForeignKeys=true)");
+        unit.getProperties().setProperty("openjpa.RuntimeUnenhancedClasses", "supported");
+        unit.setExcludeUnlistedClasses(true);
+
+        final Persistence persistence = new Persistence(unit);
+        persistence.setVersion("2.0");
+        return persistence;
+    }
+
+    @LocalBean
+    @Stateless
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public static class Reader {
+        @PersistenceContext
+        private EntityManager em;
+
+        @EJB
+        private Writer writer;
+
+        public EntityManager[] delegates(final long id) {
+            em.find(Item.class, id);
+            final EntityManager first = (EntityManager) em.getDelegate();
+            em.find(Item.class, id);
+            final EntityManager second = (EntityManager) em.getDelegate();
+            return new EntityManager[]{first, second};
+        }
+
+        public Query query() {
+            return em.createQuery("select i from JtaEntityManagerReuseTest$Item i where i.name = :name");
+        }
+
+        public Query queryTwice(final String name) {
+            final Query query = em.createQuery("select i from JtaEntityManagerReuseTest$Item i where i.name = :name")
+                .setParameter("name", name)
+                .setMaxResults(1);
+            assertEquals(1, query.getResultList().size());
+            assertEquals(1, query.getResultList().size());
+            return query;
+        }
+
+        public EntityManager queryThenDelegate(final String name) {
+            em.createQuery("select i from JtaEntityManagerReuseTest$Item i where i.name = :name")
+                .setParameter("name", name)
+                .getResultList();
+            return (EntityManager) em.getDelegate();
+        }
+
+        public String name(final long id) {
+            return em.find(Item.class, id).getName();
+        }
+
+        public String readThenUpdate(final long id, final String name) {
+            final String old = em.find(Item.class, id).getName();
+            writer.rename(id, name);
+            return old;
+        }
+    }
+
+    @LocalBean
+    @Stateless
+    public static class Writer {
+        @PersistenceContext
+        private EntityManager em;
+
+        public long create(final String name) {
+            final Item item = new Item();
+            item.setName(name);
+            em.persist(item);
+            em.flush();
+            return item.getId();
+        }
+
+        public void rename(final long id, final String name) {
+            em.find(Item.class, id).setName(name);
+        }
+    }
+
+    @Entity
+    public static class Item {
+        @Id
+        @GeneratedValue
+        private long id;
+
+        private String name;
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(final long id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(final String name) {
+            this.name = name;
+        }
+    }
+}
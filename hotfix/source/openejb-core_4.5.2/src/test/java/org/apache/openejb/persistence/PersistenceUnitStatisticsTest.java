@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.persistence;
+
+import org.apache.openejb.jee.Empty;
+import org.apache.openejb.jee.StatelessBean;
+import org.apache.openejb.jee.jpa.unit.Persistence;
+import org.apache.openejb.jee.jpa.unit.PersistenceUnit;
+import org.apache.openejb.junit.ApplicationComposer;
+import org.apache.openejb.monitoring.LocalMBeanServer;
+import org.apache.openejb.testing.Configuration;
+import org.apache.openejb.testing.Module;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.PersistenceContext;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(ApplicationComposer.class)
+public class PersistenceUnitStatisticsTest {
+    private static final String QUERY = "select s from PersistenceUnitStatisticsTest$Sample s";
+
+    @EJB
+    private SampleManager manager;
+
+    @BeforeClass
+    public static void init() {
+        System.setProperty(LocalMBeanServer.OPENEJB_JMX_ACTIVE, "true");
+    }
+
+    @AfterClass
+    public static void reset() {
+        System.clearProperty(LocalMBeanServer.OPENEJB_JMX_ACTIVE);
+    }
+
+    @Test
+    public void statistics() throws Exception {
+        final long id = manager.create();
+        manager.create();
+        manager.find(id);
+        assertEquals(2, manager.queryInTx());
+        assertEquals(2, manager.queryNoTx());
+
+        final MBeanServer server = LocalMBeanServer.get();
+        final ObjectName name = new ObjectName("openejb.management:ObjectType=persistence-unit-statistics,PersistenceUnit=stats-unit");
+        assertTrue(server.isRegistered(name));
+
+        server.getMBeanInfo(name); // collections are expanded into attributes by the MBeanInfo
+        assertEquals("stats-unit", server.getAttribute(name, "UnitName"));
+        assertEquals(2L, server.getAttribute(name, "persist.Count"));
+        assertEquals(1L, server.getAttribute(name, "find.Count"));
+        assertEquals(2L, server.getAttribute(name, "createQuery.Count"));
+        assertEquals(2L, server.getAttribute(name, PersistenceUnitStatistics.EXECUTE_QUERY + ".Count"));
+        assertEquals(2L, server.getAttribute(name, QUERY + ".Count"));
+        assertTrue((Double) server.getAttribute(name, QUERY + ".Percentile99") > 0);
+        assertEquals(1, server.getAttribute(name, "TrackedQueries"));
+
+        server.invoke(name, "reset", new Object[0], new String[0]);
+        assertEquals(0, server.getAttribute(name, "TrackedQueries"));
+    }
+
+    @Configuration
+    public Properties config() {
+        final Properties p = new Properties();
+        p.put(PersistenceUnitStatistics.OPENEJB_JPA_STATISTICS, "true");
+        p.put("PersistenceUnitStatisticsTest", "new://Resource?type=DataSource");
+        p.put("PersistenceUnitStatisticsTest.JdbcDriver", "org.hsqldb.jdbcDriver");
+        p.put("PersistenceUnitStatisticsTest.JdbcUrl", "jdbc:hsqldb:mem:PersistenceUnitStatisticsTest");
+        return p;
+    }
+
+    @Module
+    public StatelessBean bean() {
+        final StatelessBean bean = new StatelessBean(SampleManager.class);
+        bean.setLocalBean(new Empty());
+        return bean;
+    }
+
+    @Module
+    public Persistence persistence() {
+        final PersistenceUnit unit = new PersistenceUnit("stats-unit");
+        unit.addClass(Sample.class);
+        unit.setProperty("openjpa.jdbc.SynchronizeMappings", "buildSchema(ForeignKeys=true)");
+        unit.getProperties().setProperty("openjpa.RuntimeUnenhancedClasses", "supported");
+        unit.setExcludeUnlistedClasses(true);
+
+        final Persistence persistence = new Persistence(unit);
+        persistence.setVersion("2.0");
+        return persistence;
+    }
+
+    @LocalBean
+    @Stateless
+    public static class SampleManager {
+        @PersistenceContext
+        private EntityManager em;
+
+        public long create() {
+            final Sample sample = new Sample();
+            em.persist(sample);
+            em.flush();
+            return sample.getId();
+        }
+
+        public void find(final long id) {
+            em.find(Sample.class, id);
+        }
+
+        public int queryInTx() {
+            return em.createQuery(QUERY).getResultList().size();
+        }
+
+        @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+        public int queryNoTx() {
+            return em.createQuery(QUERY, Sample.class).getResultList().size();
+        }
+    }
+
+    @Entity
+    public static class Sample {
+        @Id
+        @GeneratedValue
+        private long id;
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(final long id) {
+            this.id = id;
+        }
+    }
+}
@@ -19,16 +19,19 @@ package org.apache.openejb.timer;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.TimeZone;
 
 import javax.ejb.ScheduleExpression;
 
 import org.apache.openejb.core.timer.EJBCronTrigger;
 import org.apache.openejb.core.timer.EJBCronTrigger.ParseException;
+import org.junit.Ignore;
 import org.junit.Test;
 
 
@@ -699,4 +702,84 @@ public class EJBCronTriggerTest {
     }
 	
 	
+	@Test(timeout = 500)
+	public void testDayOfMonthOrDayOfWeek() throws ParseException {
+		// both day attributes restricted: the trigger fires on the union of the two
+		ScheduleExpression expr = new ScheduleExpression().dayOfMonth("3-27").dayOfWeek(7).start(new Date(0));
+		EJBCronTrigger trigger = new EJBCronTrigger(expr);
+		Calendar calendar = new GregorianCalendar(2018, 6, 30);
+		assertEquals(new GregorianCalendar(2018, 7, 3).getTime(), trigger.getFireTimeAfter(calendar.getTime()));
+
+		calendar = new GregorianCalendar(2018, 7, 27);
+		assertEquals(new GregorianCalendar(2018, 8, 2).getTime(), trigger.getFireTimeAfter(calendar.getTime()));
+	}
+
+	@Test(timeout = 500)
+	public void testDaylightSavingTime() throws ParseException {
+		ScheduleExpression expr = new ScheduleExpression().hour(2).minute(30).timezone("America/New_York").start(new Date(0));
+		EJBCronTrigger trigger = new EJBCronTrigger(expr);
+
+		// 2:30 does not exist on March 8th 2015 in New York, the clock jumps from 2:00 EST to 3:00 EDT
+		Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("America/New_York"));
+		calendar.clear();
+		calendar.set(2015, 2, 8, 0, 0, 0);
+		Date fireTime = trigger.getFireTimeAfter(calendar.getTime());
+		calendar.set(2015, 2, 8, 3, 30, 0);
+		assertEquals(calendar.getTime(), fireTime);
+
+		calendar.set(2015, 2, 9, 2, 30, 0);
+		assertEquals(calendar.getTime(), trigger.getFireTimeAfter(fireTime));
+	}
+
+	@Test(timeout = 500)
+	public void testFinalFireTimeYearList() throws ParseException {
+		ScheduleExpression expr = new ScheduleExpression().year("2010, 2012").month(2).dayOfMonth("Last").start(new Date(0));
+		EJBCronTrigger trigger = new EJBCronTrigger(expr);
+		assertEquals(new GregorianCalendar(2012, 1, 29).getTime(), trigger.getFinalFireTime());
+		assertEquals(new GregorianCalendar(2010, 1, 28).getTime(), trigger.getFireTimeAfter(new GregorianCalendar(2009, 0, 1).getTime()));
+	}
+
+	/**
+	 * getFireTimeAfter on a mix of simple and calendar-heavy schedules.
+	 */
+	@Ignore
+	@Test
+	public void testSpeed() throws ParseException {
+		final ScheduleExpression[] exprs = {
+				new ScheduleExpression().second("*/10").minute("*").hour("*"),
+				new ScheduleExpression().minute("*/15").hour("8-18").dayOfWeek("Mon-Fri"),
+				new ScheduleExpression().hour(3).dayOfMonth("Last"),
+				new ScheduleExpression().hour(12).dayOfMonth("2nd Tue, -3").month("Jan-Jun"),
+				new ScheduleExpression().hour(0).dayOfMonth("1st Sat - 4th Fri").month("Jan, Mar, May, Jul, Sep, Nov"),
+				new ScheduleExpression().hour(6).dayOfMonth(29).month(2).year("2000-2100"),
+				new ScheduleExpression().hour(1).minute(30).dayOfMonth("13").dayOfWeek("Fri").timezone("Europe/Berlin")
+		};
+		final EJBCronTrigger[] triggers = new EJBCronTrigger[exprs.length];
+		for (int i = 0; i < exprs.length; i++) {
+			triggers[i] = new EJBCronTrigger(exprs[i].start(new Date(0)));
+		}
+
+		final int iterations = 200000;
+		final StringBuilder report = new StringBuilder();
+		for (int round = 0; round < 2; round++) {
+			report.setLength(0);
+			for (int i = 0; i < triggers.length; i++) {
+				Date time = new Date(1262304000000L);
+				final long start = System.nanoTime();
+				for (int j = 0; j < iterations; j++) {
+					time = triggers[i].getFireTimeAfter(time);
+					if (time == null) time = new Date(1262304000000L);
+				}
+				report.append(String.format("%n%-80s %6d ns", describe(exprs[i]), (System.nanoTime() - start) / iterations));
+			}
+		}
+		fail(report.toString());
+	}
+
+	private static String describe(ScheduleExpression expr) {
+		return expr.getSecond() + " " + expr.getMinute() + " " + expr.getHour() + " " + expr.getDayOfMonth() + " "
+				+ expr.getMonth() + " " + expr.getDayOfWeek() + " " + expr.getYear()
+				+ (expr.getTimezone() == null ? "" : " " + expr.getTimezone());
+	}
+
 }
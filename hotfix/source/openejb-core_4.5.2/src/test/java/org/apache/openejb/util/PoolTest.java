@@ -17,8 +17,13 @@
 package org.apache.openejb.util;
 
 import junit.framework.TestCase;
+import org.apache.openejb.monitoring.ManagedMBean;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.ReflectionException;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
@@ -54,6 +59,14 @@ public class PoolTest extends TestCase {
         exerciseStrictPool(5, 5);
     }
 
+    public void testStripedBasics() throws Exception {
+        System.out.println("PoolTest.testStripedBasics");
+        exerciseStrictPool(1, 0, true);
+        exerciseStrictPool(3, 0, true);
+        exerciseStrictPool(4, 2, true);
+        exerciseStrictPool(5, 5, true);
+    }
+
     public void testEmptyPool() throws Exception {
         System.out.println("PoolTest.testEmptyPool");
         final int max = 4;
@@ -163,9 +176,13 @@ public class PoolTest extends TestCase {
     }
 
     private void exerciseStrictPool(int max, int min) throws InterruptedException {
+        exerciseStrictPool(max, min, false);
+    }
+
+    private void exerciseStrictPool(int max, int min, boolean striped) throws InterruptedException {
         Bean.instances.set(0);
         
-        Pool<String> pool = new Pool<String>(max, min, true);
+        Pool<String> pool = new Pool<String>(max, min, true, 0, 0, 0, null, null, false, -1, false, false, striped);
 
         // Fill the pool
         for (int i = 0; i < max; i++) {
@@ -211,9 +228,20 @@ public class PoolTest extends TestCase {
 
     public void testStrictMultiThreaded() throws Exception {
         System.out.println("PoolTest.testStrictMultiThreaded");
+        exerciseStrictMultiThreaded(false);
+    }
+
+    public void testStripedMultiThreaded() throws Exception {
+        System.out.println("PoolTest.testStripedMultiThreaded");
+        exerciseStrictMultiThreaded(true);
+    }
+
+    private void exerciseStrictMultiThreaded(final boolean striped) throws Exception {
+        Bean.instances.set(0);
+
         final int threadCount = 200;
 
-        final Pool pool = new Pool(10, 5, true);
+        final Pool pool = new Pool(10, 5, true, 0, 0, 0, null, null, false, -1, false, false, striped);
         final CountDownLatch startPistol = new CountDownLatch(1);
         final CountDownLatch startingLine = new CountDownLatch(10);
         final CountDownLatch finishingLine = new CountDownLatch(threadCount);
@@ -269,6 +297,226 @@ public class PoolTest extends TestCase {
 
     }
 
+    /**
+     * Compares the synchronized and the striped free list at
+     * 1 to 128 threads.  Not a test, run it by hand.
+     */
+    public void _testSpeed() throws Exception {
+        final StringBuilder sb = new StringBuilder();
+        for (int threads = 1; threads <= 128; threads *= 2) {
+            final long locked = speed(threads, false);
+            final long striped = speed(threads, true);
+            sb.append(String.format("threads=%d, locked=%d ops/ms, striped=%d ops/ms%n", threads, locked, striped));
+        }
+        fail(sb.toString());
+    }
+
+    private long speed(final int threads, final boolean striped) throws Exception {
+        final int iterations = 200000;
+        final int max = 32;
+
+        final Pool<Bean> pool = new Pool<Bean>(max, 0, true, 0, 0, 0, null, null, false, -1, false, false, striped);
+        for (int i = 0; i < max; i++) {
+            pool.add(new Bean());
+        }
+
+        final CountDownLatch startPistol = new CountDownLatch(1);
+        final CountDownLatch finishingLine = new CountDownLatch(threads);
+
+        for (int i = 0; i < threads; i++) {
+            final Thread t = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        startPistol.await();
+                        for (int j = iterations / threads; j > 0; j--) {
+                            final Pool<Bean>.Entry entry = pool.pop(1, TimeUnit.MINUTES);
+                            if (entry == null) {
+                                pool.push(new Bean());
+                            } else {
+                                pool.push(entry);
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    finishingLine.countDown();
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+        }
+
+        final long start = System.nanoTime();
+        startPistol.countDown();
+        finishingLine.await();
+        final long elapsed = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        return iterations / elapsed;
+    }
+
+    public void testAdaptiveSizing() throws Exception {
+        System.out.println("PoolTest.testAdaptiveSizing");
+
+        final List<Bean> discarded = new CopyOnWriteArrayList<Bean>();
+        final Pool<Bean> pool = this.pool = adaptivePool(discarded, true);
+        final ManagedMBean mbean = new ManagedMBean(pool);
+
+        // starts at the lower bound
+        assertEquals(1, mbean.getAttribute("PoolSize"));
+
+        load(pool, 16, 1000, 5);
+
+        // callers had to wait, the pool grew up to the demand
+        final int grown = (Integer) mbean.getAttribute("PoolSize");
+        assertTrue("grown=" + grown, grown > 8);
+        assertTrue((Long) mbean.getAttribute("Grows") > 0);
+        final String decision = (String) mbean.getAttribute("SizingDecision");
+        assertTrue(decision, decision.startsWith("grow") || decision.startsWith("hold at max"));
+
+        // once the load is gone the extra instances are released
+        final long timeout = System.currentTimeMillis() + 5000;
+        while ((Integer) mbean.getAttribute("PoolSize") > 2 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(50);
+        }
+
+        assertTrue((Integer) mbean.getAttribute("PoolSize") <= 2);
+        assertTrue((Long) mbean.getAttribute("Shrinks") > 0);
+        assertTrue(discarded.size() >= grown - 2);
+    }
+
+    /**
+     * Without strict pooling callers never wait, the ones finding
+     * every instance in use are overdrawn and get a temporary one.
+     */
+    public void testAdaptiveOverdrafts() throws Exception {
+        System.out.println("PoolTest.testAdaptiveOverdrafts");
+
+        final List<Bean> discarded = new CopyOnWriteArrayList<Bean>();
+        final Pool<Bean> pool = this.pool = adaptivePool(discarded, false);
+        final ManagedMBean mbean = new ManagedMBean(pool);
+        assertEquals(1, mbean.getAttribute("PoolSize"));
+
+        // four callers at once against a pool of one
+        final List<Bean> beans = new ArrayList<Bean>();
+        for (int i = 0; i < 4; i++) {
+            assertNull(pool.pop(0, MILLISECONDS));
+            beans.add(new Bean());
+        }
+
+        // the overdrafts are the demand the pool grows to
+        final long timeout = System.currentTimeMillis() + 5000;
+        while ((Integer) mbean.getAttribute("PoolSize") < 4 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, mbean.getAttribute("PoolSize"));
+
+        // so none of the instances is thrown away as FULL
+        for (final Bean bean : beans) {
+            assertTrue(pool.push(bean));
+        }
+        assertEquals(0, discarded.size());
+    }
+
+    public void testFixedPoolHasNoSizing() throws Exception {
+        System.out.println("PoolTest.testFixedPoolHasNoSizing");
+
+        final ManagedMBean mbean = new ManagedMBean(new Pool<Bean>(10, 0, false));
+        try {
+            mbean.getAttribute("PoolSize");
+            fail("the sizing attributes are only there for adaptive pools");
+        } catch (ReflectionException expected) {
+            assertTrue(expected.getCause() instanceof AttributeNotFoundException);
+        }
+    }
+
+    /**
+     * Compares the p99 wait of a fixed pool of 2 with the adaptive
+     * pool under the same load.  Not a test, run it by hand.
+     */
+    public void _testAdaptiveWaitTime() throws Exception {
+        final Pool<Bean> fixed = new Pool<Bean>(2, 0, true);
+        final long fixedWait = percentile(load(fixed, 16, 1000, 5), 99);
+
+        final Pool<Bean> adaptive = this.pool = adaptivePool(new CopyOnWriteArrayList<Bean>(), true);
+        final long adaptiveWait = percentile(load(adaptive, 16, 1000, 5), 99);
+
+        fail(String.format("fixed p99=%dus, adaptive p99=%dus", fixedWait, adaptiveWait));
+    }
+
+    private Pool<Bean> adaptivePool(final List<Bean> discarded, final boolean strict) {
+        final Pool.Builder<Bean> builder = new Pool.Builder<Bean>();
+        builder.setStrictPooling(strict);
+        builder.setMinSize(0);
+        builder.setMaxSize(16);
+        builder.setAdaptivePooling(true);
+        builder.setAdaptiveInterval(new Duration(100, TimeUnit.MILLISECONDS));
+        builder.setSupplier(new Pool.Supplier<Bean>() {
+            public void discard(Bean bean, Pool.Event reason) {
+                bean.discard();
+                discarded.add(bean);
+            }
+
+            public Bean create() {
+                return new Bean();
+            }
+        });
+        return builder.build().start();
+    }
+
+    /**
+     * @return the time each call waited for an instance, in microseconds
+     */
+    private List<Long> load(final Pool<Bean> pool, final int threads, final long duration, final long work) throws Exception {
+        final List<Long> waits = new CopyOnWriteArrayList<Long>();
+        final CountDownLatch finishingLine = new CountDownLatch(threads);
+        final long end = System.currentTimeMillis() + duration;
+
+        for (int i = 0; i < threads; i++) {
+            final Thread t = new Thread(new Runnable() {
+                public void run() {
+                    final List<Long> local = new ArrayList<Long>();
+                    try {
+                        while (System.currentTimeMillis() < end) {
+                            final long start = System.nanoTime();
+                            final Pool<Bean>.Entry entry = pool.pop(10, TimeUnit.SECONDS);
+                            local.add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+
+                            Bean bean = null;
+                            if (entry == null) {
+                                final long created = System.nanoTime();
+                                bean = new Bean();
+                                pool.created(System.nanoTime() - created);
+                            }
+
+                            Thread.sleep(work);
+
+                            if (entry == null) {
+                                pool.push(bean);
+                            } else {
+                                pool.push(entry);
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    waits.addAll(local);
+                    finishingLine.countDown();
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+        }
+
+        assertTrue(finishingLine.await(duration + 20000, TimeUnit.MILLISECONDS));
+        return waits;
+    }
+
+    private static long percentile(final List<Long> values, final int percentile) {
+        final List<Long> sorted = new ArrayList<Long>(values);
+        Collections.sort(sorted);
+        return sorted.get(Math.min(sorted.size() - 1, sorted.size() * percentile / 100));
+    }
+
     public void testClose() throws Exception {
         System.out.println("PoolTest.testClose");
 
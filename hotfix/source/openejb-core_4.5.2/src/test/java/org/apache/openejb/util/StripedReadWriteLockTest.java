@@ -0,0 +1,354 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.util;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class StripedReadWriteLockTest extends TestCase {
+
+    private ExecutorService executor;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testStripes() throws Exception {
+        assertEquals(1, new StripedReadWriteLock(1).getStripes());
+        assertEquals(4, new StripedReadWriteLock(3).getStripes());
+        assertEquals(8, new StripedReadWriteLock(8).getStripes());
+
+        try {
+            new StripedReadWriteLock(0);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testReadersShare() throws Exception {
+        final StripedReadWriteLock lock = new StripedReadWriteLock();
+
+        final int readers = 10;
+        final CountDownLatch inside = new CountDownLatch(readers);
+        final CountDownLatch leave = new CountDownLatch(1);
+
+        for (int i = 0; i < readers; i++) {
+            executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    lock.readLock().lock();
+                    try {
+                        inside.countDown();
+                        leave.await();
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                    return null;
+                }
+            });
+        }
+
+        assertTrue("all readers should hold the lock together", inside.await(10, TimeUnit.SECONDS));
+        assertEquals(readers, lock.getReadLockCount());
+
+        // a writer cannot get in while they are there
+        assertFalse(tryLock(lock.writeLock(), 0));
+        assertFalse(tryLock(lock.writeLock(), 100));
+        assertFalse(lock.isWriteLocked());
+
+        // but readers still can
+        assertTrue(tryLock(lock.readLock(), 0));
+
+        leave.countDown();
+
+        assertTrue(tryLock(lock.writeLock(), 10000));
+    }
+
+    public void testWriterExcludes() throws Exception {
+        final StripedReadWriteLock lock = new StripedReadWriteLock();
+
+        lock.writeLock().lock();
+        assertTrue(lock.isWriteLocked());
+
+        assertFalse(tryLock(lock.readLock(), 0));
+        assertFalse(tryLock(lock.readLock(), 100));
+        assertFalse(tryLock(lock.writeLock(), 100));
+
+        // a blocked reader gets in once the writer is gone
+        final CountDownLatch waiting = new CountDownLatch(1);
+        final Future<Boolean> reader = executor.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                waiting.countDown();
+                final boolean locked = lock.readLock().tryLock(10, TimeUnit.SECONDS);
+                if (locked) lock.readLock().unlock();
+                return locked;
+            }
+        });
+
+        waiting.await();
+        Thread.sleep(50);
+        assertFalse(reader.isDone());
+
+        lock.writeLock().unlock();
+        assertFalse(lock.isWriteLocked());
+        assertTrue(reader.get(10, TimeUnit.SECONDS));
+    }
+
+    public void testWriterWaitsForReaders() throws Exception {
+        final StripedReadWriteLock lock = new StripedReadWriteLock();
+
+        lock.readLock().lock();
+
+        final CountDownLatch waiting = new CountDownLatch(1);
+        final Future<Boolean> writer = executor.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                waiting.countDown();
+                final boolean locked = lock.writeLock().tryLock(10, TimeUnit.SECONDS);
+                if (locked) lock.writeLock().unlock();
+                return locked;
+            }
+        });
+
+        waiting.await();
+        Thread.sleep(50);
+        assertFalse(writer.isDone());
+
+        // new readers queue behind the waiting writer
+        assertFalse(tryLock(lock.readLock(), 0));
+
+        lock.readLock().unlock();
+        assertTrue(writer.get(10, TimeUnit.SECONDS));
+        assertEquals(0, lock.getReadLockCount());
+    }
+
+    public void testReentrancy() throws Exception {
+        final StripedReadWriteLock lock = new StripedReadWriteLock();
+
+        // reentrant write, and the writer may read
+        lock.writeLock().lock();
+        lock.writeLock().lock();
+        lock.readLock().lock();
+        lock.writeLock().unlock();
+        assertTrue(lock.isWriteLocked());
+        lock.writeLock().unlock();
+        assertFalse(lock.isWriteLocked());
+
+        // still holding the read lock
+        assertEquals(1, lock.getReadLockCount());
+        assertFalse(tryLock(lock.writeLock(), 0));
+
+        // a reentrant read is not stopped by a waiting writer
+        final CountDownLatch waiting = new CountDownLatch(1);
+        final Future<Boolean> writer = executor.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                waiting.countDown();
+                final boolean locked = lock.writeLock().tryLock(10, TimeUnit.SECONDS);
+                if (locked) lock.writeLock().unlock();
+                return locked;
+            }
+        });
+        waiting.await();
+        Thread.sleep(50);
+
+        assertTrue(lock.readLock().tryLock(0, TimeUnit.SECONDS));
+        lock.readLock().unlock();
+        lock.readLock().unlock();
+
+        assertTrue(writer.get(10, TimeUnit.SECONDS));
+    }
+
+    public void testUpgradeTimesOut() throws Exception {
+        final StripedReadWriteLock lock = new StripedReadWriteLock();
+
+        lock.readLock().lock();
+        assertFalse(lock.writeLock().tryLock(100, TimeUnit.MILLISECONDS));
+        assertFalse(lock.isWriteLocked());
+
+        // the failed writer let go of everything
+        assertTrue(tryLock(lock.readLock(), 0));
+        lock.readLock().unlock();
+        assertTrue(tryLock(lock.writeLock(), 0));
+    }
+
+    public void testUnlockNotHeld() throws Exception {
+        final StripedReadWriteLock lock = new StripedReadWriteLock();
+
+        try {
+            lock.readLock().unlock();
+            fail("IllegalMonitorStateException expected");
+        } catch (IllegalMonitorStateException e) {
+            // expected
+        }
+
+        try {
+            lock.writeLock().unlock();
+            fail("IllegalMonitorStateException expected");
+        } catch (IllegalMonitorStateException e) {
+            // expected
+        }
+    }
+
+    public void testInterrupted() throws Exception {
+        final StripedReadWriteLock lock = new StripedReadWriteLock();
+        lock.readLock().lock();
+
+        final Thread current = Thread.currentThread();
+        executor.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                Thread.sleep(100);
+                current.interrupt();
+                return null;
+            }
+        });
+
+        // our own read lock keeps the writer waiting until interrupted
+        try {
+            lock.writeLock().tryLock(10, TimeUnit.SECONDS);
+            fail("InterruptedException expected");
+        } catch (InterruptedException e) {
+            // expected
+        }
+
+        assertFalse(lock.isWriteLocked());
+        lock.readLock().unlock();
+    }
+
+    public void testMutualExclusion() throws Exception {
+        final StripedReadWriteLock lock = new StripedReadWriteLock();
+        final int[] counter = new int[1];
+        final AtomicInteger readers = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+
+        final int threads = 8;
+        final int iterations = 20000;
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    try {
+                        for (int i = 0; i < iterations; i++) {
+                            if (i % 10 == 0) {
+                                lock.writeLock().lock();
+                                try {
+                                    if (readers.get() != 0) errors.incrementAndGet();
+                                    counter[0]++;
+                                } finally {
+                                    lock.writeLock().unlock();
+                                }
+                            } else {
+                                lock.readLock().lock();
+                                try {
+                                    readers.incrementAndGet();
+                                    readers.decrementAndGet();
+                                } finally {
+                                    lock.readLock().unlock();
+                                }
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                    return null;
+                }
+            });
+        }
+
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertEquals(0, errors.get());
+        assertEquals(threads * iterations / 10, counter[0]);
+        assertEquals(0, lock.getReadLockCount());
+    }
+
+    public void _testSpeed() throws Exception {
+        final int threads = Runtime.getRuntime().availableProcessors();
+
+        final StringBuilder sb = new StringBuilder();
+        for (int round = 0; round < 3; round++) {
+            sb.append(String.format("reentrant %8d reads/ms  striped %8d reads/ms%n",
+                    reads(new ReentrantReadWriteLock(), threads),
+                    reads(new StripedReadWriteLock(), threads)));
+        }
+
+        fail(sb.toString());
+    }
+
+    private long reads(final ReadWriteLock lock, final int threads) throws Exception {
+        final long duration = 1000;
+        final AtomicInteger reads = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    final Lock read = lock.readLock();
+                    start.await();
+                    final long end = System.currentTimeMillis() + duration;
+
+                    int count = 0;
+                    while (System.currentTimeMillis() < end) {
+                        for (int i = 0; i < 1000; i++) {
+                            read.lock();
+                            read.unlock();
+                        }
+                        count += 1000;
+                    }
+                    reads.addAndGet(count);
+                    done.countDown();
+                    return null;
+                }
+            });
+        }
+
+        start.countDown();
+        done.await();
+        return reads.get() / duration;
+    }
+
+    /**
+     * From another thread, so that locks held by the test thread do not count
+     */
+    private boolean tryLock(final Lock lock, final long millis) throws Exception {
+        return executor.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                final boolean locked = lock.tryLock(millis, TimeUnit.MILLISECONDS);
+                if (locked) lock.unlock();
+                return locked;
+            }
+        }).get();
+    }
+}
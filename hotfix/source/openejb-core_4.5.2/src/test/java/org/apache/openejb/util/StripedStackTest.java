@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.util;
+
+import junit.framework.TestCase;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class StripedStackTest extends TestCase {
+
+    public void testStripes() throws Exception {
+        assertEquals(1, new StripedStack<String>(1).getStripes());
+        assertEquals(4, new StripedStack<String>(3).getStripes());
+        assertEquals(8, new StripedStack<String>(8).getStripes());
+
+        try {
+            new StripedStack<String>(0);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    public void testLifo() throws Exception {
+        final StripedStack<String> stack = new StripedStack<String>(4);
+        assertTrue(stack.isEmpty());
+        assertNull(stack.pop());
+
+        stack.push("one");
+        stack.push("two");
+        stack.push("three");
+
+        assertEquals(3, stack.size());
+        assertEquals("three", stack.pop());
+        assertEquals("two", stack.pop());
+        assertEquals("one", stack.pop());
+        assertNull(stack.pop());
+        assertTrue(stack.isEmpty());
+    }
+
+    public void testSteal() throws Exception {
+        final StripedStack<String> stack = new StripedStack<String>(64);
+
+        final Thread thread = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < 10; i++) {
+                    stack.push("item" + i);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+
+        final Set<String> items = new HashSet<String>();
+        String item;
+        while ((item = stack.pop()) != null) {
+            items.add(item);
+        }
+
+        assertEquals(10, items.size());
+    }
+
+    public void testMultiThreaded() throws Exception {
+        final int threads = 16;
+        final int items = 64;
+        final int iterations = 10000;
+
+        final StripedStack<Integer> stack = new StripedStack<Integer>(4);
+        for (int i = 0; i < items; i++) {
+            stack.push(i);
+        }
+
+        final ConcurrentHashMap<Integer, Thread> inUse = new ConcurrentHashMap<Integer, Thread>();
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch startPistol = new CountDownLatch(1);
+        final CountDownLatch finishingLine = new CountDownLatch(threads);
+
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        startPistol.await();
+                        for (int j = 0; j < iterations; j++) {
+                            final Integer item = stack.pop();
+                            if (item == null) continue;
+
+                            // no item may be handed out twice
+                            if (inUse.putIfAbsent(item, Thread.currentThread()) != null) errors.incrementAndGet();
+                            inUse.remove(item);
+
+                            stack.push(item);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.interrupted();
+                    }
+                    finishingLine.countDown();
+                }
+            }).start();
+        }
+
+        startPistol.countDown();
+        assertTrue(finishingLine.await(30, TimeUnit.SECONDS));
+
+        assertEquals(0, errors.get());
+        assertEquals(items, stack.size());
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.openejb.util.proxy;
+
+import junit.framework.TestCase;
+import org.apache.openejb.core.interceptor.InterceptorData;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class MethodInvokerFactoryTest extends TestCase {
+
+    public void testPrimitives() throws Exception {
+        final MethodInvoker invoker = invoker("add", int.class, long.class, double.class, boolean.class, char.class);
+        assertGenerated(invoker);
+
+        assertEquals(6.5d, invoker.invoke(new Bean(), new Object[]{1, 2L, 3.5d, true, 'x'}));
+        assertEquals(-1d, invoker.invoke(new Bean(), new Object[]{1, 2L, 3.5d, false, 'x'}));
+    }
+
+    public void testObjects() throws Exception {
+        final MethodInvoker invoker = invoker("join", String.class, String[].class);
+        assertGenerated(invoker);
+
+        assertEquals("a:b:c", invoker.invoke(new Bean(), new Object[]{":", new String[]{"a", "b", "c"}}));
+    }
+
+    public void testVoid() throws Exception {
+        final Bean bean = new Bean();
+        final MethodInvoker invoker = invoker("set", Object.class);
+        assertGenerated(invoker);
+
+        assertNull(invoker.invoke(bean, new Object[]{"value"}));
+        assertEquals("value", bean.value);
+    }
+
+    public void testPackagePrivate() throws Exception {
+        final MethodInvoker invoker = invoker("hidden");
+        assertGenerated(invoker);
+
+        assertEquals(Arrays.asList(1, 2), invoker.invoke(new Bean(), new Object[0]));
+    }
+
+    public void testInterface() throws Exception {
+        final MethodInvoker invoker = MethodInvokerFactory.getInvoker(Named.class.getMethod("name"));
+        assertGenerated(invoker);
+
+        assertEquals("bean", invoker.invoke(new Bean(), new Object[0]));
+    }
+
+    public void testExceptionsAreNotWrapped() throws Exception {
+        final MethodInvoker invoker = invoker("fail", String.class);
+        assertGenerated(invoker);
+
+        try {
+            invoker.invoke(new Bean(), new Object[]{"checked"});
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertEquals("checked", e.getMessage());
+        }
+
+        try {
+            invoker.invoke(new Bean(), new Object[]{null});
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testPrivateUsesReflection() throws Exception {
+        final Method method = Bean.class.getDeclaredMethod("secret");
+        method.setAccessible(true);
+
+        final MethodInvoker invoker = MethodInvokerFactory.getInvoker(method);
+        assertTrue(invoker instanceof MethodInvokerFactory.ReflectionInvoker);
+        assertEquals("secret", invoker.invoke(new Bean(), new Object[0]));
+
+        // exceptions are unwrapped the same way
+        final Method fail = Bean.class.getDeclaredMethod("privateFail");
+        fail.setAccessible(true);
+        try {
+            MethodInvokerFactory.getInvoker(fail).invoke(new Bean(), new Object[0]);
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testBootstrapClassUsesReflection() throws Exception {
+        final MethodInvoker invoker = MethodInvokerFactory.getInvoker(String.class.getMethod("length"));
+        assertTrue(invoker instanceof MethodInvokerFactory.ReflectionInvoker);
+        assertEquals(3, invoker.invoke("abc", new Object[0]));
+    }
+
+    public void testKeptByTheOwner() throws Exception {
+        final Method method = Bean.class.getDeclaredMethod("hidden");
+
+        // the class is generated once in the declaring class loader, the instances are not kept
+        final MethodInvoker first = MethodInvokerFactory.getInvoker(method);
+        final MethodInvoker second = MethodInvokerFactory.getInvoker(method);
+        assertNotSame(first, second);
+        assertSame(first.getClass(), second.getClass());
+        assertSame(Bean.class.getClassLoader(), first.getClass().getClassLoader());
+
+        final ConcurrentMap<Method, MethodInvoker> invokers = new ConcurrentHashMap<Method, MethodInvoker>();
+        final MethodInvoker invoker = MethodInvokerFactory.getInvoker(invokers, method);
+        assertGenerated(invoker);
+        assertSame(invoker, MethodInvokerFactory.getInvoker(invokers, method));
+
+        final InterceptorData data = new InterceptorData(Bean.class);
+        assertSame(data.getInvoker(method), data.getInvoker(method));
+    }
+
+    public void testOverloads() throws Exception {
+        final MethodInvoker add = invoker("add", int.class, long.class, double.class, boolean.class, char.class);
+        final MethodInvoker addInts = invoker("add", int.class, int.class);
+        assertGenerated(addInts);
+        assertNotSame(add.getClass(), addInts.getClass());
+        assertEquals(3, addInts.invoke(new Bean(), new Object[]{1, 2}));
+    }
+
+    private static MethodInvoker invoker(final String name, final Class<?>... parameterTypes) throws NoSuchMethodException {
+        return MethodInvokerFactory.getInvoker(Bean.class.getDeclaredMethod(name, parameterTypes));
+    }
+
+    private static void assertGenerated(final MethodInvoker invoker) {
+        assertFalse(invoker instanceof MethodInvokerFactory.ReflectionInvoker);
+    }
+
+    public static interface Named {
+        String name();
+    }
+
+    public static class Bean implements Named {
+        private Object value;
+
+        public double add(final int i, final long l, final double d, final boolean positive, final char c) {
+            final double sum = i + l + d;
+            return positive ? sum : -1;
+        }
+
+        public int add(final int a, final int b) {
+            return a + b;
+        }
+
+        public String join(final String separator, final String[] values) {
+            final StringBuilder sb = new StringBuilder();
+            for (final String value : values) {
+                if (sb.length() > 0) sb.append(separator);
+                sb.append(value);
+            }
+            return sb.toString();
+        }
+
+        public void set(final Object value) {
+            this.value = value;
+        }
+
+        Object hidden() {
+            return Arrays.asList(1, 2);
+        }
+
+        public String name() {
+            return "bean";
+        }
+
+        public void fail(final String message) throws IOException {
+            if (message == null) throw new IllegalStateException();
+            throw new IOException(message);
+        }
+
+        private String secret() {
+            return "secret";
+        }
+
+        private void privateFail() throws IOException {
+            throw new IOException();
+        }
+    }
+}
@@ -34,6 +34,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.xbean.finder.util.IndexedList;
 import org.apache.xbean.finder.util.SingleLinkedList;
 import org.apache.xbean.asm.AnnotationVisitor;
 import org.apache.xbean.asm.ClassReader;
@@ -50,6 +51,13 @@ public abstract class AbstractFinder implements IAnnotationFinder {
     protected final Map<String, ClassInfo> classInfos = new HashMap<String, ClassInfo>();
     protected final Map<String, ClassInfo> originalInfos = new HashMap<String, ClassInfo>();
     private final List<String> classesNotLoaded = new ArrayList<String>();
+    // one instance of each name and descriptor read, only kept while reading the classes
+    private final Map<String, String> strings = new HashMap<String, String>();
+    // set by readDone(), the classes read later on demand are not interned
+    private boolean readDone;
+    // one AnnotationInfo per annotation type, the annotation lists hold its index in the table
+    private final Map<String, AnnotationInfo> sharedAnnotationInfos = new HashMap<String, AnnotationInfo>();
+    private final IndexedList.Table<AnnotationInfo> annotationTable = new IndexedList.Table<AnnotationInfo>();
     private final int ASM_FLAGS = ClassReader.SKIP_CODE + ClassReader.SKIP_DEBUG + ClassReader.SKIP_FRAMES;
 
     protected abstract URL getResource(String className);
@@ -179,6 +187,32 @@ public abstract class AbstractFinder implements IAnnotationFinder {
         return Collections.unmodifiableList(classesNotLoaded);
     }
 
+    /**
+     * Called by subclasses once they read their classes, the names and descriptors
+     * read so far no longer need to be shared.
+     */
+    protected void readDone() {
+        readDone = true;
+        strings.clear();
+    }
+
+    private String intern(String value) {
+        if (value == null || readDone) return value;
+        final String existing = strings.get(value);
+        if (existing != null) return existing;
+        strings.put(value, value);
+        return value;
+    }
+
+    private AnnotationInfo annotationInfo(String name) {
+        AnnotationInfo info = sharedAnnotationInfos.get(name);
+        if (info == null) {
+            info = new AnnotationInfo(name);
+            sharedAnnotationInfos.put(name, info);
+        }
+        return info;
+    }
+
     public List<Package> findAnnotatedPackages(Class<? extends Annotation> annotation) {
         classesNotLoaded.clear();
         List<Package> packages = new ArrayList<Package>();
@@ -618,11 +652,11 @@ public abstract class AbstractFinder implements IAnnotationFinder {
     }
 
     public class Annotatable {
-        private final List<AnnotationInfo> annotations = new ArrayList<AnnotationInfo>();
+        private final List<AnnotationInfo> annotations = new IndexedList<AnnotationInfo>(annotationTable);
 
         public Annotatable(AnnotatedElement element) {
             for (Annotation annotation : getAnnotations(element)) {
-                annotations.add(new AnnotationInfo(annotation.annotationType().getName()));
+                annotations.add(annotationInfo(annotation.annotationType().getName()));
             }
         }
 
@@ -793,7 +827,8 @@ public abstract class AbstractFinder implements IAnnotationFinder {
         private final ClassInfo declaringClass;
         private final String returnType;
         private final String name;
-        private final List<List<AnnotationInfo>> parameterAnnotations = new ArrayList<List<AnnotationInfo>>();
+        // created on the first parameter annotation, most methods have none
+        private List<List<AnnotationInfo>> parameterAnnotations;
 
         public MethodInfo(ClassInfo info, Constructor constructor){
             super(constructor);
@@ -816,13 +851,17 @@ public abstract class AbstractFinder implements IAnnotationFinder {
         }
 
         public List<List<AnnotationInfo>> getParameterAnnotations() {
+            if (parameterAnnotations == null) {
+                parameterAnnotations = new ArrayList<List<AnnotationInfo>>(1);
+            }
             return parameterAnnotations;
         }
 
         public List<AnnotationInfo> getParameterAnnotations(int index) {
+            final List<List<AnnotationInfo>> parameterAnnotations = getParameterAnnotations();
             if (index >= parameterAnnotations.size()) {
                 for (int i = parameterAnnotations.size(); i <= index; i++) {
-                    List<AnnotationInfo> annotationInfos = new ArrayList<AnnotationInfo>();
+                    List<AnnotationInfo> annotationInfos = new IndexedList<AnnotationInfo>(annotationTable);
                     parameterAnnotations.add(i, annotationInfos);
                 }
             }
@@ -889,13 +928,13 @@ public abstract class AbstractFinder implements IAnnotationFinder {
         }
 
         public AnnotationInfo(Class<? extends Annotation> annotation) {
-            this.name = annotation.getName().intern();
+            this.name = intern(annotation.getName());
         }
 
         public AnnotationInfo(String name) {
             name = name.replaceAll("^L|;$", "");
             name = name.replace('/', '.');
-            this.name = name.intern();
+            this.name = intern(name);
         }
 
         public String getName() {
@@ -924,11 +963,11 @@ public abstract class AbstractFinder implements IAnnotationFinder {
             if (name.endsWith("package-info")) {
                 info = new PackageInfo(javaName(name));
             } else {
-                ClassInfo classInfo = new ClassInfo(javaName(name), javaName(superName));
+                ClassInfo classInfo = new ClassInfo(intern(javaName(name)), intern(javaName(superName)));
                 classInfo.path = path;
 //                if (signature == null) {
                     for (String interfce : interfaces) {
-                        classInfo.getInterfaces().add(javaName(interfce));
+                        classInfo.getInterfaces().add(intern(javaName(interfce)));
                     }
 //                } else {
 //                    // the class uses generics
@@ -945,7 +984,7 @@ public abstract class AbstractFinder implements IAnnotationFinder {
 
         @Override
         public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
-            AnnotationInfo annotationInfo = new AnnotationInfo(desc);
+            AnnotationInfo annotationInfo = annotationInfo(desc);
             info.getAnnotations().add(annotationInfo);
             getAnnotationInfos(annotationInfo.getName()).add(info);
             return new InfoBuildingVisitor(annotationInfo);
@@ -954,7 +993,7 @@ public abstract class AbstractFinder implements IAnnotationFinder {
         @Override
         public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
             ClassInfo classInfo = ((ClassInfo) info);
-            FieldInfo fieldInfo = new FieldInfo(classInfo, name, desc);
+            FieldInfo fieldInfo = new FieldInfo(classInfo, intern(name), intern(desc));
             classInfo.getFields().add(fieldInfo);
             return new InfoBuildingVisitor(fieldInfo);
         }
@@ -962,7 +1001,7 @@ public abstract class AbstractFinder implements IAnnotationFinder {
         @Override
         public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
             ClassInfo classInfo = ((ClassInfo) info);
-            MethodInfo methodInfo = new MethodInfo(classInfo, name, desc);
+            MethodInfo methodInfo = new MethodInfo(classInfo, intern(name), intern(desc));
             classInfo.getMethods().add(methodInfo);
             return new InfoBuildingVisitor(methodInfo);
         }
@@ -971,7 +1010,7 @@ public abstract class AbstractFinder implements IAnnotationFinder {
         public AnnotationVisitor visitParameterAnnotation(int param, String desc, boolean visible) {
             MethodInfo methodInfo = ((MethodInfo) info);
             List<AnnotationInfo> annotationInfos = methodInfo.getParameterAnnotations(param);
-            AnnotationInfo annotationInfo = new AnnotationInfo(desc);
+            AnnotationInfo annotationInfo = annotationInfo(desc);
             annotationInfos.add(annotationInfo);
             return new InfoBuildingVisitor(annotationInfo);
         }
@@ -21,7 +21,12 @@
 package org.apache.xbean.finder;
 
 import org.apache.xbean.finder.archive.Archive;
+import org.apache.xbean.finder.archive.ClassBytes;
+import org.apache.xbean.finder.archive.ClassBytesArchive;
+import org.apache.xbean.finder.archive.CompositeArchive;
+import org.apache.xbean.finder.archive.JarArchive;
 import org.apache.xbean.finder.util.Classes;
+import org.apache.xbean.finder.util.IndexedList;
 import org.apache.xbean.finder.util.SingleLinkedList;
 import org.apache.xbean.asm.AnnotationVisitor;
 import org.apache.xbean.asm.Attribute;
@@ -32,6 +37,8 @@ import org.apache.xbean.asm.Type;
 import org.apache.xbean.asm.commons.EmptyVisitor;
 import org.apache.xbean.asm.signature.SignatureVisitor;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Annotation;
@@ -46,9 +53,19 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * ClassFinder searches the classpath of the specified classloader for
@@ -62,6 +79,19 @@ import java.util.Set;
  */
 public class AnnotationFinder implements IAnnotationFinder {
 
+    /**
+     * Number of threads used to read the classes of the archive when
+     * not given to the constructor, 1 (the default) scans sequentially.
+     */
+    public static final String SCAN_THREADS_PROPERTY = "xbean.finder.scan.threads";
+
+    /**
+     * Directory where the annotations read from each jar are indexed, so the next
+     * finder created for an unchanged jar rebuilds its infos from the index instead
+     * of reading the bytecode.  Not set (the default) disables the index.
+     */
+    public static final String INDEX_DIRECTORY_PROPERTY = "xbean.finder.index.dir";
+
     private final Set<Class<? extends Annotation>> metaroots = new HashSet<Class<? extends Annotation>>();
 
     private final Map<String, List<Info>> annotated = new HashMap<String, List<Info>>();
@@ -69,15 +99,76 @@ public class AnnotationFinder implements IAnnotationFinder {
     protected final Map<String, ClassInfo> classInfos = new HashMap<String, ClassInfo>();
     protected final Map<String, ClassInfo> originalInfos = new HashMap<String, ClassInfo>();
     private final List<String> classesNotLoaded = new ArrayList<String>();
+    // one instance of each name and descriptor read, only kept while reading the archive
+    private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<String, String>();
+    // set once the archive is read, the classes read later on demand are not interned
+    private volatile boolean archiveRead;
+    // one AnnotationInfo per annotation type, the annotation lists hold its index in the table
+    private final ConcurrentMap<String, AnnotationInfo> sharedAnnotationInfos = new ConcurrentHashMap<String, AnnotationInfo>();
+    private final IndexedList.Table<AnnotationInfo> annotationTable = new IndexedList.Table<AnnotationInfo>();
     private final int ASM_FLAGS = ClassReader.SKIP_CODE + ClassReader.SKIP_DEBUG + ClassReader.SKIP_FRAMES;
     private final Archive archive;
 
     public AnnotationFinder(Archive archive) {
+        this(archive, Integer.getInteger(SCAN_THREADS_PROPERTY, 1));
+    }
+
+    /**
+     * @param threads number of threads reading the classes of the archive, the
+     * results are the same as a sequential scan whatever the number of threads
+     */
+    public AnnotationFinder(Archive archive, int threads) {
         this.archive = archive;
 
+        try {
+            readArchive(threads);
+        } finally {
+            archiveRead = true;
+            strings.clear();
+
+            // release the files opened to read the classes
+            if (archive instanceof Closeable) {
+                try {
+                    ((Closeable) archive).close();
+                } catch (IOException e) {
+                    // do nothing
+                }
+            }
+        }
+    }
+
+    private void readArchive(int threads) {
+        final ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads, new ScanThreadFactory()) : null;
+        try {
+            readArchive(executor, threads);
+        } finally {
+            if (executor != null) executor.shutdownNow();
+        }
+    }
+
+    private void readArchive(ExecutorService executor, int threads) {
+        final String indexDirectory = System.getProperty(INDEX_DIRECTORY_PROPERTY);
+        if (indexDirectory != null) {
+            for (Archive part : parts(archive, new ArrayList<Archive>())) {
+                index(part, executor, threads, new File(indexDirectory));
+            }
+            return;
+        }
+
+        if (executor != null) {
+            for (Partial partial : scan(archive, classNames(archive), executor, threads, false)) {
+                merge(partial);
+            }
+            return;
+        }
+
+        final ClassBytes bytes = new ClassBytes();
+        final Set<String> read = new HashSet<String>();
         for (String className : this.archive) {
+            // a class found in several jars is read once, as the class loader sees it
+            if (!read.add(className)) continue;
             try {
-                readClassDef(archive.getBytecode(className));
+                readClassDef(archive, className, bytes, null);
             } catch (NoClassDefFoundError e) {
                 throw new NoClassDefFoundError("Could not fully load class: " + className + "\n due to:" + e.getMessage());
             } catch (ClassNotFoundException e) {
@@ -88,6 +179,205 @@ public class AnnotationFinder implements IAnnotationFinder {
         }
     }
 
+    private static List<Archive> parts(Archive archive, List<Archive> parts) {
+        if (archive instanceof CompositeArchive) {
+            for (Archive part : ((CompositeArchive) archive).getArchives()) {
+                parts(part, parts);
+            }
+        } else {
+            parts.add(archive);
+        }
+        return parts;
+    }
+
+    /**
+     * @return the names of the classes of the archive, each name once
+     */
+    private static List<String> classNames(Archive archive) {
+        final Set<String> classNames = new LinkedHashSet<String>();
+        for (String className : archive) {
+            classNames.add(className);
+        }
+        return new ArrayList<String>(classNames);
+    }
+
+    /**
+     * Rebuilds the infos of a jar from its index when the index is up to date,
+     * otherwise scans the jar and writes its index for the next time.  The classes
+     * are read from the jar itself, an index only holds what its jar contains.
+     */
+    private void index(Archive part, ExecutorService executor, int threads, File directory) {
+        final AnnotationIndex index = (part instanceof JarArchive) ? AnnotationIndex.of(directory, (JarArchive) part) : null;
+
+        if (index != null) {
+            final List<Object> events = index.read();
+            if (events != null) {
+                replay(events);
+                return;
+            }
+        }
+
+        final List<Object> events = new ArrayList<Object>();
+        boolean complete = index != null;
+        for (Partial partial : scan(part, classNames(part), executor, threads, index != null)) {
+            merge(partial, true);
+            if (index != null) events.addAll(partial.events);
+            complete &= partial.complete;
+        }
+
+        // a jar with classes that could not be read is scanned again next time
+        if (complete) {
+            try {
+                index.write(events);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void replay(List<Object> events) {
+        InfoBuildingVisitor classVisitor = null;
+        InfoBuildingVisitor visitor = null;
+        boolean hidden = false;
+        for (int i = 0; i < events.size(); ) {
+            final byte event = (Byte) events.get(i++);
+            switch (event) {
+                case AnnotationIndex.CLASS: {
+                    final String name = (String) events.get(i++);
+                    final String superName = (String) events.get(i++);
+                    final String[] interfaces = (String[]) events.get(i++);
+                    hidden = classInfos.containsKey(name.replace('/', '.'));
+                    if (hidden) break;
+                    classVisitor = new InfoBuildingVisitor();
+                    classVisitor.visit(0, 0, name, null, superName, interfaces);
+                    visitor = classVisitor;
+                    break;
+                }
+                case AnnotationIndex.ANNOTATION: {
+                    final String desc = (String) events.get(i++);
+                    if (!hidden) visitor.visitAnnotation(desc, true);
+                    break;
+                }
+                case AnnotationIndex.FIELD: {
+                    final String name = (String) events.get(i++);
+                    final String desc = (String) events.get(i++);
+                    if (!hidden) visitor = (InfoBuildingVisitor) classVisitor.visitField(0, name, desc, null, null);
+                    break;
+                }
+                case AnnotationIndex.METHOD: {
+                    final String name = (String) events.get(i++);
+                    final String desc = (String) events.get(i++);
+                    if (!hidden) visitor = (InfoBuildingVisitor) classVisitor.visitMethod(0, name, desc, null, null);
+                    break;
+                }
+                case AnnotationIndex.PARAMETER_ANNOTATION: {
+                    final Integer param = (Integer) events.get(i++);
+                    final String desc = (String) events.get(i++);
+                    if (!hidden) visitor.visitParameterAnnotation(param, desc, true);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown index event " + event);
+            }
+        }
+    }
+
+    /**
+     * Reads the classes in slices, one per task, each one into a Partial of its own.
+     * Merging the partials in order leaves classInfos and the annotated lists exactly
+     * as a sequential scan would.
+     */
+    private List<Partial> scan(final Archive source, List<String> classNames, ExecutorService executor, int threads, final boolean record) {
+        if (executor == null || classNames.isEmpty()) {
+            return Collections.singletonList(read(source, classNames, record));
+        }
+
+        final int sliceSize = Math.max(16, classNames.size() / (threads * 8));
+        final List<Callable<Partial>> tasks = new ArrayList<Callable<Partial>>();
+        for (int i = 0; i < classNames.size(); i += sliceSize) {
+            final List<String> slice = classNames.subList(i, Math.min(classNames.size(), i + sliceSize));
+            tasks.add(new Callable<Partial>() {
+                public Partial call() {
+                    return read(source, slice, record);
+                }
+            });
+        }
+
+        try {
+            final List<Partial> partials = new ArrayList<Partial>();
+            for (Future<Partial> future : executor.invokeAll(tasks)) {
+                partials.add(future.get());
+            }
+            return partials;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning " + archive, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private Partial read(Archive source, List<String> classNames, boolean record) {
+        final Partial partial = new Partial(record);
+        final ClassBytes bytes = new ClassBytes();
+        for (String className : classNames) {
+            try {
+                readClassDef(source, className, bytes, partial);
+            } catch (NoClassDefFoundError e) {
+                partial.failure = new NoClassDefFoundError("Could not fully load class: " + className + "\n due to:" + e.getMessage());
+                return partial;
+            } catch (ClassNotFoundException e) {
+                partial.complete = false;
+                e.printStackTrace();
+            } catch (IOException e) {
+                partial.complete = false;
+                e.printStackTrace();
+            } catch (RuntimeException e) {
+                partial.failure = e;
+                return partial;
+            } catch (Error e) {
+                partial.failure = e;
+                return partial;
+            }
+        }
+        return partial;
+    }
+
+    private void merge(Partial partial) {
+        merge(partial, false);
+    }
+
+    /**
+     * @param firstWins keep the classes already read from an earlier jar, as the class
+     * loader would, rather than the ones of this partial with the same name
+     */
+    private void merge(Partial partial, boolean firstWins) {
+        if (partial.failure instanceof RuntimeException) throw (RuntimeException) partial.failure;
+        if (partial.failure instanceof Error) throw (Error) partial.failure;
+
+        final Set<ClassInfo> hidden = new HashSet<ClassInfo>();
+        for (Map.Entry<String, ClassInfo> entry : partial.classInfos.entrySet()) {
+            if (firstWins && classInfos.containsKey(entry.getKey())) {
+                hidden.add(entry.getValue());
+            } else {
+                classInfos.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, List<Info>> entry : partial.annotated.entrySet()) {
+            final List<Info> infos = getAnnotationInfos(entry.getKey());
+            for (Info info : entry.getValue()) {
+                if (hidden.isEmpty() || !hidden.contains(declaringClass(info))) infos.add(info);
+            }
+        }
+    }
+
+    private static ClassInfo declaringClass(Info info) {
+        if (info instanceof ClassInfo) return (ClassInfo) info;
+        if (info instanceof MethodInfo) return ((MethodInfo) info).getDeclaringClass();
+        if (info instanceof FieldInfo) return ((FieldInfo) info).getDeclaringClass();
+        return null;
+    }
+
     public List<String> getAnnotatedClassNames() {
         return new ArrayList<String>(originalInfos.keySet());
     }
@@ -313,6 +603,22 @@ public class AnnotationFinder implements IAnnotationFinder {
         return Collections.unmodifiableList(classesNotLoaded);
     }
 
+    private String intern(String value) {
+        if (value == null || archiveRead) return value;
+        final String existing = strings.putIfAbsent(value, value);
+        return existing != null ? existing : value;
+    }
+
+    private AnnotationInfo annotationInfo(String name) {
+        AnnotationInfo info = sharedAnnotationInfos.get(name);
+        if (info == null) {
+            info = new AnnotationInfo(name);
+            final AnnotationInfo existing = sharedAnnotationInfos.putIfAbsent(name, info);
+            if (existing != null) info = existing;
+        }
+        return info;
+    }
+
     public List<Package> findAnnotatedPackages(Class<? extends Annotation> annotation) {
         classesNotLoaded.clear();
         List<Package> packages = new ArrayList<Package>();
@@ -849,9 +1155,28 @@ public class AnnotationFinder implements IAnnotationFinder {
     }
 
     protected void readClassDef(InputStream in) throws IOException {
+        readClassDef(in, null);
+    }
+
+    /**
+     * Reads the class straight from the archive into the reused buffer when the archive
+     * can, so ASM parses it in place, otherwise through the bytecode stream.
+     */
+    private void readClassDef(Archive source, String className, ClassBytes bytes, Partial partial) throws IOException, ClassNotFoundException {
+        if (source instanceof ClassBytesArchive && ((ClassBytesArchive) source).readBytecode(className, bytes)) {
+            ClassReader classReader = new ClassReader(bytes.getBuffer(), 0, bytes.getLength());
+            classReader.accept(new InfoBuildingVisitor(null, partial), ASM_FLAGS);
+        } else if (partial == null) {
+            readClassDef(source.getBytecode(className));
+        } else {
+            readClassDef(source.getBytecode(className), partial);
+        }
+    }
+
+    private void readClassDef(InputStream in, Partial partial) throws IOException {
     	try {
     		ClassReader classReader = new ClassReader(in);
-    		classReader.accept(new InfoBuildingVisitor(), ASM_FLAGS);
+    		classReader.accept(new InfoBuildingVisitor(null, partial), ASM_FLAGS);
     	} finally {
     		try {
 				in.close();
@@ -899,11 +1224,11 @@ public class AnnotationFinder implements IAnnotationFinder {
     }
 
     public class Annotatable {
-        private final List<AnnotationInfo> annotations = new ArrayList<AnnotationInfo>();
+        private final List<AnnotationInfo> annotations = new IndexedList<AnnotationInfo>(annotationTable);
 
         public Annotatable(AnnotatedElement element) {
             for (Annotation annotation : getAnnotations(element)) {
-                annotations.add(new AnnotationInfo(annotation.annotationType().getName()));
+                annotations.add(annotationInfo(annotation.annotationType().getName()));
             }
         }
 
@@ -1103,7 +1428,8 @@ public class AnnotationFinder implements IAnnotationFinder {
         private final ClassInfo declaringClass;
         private final String descriptor;
         private final String name;
-        private final List<List<AnnotationInfo>> parameterAnnotations = new ArrayList<List<AnnotationInfo>>();
+        // created on the first parameter annotation, most methods have none
+        private List<List<AnnotationInfo>> parameterAnnotations;
         private Member method;
 
         public MethodInfo(ClassInfo info, Constructor constructor) {
@@ -1147,13 +1473,17 @@ public class AnnotationFinder implements IAnnotationFinder {
         }
 
         public List<List<AnnotationInfo>> getParameterAnnotations() {
+            if (parameterAnnotations == null) {
+                parameterAnnotations = new ArrayList<List<AnnotationInfo>>(1);
+            }
             return parameterAnnotations;
         }
 
         public List<AnnotationInfo> getParameterAnnotations(int index) {
+            final List<List<AnnotationInfo>> parameterAnnotations = getParameterAnnotations();
             if (index >= parameterAnnotations.size()) {
                 for (int i = parameterAnnotations.size(); i <= index; i++) {
-                    List<AnnotationInfo> annotationInfos = new ArrayList<AnnotationInfo>();
+                    List<AnnotationInfo> annotationInfos = new IndexedList<AnnotationInfo>(annotationTable);
                     parameterAnnotations.add(i, annotationInfos);
                 }
             }
@@ -1294,12 +1624,11 @@ public class AnnotationFinder implements IAnnotationFinder {
         }
 
         public AnnotationInfo(Class<? extends Annotation> annotation) {
-            this.name = annotation.getName().intern();
+            this.name = intern(annotation.getName());
         }
 
         public AnnotationInfo(String name) {
-            name = Type.getType(name).getClassName();
-            this.name = name.intern();
+            this.name = intern(Type.getType(name).getClassName());
         }
 
         public String getName() {
@@ -1311,27 +1640,79 @@ public class AnnotationFinder implements IAnnotationFinder {
         }
     }
 
+    /**
+     * What a scanning thread read, kept apart from the finder until it is merged.
+     * The annotated lists keep the order in which the infos were read.
+     */
+    private class Partial {
+        private final Map<String, ClassInfo> classInfos = new HashMap<String, ClassInfo>();
+        private final Map<String, List<Info>> annotated = new HashMap<String, List<Info>>();
+        // the visits to write in the index, null when not indexing
+        private final List<Object> events;
+        private boolean complete = true;
+        private Throwable failure;
+
+        private Partial(boolean record) {
+            this.events = record ? new ArrayList<Object>() : null;
+        }
+
+        private List<Info> getAnnotationInfos(String name) {
+            List<Info> infos = annotated.get(name);
+            if (infos == null) {
+                infos = new ArrayList<Info>();
+                annotated.put(name, infos);
+            }
+            return infos;
+        }
+    }
+
+    private static class ScanThreadFactory implements ThreadFactory {
+        private static final AtomicInteger ids = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "xbean-finder-scan-" + ids.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
     public class InfoBuildingVisitor extends EmptyVisitor {
         private Info info;
+        private final Partial partial;
 
         public InfoBuildingVisitor() {
+            this(null, null);
         }
 
         public InfoBuildingVisitor(Info info) {
+            this(info, null);
+        }
+
+        private InfoBuildingVisitor(Info info, Partial partial) {
             this.info = info;
+            this.partial = partial;
+        }
+
+        private List<Info> getAnnotationInfos(String name) {
+            return partial == null ? AnnotationFinder.this.getAnnotationInfos(name) : partial.getAnnotationInfos(name);
+        }
+
+        private void record(Object... event) {
+            if (partial != null && partial.events != null) Collections.addAll(partial.events, event);
         }
 
         @Override
         public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            record(AnnotationIndex.CLASS, name, superName, interfaces);
             if (name.endsWith("package-info")) {
                 info = new PackageInfo(javaName(name));
             } else {
 
-                ClassInfo classInfo = new ClassInfo(javaName(name), javaName(superName));
+                ClassInfo classInfo = new ClassInfo(intern(javaName(name)), intern(javaName(superName)));
 
 //                if (signature == null) {
                     for (String interfce : interfaces) {
-                        classInfo.getInterfaces().add(javaName(interfce));
+                        classInfo.getInterfaces().add(intern(javaName(interfce)));
                     }
 //                } else {
 //                    // the class uses generics
@@ -1339,7 +1720,7 @@ public class AnnotationFinder implements IAnnotationFinder {
 //                }
                 info = classInfo;
 
-                classInfos.put(classInfo.getName(), classInfo);
+                (partial == null ? classInfos : partial.classInfos).put(classInfo.getName(), classInfo);
             }
         }
 
@@ -1359,37 +1740,41 @@ public class AnnotationFinder implements IAnnotationFinder {
 
         @Override
         public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
-            AnnotationInfo annotationInfo = new AnnotationInfo(desc);
+            record(AnnotationIndex.ANNOTATION, desc);
+            AnnotationInfo annotationInfo = annotationInfo(desc);
             info.getAnnotations().add(annotationInfo);
             getAnnotationInfos(annotationInfo.getName()).add(info);
-            return new InfoBuildingVisitor(annotationInfo);
+            return new InfoBuildingVisitor(annotationInfo, partial);
         }
 
         @Override
         public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+            record(AnnotationIndex.FIELD, name, desc);
             ClassInfo classInfo = ((ClassInfo) info);
-            FieldInfo fieldInfo = new FieldInfo(classInfo, name, desc);
+            FieldInfo fieldInfo = new FieldInfo(classInfo, intern(name), intern(desc));
             classInfo.getFields().add(fieldInfo);
-            return new InfoBuildingVisitor(fieldInfo);
+            return new InfoBuildingVisitor(fieldInfo, partial);
         }
 
         @Override
         public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            record(AnnotationIndex.METHOD, name, desc);
             ClassInfo classInfo = ((ClassInfo) info);
-            MethodInfo methodInfo = new MethodInfo(classInfo, name, desc);
+            MethodInfo methodInfo = new MethodInfo(classInfo, intern(name), intern(desc));
 
             classInfo.getMethods().add(methodInfo);
-            return new InfoBuildingVisitor(methodInfo);
+            return new InfoBuildingVisitor(methodInfo, partial);
         }
 
 
         @Override
         public AnnotationVisitor visitParameterAnnotation(int param, String desc, boolean visible) {
+            record(AnnotationIndex.PARAMETER_ANNOTATION, param, desc);
             MethodInfo methodInfo = ((MethodInfo) info);
             List<AnnotationInfo> annotationInfos = methodInfo.getParameterAnnotations(param);
-            AnnotationInfo annotationInfo = new AnnotationInfo(desc);
+            AnnotationInfo annotationInfo = annotationInfo(desc);
             annotationInfos.add(annotationInfo);
-            return new InfoBuildingVisitor(annotationInfo);
+            return new InfoBuildingVisitor(annotationInfo, partial);
         }
     }
 
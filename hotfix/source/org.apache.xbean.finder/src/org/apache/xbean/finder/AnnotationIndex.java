@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.xbean.finder;
+
+import org.apache.xbean.finder.archive.JarArchive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * On disk copy of what the AnnotationFinder read from the classes of a jar.
+ * <p/>
+ * The index is the list of the class, annotation, field, method and parameter
+ * annotation visits the finder received, in order, so replaying it rebuilds the
+ * very same ClassInfo, MethodInfo and FieldInfo objects without reading bytecode.
+ * Strings are written once and then referenced by number.
+ * <p/>
+ * An index is only used if the jar still has the same path, size, last modified
+ * time and hash of its central directory (entry names, sizes and crcs), otherwise
+ * it is stale and the jar is scanned and indexed again.
+ *
+ * @version $Rev$ $Date$
+ */
+final class AnnotationIndex {
+
+    static final byte CLASS = 1;
+    static final byte ANNOTATION = 2;
+    static final byte FIELD = 3;
+    static final byte METHOD = 4;
+    static final byte PARAMETER_ANNOTATION = 5;
+    private static final byte END = 0;
+
+    private static final int MAGIC = 0x58424958;
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final String path;
+    private final long length;
+    private final long lastModified;
+    private final long hash;
+
+    private AnnotationIndex(File directory, File jar) throws IOException {
+        this.path = jar.getAbsolutePath();
+        this.length = jar.length();
+        this.lastModified = jar.lastModified();
+        this.hash = hash(jar);
+        this.file = new File(directory, jar.getName() + "-" + Integer.toHexString(path.hashCode()) + ".index");
+    }
+
+    /**
+     * @return the index of the jar of the archive, null if the archive is not a local jar
+     */
+    static AnnotationIndex of(File directory, JarArchive archive) {
+        String jarPath = archive.getUrl().getFile();
+        if (jarPath.indexOf("!") > -1) {
+            jarPath = jarPath.substring(0, jarPath.indexOf("!"));
+        }
+
+        try {
+            final URL url = new URL(jarPath);
+            if (!"file".equals(url.getProtocol())) return null;
+
+            final File jar = new File(url.getFile().replace("%20", " "));
+            if (!jar.isFile()) return null;
+
+            return new AnnotationIndex(directory, jar);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the recorded visits, null if there is no index for this version of the jar
+     */
+    List<Object> read() {
+        if (!file.isFile()) return null;
+
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+                if (!path.equals(in.readUTF())) return null;
+                if (in.readLong() != length || in.readLong() != lastModified || in.readLong() != hash) return null;
+
+                final List<String> strings = new ArrayList<String>();
+                final List<Object> events = new ArrayList<Object>();
+                for (byte op = in.readByte(); op != END; op = in.readByte()) {
+                    events.add(op);
+                    switch (op) {
+                        case CLASS:
+                            events.add(readString(in, strings));
+                            events.add(readString(in, strings));
+                            final String[] interfaces = new String[readInt(in)];
+                            for (int i = 0; i < interfaces.length; i++) {
+                                interfaces[i] = readString(in, strings);
+                            }
+                            events.add(interfaces);
+                            break;
+                        case ANNOTATION:
+                            events.add(readString(in, strings));
+                            break;
+                        case FIELD:
+                        case METHOD:
+                            events.add(readString(in, strings));
+                            events.add(readString(in, strings));
+                            break;
+                        case PARAMETER_ANNOTATION:
+                            events.add(readInt(in));
+                            events.add(readString(in, strings));
+                            break;
+                        default:
+                            return null;
+                    }
+                }
+                return events;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // truncated or unreadable, scan again
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file renamed once complete, so a
+     * concurrent or interrupted write never leaves a partial index behind.
+     */
+    void write(List<Object> events) throws IOException {
+        final File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Can not create index directory " + directory);
+        }
+
+        final File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(path);
+                out.writeLong(length);
+                out.writeLong(lastModified);
+                out.writeLong(hash);
+
+                final Map<String, Integer> strings = new HashMap<String, Integer>();
+                for (int i = 0; i < events.size(); ) {
+                    final byte op = (Byte) events.get(i++);
+                    out.writeByte(op);
+                    switch (op) {
+                        case CLASS:
+                            writeString(out, (String) events.get(i++), strings);
+                            writeString(out, (String) events.get(i++), strings);
+                            final String[] interfaces = (String[]) events.get(i++);
+                            writeInt(out, interfaces.length);
+                            for (String name : interfaces) {
+                                writeString(out, name, strings);
+                            }
+                            break;
+                        case ANNOTATION:
+                            writeString(out, (String) events.get(i++), strings);
+                            break;
+                        case FIELD:
+                        case METHOD:
+                            writeString(out, (String) events.get(i++), strings);
+                            writeString(out, (String) events.get(i++), strings);
+                            break;
+                        case PARAMETER_ANNOTATION:
+                            writeInt(out, (Integer) events.get(i++));
+                            writeString(out, (String) events.get(i++), strings);
+                            break;
+                        default:
+                            throw new IllegalStateException("Unknown index event " + op);
+                    }
+                }
+                out.writeByte(END);
+            } finally {
+                out.close();
+            }
+
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file)) throw new IOException("Can not rename " + tmp + " to " + file);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static long hash(File jar) throws IOException {
+        final CRC32 crc = new CRC32();
+        final ZipFile zipFile = new ZipFile(jar);
+        try {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                crc.update(entry.getName().getBytes("UTF-8"));
+                update(crc, entry.getCrc());
+                update(crc, entry.getSize());
+            }
+        } finally {
+            try {
+                zipFile.close();
+            } catch (IOException e) {
+                // do nothing
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void update(CRC32 crc, long value) {
+        for (int i = 0; i < 8; i++) {
+            crc.update((int) (value >>> (i * 8)));
+        }
+    }
+
+    // 0 is null, 1 a new string written right after, n + 2 the nth string already written
+    private static void writeString(DataOutputStream out, String value, Map<String, Integer> strings) throws IOException {
+        if (value == null) {
+            writeInt(out, 0);
+            return;
+        }
+
+        final Integer index = strings.get(value);
+        if (index != null) {
+            writeInt(out, index + 2);
+        } else {
+            strings.put(value, strings.size());
+            writeInt(out, 1);
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in, List<String> strings) throws IOException {
+        final int index = readInt(in);
+        if (index == 0) return null;
+        if (index == 1) {
+            final String value = in.readUTF();
+            strings.add(value);
+            return value;
+        }
+        if (index - 2 >= strings.size()) throw new IOException("Corrupted index");
+        return strings.get(index - 2);
+    }
+
+    private static void writeInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new EOFException("Malformed index");
+    }
+}
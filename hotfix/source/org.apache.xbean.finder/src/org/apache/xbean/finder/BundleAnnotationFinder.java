@@ -54,6 +54,7 @@ public class BundleAnnotationFinder extends AbstractFinder {
         this.bundle = BundleUtils.unwrapBundle(bundle);
         BundleResourceFinder bundleResourceFinder = new BundleResourceFinder(packageAdmin, this.bundle, "", ".class", discoveryFilter);
         bundleResourceFinder.find(new AnnotationFindingCallback());
+        readDone();
         this.paths = paths;
     }
 
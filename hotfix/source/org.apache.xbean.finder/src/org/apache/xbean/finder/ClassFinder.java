@@ -121,6 +121,7 @@ public class ClassFinder extends AbstractFinder {
         for (String className : classNames) {
             readClassDef(className);
         }
+        readDone();
     }
 
     public ClassFinder(Class<?>... classes){
@@ -136,6 +137,7 @@ public class ClassFinder extends AbstractFinder {
                 throw new NoClassDefFoundError("Could not fully load class: " + clazz.getName() + "\n due to:" + e.getMessage() + "\n in classLoader: \n" + clazz.getClassLoader());
             }
         }
+        readDone();
     }
 
     private static Collection<URL> getUrls(ClassLoader classLoader, boolean excludeParent) throws IOException {
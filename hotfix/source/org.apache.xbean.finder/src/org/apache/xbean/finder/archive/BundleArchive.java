@@ -24,17 +24,29 @@ import org.osgi.service.packageadmin.PackageAdmin;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
-import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 
 /**
- * TODO Unfinished
+ * The classes of a bundle as found by a {@link BundleResourceFinder}: its own
+ * entries, the jars and directories of its Bundle-ClassPath, its fragments, and
+ * whatever else the {@link ResourceDiscoveryFilter} asks for.
+ * <p/>
+ * Only the class names are collected, when first iterated, the bytecode is read
+ * one class at a time by whoever scans the archive.  Wrap it in a
+ * {@link FilteredArchive} to scan only some of the classes.
+ *
  * @version $Rev$ $Date: 2012/05/03 13:43:15 $
  */
-public class BundleArchive implements Archive {
+public class BundleArchive implements ClassBytesArchive {
 
     private final Bundle bundle;
+    private final BundleResourceFinder bundleResourceFinder;
+
+    // class name to the path of its entry in the bundle, null for the classes found in jars or other bundles
+    private Map<String, String> classes;
 
     public BundleArchive(PackageAdmin packageAdmin, Bundle bundle) throws Exception {
         this(packageAdmin, bundle, BundleResourceFinder.FULL_DISCOVERY_FILTER);
@@ -42,16 +54,49 @@ public class BundleArchive implements Archive {
 
     public BundleArchive(PackageAdmin packageAdmin, Bundle bundle, ResourceDiscoveryFilter discoveryFilter) throws Exception {
         this.bundle = bundle;
-        BundleResourceFinder bundleResourceFinder = new BundleResourceFinder(packageAdmin, bundle, "", ".class", discoveryFilter);
-        bundleResourceFinder.find(new AnnotationFindingCallback());
+        this.bundleResourceFinder = new BundleResourceFinder(packageAdmin, bundle, "", ".class", discoveryFilter);
     }
 
     public Iterator<String> iterator() {
-        // TODO
-        return Collections.EMPTY_LIST.iterator();
+        return classes().keySet().iterator();
+    }
+
+    private synchronized Map<String, String> classes() {
+        if (classes == null) {
+            Map<String, String> found = new LinkedHashMap<String, String>();
+            try {
+                bundleResourceFinder.find(new ClassNameCollectingCallback(found));
+            } catch (Exception e) {
+                throw new IllegalStateException("Can not list the classes of bundle " + bundle.getSymbolicName(), e);
+            }
+            classes = found;
+        }
+        return classes;
     }
 
     public InputStream getBytecode(String className) throws IOException, ClassNotFoundException {
+        className = resourceName(className);
+
+        URL resource = bundle.getResource(className);
+        if (resource != null) return resource.openStream();
+
+        throw new ClassNotFoundException(className);
+    }
+
+    /**
+     * Reads the class from the entries of the bundle itself, which unlike
+     * getResource does not search the bundle class loader and its imports.
+     */
+    public boolean readBytecode(String className, ClassBytes bytes) throws IOException {
+        String path = classes().get(className);
+        URL entry = bundle.getEntry(path != null ? path : resourceName(className));
+        if (entry == null) return false;
+
+        bytes.read(entry.openStream(), -1);
+        return true;
+    }
+
+    private static String resourceName(String className) {
         int pos = className.indexOf("<");
         if (pos > -1) {
             className = className.substring(0, pos);
@@ -63,37 +108,52 @@ public class BundleArchive implements Archive {
         if (!className.endsWith(".class")) {
             className = className.replace('.', '/') + ".class";
         }
-
-        URL resource = bundle.getResource(className);
-        if (resource != null) return resource.openStream();
-
-        throw new ClassNotFoundException(className);
+        return className;
     }
 
     public Class<?> loadClass(String s) throws ClassNotFoundException {
         return bundle.loadClass(s);
     }
 
-    private class AnnotationFindingCallback implements BundleResourceFinder.ResourceFinderCallback {
+    private class ClassNameCollectingCallback implements BundleResourceFinder.ResourceFinderCallback {
+        private final Map<String, String> classes;
+
+        private ClassNameCollectingCallback(Map<String, String> classes) {
+            this.classes = classes;
+        }
 
         public boolean foundInDirectory(Bundle bundle, String baseDir, URL url) throws Exception {
-            InputStream in = url.openStream();
-            try {
-                //TODO
-//                readClassDef(in);
-            } finally {
-                in.close();
+            String path = url.getPath();
+            if (path.startsWith("/")) {
+                path = path.substring(1);
+            }
+
+            String base = baseDir.startsWith("/") ? baseDir.substring(1) : baseDir;
+            if (base.length() > 0 && !base.endsWith("/")) {
+                base += "/";
             }
+
+            String name = path.startsWith(base) ? path.substring(base.length()) : path;
+            add(name, bundle == BundleArchive.this.bundle ? path : null);
             return true;
         }
 
-
         public boolean foundInJar(Bundle bundle, String jarName, ZipEntry entry, InputStream in) throws Exception {
-            //TODO
-//            readClassDef(in);
+            add(entry.getName(), null);
             return true;
         }
-    }
 
+        private void add(String name, String path) {
+            if (!name.endsWith(".class")) return;
 
-}
\ No newline at end of file
+            String className = name.substring(0, name.length() - ".class".length());
+            if (className.contains(".")) return;
+
+            className = className.replace('/', '.');
+            // the first one found is the one the bundle class loader sees
+            if (!classes.containsKey(className)) {
+                classes.put(className, path);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.xbean.finder.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A buffer holding the bytecode of one class at a time, reused from class to
+ * class so reading an archive does not allocate a new array for each of them.
+ * The buffer is handed as is to the ASM ClassReader, only the first length bytes
+ * are meaningful.  Not thread safe, each reading thread uses its own.
+ *
+ * @version $Rev$ $Date$
+ */
+public class ClassBytes {
+
+    private byte[] buffer = new byte[8192];
+    private int length;
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Reads the stream until its end and closes it.
+     *
+     * @param size expected number of bytes, -1 if unknown
+     */
+    public void read(InputStream in, long size) throws IOException {
+        try {
+            if (size > buffer.length) {
+                buffer = new byte[(int) size];
+            }
+
+            length = 0;
+            int n;
+            while ((n = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += n;
+                if (length == buffer.length) {
+                    final int b = in.read();
+                    if (b == -1) break;
+
+                    final byte[] bigger = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, bigger, 0, length);
+                    buffer = bigger;
+                    buffer[length++] = (byte) b;
+                }
+            }
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // do nothing
+            }
+        }
+    }
+}
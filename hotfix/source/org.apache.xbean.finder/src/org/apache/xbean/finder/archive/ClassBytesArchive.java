@@ -0,0 +1,35 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.xbean.finder.archive;
+
+import java.io.IOException;
+
+/**
+ * An archive able to copy the bytecode of the classes it contains straight
+ * into a {@link ClassBytes}, without looking them up as class loader resources.
+ *
+ * @version $Rev$ $Date$
+ */
+public interface ClassBytesArchive extends Archive {
+
+    /**
+     * @return false if the class is not part of this archive itself, in which case
+     * {@link #getBytecode(String)} may still find it, true once its bytecode was read
+     */
+    boolean readBytecode(String className, ClassBytes bytes) throws IOException;
+
+}
@@ -16,10 +16,12 @@
  */
 package org.apache.xbean.finder.archive;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -27,7 +29,7 @@ import java.util.NoSuchElementException;
 /**
  * @version $Rev$ $Date: 2012/05/03 13:43:16 $
  */
-public class CompositeArchive implements Archive {
+public class CompositeArchive implements ClassBytesArchive, Closeable {
 
     private final List<Archive> archives = new ArrayList<Archive>();
 
@@ -41,6 +43,10 @@ public class CompositeArchive implements Archive {
         }
     }
 
+    public List<Archive> getArchives() {
+        return Collections.unmodifiableList(archives);
+    }
+
     public InputStream getBytecode(String className) throws IOException, ClassNotFoundException {
         for (Archive archive : archives) {
             try {
@@ -52,6 +58,28 @@ public class CompositeArchive implements Archive {
         throw new ClassNotFoundException(className);
     }
 
+    public boolean readBytecode(String className, ClassBytes bytes) throws IOException {
+        for (Archive archive : archives) {
+            if (archive instanceof ClassBytesArchive && ((ClassBytesArchive) archive).readBytecode(className, bytes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Archive archive : archives) {
+            if (!(archive instanceof Closeable)) continue;
+            try {
+                ((Closeable) archive).close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
     public Class<?> loadClass(String className) throws ClassNotFoundException {
         for (Archive archive : archives) {
             try {
@@ -18,6 +18,7 @@ package org.apache.xbean.finder.archive;
 
 import org.apache.xbean.finder.filter.Filter;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Iterator;
@@ -26,7 +27,7 @@ import java.util.NoSuchElementException;
 /**
  * @version $Rev$ $Date: 2012/05/03 13:43:16 $
  */
-public class FilteredArchive implements Archive {
+public class FilteredArchive implements ClassBytesArchive, Closeable {
 
     private final Archive archive;
 
@@ -41,6 +42,14 @@ public class FilteredArchive implements Archive {
         return archive.getBytecode(className);
     }
 
+    public boolean readBytecode(String className, ClassBytes bytes) throws IOException {
+        return archive instanceof ClassBytesArchive && ((ClassBytesArchive) archive).readBytecode(className, bytes);
+    }
+
+    public void close() throws IOException {
+        if (archive instanceof Closeable) ((Closeable) archive).close();
+    }
+
     public Class<?> loadClass(String className) throws ClassNotFoundException {
         return archive.loadClass(className);
     }
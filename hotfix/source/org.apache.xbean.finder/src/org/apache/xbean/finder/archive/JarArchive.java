@@ -16,6 +16,7 @@
  */
 package org.apache.xbean.finder.archive;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -26,22 +27,79 @@ import java.util.List;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
+import java.util.zip.ZipEntry;
 
 /**
  * @version $Rev$ $Date: 2012/05/03 13:43:16 $
  */
-public class JarArchive implements Archive {
+public class JarArchive implements ClassBytesArchive, Closeable {
 
     private final ClassLoader loader;
     private final URL url;
 
+    // opened on first read, kept open until close() so every class is read from the same file
+    private JarFile jarFile;
+
     public JarArchive(ClassLoader loader, URL url) {
         if (!"jar".equals(url.getProtocol())) throw new IllegalArgumentException("not a file url: " + url);
         this.loader = loader;
         this.url = url;
     }
 
+    public URL getUrl() {
+        return url;
+    }
+
     public InputStream getBytecode(String className) throws IOException, ClassNotFoundException {
+        className = resourceName(className);
+
+        URL resource = loader.getResource(className);
+        if (resource != null) return resource.openStream();
+
+        throw new ClassNotFoundException(className);
+    }
+
+    /**
+     * Reads the class from the jar file itself, without any class loader lookup.
+     */
+    public boolean readBytecode(String className, ClassBytes bytes) throws IOException {
+        JarFile jar = jarFile();
+        if (jar == null) return false;
+
+        ZipEntry entry = jar.getEntry(resourceName(className));
+        if (entry == null) return false;
+
+        bytes.read(jar.getInputStream(entry), entry.getSize());
+        return true;
+    }
+
+    private synchronized JarFile jarFile() throws IOException {
+        if (jarFile == null) {
+            String jarPath = url.getFile();
+            if (jarPath.indexOf("!") > -1){
+                jarPath = jarPath.substring(0, jarPath.indexOf("!"));
+            }
+            URL location = new URL(jarPath);
+            if (!"file".equals(location.getProtocol())) return null;
+
+            jarFile = new JarFile(location.getFile().replace("%20", " "));
+        }
+        return jarFile;
+    }
+
+    /**
+     * Closes the jar file opened to read the classes, it is opened again if needed.
+     */
+    public synchronized void close() throws IOException {
+        if (jarFile == null) return;
+        try {
+            jarFile.close();
+        } finally {
+            jarFile = null;
+        }
+    }
+
+    private static String resourceName(String className) {
         int pos = className.indexOf("<");
         if (pos > -1) {
             className = className.substring(0, pos);
@@ -53,11 +111,7 @@ public class JarArchive implements Archive {
         if (!className.endsWith(".class")) {
             className = className.replace('.', '/') + ".class";
         }
-
-        URL resource = loader.getResource(className);
-        if (resource != null) return resource.openStream();
-
-        throw new ClassNotFoundException(className);
+        return className;
     }
 
 
@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.xbean.finder.util;
+
+import java.util.AbstractList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * List of values kept once in a shared {@link Table}, each element is only the
+ * int index of its value in the table.  Many lists holding the same few values
+ * cost an int per element and no array at all while empty.
+ *
+ * Like ArrayList it is not thread safe, the table is and its reads do not lock.
+ */
+public class IndexedList<E> extends AbstractList<E> {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final Table<E> table;
+    private int[] indexes = EMPTY;
+    private int size = 0;
+
+    public IndexedList(Table<E> table) {
+        this.table = table;
+    }
+
+    @Override
+    public E get(int index) {
+        rangeCheck(index, size);
+        return table.get(indexes[index]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public E set(int index, E element) {
+        rangeCheck(index, size);
+        final E previous = table.get(indexes[index]);
+        indexes[index] = table.index(element);
+        return previous;
+    }
+
+    @Override
+    public void add(int index, E element) {
+        rangeCheck(index, size + 1);
+        final int value = table.index(element);
+        if (size == indexes.length) {
+            // grow by one, the lists rarely change once read
+            final int[] grown = new int[size + 1];
+            System.arraycopy(indexes, 0, grown, 0, index);
+            System.arraycopy(indexes, index, grown, index + 1, size - index);
+            indexes = grown;
+        } else {
+            System.arraycopy(indexes, index, indexes, index + 1, size - index);
+        }
+        indexes[index] = value;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public E remove(int index) {
+        rangeCheck(index, size);
+        final E previous = table.get(indexes[index]);
+        System.arraycopy(indexes, index + 1, indexes, index, size - index - 1);
+        size--;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        indexes = EMPTY;
+        size = 0;
+        modCount++;
+    }
+
+    private static void rangeCheck(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Values shared by the lists, each value is stored once whatever the number of
+     * lists holding it.  Values are told apart by identity, so callers wanting a
+     * single entry per value pass the same instance each time.
+     *
+     * Adding a value copies the array of values, reads do not lock: there are few
+     * distinct values and they are read far more often than added.
+     */
+    public static class Table<E> {
+
+        private static final Object[] EMPTY = new Object[0];
+
+        private volatile Object[] values = EMPTY;
+        private final Map<E, Integer> indexes = new IdentityHashMap<E, Integer>();
+
+        public synchronized int index(E value) {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                final Object[] current = values;
+                final Object[] copy = new Object[current.length + 1];
+                System.arraycopy(current, 0, copy, 0, current.length);
+                index = current.length;
+                copy[index] = value;
+                indexes.put(value, index);
+                values = copy;
+            }
+            return index;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E get(int index) {
+            final Object[] current = values;
+            rangeCheck(index, current.length);
+            return (E) current[index];
+        }
+
+        public int size() {
+            return values.length;
+        }
+    }
+}